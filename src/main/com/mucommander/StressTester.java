@@ -32,6 +32,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.core.ListingCache;
 import com.mucommander.ui.action.ActionManager;
 import com.mucommander.ui.main.FolderPanel;
 import com.mucommander.ui.main.MainFrame;
@@ -72,7 +73,7 @@ public class StressTester implements Runnable, ActionListener {
 
             try {
                 AbstractFile parentFolder = currentFolder.getParent();
-                AbstractFile children[] = currentFolder.ls();
+                AbstractFile children[] = ListingCache.getInstance().ls(currentFolder);
                 // 1 in 3 chance to go up if folder has children
                 if(children.length==0 || (random.nextInt(3)==0 && parentFolder!=null)) {
                     fileTable.selectRow(0);
@@ -84,7 +85,7 @@ public class StressTester implements Runnable, ActionListener {
                         continue;
                     // Try to ls() in RandomChild to trigger an IOException if folder is not readable
                     // so that no error dialog pops up when calling tryChangeCurrentFolder()
-                    randomChild.ls();
+                    ListingCache.getInstance().ls(randomChild);
                     fileTable.selectFile(randomChild);
                     ActionManager.performAction(com.mucommander.ui.action.impl.OpenAction.Descriptor.ACTION_ID, mainFrame);
                     //					folderPanel.tryChangeCurrentFolder(randomChild, true);
@@ -60,6 +60,8 @@ public enum MuPreference {
 	USE_SYSTEM_FILE_ICONS(MuPreferences.USE_SYSTEM_FILE_ICONS),
 	SHOW_FOLDERS_FIRST(MuPreferences.SHOW_FOLDERS_FIRST),
 	CD_FOLLOWS_SYMLINKS(MuPreferences.CD_FOLLOWS_SYMLINKS),
+	PREFETCH_LISTINGS(MuPreferences.PREFETCH_LISTINGS),
+	QUICK_SEARCH_FILTERS_ROWS(MuPreferences.QUICK_SEARCH_FILTERS_ROWS),
 	USE_BRUSHED_METAL(MuPreferences.USE_BRUSHED_METAL),
 	USE_SCREEN_MENU_BAR(MuPreferences.USE_SCREEN_MENU_BAR),
 	STARTUP_FOLDERS(MuPreferences.STARTUP_FOLDERS),
@@ -67,8 +69,16 @@ public enum MuPreference {
 	RIGHT_CUSTOM_FOLDER(MuPreferences.RIGHT_CUSTOM_FOLDER),
 	REFRESH_CHECK_PERIOD(MuPreferences.REFRESH_CHECK_PERIOD),
 	WAIT_AFTER_REFRESH(MuPreferences.WAIT_AFTER_REFRESH),
+	WATCH_FOLDERS(MuPreferences.WATCH_FOLDERS),
 	PROGRESS_DIALOG_EXPANDED(MuPreferences.PROGRESS_DIALOG_EXPANDED),
 	PROGRESS_DIALOG_CLOSE_WHEN_FINISHED(MuPreferences.PROGRESS_DIALOG_CLOSE_WHEN_FINISHED),
+	PARALLEL_TRANSFERS(MuPreferences.PARALLEL_TRANSFERS),
+	INTEGRITY_CHECK_MODE(MuPreferences.INTEGRITY_CHECK_MODE),
+	PRESCAN_TRANSFERS(MuPreferences.PRESCAN_TRANSFERS),
+	PIPELINE_DEPTH(MuPreferences.PIPELINE_DEPTH),
+	PIPELINE_BUFFER_SIZE(MuPreferences.PIPELINE_BUFFER_SIZE),
+	JOURNAL_TRANSFERS(MuPreferences.JOURNAL_TRANSFERS),
+	PARALLEL_DELETES(MuPreferences.PARALLEL_DELETES),
 	THEME_TYPE(MuPreferences.THEME_TYPE),
 	THEME_NAME(MuPreferences.THEME_NAME),
 	ENABLE_BONJOUR_DISCOVERY(MuPreferences.ENABLE_BONJOUR_DISCOVERY),
@@ -232,6 +232,14 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String  CD_FOLLOWS_SYMLINKS                = FILE_TABLE_SECTION + '.' + "cd_follows_symlinks";
 	/** Default value for 'Follow symlinks when changing directory' option. */
 	public static final boolean DEFAULT_CD_FOLLOWS_SYMLINKS        = false;
+	/** Whether the listings of the folders likely to be visited next should be fetched in advance. */
+	public static final String  PREFETCH_LISTINGS                  = FILE_TABLE_SECTION + '.' + "prefetch_listings";
+	/** Default value for 'Prefetch folder listings' option. */
+	public static final boolean DEFAULT_PREFETCH_LISTINGS          = true;
+	/** Whether quick search hides the files that do not match the search string, instead of only selecting the best match. */
+	public static final String  QUICK_SEARCH_FILTERS_ROWS          = FILE_TABLE_SECTION + '.' + "quick_search_filters_rows";
+	/** Default value for 'Quick search filters rows' option. */
+	public static final boolean DEFAULT_QUICK_SEARCH_FILTERS_ROWS  = false;
 	/** Whether to always show the header of a single tab or not */
 	public static final String SHOW_SINGLE_TAB_HEADER			   = FILE_TABLE_SECTION + '.' + "show_single_tab_header";
 	/** Default value for 'Always show single tab header" */
@@ -293,6 +301,10 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String WAIT_AFTER_REFRESH                 = REFRESH_SECTION + '.' + "wait_after_refresh";
 	/** Default minimum amount of time between two refreshes. */
 	public static final long   DEFAULT_WAIT_AFTER_REFRESH         = 10000;
+	/** Whether local folders are watched for changes rather than checked periodically. */
+	public static final String  WATCH_FOLDERS                     = REFRESH_SECTION + '.' + "watch_folders";
+	/** Default folder watching behavior. */
+	public static final boolean DEFAULT_WATCH_FOLDERS             = true;
 
 
 
@@ -311,6 +323,52 @@ public class MuPreferences implements MuPreferencesAPI {
 
 
 
+	// - File transfer variables ---------------------------------------------
+	// -----------------------------------------------------------------------
+	/** Section describing the behavior of file transfers. */
+	public static final String  FILE_TRANSFER_SECTION             = "file_transfer";
+	/** Maximum number of files copied or moved concurrently, 1 to transfer files one at a time. The value can be
+	 * overridden for a given protocol by suffixing the variable with '.' and the protocol's scheme. */
+	public static final String  PARALLEL_TRANSFERS                = FILE_TRANSFER_SECTION + '.' + "parallel_transfers";
+	/** Default number of files copied or moved concurrently. */
+	public static final int     DEFAULT_PARALLEL_TRANSFERS        = 1;
+	/** Describes how transferred files are verified, when verification is enabled. */
+	public static final String  INTEGRITY_CHECK_MODE              = FILE_TRANSFER_SECTION + '.' + "integrity_check_mode";
+	/** Integrity check: the checksum of the whole destination file is compared with the checksum of the source file. */
+	public static final String  INTEGRITY_CHECK_FULL              = "full";
+	/** Spot check, not an integrity check: only the size and a few blocks of the destination file are compared with
+	 * the bytes read from the source file. */
+	public static final String  INTEGRITY_CHECK_SPOT              = "spot_check";
+	/** Default integrity check mode. */
+	public static final String  DEFAULT_INTEGRITY_CHECK_MODE      = INTEGRITY_CHECK_FULL;
+	/** Whether the files are scanned in the background when a transfer starts, to report byte-weighted progress. */
+	public static final String  PRESCAN_TRANSFERS                 = FILE_TRANSFER_SECTION + '.' + "prescan";
+	/** Default pre-scan behavior. */
+	public static final boolean DEFAULT_PRESCAN_TRANSFERS         = false;
+	/** Number of buffers the source file is read ahead in when transferring files between remote protocols, less than
+	 * 2 to read and write files on the same thread. The value can be overridden for a given protocol by suffixing the
+	 * variable with '.' and the protocol's scheme. */
+	public static final String  PIPELINE_DEPTH                    = FILE_TRANSFER_SECTION + '.' + "pipeline_depth";
+	/** Default number of read ahead buffers. */
+	public static final int     DEFAULT_PIPELINE_DEPTH            = 4;
+	/** Size in bytes of the read ahead buffers. The value can be overridden for a given protocol by suffixing the
+	 * variable with '.' and the protocol's scheme. */
+	public static final String  PIPELINE_BUFFER_SIZE              = FILE_TRANSFER_SECTION + '.' + "pipeline_buffer_size";
+	/** Default size of the read ahead buffers. */
+	public static final int     DEFAULT_PIPELINE_BUFFER_SIZE      = 128*1024;
+	/** Whether copy jobs record their progress in a journal, so that they can be resumed after being interrupted. */
+	public static final String  JOURNAL_TRANSFERS                 = FILE_TRANSFER_SECTION + '.' + "journal";
+	/** Default journaling behavior. */
+	public static final boolean DEFAULT_JOURNAL_TRANSFERS         = true;
+	/** Maximum number of threads deleting the contents of a folder concurrently when files are permanently deleted, 1
+	 * to delete files one at a time. The value can be overridden for a given protocol by suffixing the variable with '.'
+	 * and the protocol's scheme. */
+	public static final String  PARALLEL_DELETES                  = FILE_TRANSFER_SECTION + '.' + "parallel_deletes";
+	/** Default number of threads deleting files concurrently. */
+	public static final int     DEFAULT_PARALLEL_DELETES          = 1;
+
+
+
 	// - Variables used for themes -------------------------------------------
 	// -----------------------------------------------------------------------
 	/** Section controlling which theme should be applied to muCommander. */
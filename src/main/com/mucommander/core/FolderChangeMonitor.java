@@ -22,6 +22,7 @@ import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +32,7 @@ import com.mucommander.commons.file.FileProtocols;
 import com.mucommander.commons.file.filter.AbstractFileFilter;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.filter.OrFileFilter;
+import com.mucommander.commons.runtime.JavaVersion;
 import com.mucommander.conf.MuConfigurations;
 import com.mucommander.conf.MuPreference;
 import com.mucommander.conf.MuPreferences;
@@ -42,6 +44,12 @@ import com.mucommander.ui.main.FolderPanel;
 /**
  * This file monitors changes in the current folder of a FolderPanel, checking periodically if the current folder's
  * date has changed. If a change has been detected, the FolderPanel will be asked to refresh its current folder.
+ *
+ * <p>Local folders are watched using the file system's change notifications instead (see {@link FolderWatcher}),
+ * which also reports files modified in place. The notifications received in a short amount of time are coalesced
+ * into a single refresh. Watching folders requires Java 1.7 or higher. Folders that cannot be watched, remote folders and
+ * folders of network or FUSE file systems in particular, are still checked periodically. Watched folders are checked as
+ * well, though much less often, in case a change is not notified.
  * 
  * <p>If the MainFrame which contains the monitored FolderPanel becomes inactive (lies in the background), monitoring
  * on will be not happen until the MainFrame becomes active again.
@@ -82,6 +90,18 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     /** Number of checks in current folder */
     private int nbSamples = 0;
 
+    /**
+     * Key of the current folder if it is watched for changes rather than checked periodically, null otherwise. The key
+     * is a <code>java.nio.file.WatchKey</code>, which is not referenced here so that this class loads before Java 1.7.
+     */
+    private volatile Object watchKey;
+
+    /** Time at which the first change notification not followed by a refresh yet was received, 0 if there is none */
+    private volatile long firstEventTimestamp;
+
+    /** Time at which the last change notification was received */
+    private volatile long lastEventTimestamp;
+
 	
     //////////////////////
     // Static variables //
@@ -100,6 +120,18 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
 	
     /** Delay in milliseconds before folder date check after a folder has been refreshed */
     private static long waitAfterRefresh;
+
+    /** True if local folders are watched for changes rather than checked periodically */
+    private static boolean watchFolders;
+
+    /** Number of change notifications received */
+    private final static AtomicLong nbEventsReceived = new AtomicLong();
+
+    /** Number of refreshes caused by change notifications */
+    private final static AtomicLong nbEventRefreshes = new AtomicLong();
+
+    /** Number of change notifications which did not cause a refresh of their own */
+    private final static AtomicLong nbRefreshesAvoided = new AtomicLong();
 	
     /** If folder change check took an average of N milliseconds, thread will wait at least N*WAIT_MULTIPLIER before next check */
     private final static int WAIT_MULTIPLIER = 50;
@@ -107,6 +139,12 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     /** Granularity of the thread check (number of milliseconds to sleep before next loop) */
     private final static int TICK = 300;
 
+    /** A watched folder is refreshed once no change notification has been received for this number of milliseconds */
+    private final static int EVENT_COALESCING_DELAY = 500;
+
+    /** Watched folders are checked this number of times less often than folders that are not watched */
+    private final static int WATCHED_FOLDER_CHECK_MULTIPLIER = 10;
+
     static {
         instances = new Vector<FolderChangeMonitor>();
 
@@ -115,6 +153,8 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
                                                        MuPreferences.DEFAULT_REFRESH_CHECK_PERIOD);
         waitAfterRefresh = MuConfigurations.getPreferences().getVariable(MuPreference.WAIT_AFTER_REFRESH,
                                                             MuPreferences.DEFAULT_WAIT_AFTER_REFRESH);
+        watchFolders = MuConfigurations.getPreferences().getVariable(MuPreference.WATCH_FOLDERS,
+                                                        MuPreferences.DEFAULT_WATCH_FOLDERS);
 
         disableAutoRefreshFilter.addFileFilter(new AbstractFileFilter() {
             public boolean accept(AbstractFile file) {
@@ -135,6 +175,45 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         disableAutoRefreshFilter.addFileFilter(filter);
     }
 
+    /**
+     * Returns <code>true</code> if auto-refresh is disabled for the given folder, because looking for changes in it or
+     * listing it involves a cost. Such folders should not be listed unless the user asks for it.
+     *
+     * @param folder a folder
+     * @return true if auto-refresh is disabled for the folder
+     */
+    static boolean isAutoRefreshDisabled(AbstractFile folder) {
+        return disableAutoRefreshFilter.match(folder);
+    }
+
+    /**
+     * Returns the number of change notifications received for the watched folders.
+     *
+     * @return the number of change notifications received
+     */
+    public static long getNbEventsReceived() {
+        return nbEventsReceived.get();
+    }
+
+    /**
+     * Returns the number of times a watched folder has been refreshed following change notifications.
+     *
+     * @return the number of refreshes caused by change notifications
+     */
+    public static long getNbEventRefreshes() {
+        return nbEventRefreshes.get();
+    }
+
+    /**
+     * Returns the number of change notifications that did not cause a refresh of their own, because they were
+     * coalesced with other notifications or the folder was refreshed in the meantime.
+     *
+     * @return the number of refreshes avoided
+     */
+    public static long getNbRefreshesAvoided() {
+        return nbRefreshesAvoided.get();
+    }
+
     public FolderChangeMonitor(FolderPanel folderPanel) {
 
         this.folderPanel = folderPanel;
@@ -144,6 +223,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
 
         this.currentFolder = folderPanel.getCurrentFolder();
         this.currentFolderDate = currentFolder.getDate();
+        this.watchKey = watch(currentFolder);
 
         // Folder contents is up-to-date let's wait before checking it for changes
         this.lastCheckTimestamp = System.currentTimeMillis();
@@ -187,6 +267,14 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
                 // - monitor is not paused
                 // - current folder is not being changed
                 if(monitor.folderPanel.getMainFrame().isForegroundActive() && !folderChanging && !monitor.paused) {
+                    // Watched folders are refreshed when they have been notified of changes, and only checked once
+                    // in a while in case a change was not notified
+                    if(monitor.watchKey!=null) {
+                        monitor.refreshIfNotified();
+                        if(System.currentTimeMillis()-Math.max(monitor.lastCheckTimestamp, monitor.folderPanel.getLastFolderChangeTime())<=checkPeriod*WATCHED_FOLDER_CHECK_MULTIPLIER)
+                            continue;
+                    }
+
                     // By checking FolderPanel.getLastFolderChangeTime(), we ensure that we don't check right after
                     // the folder has been refreshed.
                     if(System.currentTimeMillis()-Math.max(monitor.lastCheckTimestamp, monitor.folderPanel.getLastFolderChangeTime())>monitor.waitBeforeCheckTime) {
@@ -239,12 +327,96 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         this.currentFolder = folder;
         this.currentFolderDate = currentFolder.getDate();
 
+        // The new folder is watched before the previous one is unwatched, so that the key of a refreshed folder is
+        // kept rather than cancelled and recreated
+        Object oldWatchKey = watchKey;
+        watchKey = watch(folder);
+        if(oldWatchKey!=null)
+            FolderWatcher.unwatch(oldWatchKey, this);
+
+        // Changes notified before the folder was listed are already displayed
+        if(firstEventTimestamp!=0 && lastEventTimestamp<folderPanel.getLastFolderChangeTime()) {
+            firstEventTimestamp = 0;
+            nbRefreshesAvoided.incrementAndGet();
+        }
+
         // Reset time average
         totalCheckTime = 0;
         nbSamples = 0;
     }
 	
 	
+    /**
+     * Starts watching the given folder for changes if it is a local folder and watching folders is enabled and
+     * supported by the Java runtime.
+     *
+     * @param folder the folder to watch
+     * @return the key of the watched folder, <code>null</code> if the folder is to be checked periodically
+     */
+    private Object watch(AbstractFile folder) {
+        // FolderWatcher must not be loaded before Java 1.7
+        if(!watchFolders || checkPeriod<0 || JavaVersion.JAVA_1_7.isCurrentLower() || disableAutoRefreshFilter.match(folder))
+            return null;
+
+        return FolderWatcher.watch(folder, this);
+    }
+
+    /**
+     * Called by {@link FolderWatcher} when change notifications have been received for the folder of the given key.
+     *
+     * @param key the key of the folder that has changed
+     * @param nbEvents number of change notifications received
+     * @param valid <code>false</code> if the folder can no longer be watched, because it has been deleted for instance
+     */
+    void folderChanged(Object key, int nbEvents, boolean valid) {
+        // Notifications for a previous folder
+        if(key!=watchKey)
+            return;
+
+        nbEventsReceived.addAndGet(nbEvents);
+
+        long now = System.currentTimeMillis();
+        if(firstEventTimestamp==0) {
+            firstEventTimestamp = now;
+            nbRefreshesAvoided.addAndGet(Math.max(nbEvents-1, 0));
+        }
+        else {
+            nbRefreshesAvoided.addAndGet(nbEvents);
+        }
+        lastEventTimestamp = now;
+
+        // Folders open in other panels or in the tree must not be displayed from a stale listing
+        ListingCache.getInstance().invalidate(currentFolder.getURL());
+
+        // Check the folder periodically from now on, its date will be 0 if it no longer exists which yields a refresh
+        if(!valid)
+            watchKey = null;
+    }
+
+    /**
+     * Refreshes the current folder if change notifications have been received since it was last refreshed, and no
+     * notification has been received for a little while. A folder that keeps changing is refreshed every
+     * {@link #checkPeriod} milliseconds.
+     */
+    private void refreshIfNotified() {
+        long firstEvent = firstEventTimestamp;
+        if(firstEvent==0)
+            return;
+
+        long now = System.currentTimeMillis();
+        if(now-lastEventTimestamp<EVENT_COALESCING_DELAY && now-firstEvent<checkPeriod)
+            return;
+
+        firstEventTimestamp = 0;
+        nbEventRefreshes.incrementAndGet();
+        LOGGER.debug(this+" ("+currentFolder.getName()+") Notified of changes in current folder, refreshing table! ("
+                     +nbEventsReceived.get()+" notifications, "+nbEventRefreshes.get()+" refreshes, "
+                     +nbRefreshesAvoided.get()+" refreshes avoided so far)");
+
+        // Try and refresh current folder in a separate thread as to not lock monitor thread
+        folderPanel.tryRefreshCurrentFolder();
+    }
+
     /**
      * Checks if current file table's folder has changed and if it hasn't, checks if current folder's date has changed
      * and if it has, refresh the file table.
@@ -269,6 +441,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         // what we want (the folder will be changed to a 'workable' folder).
         if(date!=currentFolderDate) {
             LOGGER.debug(this+" ("+currentFolder.getName()+") Detected changes in current folder, refreshing table!");
+            ListingCache.getInstance().invalidate(currentFolder.getURL());
 			
             // Try and refresh current folder in a separate thread as to not lock monitor thread
             folderPanel.tryRefreshCurrentFolder();
@@ -321,6 +494,11 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     public void windowClosed(WindowEvent e) {
         // Remove the MainFrame from the list of monitored instances
         instances.remove(this);
+
+        Object key = watchKey;
+        watchKey = null;
+        if(key!=null)
+            FolderWatcher.unwatch(key, this);
         LOGGER.debug("nbInstances="+instances.size());
     }	
 	
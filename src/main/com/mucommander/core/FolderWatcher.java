@@ -0,0 +1,212 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * Watches local folders for changes using the file system's change notification mechanism (inotify on Linux), and
+ * notifies the {@link FolderChangeMonitor} instances of the folders that have changed.
+ *
+ * <p>All folders are watched by a single thread, which is started when the first folder is watched. The same folder
+ * may be watched by several monitors, in which case they share the same {@link WatchKey}.</p>
+ *
+ * <p>Folders of network and FUSE file systems are not watched: changes made by other machines are not notified, or
+ * notifications are not supported at all. This class requires Java 1.7 or higher, and must not be loaded otherwise:
+ * keys are passed to {@link FolderChangeMonitor} as plain objects.</p>
+ */
+class FolderWatcher implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FolderWatcher.class);
+
+    /** The watch service, null until the first folder is watched */
+    private static WatchService watchService;
+
+    /** True if the watch service could not be created, in which case folders cannot be watched */
+    private static boolean unavailable;
+
+    /** Types of the file systems whose folders are not watched, in addition to FUSE file systems */
+    private final static Set<String> UNWATCHED_FILE_SYSTEMS = new HashSet<String>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smbfs", "smb2", "smb3", "afpfs", "webdav", "davfs", "ncpfs", "9p", "afs", "coda",
+            "ceph", "glusterfs", "lustre", "gpfs", "sshfs"));
+
+    /** Monitors notified of the changes of each watched folder */
+    private final static Map<WatchKey, List<FolderChangeMonitor>> monitors = new HashMap<WatchKey, List<FolderChangeMonitor>>();
+
+    private FolderWatcher() {
+    }
+
+    /**
+     * Starts watching the given folder on behalf of the given monitor, which will be notified when files are created,
+     * deleted or modified in the folder.
+     *
+     * @param folder the folder to watch
+     * @param monitor the monitor to notify of the folder's changes
+     * @return the key of the watched folder, <code>null</code> if the folder is not a local folder or cannot be
+     * watched, in which case it has to be polled for changes
+     */
+    static synchronized Object watch(AbstractFile folder, FolderChangeMonitor monitor) {
+        Object underlyingFolder = folder.getUnderlyingFileObject();
+        if(!(underlyingFolder instanceof File) || !getWatchService())
+            return null;
+
+        WatchKey key;
+        try {
+            Path path = ((File)underlyingFolder).toPath();
+            if(!isWatchable(path)) {
+                LOGGER.debug(folder+" is not on a local file system, folder will be polled for changes");
+                return null;
+            }
+
+            // Registering a folder which is already watched returns the existing key
+            key = path.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch(Exception e) {
+            // Archives are not folders of the file system, for instance
+            LOGGER.debug("Could not watch "+folder+", folder will be polled for changes", e);
+            return null;
+        }
+
+        List<FolderChangeMonitor> keyMonitors = monitors.get(key);
+        if(keyMonitors==null) {
+            keyMonitors = new ArrayList<FolderChangeMonitor>(2);
+            monitors.put(key, keyMonitors);
+        }
+        keyMonitors.add(monitor);
+
+        return key;
+    }
+
+    /**
+     * Stops watching the folder of the given key on behalf of the given monitor. The folder is no longer watched once
+     * no monitor watches it anymore.
+     *
+     * @param key the key returned by {@link #watch(AbstractFile, FolderChangeMonitor)}
+     * @param monitor the monitor that no longer needs to be notified of the folder's changes
+     */
+    static synchronized void unwatch(Object key, FolderChangeMonitor monitor) {
+        List<FolderChangeMonitor> keyMonitors = monitors.get(key);
+        if(keyMonitors==null)
+            return;
+
+        keyMonitors.remove(monitor);
+        if(keyMonitors.isEmpty()) {
+            monitors.remove(key);
+            ((WatchKey)key).cancel();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given folder is on a file system whose changes are notified, that is a local
+     * file system other than a FUSE file system.
+     *
+     * @throws IOException if the file system of the folder could not be determined
+     */
+    private static boolean isWatchable(Path path) throws IOException {
+        String type = Files.getFileStore(path).type().toLowerCase(Locale.ENGLISH);
+        return !type.startsWith("fuse") && !UNWATCHED_FILE_SYSTEMS.contains(type);
+    }
+
+    /**
+     * Creates the watch service and starts the watching thread if that hasn't been done already.
+     *
+     * @return <code>true</code> if the watch service is available
+     */
+    private static boolean getWatchService() {
+        if(watchService==null && !unavailable) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+            }
+            catch(IOException e) {
+                LOGGER.info("Folder change notifications are not available, folders will be polled for changes", e);
+                unavailable = true;
+                return false;
+            }
+
+            Thread watcherThread = new Thread(new FolderWatcher(), FolderWatcher.class.getName());
+            watcherThread.setDaemon(true);
+            watcherThread.start();
+        }
+
+        return !unavailable;
+    }
+
+    /**
+     * Returns the monitors notified of the changes of the given key's folder.
+     */
+    private static synchronized FolderChangeMonitor[] getMonitors(WatchKey key) {
+        List<FolderChangeMonitor> keyMonitors = monitors.get(key);
+        if(keyMonitors==null)
+            return new FolderChangeMonitor[0];
+
+        // The folder has been deleted or has become inaccessible
+        if(!key.isValid())
+            monitors.remove(key);
+
+        return keyMonitors.toArray(new FolderChangeMonitor[keyMonitors.size()]);
+    }
+
+
+    public void run() {
+        while(true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            }
+            catch(InterruptedException e) {
+                continue;
+            }
+            catch(ClosedWatchServiceException e) {
+                return;
+            }
+
+            // Several events are usually queued by the time the key is signalled, they are all reported at once.
+            // Overflow events (too many events to be queued) are counted as well, the folder has changed anyway.
+            List<WatchEvent<?>> events = key.pollEvents();
+            boolean valid = key.reset();
+
+            for(FolderChangeMonitor monitor : getMonitors(key))
+                monitor.folderChanged(key, events.size(), valid);
+        }
+    }
+}
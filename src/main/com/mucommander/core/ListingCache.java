@@ -0,0 +1,328 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileProtocols;
+import com.mucommander.commons.file.FileURL;
+
+/**
+ * Keeps the recent listings of folders, so that a folder is not listed again when it is displayed by another panel or
+ * tab, expanded in the folders tree, or completed in a location field shortly after it has been listed. This is
+ * especially valuable for remote folders, whose listings are also prefetched by {@link ListingPrefetcher}.
+ *
+ * <p>A listing is discarded when the date of its folder changes, when the folder is notified to have changed by
+ * {@link FolderChangeMonitor}, and when it expires: listings of local folders expire quickly, as local folders can be
+ * listed quickly and the files they contain may change without their date changing, while listings of remote
+ * folders are kept for {@link #DEFAULT_TIME_TO_LIVE} milliseconds unless another time to live is set for their
+ * scheme. The cache is bounded both in number of folders and in total number of files: the least recently used
+ * listings are discarded first.</p>
+ */
+public class ListingCache {
+
+    private final static ListingCache instance = new ListingCache();
+
+    /** Number of milliseconds after which the listing of a remote folder expires, by default */
+    public final static long DEFAULT_TIME_TO_LIVE = 60000;
+
+    /** Number of milliseconds after which the listing of a local folder expires */
+    public final static long LOCAL_TIME_TO_LIVE = 2000;
+
+    /** Maximum number of folders in the cache */
+    private final static int MAX_FOLDERS = 64;
+
+    /** Maximum total number of files in the cache */
+    private final static int MAX_FILES = 100000;
+
+    /** Listings by folder URL, the least recently used first */
+    private final LinkedHashMap<FileURL, Listing> listings = new LinkedHashMap<FileURL, Listing>(16, 0.75f, true);
+
+    /** Time to live of listings by scheme, for the schemes whose time to live is not the default one */
+    private final Map<String, Long> timesToLive = new HashMap<String, Long>();
+
+    /** Total number of files in the cache */
+    private int nbFiles;
+
+    /** Number of listings found in the cache */
+    private long nbHits;
+
+    /** Number of listings that were not in the cache, or had expired or been invalidated */
+    private long nbMisses;
+
+    /** Number of listings discarded because their folder has changed */
+    private long nbInvalidations;
+
+    /** Number of listings discarded to make room for more recent ones */
+    private long nbEvictions;
+
+    private ListingCache() {
+        timesToLive.put(FileProtocols.FILE, LOCAL_TIME_TO_LIVE);
+    }
+
+    public static ListingCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns <code>true</code> if the given folder is a remote folder, which is slow to list. The listings of such
+     * folders are displayed by the file table from the cache, and prefetched.
+     *
+     * @param folder a folder
+     * @return true if the given folder is a remote folder
+     */
+    public static boolean isRemote(AbstractFile folder) {
+        return isRemote(folder.getURL());
+    }
+
+    /**
+     * Returns <code>true</code> if the given URL is the URL of a remote folder, which is slow to list.
+     *
+     * @param folderURL the URL of a folder
+     * @return true if the given URL is the URL of a remote folder
+     */
+    public static boolean isRemote(FileURL folderURL) {
+        return !FileProtocols.FILE.equals(folderURL.getScheme());
+    }
+
+    /**
+     * Sets the number of milliseconds after which the listings of the folders with the given scheme expire.
+     *
+     * @param scheme a URL scheme, see {@link FileProtocols}
+     * @param timeToLive number of milliseconds after which listings expire, 0 for the folders not to be cached
+     */
+    public synchronized void setTimeToLive(String scheme, long timeToLive) {
+        timesToLive.put(scheme, timeToLive);
+    }
+
+    /**
+     * Returns the number of milliseconds after which the listings of the folders with the given scheme expire.
+     *
+     * @param scheme a URL scheme, see {@link FileProtocols}
+     * @return number of milliseconds after which listings expire
+     */
+    public synchronized long getTimeToLive(String scheme) {
+        Long timeToLive = timesToLive.get(scheme);
+        return timeToLive==null ? DEFAULT_TIME_TO_LIVE : timeToLive;
+    }
+
+    /**
+     * Returns the files of the given folder, from the cache if its listing is there and still valid. Otherwise, the
+     * folder is listed and its listing stored in the cache. The returned array must not be modified.
+     *
+     * @param folder the folder to list
+     * @return the files of the folder, unfiltered
+     * @throws IOException if the folder could not be listed
+     */
+    public AbstractFile[] ls(AbstractFile folder) throws IOException {
+        AbstractFile children[] = get(folder);
+        if(children==null) {
+            children = folder.ls();
+            put(folder, children);
+        }
+
+        return children;
+    }
+
+    /**
+     * Returns the listing of the given folder if it is in the cache and still valid. The returned array must not be
+     * modified.
+     *
+     * @param folder a folder
+     * @return the files of the folder, unfiltered, <code>null</code> if the folder's listing is not in the cache
+     */
+    public AbstractFile[] get(AbstractFile folder) {
+        // The folder's date may require I/O, it is retrieved before locking the cache
+        long folderDate = folder.getDate();
+
+        synchronized(this) {
+            Listing listing = getListing(folder.getURL(), folderDate);
+            if(listing==null) {
+                nbMisses++;
+                return null;
+            }
+
+            nbHits++;
+            return listing.children;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the listing of the given folder is in the cache and still valid.
+     *
+     * @param folder a folder
+     * @return true if the given folder's listing is in the cache
+     */
+    public boolean contains(AbstractFile folder) {
+        long folderDate = folder.getDate();
+
+        synchronized(this) {
+            return getListing(folder.getURL(), folderDate)!=null;
+        }
+    }
+
+    /**
+     * Stores the listing of the given folder, which has just been listed.
+     *
+     * @param folder the folder
+     * @param children the files of the folder, unfiltered
+     */
+    public void put(AbstractFile folder, AbstractFile children[]) {
+        FileURL folderURL = folder.getURL();
+        if(children.length>MAX_FILES || getTimeToLive(folderURL.getScheme())<=0)
+            return;
+
+        // The folder's date may require I/O, it is retrieved before locking the cache
+        Listing listing = new Listing(children, folder.getDate());
+
+        synchronized(this) {
+            Listing oldListing = listings.put(folderURL, listing);
+            if(oldListing!=null)
+                nbFiles -= oldListing.children.length;
+            nbFiles += children.length;
+
+            // Discard the least recently used listings
+            Iterator<Listing> iterator = listings.values().iterator();
+            while(listings.size()>MAX_FOLDERS || nbFiles>MAX_FILES) {
+                nbFiles -= iterator.next().children.length;
+                iterator.remove();
+                nbEvictions++;
+            }
+        }
+    }
+
+    /**
+     * Discards the listing of the folder with the given URL, if it is in the cache. This method should be called when
+     * the folder is known to have changed.
+     *
+     * @param folderURL the URL of a folder
+     */
+    public synchronized void invalidate(FileURL folderURL) {
+        if(remove(folderURL))
+            nbInvalidations++;
+    }
+
+    /**
+     * Returns the number of folders whose listing is in the cache.
+     *
+     * @return the number of folders in the cache
+     */
+    public synchronized int getNbFolders() {
+        return listings.size();
+    }
+
+    /**
+     * Returns the total number of files of the listings in the cache.
+     *
+     * @return the number of files in the cache
+     */
+    public synchronized int getNbFiles() {
+        return nbFiles;
+    }
+
+    /**
+     * Returns the number of times a listing was found in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getNbHits() {
+        return nbHits;
+    }
+
+    /**
+     * Returns the number of times a listing was not in the cache, or had expired or been invalidated.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getNbMisses() {
+        return nbMisses;
+    }
+
+    /**
+     * Returns the number of listings that have been discarded because their folder had changed.
+     *
+     * @return the number of invalidated listings
+     */
+    public synchronized long getNbInvalidations() {
+        return nbInvalidations;
+    }
+
+    /**
+     * Returns the number of listings that have been discarded to make room for more recent ones.
+     *
+     * @return the number of evicted listings
+     */
+    public synchronized long getNbEvictions() {
+        return nbEvictions;
+    }
+
+    /**
+     * Returns the listing of the given folder, discarding it if it has expired or if the folder's date has changed.
+     */
+    private Listing getListing(FileURL folderURL, long folderDate) {
+        Listing listing = listings.get(folderURL);
+        if(listing==null)
+            return null;
+
+        if(System.currentTimeMillis()-listing.timestamp>getTimeToLive(folderURL.getScheme())) {
+            remove(folderURL);
+            return null;
+        }
+
+        if(folderDate!=listing.folderDate) {
+            invalidate(folderURL);
+            return null;
+        }
+
+        return listing;
+    }
+
+    /**
+     * Discards the listing of the folder with the given URL, returns <code>true</code> if it was in the cache.
+     */
+    private boolean remove(FileURL folderURL) {
+        Listing listing = listings.remove(folderURL);
+        if(listing==null)
+            return false;
+
+        nbFiles -= listing.children.length;
+        return true;
+    }
+
+
+    /**
+     * The files of a folder, as of the time it was listed.
+     */
+    private static class Listing {
+        private final AbstractFile children[];
+        private final long folderDate;
+        private final long timestamp;
+
+        private Listing(AbstractFile children[], long folderDate) {
+            this.children = children;
+            this.folderDate = folderDate;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.core;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.auth.CredentialsManager;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.AuthenticationType;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+import com.mucommander.ui.event.LocationEvent;
+import com.mucommander.ui.event.LocationListener;
+import com.mucommander.ui.event.TableSelectionListener;
+import com.mucommander.ui.main.FolderPanel;
+import com.mucommander.ui.main.table.FileTable;
+
+/**
+ * Lists the folders that are likely to be visited next from a {@link FolderPanel} while the user idles on its current
+ * folder, and stores their listings in the {@link ListingCache}: the selected folder, the parent folder, the previous
+ * and next folders of the panel's history, and the last folders of the {@link GlobalLocationHistory}.
+ *
+ * <p>The folders are listed by a single background thread shared by all panels, one at a time. Prefetching is
+ * abandoned as soon as the selection or the current folder changes. Folders for which auto-refresh is disabled, because
+ * listing them involves a cost, are never prefetched.</p>
+ */
+public class ListingPrefetcher implements LocationListener, TableSelectionListener, ActionListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListingPrefetcher.class);
+
+    /** Number of milliseconds without selection or location change after which folders are prefetched */
+    private final static int IDLE_DELAY = 1000;
+
+    /** Number of folders of the global history that are prefetched */
+    private final static int NB_RECENT_LOCATIONS = 3;
+
+    /** Lists the prefetched and revalidated folders */
+    private final static ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Listing prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** The panel whose next locations are prefetched */
+    private FolderPanel folderPanel;
+
+    /** Starts prefetching once the user has been idle for IDLE_DELAY */
+    private Timer idleTimer;
+
+    /** Incremented whenever the selection or the current folder changes, so that outdated prefetches are abandoned */
+    private volatile int nbPrefetchRequests;
+
+    /**
+     * Creates a new prefetcher for the given panel, and starts listening to its selection and location changes.
+     *
+     * @param folderPanel the panel whose next locations will be prefetched
+     */
+    public ListingPrefetcher(FolderPanel folderPanel) {
+        this.folderPanel = folderPanel;
+
+        idleTimer = new Timer(IDLE_DELAY, this);
+        idleTimer.setRepeats(false);
+
+        folderPanel.getFileTable().addTableSelectionListener(this);
+        folderPanel.getLocationManager().addLocationListener(this);
+    }
+
+    /**
+     * Returns <code>true</code> if folder listings are prefetched and cached.
+     *
+     * @return true if folder listings are prefetched and cached
+     */
+    public static boolean isEnabled() {
+        return MuConfigurations.getPreferences().getVariable(MuPreference.PREFETCH_LISTINGS, MuPreferences.DEFAULT_PREFETCH_LISTINGS);
+    }
+
+    /**
+     * Lists the given folder in the background to check whether the given listing, which has been retrieved from the
+     * {@link ListingCache} and is displayed by the panel, is still up to date. If it is not, the cache is updated and
+     * the panel's current folder is refreshed.
+     *
+     * @param folderPanel the panel displaying the folder
+     * @param folder the folder to revalidate
+     * @param cachedChildren the listing of the folder that is displayed by the panel
+     */
+    public static void revalidate(final FolderPanel folderPanel, final AbstractFile folder, final AbstractFile cachedChildren[]) {
+        executor.execute(new Runnable() {
+            public void run() {
+                AbstractFile children[];
+                try {
+                    children = folder.ls();
+                }
+                catch(Exception e) {
+                    LOGGER.debug("Could not revalidate the listing of "+folder, e);
+                    return;
+                }
+
+                ListingCache.getInstance().put(folder, children);
+
+                if(isSameListing(cachedChildren, children))
+                    return;
+
+                // The panel may have moved on to another folder in the meantime
+                AbstractFile currentFolder = folderPanel.getCurrentFolder();
+                if(currentFolder==null || !currentFolder.equalsCanonical(folder))
+                    return;
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        folderPanel.tryRefreshCurrentFolder();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns <code>true</code> if both listings contain the same files, with the same type, size and date.
+     */
+    private static boolean isSameListing(AbstractFile oldChildren[], AbstractFile newChildren[]) {
+        if(oldChildren.length!=newChildren.length)
+            return false;
+
+        Map<String, AbstractFile> oldChildrenByName = new HashMap<String, AbstractFile>(oldChildren.length*2);
+        for(AbstractFile oldChild : oldChildren)
+            oldChildrenByName.put(oldChild.getName(), oldChild);
+
+        for(AbstractFile newChild : newChildren) {
+            AbstractFile oldChild = oldChildrenByName.get(newChild.getName());
+            if(oldChild==null
+                    || oldChild.isDirectory()!=newChild.isDirectory()
+                    || oldChild.getSize()!=newChild.getSize()
+                    || oldChild.getDate()!=newChild.getDate())
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Postpones prefetching until the user has been idle for {@link #IDLE_DELAY} milliseconds, and abandons the
+     * folders that are being prefetched.
+     */
+    private void restartIdleTimer() {
+        nbPrefetchRequests++;
+
+        if(isEnabled())
+            idleTimer.restart();
+        else
+            idleTimer.stop();
+    }
+
+
+    ///////////////////////////////////
+    // ActionListener implementation //
+    ///////////////////////////////////
+
+    public void actionPerformed(ActionEvent e) {
+        if(!folderPanel.getMainFrame().isForegroundActive())
+            return;
+
+        AbstractFile currentFolder = folderPanel.getCurrentFolder();
+        if(currentFolder==null)
+            return;
+
+        // Most likely next locations first
+        List<FileURL> locations = new ArrayList<FileURL>();
+        FileURL backFolders[] = folderPanel.getFolderHistory().getBackFolders();
+        if(backFolders.length>0)
+            locations.add(backFolders[0]);
+        FileURL forwardFolders[] = folderPanel.getFolderHistory().getForwardFolders();
+        if(forwardFolders.length>0)
+            locations.add(forwardFolders[0]);
+        // The most recent locations are the last ones
+        List<FileURL> recentLocations = GlobalLocationHistory.Instance().getHistory();
+        for(int i=recentLocations.size()-1; i>=Math.max(0, recentLocations.size()-NB_RECENT_LOCATIONS); i--)
+            locations.add(recentLocations.get(i));
+
+        executor.execute(new PrefetchTask(nbPrefetchRequests, currentFolder, folderPanel.getFileTable().getSelectedFile(), locations));
+    }
+
+
+    ///////////////////////////////////////////
+    // TableSelectionListener implementation //
+    ///////////////////////////////////////////
+
+    public void selectedFileChanged(FileTable source) {
+        restartIdleTimer();
+    }
+
+    public void markedFilesChanged(FileTable source) {
+    }
+
+
+    /////////////////////////////////////
+    // LocationListener implementation //
+    /////////////////////////////////////
+
+    public void locationChanging(LocationEvent locationEvent) {
+        nbPrefetchRequests++;
+        idleTimer.stop();
+    }
+
+    public void locationChanged(LocationEvent locationEvent) {
+        restartIdleTimer();
+    }
+
+    public void locationCancelled(LocationEvent locationEvent) {
+        restartIdleTimer();
+    }
+
+    public void locationFailed(LocationEvent locationEvent) {
+        restartIdleTimer();
+    }
+
+
+    /**
+     * Lists the next locations of a panel that are not in the cache yet, until the selection or the current folder
+     * of the panel changes.
+     */
+    private class PrefetchTask implements Runnable {
+        private final int prefetchRequest;
+        private final AbstractFile currentFolder;
+        private final AbstractFile selectedFile;
+        private final List<FileURL> locations;
+
+        private PrefetchTask(int prefetchRequest, AbstractFile currentFolder, AbstractFile selectedFile, List<FileURL> locations) {
+            this.prefetchRequest = prefetchRequest;
+            this.currentFolder = currentFolder;
+            this.selectedFile = selectedFile;
+            this.locations = locations;
+        }
+
+        public void run() {
+            if(selectedFile!=null)
+                prefetch(selectedFile);
+
+            if(!isOutdated())
+                prefetch(currentFolder.getParent());
+
+            for(FileURL location : locations) {
+                if(isOutdated())
+                    return;
+
+                // Do not attempt to log in to locations for which no credentials are known
+                if(!location.containsCredentials()
+                        && location.getAuthenticationType()==AuthenticationType.AUTHENTICATION_REQUIRED
+                        && CredentialsManager.getMatchingCredentials(location).length==0)
+                    continue;
+
+                // Local folders are not cached, no need to resolve them
+                AbstractFile folder = ListingCache.isRemote(location) ? FileFactory.getFile(location) : null;
+                if(folder!=null)
+                    prefetch(folder);
+            }
+        }
+
+        /**
+         * Returns <code>true</code> if the selection or the current folder has changed since this task was created.
+         */
+        private boolean isOutdated() {
+            return prefetchRequest!=nbPrefetchRequests;
+        }
+
+        /**
+         * Lists the given folder and stores its listing in the cache, unless it is already there.
+         */
+        private void prefetch(AbstractFile folder) {
+            if(folder==null || isOutdated())
+                return;
+
+            FileURL folderURL = folder.getURL();
+            ListingCache cache = ListingCache.getInstance();
+            if(!ListingCache.isRemote(folder) || cache.contains(folder) || folder.equalsCanonical(currentFolder))
+                return;
+
+            // Listing the folder may be billed, as with Amazon S3
+            if(FolderChangeMonitor.isAutoRefreshDisabled(folder))
+                return;
+
+            try {
+                // Archives are not prefetched, they would have to be downloaded
+                if(!folder.isDirectory())
+                    return;
+
+                cache.put(folder, folder.ls());
+                LOGGER.trace("Prefetched "+folderURL);
+            }
+            catch(Exception e) {
+                LOGGER.debug("Could not prefetch "+folderURL, e);
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ package com.mucommander.job;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.AbstractRWArchiveFile;
+import com.mucommander.commons.file.FileOperation;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.text.Translator;
 import com.mucommander.ui.dialog.file.FileCollisionDialog;
@@ -29,6 +30,9 @@ import com.mucommander.ui.main.MainFrame;
 
 import java.io.IOException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * This class is the parent class of {@link com.mucommander.job.CopyJob} and {@link com.mucommander.job.MoveJob} and
  * allows them to share methods and fields.
@@ -38,6 +42,7 @@ import java.io.IOException;
  * @see com.mucommander.job.MoveJob
  */
 public abstract class AbstractCopyJob extends TransferFileJob {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCopyJob.class);
     
     /** Base destination folder */
     protected AbstractFile baseDestFolder;
@@ -199,6 +204,24 @@ public abstract class AbstractCopyJob extends TransferFileJob {
         return destFile;
     }
     
+    /**
+     * Sets the given destination folder's date to match the original folder one.
+     *
+     * @param destFolder the destination folder
+     * @param folder the original folder
+     */
+    protected void changeFolderDate(AbstractFile destFolder, AbstractFile folder) {
+        if(destFolder.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
+            try {
+                destFolder.changeDate(folder.getDate());
+            }
+            catch (IOException e) {
+                LOGGER.debug("failed to change the date of "+destFolder, e);
+                // Fail silently
+            }
+        }
+    }
+
     /**
      * Optimizes the given writable archive file and notifies the user in case of an error.
      *
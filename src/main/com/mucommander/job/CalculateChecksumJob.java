@@ -22,12 +22,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.commons.io.ByteCounter;
 import com.mucommander.text.Translator;
 import com.mucommander.ui.dialog.file.FileCollisionDialog;
 import com.mucommander.ui.dialog.file.ProgressDialog;
@@ -59,34 +67,150 @@ import com.mucommander.ui.viewer.ViewerRegistrar;
  * </pre>
  * </p>
  *
+ * <p>Several checksums can be calculated at once, each with its own algorithm and checksum file: each file is read
+ * only once, its contents being fed to all the digests. Files are hashed concurrently by a pool of threads, whose
+ * size depends on the number of processors for local files and on the
+ * {@link com.mucommander.conf.MuPreferences#PARALLEL_TRANSFERS} preference for other protocols. The checksum files
+ * are written once all files have been hashed, in the order in which the files were found.</p>
+ *
  * @author Maxence Bernard
  */
 public class CalculateChecksumJob extends TransferFileJob {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CalculateChecksumJob.class);
-	
-    /** The checksum file where the checksum of each file is written */
-    private AbstractFile checksumFile;
-    /** The OutputStream of the checksum file */
-    private OutputStream checksumFileOut;
+
+    /** Maximum number of local files hashed concurrently, more would only make the disk seek */
+    private final static int MAX_LOCAL_HASHERS = 4;
+
+    /** Size of the buffer files are read with */
+    private final static int HASH_BUFFER_SIZE = 64*1024;
+
+    /** The checksum files where the checksum of each file is written, one per digest */
+    private AbstractFile checksumFiles[];
+    /** The OutputStreams of the checksum files */
+    private OutputStream checksumFileOuts[];
 
     /** The path to the base source folder, i.e. the folder which contains all the files this job operates on */
     private String baseSourcePath;
 
-    /** True if the SFV format is used rather than the default 'SUMS' format */
-    private boolean useSfvFormat;
+    /** For each digest, true if the SFV format is used rather than the default 'SUMS' format */
+    private boolean useSfvFormat[];
+
+    /** The MessageDigests that serve to calculate the checksums, used as prototypes by the hashing threads */
+    private MessageDigest digests[];
+
+    /** Maximum number of files hashed concurrently */
+    private int nbHashers;
 
-    /** The MessageDigest that serves to calculate the checksum */
-    private MessageDigest digest;
+    /** Hashes files, created when the job starts */
+    private ExecutorService hashers;
+
+    /** Files found so far, in the order they were found */
+    private List<HashedFile> hashedFiles = new ArrayList<HashedFile>();
+
+    /** Files that have been hashed, successfully or not, and that the job thread has not handled yet */
+    private final BlockingQueue<HashedFile> completedFiles = new LinkedBlockingQueue<HashedFile>();
+
+    /** Files being hashed, accessed while synchronized on the list */
+    private final List<HashedFile> activeFiles = new ArrayList<HashedFile>();
+
+    /** Number of submitted files that the job thread has not handled yet, accessed by the job thread only */
+    private int nbPendingFiles;
 
 
     public CalculateChecksumJob(ProgressDialog progressDialog, MainFrame mainFrame, FileSet files, AbstractFile checksumFile, MessageDigest digest) {
+        this(progressDialog, mainFrame, files, new AbstractFile[]{checksumFile}, new MessageDigest[]{digest});
+    }
+
+    /**
+     * Creates a new job calculating several checksums of the given files at once.
+     *
+     * @param checksumFiles the files the checksums are written to, one per digest
+     * @param digests the digests to calculate
+     */
+    public CalculateChecksumJob(ProgressDialog progressDialog, MainFrame mainFrame, FileSet files, AbstractFile checksumFiles[], MessageDigest digests[]) {
         super(progressDialog, mainFrame, files);
 
-        this.checksumFile = checksumFile;
-        this.digest = digest;
-        this.useSfvFormat = digest.getAlgorithm().equalsIgnoreCase("CRC32");
+        this.checksumFiles = checksumFiles;
+        this.checksumFileOuts = new OutputStream[checksumFiles.length];
+        this.digests = digests;
+        this.useSfvFormat = new boolean[digests.length];
+        for(int i=0; i<digests.length; i++)
+            useSfvFormat[i] = digests[i].getAlgorithm().equalsIgnoreCase("CRC32");
 
         this.baseSourcePath = getBaseSourceFolder().getAbsolutePath(true);
+
+        AbstractFile baseSourceFolder = getBaseSourceFolder();
+        nbHashers = getConfiguredParallelTransfers(baseSourceFolder, null);
+        if(baseSourceFolder.hasAncestor(LocalFile.class))
+            nbHashers = Math.max(nbHashers, Math.min(MAX_LOCAL_HASHERS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns a new digest using the same algorithm as the given one.
+     */
+    private static MessageDigest newDigest(MessageDigest prototype) throws IOException {
+        try {
+            return (MessageDigest)prototype.clone();
+        }
+        catch(CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(prototype.getAlgorithm());
+            }
+            catch(NoSuchAlgorithmException e2) {
+                throw new IOException(e2.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the throughput limit of each hashing thread, so that their combined throughput does not exceed the
+     * job's limit.
+     */
+    private long getHasherThroughputLimit() {
+        if(getState()==PAUSED)
+            return 0;
+
+        long throughputLimit = getThroughputLimit();
+        if(throughputLimit<=0)
+            return -1;
+
+        return Math.max(1, throughputLimit/nbHashers);
+    }
+
+    /**
+     * Hands the given file to the hashing threads. If {@link #nbHashers} files are already being hashed, waits for
+     * one of them to complete first.
+     */
+    private void submit(HashedFile hashedFile) {
+        while(nbPendingFiles>=nbHashers && getState()!=INTERRUPTED)
+            handleCompletedFile(takeCompletedFile());
+
+        if(getState()==INTERRUPTED)
+            return;
+
+        nbPendingFiles++;
+        hashers.execute(hashedFile);
+    }
+
+    private HashedFile takeCompletedFile() {
+        return WorkerThreads.take(completedFiles);
+    }
+
+    /**
+     * Reports the error of a file that could not be hashed, resubmitting it if the user chooses to retry.
+     */
+    private void handleCompletedFile(HashedFile hashedFile) {
+        nbPendingFiles--;
+
+        if(hashedFile.error==null || getState()==INTERRUPTED || hashedFile.state.isSkipped())
+            return;
+
+        LOGGER.debug("Caught IOException", hashedFile.error);
+
+        int ret = showErrorDialog(Translator.get("error"), Translator.get("error_while_transferring", hashedFile.file.getAbsolutePath()));
+        // Retry resubmits the file, cancel, skip or close dialog leaves it out of the checksum files
+        if(ret==RETRY_ACTION)
+            submit(hashedFile);
     }
 
 
@@ -96,6 +220,9 @@ public class CalculateChecksumJob extends TransferFileJob {
 
     @Override
     protected boolean processFile(AbstractFile file, Object recurseParams) {
+        if(getState()==INTERRUPTED)
+            return false;
+
         // Skip directories
         if(file.isDirectory()) {
             do {		// Loop for retry
@@ -122,77 +249,23 @@ public class CalculateChecksumJob extends TransferFileJob {
             } while(true);
         }
 
-        // Calculate the file's checksum
-        do {		// Loop for retry
-            InputStream in = null;
-            String line;
-            String checksum;
-            try {
-                // Resets the digest before use
-                digest.reset();
-
-                in = null;
-                in = setCurrentInputStream(file.getInputStream());
+        // Calculate the file's checksums in the background
+        HashedFile hashedFile = new HashedFile(file);
+        hashedFiles.add(hashedFile);
+        submit(hashedFile);
 
-                // Determine the path relative to the base source folder
-                String relativePath = file.getAbsolutePath();
-                relativePath = relativePath.substring(baseSourcePath.length(), relativePath.length());
-
-                // Write a new line in the checksum file, in the appropriate format
-                checksum = AbstractFile.calculateChecksum(in, digest);
-                if(useSfvFormat) {
-                    // SFV format for CRC32 checksums
-                    line = relativePath + " " + checksum;     // 1 space character
-                }
-                else {
-                    // 'SUMS' format for other checksum algorithms
-                    line = checksum + "  " + relativePath;    // 2 space characters, that's how the format is
-                }
-
-                line += '\n';
-
-                // Close the InputStream, we're done with it
-                in.close();
-
-                checksumFileOut.write(line.getBytes("utf-8"));
-
-                return true;
-            }
-            catch(IOException e) {
-                // Close the InputStream, a new one will be created when retrying
-                if(in!=null) {
-                    try { in.close(); }
-                    catch(IOException e2){}
-                }
-
-                // If the job was interrupted by the user at the time the exception occurred, it most likely means that
-                // the IOException was caused by the stream being closed as a result of the user interruption.
-                // If that is the case, the exception should not be interpreted as an error.
-                // Same goes if the current file was skipped.
-                if(getState()==INTERRUPTED || wasCurrentFileSkipped())
-                    return false;
-
-                LOGGER.debug("Caught IOException", e);
-                
-                int ret = showErrorDialog(Translator.get("error"), Translator.get("error_while_transferring", file.getAbsolutePath()));
-                // Retry loops
-                if(ret==RETRY_ACTION) {
-                    // Reset processed bytes currentFileByteCounter
-                    getCurrentFileByteCounter().reset();
-
-                    continue;
-                }
-
-                // Cancel, skip or close dialog return false
-                return false;
-            }
-        } while(true);
+        return true;
     }
 
     @Override
     protected boolean hasFolderChanged(AbstractFile folder) {
-        // This job modifies the folder where the checksum file is
-        return folder.equalsCanonical(checksumFile.getParent());     // Note: parent may be null
+        // This job modifies the folders where the checksum files are
+        for(AbstractFile checksumFile : checksumFiles) {
+            if(folder.equalsCanonical(checksumFile.getParent()))     // Note: parent may be null
+                return true;
+        }
+
+        return false;
     }
 
 
@@ -204,6 +277,24 @@ public class CalculateChecksumJob extends TransferFileJob {
     protected void jobStarted() {
         super.jobStarted();
 
+        for(int i=0; i<checksumFiles.length; i++) {
+            if(!openChecksumFile(i)) {
+                interrupt();
+                return;
+            }
+        }
+
+        hashers = WorkerThreads.newPool(nbHashers, "Checksum worker");
+    }
+
+    /**
+     * Checks for a collision and opens the OutputStream of the checksum file with the given index.
+     *
+     * @return <code>false</code> if the user cancelled the job
+     */
+    private boolean openChecksumFile(int index) {
+        AbstractFile checksumFile = checksumFiles[index];
+
         // Check for file collisions, i.e. if the file already exists in the destination
         int collision = FileCollisionChecker.checkForCollision(null, checksumFile);
         if(collision!=FileCollisionChecker.NO_COLLOSION) {
@@ -217,8 +308,7 @@ public class CalculateChecksumJob extends TransferFileJob {
             }
             // 'Cancel' or close dialog interrupts the job
             else {
-                interrupt();
-                return;
+                return false;
             }
         }
 
@@ -226,10 +316,9 @@ public class CalculateChecksumJob extends TransferFileJob {
         do {
             try {
                 // Tries to get an OutputStream on the destination file
-                this.checksumFileOut = checksumFile.getOutputStream();
-
-                break;
+                this.checksumFileOuts[index] = checksumFile.getOutputStream();
 
+                return true;
             }
             catch(Exception e) {
                 int choice = showErrorDialog(Translator.get("error"),
@@ -243,29 +332,229 @@ public class CalculateChecksumJob extends TransferFileJob {
                     continue;
 
                 // 'Cancel' or close dialog interrupts the job
-                interrupt();
-                return;
+                return false;
             }
         } while(true);
     }
 
+    /**
+     * Waits for all files to be hashed, then writes the checksum files.
+     */
+    @Override
+    protected void waitForPendingFiles() {
+        super.waitForPendingFiles();
+
+        while(nbPendingFiles>0 && getState()!=INTERRUPTED)
+            handleCompletedFile(takeCompletedFile());
+
+        if(getState()==INTERRUPTED)
+            return;
+
+        for(int i=0; i<checksumFileOuts.length; i++) {
+            do {		// Loop for retry
+                try {
+                    writeChecksumFile(i);
+                    break;
+                }
+                catch(IOException e) {
+                    LOGGER.debug("Caught IOException", e);
+
+                    int ret = showErrorDialog(Translator.get("error"), Translator.get("cannot_write_file", checksumFiles[i].getName()),
+                                              new String[] {CANCEL_TEXT, RETRY_TEXT},
+                                              new int[]  {CANCEL_ACTION, RETRY_ACTION});
+                    if(ret!=RETRY_ACTION) {
+                        interrupt();
+                        return;
+                    }
+
+                    // The file is written again from the start
+                    try {
+                        checksumFileOuts[i].close();
+                        checksumFileOuts[i] = checksumFiles[i].getOutputStream();
+                    }
+                    catch(IOException e2) {
+                        // Retrying will fail again and let the user cancel
+                    }
+                }
+            } while(true);
+        }
+    }
+
+    /**
+     * Writes the checksums calculated with the digest with the given index to its checksum file, in the order in which
+     * the files were found. Files that could not be hashed are left out.
+     */
+    private void writeChecksumFile(int index) throws IOException {
+        OutputStream out = checksumFileOuts[index];
+        StringBuilder line = new StringBuilder();
+
+        for(HashedFile hashedFile : hashedFiles) {
+            if(hashedFile.checksums==null)
+                continue;
+
+            // Determine the path relative to the base source folder
+            String relativePath = hashedFile.file.getAbsolutePath();
+            relativePath = relativePath.substring(baseSourcePath.length(), relativePath.length());
+
+            // Write a new line in the checksum file, in the appropriate format
+            line.setLength(0);
+            if(useSfvFormat[index]) {
+                // SFV format for CRC32 checksums
+                line.append(relativePath).append(' ').append(hashedFile.checksums[index]);     // 1 space character
+            }
+            else {
+                // 'SUMS' format for other checksum algorithms
+                line.append(hashedFile.checksums[index]).append("  ").append(relativePath);    // 2 space characters, that's how the format is
+            }
+
+            line.append('\n');
+
+            out.write(line.toString().getBytes("utf-8"));
+        }
+    }
+
     @Override
     protected void jobCompleted() {
         super.jobCompleted();
 
-        // Open the checksum file in a viewer
-        ViewerRegistrar.createViewerFrame(getMainFrame(), checksumFile, IconManager.getImageIcon(checksumFile.getIcon()).getImage());
+        // Open the checksum files in a viewer
+        for(AbstractFile checksumFile : checksumFiles)
+            ViewerRegistrar.createViewerFrame(getMainFrame(), checksumFile, IconManager.getImageIcon(checksumFile.getIcon()).getImage());
     }
 
     @Override
     protected void jobStopped() {
         super.jobStopped();
-        
-        // Close the checksum file's OutputStream
-        if(checksumFileOut !=null) {
-            try { checksumFileOut.close(); }
-            catch(IOException e2){
-                // No need to inform the user
+
+        // Stop hashing files
+        if(hashers!=null)
+            hashers.shutdownNow();
+
+        synchronized(activeFiles) {
+            for(HashedFile hashedFile : activeFiles)
+                hashedFile.state.closeInputStream();
+        }
+
+        // Close the checksum files' OutputStreams
+        for(OutputStream checksumFileOut : checksumFileOuts) {
+            if(checksumFileOut!=null) {
+                try { checksumFileOut.close(); }
+                catch(IOException e2){
+                    // No need to inform the user
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void jobPaused() {
+        super.jobPaused();
+
+        synchronized(activeFiles) {
+            for(HashedFile hashedFile : activeFiles)
+                hashedFile.state.setThroughputLimit(0);
+        }
+    }
+
+    @Override
+    protected void jobResumed() {
+        super.jobResumed();
+
+        updateHashersThroughputLimit();
+    }
+
+    @Override
+    public void setThroughputLimit(long bytesPerSecond) {
+        super.setThroughputLimit(bytesPerSecond);
+
+        updateHashersThroughputLimit();
+    }
+
+    private void updateHashersThroughputLimit() {
+        synchronized(activeFiles) {
+            long throughputLimit = getHasherThroughputLimit();
+            for(HashedFile hashedFile : activeFiles)
+                hashedFile.state.setThroughputLimit(throughputLimit);
+        }
+    }
+
+    @Override
+    public synchronized void skipCurrentFile() {
+        // Files that are being hashed in the background are all skipped
+        synchronized(activeFiles) {
+            for(HashedFile hashedFile : activeFiles)
+                hashedFile.state.skip();
+        }
+
+        super.skipCurrentFile();
+    }
+
+
+    /**
+     * A file whose checksums are calculated by a hashing thread.
+     */
+    private class HashedFile implements Runnable {
+        private final AbstractFile file;
+
+        /** Reads the file, counting bytes and limiting the throughput */
+        private final TransferState state;
+
+        /** The file's checksums, one per digest, null until the file has been hashed */
+        private String checksums[];
+
+        /** The error that occurred while hashing the file, null if none */
+        private IOException error;
+
+        private HashedFile(AbstractFile file) {
+            this.file = file;
+            this.state = new TransferState(new ByteCounter(), new ByteCounter(), getParallelByteCounter(), getParallelSkippedByteCounter());
+        }
+
+        public void run() {
+            error = null;
+            state.resetSkipped();
+            state.setThroughputLimit(getHasherThroughputLimit());
+            synchronized(activeFiles) {
+                activeFiles.add(this);
+            }
+
+            InputStream in = null;
+            try {
+                if(getState()==INTERRUPTED)
+                    throw new IOException("Job interrupted");
+
+                MessageDigest fileDigests[] = new MessageDigest[digests.length];
+                for(int i=0; i<digests.length; i++)
+                    fileDigests[i] = newDigest(digests[i]);
+
+                // Read the file once, feeding each block to all the digests
+                in = state.setInputStream(file.getInputStream());
+                byte buffer[] = new byte[HASH_BUFFER_SIZE];
+                int nbRead;
+                while((nbRead=in.read(buffer, 0, buffer.length))!=-1) {
+                    for(MessageDigest digest : fileDigests)
+                        digest.update(buffer, 0, nbRead);
+                }
+
+                String fileChecksums[] = new String[digests.length];
+                for(int i=0; i<digests.length; i++)
+                    fileChecksums[i] = DigestUtils.toHexString(fileDigests[i].digest());
+                checksums = fileChecksums;
+            }
+            catch(IOException e) {
+                error = e;
+            }
+            finally {
+                if(in!=null) {
+                    try { in.close(); }
+                    catch(IOException e2){}
+                }
+
+                synchronized(activeFiles) {
+                    activeFiles.remove(this);
+                }
+
+                completedFiles.add(this);
             }
         }
     }
@@ -0,0 +1,377 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.io.BinaryDetector;
+import com.mucommander.commons.io.EncodingDetector;
+
+/**
+ * Searches the contents of files for a string, using the Boyer-Moore-Horspool algorithm.
+ *
+ * <p>The first block of each file is used to skip binary files and to detect the file's encoding. When the encoding
+ * is ASCII-compatible and the string can be matched byte by byte in it (the search is case-sensitive, or the string
+ * only contains ASCII characters), the raw bytes are searched for the encoded string, ASCII letters being folded when
+ * the search is case-insensitive. Otherwise the file is decoded and its characters are searched, each character
+ * being folded on the fly. In both cases files are read in large blocks reused across files, nothing is allocated
+ * per line, and the search stops at the first occurrence.</p>
+ *
+ * <p>Instances are immutable and can be used by several threads at once.</p>
+ */
+class ContentMatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentMatcher.class);
+
+    /** Default size of the blocks files are read in */
+    final static int DEFAULT_BUFFER_SIZE = 64*1024;
+
+    /** Encoded in an ASCII-compatible encoding, this string yields the same bytes as in ASCII */
+    private final static String ASCII_PROBE = "azAZ09 -_./\\\n";
+
+    /** Folds ASCII letters to lower case, leaves other bytes as is */
+    private final static byte ASCII_FOLD[] = new byte[256];
+
+    /** Leaves all bytes as is */
+    private final static byte NO_FOLD[] = new byte[256];
+
+    static {
+        for(int i=0; i<256; i++) {
+            NO_FOLD[i] = (byte)i;
+            ASCII_FOLD[i] = (byte)(i>='A' && i<='Z' ? i+'a'-'A' : i);
+        }
+    }
+
+    /** The string to search for, folded if the search is case-insensitive */
+    private final char pattern[];
+
+    /** Horspool shifts of {@link #pattern}, indexed by the low byte of characters */
+    private final int charShifts[];
+
+    private final boolean caseSensitive;
+
+    /** True if the string only contains ASCII characters */
+    private final boolean asciiPattern;
+
+    /** Size of the blocks files are read in */
+    private final int bufferSize;
+
+    /** The string encoded in each of the encodings it can be matched byte by byte in */
+    private final ConcurrentMap<Charset, BytePattern> bytePatterns = new ConcurrentHashMap<Charset, BytePattern>();
+
+    /** Buffers of each searching thread, reused across files */
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers(bufferSize);
+        }
+    };
+
+    /**
+     * Creates a new matcher for the given string, reading files in blocks of {@link #DEFAULT_BUFFER_SIZE} bytes.
+     *
+     * @param string the string to search for, must not be empty
+     * @param caseSensitive if false, the case of letters is ignored
+     */
+    ContentMatcher(String string, boolean caseSensitive) {
+        this(string, caseSensitive, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new matcher for the given string.
+     *
+     * @param string the string to search for, must not be empty
+     * @param caseSensitive if false, the case of letters is ignored
+     * @param bufferSize size of the blocks files are read in, enlarged if the string does not fit several times in it
+     */
+    ContentMatcher(String string, boolean caseSensitive, int bufferSize) {
+        this.caseSensitive = caseSensitive;
+
+        pattern = string.toCharArray();
+        boolean ascii = true;
+        for(int i=0; i<pattern.length; i++) {
+            if(!caseSensitive)
+                pattern[i] = fold(pattern[i]);
+            ascii &= pattern[i]<128;
+        }
+        asciiPattern = ascii;
+
+        charShifts = new int[256];
+        Arrays.fill(charShifts, pattern.length);
+        for(int i=0; i<pattern.length-1; i++)
+            charShifts[pattern[i]&0xFF] = pattern.length-1-i;
+
+        // The end of each block is kept to find occurrences spanning two blocks: the blocks must be larger than that
+        this.bufferSize = Math.max(bufferSize, pattern.length*8);
+    }
+
+    /**
+     * Folds the given character for case-insensitive comparisons.
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Returns <code>true</code> if the given stream contains the string, <code>false</code> if it doesn't or if it
+     * looks like binary data. The stream is not closed.
+     *
+     * @param in the stream to search
+     * @return true if the stream contains the string
+     * @throws IOException if the stream could not be read
+     */
+    boolean matches(InputStream in) throws IOException {
+        Buffers buffers = this.buffers.get();
+        byte bytes[] = buffers.bytes;
+
+        int length = readUpTo(in, bytes, 0, bytes.length);
+        if(length<pattern.length)
+            return false;
+
+        if(BinaryDetector.guessBinary(bytes, 0, Math.min(length, BinaryDetector.RECOMMENDED_BYTE_SIZE)))
+            return false;
+
+        Charset charset = getCharset(bytes, length);
+        boolean eof = length<bytes.length;
+
+        BytePattern bytePattern = getBytePattern(charset);
+        if(bytePattern!=null)
+            return bytePattern.matches(in, bytes, length, eof);
+
+        return matchChars(in, bytes, length, eof, buffers.chars, charset);
+    }
+
+    /**
+     * Returns the encoding of a file starting with the given bytes, the default encoding if it cannot be detected or
+     * is not supported.
+     */
+    private static Charset getCharset(byte bytes[], int length) {
+        String encoding = EncodingDetector.detectEncoding(bytes, 0, Math.min(length, EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE));
+        if(encoding!=null) {
+            try {
+                if(Charset.isSupported(encoding))
+                    return Charset.forName(encoding);
+            }
+            catch(IllegalArgumentException e) {
+                LOGGER.debug("Unsupported encoding "+encoding);
+            }
+        }
+
+        return Charset.defaultCharset();
+    }
+
+    /**
+     * Returns the string encoded in the given encoding, <code>null</code> if it cannot be matched byte by byte in it.
+     */
+    private BytePattern getBytePattern(Charset charset) {
+        BytePattern bytePattern = bytePatterns.get(charset);
+        if(bytePattern!=null)
+            return bytePattern.bytes==null?null:bytePattern;
+
+        byte bytes[] = null;
+        try {
+            if(Arrays.equals(ASCII_PROBE.getBytes(charset.name()), ASCII_PROBE.getBytes("US-ASCII"))) {
+                // ASCII letters can be folded as bytes, other characters can only be matched as they are. Occurrences
+                // of non-ASCII characters are found reliably in single-byte encodings and in UTF-8, which is
+                // self-synchronizing: a character's encoding cannot start in the middle of another one's.
+                if(asciiPattern || (caseSensitive && (charset.newEncoder().maxBytesPerChar()==1 || "UTF-8".equals(charset.name()))))
+                    bytes = new String(pattern).getBytes(charset.name());
+            }
+        }
+        catch(UnsupportedEncodingException e) {
+            // Match characters
+        }
+        catch(UnsupportedOperationException e) {
+            // The encoding cannot be used to encode strings, match characters
+        }
+
+        bytePattern = new BytePattern(bytes, caseSensitive?NO_FOLD:ASCII_FOLD);
+        bytePatterns.putIfAbsent(charset, bytePattern);
+
+        return bytes==null?null:bytePattern;
+    }
+
+    /**
+     * Decodes the stream and searches the string in its characters.
+     */
+    private boolean matchChars(InputStream in, byte bytes[], int length, boolean eof, char chars[], Charset charset) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, 0, length);
+        CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+        while(true) {
+            CoderResult result = decoder.decode(byteBuffer, charBuffer, eof);
+            boolean done = eof && result.isUnderflow();
+            if(done)
+                decoder.flush(charBuffer);
+
+            int nbChars = charBuffer.position();
+            if(indexOf(chars, nbChars)!=-1)
+                return true;
+
+            if(done)
+                return false;
+
+            // Keep the characters that may start an occurrence spanning this block and the next one
+            int keep = Math.min(pattern.length-1, nbChars);
+            System.arraycopy(chars, nbChars-keep, chars, 0, keep);
+            charBuffer.clear();
+            charBuffer.position(keep);
+
+            if(result.isUnderflow()) {
+                byteBuffer.compact();
+                int offset = byteBuffer.position();
+                int nbRead = readUpTo(in, bytes, offset, bytes.length-offset);
+                eof = nbRead<bytes.length-offset;
+                byteBuffer.position(offset+nbRead);
+                byteBuffer.flip();
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the first occurrence of the string in the given characters, <code>-1</code> if there
+     * is none.
+     */
+    private int indexOf(char text[], int length) {
+        int last = pattern.length-1;
+        int pos = 0;
+        while(pos<=length-pattern.length) {
+            int i = last;
+            while((caseSensitive?text[pos+i]:fold(text[pos+i]))==pattern[i]) {
+                if(i==0)
+                    return pos;
+                i--;
+            }
+
+            char c = text[pos+last];
+            pos += charShifts[(caseSensitive?c:fold(c))&0xFF];
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads the stream until <code>len</code> bytes have been read or the end of the stream is reached, and returns
+     * the number of bytes read.
+     */
+    private static int readUpTo(InputStream in, byte b[], int off, int len) throws IOException {
+        int total = 0;
+        int nbRead;
+        while(total<len && (nbRead=in.read(b, off+total, len-total))!=-1)
+            total += nbRead;
+
+        return total;
+    }
+
+
+    /**
+     * The string encoded in a given encoding, matched against raw bytes.
+     */
+    private static class BytePattern {
+        /** The encoded string, null if it cannot be matched byte by byte in the encoding */
+        private final byte bytes[];
+
+        /** Horspool shifts, indexed by folded bytes */
+        private final int shifts[];
+
+        /** Folds the bytes of files */
+        private final byte fold[];
+
+        private BytePattern(byte bytes[], byte fold[]) {
+            this.bytes = bytes;
+            this.fold = fold;
+
+            if(bytes==null) {
+                shifts = null;
+                return;
+            }
+
+            shifts = new int[256];
+            Arrays.fill(shifts, bytes.length);
+            for(int i=0; i<bytes.length-1; i++)
+                shifts[bytes[i]&0xFF] = bytes.length-1-i;
+        }
+
+        private boolean matches(InputStream in, byte buffer[], int length, boolean eof) throws IOException {
+            while(true) {
+                if(indexOf(buffer, length)!=-1)
+                    return true;
+
+                if(eof)
+                    return false;
+
+                // Keep the bytes that may start an occurrence spanning this block and the next one
+                int keep = Math.min(bytes.length-1, length);
+                System.arraycopy(buffer, length-keep, buffer, 0, keep);
+
+                int nbRead = readUpTo(in, buffer, keep, buffer.length-keep);
+                eof = nbRead<buffer.length-keep;
+                length = keep+nbRead;
+            }
+        }
+
+        private int indexOf(byte text[], int length) {
+            int last = bytes.length-1;
+            int pos = 0;
+            while(pos<=length-bytes.length) {
+                int i = last;
+                while(fold[text[pos+i]&0xFF]==bytes[i]) {
+                    if(i==0)
+                        return pos;
+                    i--;
+                }
+
+                pos += shifts[fold[text[pos+last]&0xFF]&0xFF];
+            }
+
+            return -1;
+        }
+    }
+
+
+    /**
+     * The buffers used by a searching thread.
+     */
+    private static class Buffers {
+        private final byte bytes[];
+        private final char chars[];
+
+        private Buffers(int size) {
+            bytes = new byte[size];
+            chars = new char[size];
+        }
+    }
+}
@@ -20,6 +20,8 @@
 package com.mucommander.job;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,8 +30,10 @@ import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.AbstractRWArchiveFile;
 import com.mucommander.commons.file.FileFactory;
-import com.mucommander.commons.file.FileOperation;
 import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
 import com.mucommander.text.Translator;
 import com.mucommander.ui.dialog.file.ProgressDialog;
 import com.mucommander.ui.main.MainFrame;
@@ -53,6 +57,14 @@ public class CopyJob extends AbstractCopyJob {
     public final static int COPY_MODE = 0;
     public final static int DOWNLOAD_MODE = 1;
 
+    /** Destination folders (and their original folders) whose date must be changed once the files transferred in the
+     * background have been copied */
+    private List<AbstractFile[]> pendingFolderDates = new ArrayList<AbstractFile[]>();
+
+    /** Records the files that have been copied, so that the job can be resumed if it is interrupted. null if
+     * journaling is disabled or the journal could not be opened. */
+    private TransferJournal journal;
+
 	
 	
     /**
@@ -116,9 +128,20 @@ public class CopyJob extends AbstractCopyJob {
         if(file.isSymlink())
             return true;
 
-        destFile = checkForCollision(file, destFolder, destFile, false);
-        if (destFile == null)
-            return false;
+        // If the job was interrupted before, skip the files that were copied entirely and have not changed since,
+        // without asking the user, and resume the files that were being copied
+        if(journal!=null && !file.isDirectory() && journal.isCompleted(file, destFile))
+            return true;
+
+        if(journal!=null && !file.isDirectory() && journal.canResume(file, destFile)) {
+            LOGGER.debug("Resuming interrupted copy of "+file);
+            append = true;
+        }
+        else {
+            destFile = checkForCollision(file, destFolder, destFile, false);
+            if (destFile == null)
+                return false;
+        }
 
         // Copy directory recursively
         if(file.isDirectory()) {
@@ -147,7 +170,7 @@ public class CopyJob extends AbstractCopyJob {
             do {		// Loop for retry
                 try {
                     // for each file in folder...
-                    AbstractFile subFiles[] = file.ls();
+                    AbstractFile subFiles[] = ls(file);
 //filesDiscovered(subFiles);
                     for(int i=0; i<subFiles.length && getState()!=INTERRUPTED; i++) {
                         // Notify job that we're starting to process this file (needed for recursive calls to processFile)
@@ -159,15 +182,13 @@ public class CopyJob extends AbstractCopyJob {
                     // needs to work with the folder after calling super.processFile.
                     currentDestFile = destFile;
 
-                    // Only when finished with folder, set destination folder's date to match the original folder one
-                    if(destFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
-                        try {
-                            destFile.changeDate(file.getDate());
-                        }
-                        catch (IOException e) {
-                            LOGGER.debug("failed to change the date of "+destFile, e);
-                            // Fail silently
-                        }
+                    // Only when finished with folder, set destination folder's date to match the original folder one.
+                    // If files are still being copied to the folder in the background, this is done once they are.
+                    if(isParallelTransfersEnabled()) {
+                        pendingFolderDates.add(new AbstractFile[]{destFile, file});
+                    }
+                    else {
+                        changeFolderDate(destFile, file);
                     }
 
                     return true;
@@ -185,13 +206,21 @@ public class CopyJob extends AbstractCopyJob {
         }
         // File is a regular file, copy it
         else  {
-            // Copy the file
-            return tryCopyFile(file, destFile, append, errorDialogTitle);
+            // Copy the file, in the background if parallel transfers are enabled
+            if(journal==null)
+                return submitCopyFile(file, destFile, append, errorDialogTitle, null);
+
+            final AbstractFile sourceFile = file;
+            journal.fileStarted(sourceFile, destFile);
+            return submitCopyFile(file, destFile, append, errorDialogTitle, new CopyCompletion() {
+                public boolean fileCopied() {
+                    journal.fileCompleted(sourceFile);
+                    return true;
+                }
+            });
         }
     }
 
-
-
     // This job modifies baseDestFolder and its subfolders
     @Override
     protected boolean hasFolderChanged(AbstractFile folder) {
@@ -203,10 +232,41 @@ public class CopyJob extends AbstractCopyJob {
     // Overridden methods //
     ////////////////////////
 
+    @Override
+    protected void waitForPendingFiles() {
+        super.waitForPendingFiles();
+
+        // Now that all files have been copied, set the date of the folders that were created
+        for(AbstractFile[] folders : pendingFolderDates)
+            changeFolderDate(folders[0], folders[1]);
+        pendingFolderDates.clear();
+    }
+
+    @Override
+    protected void jobStarted() {
+        super.jobStarted();
+
+        if(MuConfigurations.getPreferences().getVariable(MuPreference.JOURNAL_TRANSFERS, MuPreferences.DEFAULT_JOURNAL_TRANSFERS))
+            journal = TransferJournal.open(files, baseDestFolder, newName);
+    }
+
+    @Override
+    protected void jobStopped() {
+        super.jobStopped();
+
+        // Keep the journal on disk, so that the job can be resumed if it was interrupted. The journal is deleted if
+        // the job completed.
+        if(journal!=null)
+            journal.close();
+    }
+
     @Override
     protected void jobCompleted() {
         super.jobCompleted();
 
+        if(journal!=null)
+            journal.delete();
+
         // If the destination files are located inside an archive, optimize the archive file
         AbstractArchiveFile archiveFile = baseDestFolder.getParentArchive();
         if(archiveFile!=null && archiveFile.isArchive() && archiveFile.isWritable())
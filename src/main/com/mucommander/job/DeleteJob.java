@@ -40,7 +40,8 @@ import com.mucommander.ui.main.MainFrame;
  * <ul>
  *  <li>moveToTrash enabled: files are moved to the trash returned by {@link DesktopManager#getTrash()}.
  *  <li>moveToTrash disabled: files are permanently deleted, i.e deleted files cannot be recovered. In this mode,
- * folders are deleted recursively
+ * folders are deleted recursively, by a {@link ParallelDeleter} if more than one thread is configured by the
+ * {@link com.mucommander.conf.MuPreferences#PARALLEL_DELETES} preference
  * </ul>
  *
  * @author Maxence Bernard
@@ -63,6 +64,9 @@ public class DeleteJob extends FileJob {
     /** True when an archive is being optimized */
     private boolean isOptimizingArchive;
 
+    /** Deletes folders using several threads, null if folders are deleted by this job's thread */
+    private ParallelDeleter parallelDeleter;
+
 
     /**
      * Creates a new DeleteJob without starting it.
@@ -97,6 +101,17 @@ public class DeleteJob extends FileJob {
             file.delete();
     }
 
+    /**
+     * Returns the path of the given file relative to the base source folder, as displayed in error messages.
+     *
+     * @param file a file being deleted
+     * @return the path of the given file relative to the base source folder
+     */
+    private String getRelativePath(AbstractFile file) {
+        String filePath = file.getAbsolutePath();
+        return filePath.substring(getBaseSourceFolder().getAbsolutePath(false).length()+1, filePath.length());
+    }
+
 
     ////////////////////////////
     // FileJob implementation //
@@ -118,11 +133,12 @@ public class DeleteJob extends FileJob {
         // Delete files recursively, only if trash is not used.
         int ret;
         if(!moveToTrash && file.isDirectory()) {
-            String filePath = file.getAbsolutePath();
-            filePath = filePath.substring(getBaseSourceFolder().getAbsolutePath(false).length()+1, filePath.length());
-
             // Important: symlinks must *not* be followed -- following symlinks could have disastrous effects.
             if(!file.isSymlink()) {
+                // The parallel deleter takes care of the folder and its contents
+                if(parallelDeleter!=null)
+                    return parallelDeleter.deleteFolder(file);
+
                 do {		// Loop for retry
                     // Delete each file in this folder
                     try {
@@ -137,7 +153,7 @@ public class DeleteJob extends FileJob {
                     catch(IOException e) {
                         LOGGER.debug("IOException caught", e);
 
-                        ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_read_file", filePath));
+                        ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_read_file", getRelativePath(file)));
                         // Retry loops
                         if(ret==RETRY_ACTION)
                             continue;
@@ -183,10 +199,25 @@ public class DeleteJob extends FileJob {
     // Overridden methods //
     ////////////////////////
 
+    @Override
+    protected void jobStarted() {
+        super.jobStarted();
+
+        // Files moved to the trash are not recursed into, the trash takes care of folders
+        if(!moveToTrash) {
+            int nbDeleters = ParallelDeleter.getConfiguredDeleters(getBaseSourceFolder());
+            if(nbDeleters>1)
+                parallelDeleter = new ParallelDeleter(new DeleterContext(), nbDeleters);
+        }
+    }
+
     @Override
     protected void jobStopped() {
         super.jobStopped();
 
+        if(parallelDeleter!=null)
+            parallelDeleter.shutdown();
+
         if(moveToTrash)
             trash.waitForPendingOperations();
     }
@@ -227,4 +258,29 @@ public class DeleteJob extends FileJob {
 
         return Translator.get("delete.deleting_file", getCurrentFilename());
     }
+
+
+    /**
+     * Gives the {@link ParallelDeleter} access to this job: files are reported as being processed, errors are shown in
+     * the same dialogs as when files are deleted by this job's thread.
+     */
+    private class DeleterContext implements ParallelDeleter.Context {
+        public boolean isInterrupted() {
+            return getState()==INTERRUPTED;
+        }
+
+        public void fileDeleting(AbstractFile file) {
+            nextFile(file);
+        }
+
+        public boolean retry(AbstractFile file, boolean listing) {
+            String message;
+            if(listing)
+                message = Translator.get("cannot_read_file", getRelativePath(file));
+            else
+                message = Translator.get(file.isDirectory()?"cannot_delete_folder":"cannot_delete_file", file.getName());
+
+            return showErrorDialog(errorDialogTitle, message)==RETRY_ACTION;
+        }
+    }
 }
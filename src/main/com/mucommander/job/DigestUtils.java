@@ -0,0 +1,63 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * This class contains helper methods that turn digests into strings, for displaying checksums and naming the files
+ * that jobs store in the preferences folder.
+ */
+class DigestUtils {
+
+    /**
+     * Returns the given bytes as a lower-case hexadecimal string.
+     *
+     * @param bytes the bytes to convert
+     * @return the bytes as a lower-case hexadecimal string
+     */
+    static String toHexString(byte bytes[]) {
+        StringBuilder sb = new StringBuilder(bytes.length*2);
+        for(byte b : bytes) {
+            sb.append(Character.forDigit((b>>4)&0xF, 16));
+            sb.append(Character.forDigit(b&0xF, 16));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns a file name derived from the given key: the hexadecimal MD5 digest of the key, which is the same for
+     * the same key and can be used on any file system.
+     *
+     * @param key the string that identifies the file
+     * @return a file name derived from the key
+     * @throws IOException if the MD5 algorithm is not available
+     */
+    static String getFileName(String key) throws IOException {
+        try {
+            return toHexString(MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8")));
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.PlatformManager;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
+
+/**
+ * Remembers the contents of the folders of a local volume across sessions, so that calculating the size of a folder
+ * whose subfolders have not changed does not require listing them again.
+ *
+ * <p>For each folder, the index records the number and total size of the files it directly contains, and the names of
+ * its subfolders, along with the folder's date. An entry is only used if the folder's date has not changed since it
+ * was recorded: adding, removing or renaming a file in a folder changes its date, and causes the folder to be listed
+ * again. Modifying a file in place does not change its folder's date, so the size of a file that has been modified
+ * since its folder was indexed may be out of date.</p>
+ *
+ * <p>There is one index per volume, stored in the preferences folder and shared by all jobs. An index is kept in
+ * memory only while jobs are using it: it is saved in the background and forgotten once the last of them has released
+ * it. Only local volumes are indexed, as the dates of remote folders are not reliable enough.</p>
+ */
+class DirectorySizeIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySizeIndex.class);
+
+    /** Name of the folder containing the indexes, in the preferences folder */
+    private final static String INDEXES_FOLDER_NAME = "size_indexes";
+
+    /** Extension of index files */
+    private final static String INDEX_EXTENSION = ".idx";
+
+    /** Version of the index file format, files with a different version are ignored */
+    private final static int FORMAT_VERSION = 1;
+
+    /** Maximum number of folders in an index, least recently used folders are discarded past that */
+    private final static int MAX_ENTRIES = 200000;
+
+    /** Indexes currently used by jobs, by volume path */
+    private final static Map<String, DirectorySizeIndex> indexes = new HashMap<String, DirectorySizeIndex>();
+
+    /** Saves the indexes released by jobs, one at a time, so that releasing an index never waits for the disk */
+    private final static ExecutorService saver = WorkerThreads.newPool(1, "Directory size index saver");
+
+    /** Volumes whose index could not be created, so that the failure is not retried each time */
+    private final static Set<String> failedVolumes = new HashSet<String>();
+
+    /** Path of the volume this index belongs to */
+    private final String volumePath;
+
+    /** The index file */
+    private final AbstractFile file;
+
+    /** Jobs using this index, accessed while holding the lock on {@link #indexes} */
+    private final Set<Object> users = new HashSet<Object>();
+
+    /** Folders of the volume, by path, the least recently used first */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size()>MAX_ENTRIES;
+        }
+    };
+
+    /** True if the index has been modified since it was last saved */
+    private boolean modified;
+
+    private DirectorySizeIndex(String volumePath, AbstractFile file) {
+        this.volumePath = volumePath;
+        this.file = file;
+    }
+
+    /**
+     * Returns the index of the volume the given folder is located on, loading it if necessary. The index is kept in
+     * memory until the given user calls {@link #release(Object)}, along with the other users of the index.
+     *
+     * @param folder a folder
+     * @param user the job using the index
+     * @return the index of the folder's volume, <code>null</code> if the folder is not local or the index could not be
+     * created
+     */
+    static DirectorySizeIndex getIndex(AbstractFile folder, Object user) {
+        if(!folder.hasAncestor(LocalFile.class))
+            return null;
+
+        String volumePath = folder.getVolume().getAbsolutePath();
+        synchronized(indexes) {
+            if(failedVolumes.contains(volumePath))
+                return null;
+
+            DirectorySizeIndex index = indexes.get(volumePath);
+            if(index==null) {
+                index = load(volumePath);
+                if(index==null) {
+                    failedVolumes.add(volumePath);
+                    return null;
+                }
+                indexes.put(volumePath, index);
+            }
+
+            index.users.add(user);
+            return index;
+        }
+    }
+
+    /**
+     * Saves this index in the background if it has been modified, and forgets it once saved if the given user was the
+     * last one using it. The index stays in memory until then, so that jobs started in the meantime do not load an out
+     * of date index from disk. This method does not block and can be called from any thread.
+     *
+     * @param user a job that has been using the index, see {@link #getIndex(AbstractFile, Object)}
+     */
+    void release(Object user) {
+        synchronized(indexes) {
+            users.remove(user);
+        }
+
+        saver.execute(new Runnable() {
+            public void run() {
+                save();
+
+                synchronized(indexes) {
+                    if(users.isEmpty() && indexes.get(volumePath)==DirectorySizeIndex.this)
+                        indexes.remove(volumePath);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the index of the given volume, creating an empty one if there is none.
+     */
+    private static DirectorySizeIndex load(String volumePath) {
+        DirectorySizeIndex index;
+        try {
+            AbstractFile indexesFolder = PlatformManager.getPreferencesFolder().getChild(INDEXES_FOLDER_NAME);
+            if(!indexesFolder.exists())
+                indexesFolder.mkdir();
+
+            index = new DirectorySizeIndex(volumePath, indexesFolder.getChild(DigestUtils.getFileName(volumePath)+INDEX_EXTENSION));
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not create directory size index of "+volumePath, e);
+            return null;
+        }
+
+        if(index.file.exists()) {
+            try {
+                index.read();
+            }
+            catch(IOException e) {
+                // The index will be overwritten
+                LOGGER.info("Could not read directory size index "+index.file, e);
+                index.entries.clear();
+            }
+        }
+
+        return index;
+    }
+
+    private void read() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(file.getInputStream()));
+        try {
+            if(in.readInt()!=FORMAT_VERSION)
+                return;
+
+            int nbEntries = in.readInt();
+            for(int i=0; i<nbEntries; i++) {
+                String path = in.readUTF();
+                long date = in.readLong();
+                int nbFiles = in.readInt();
+                long nbBytes = in.readLong();
+                String subfolders[] = new String[in.readInt()];
+                for(int j=0; j<subfolders.length; j++)
+                    subfolders[j] = in.readUTF();
+
+                entries.put(path, new Entry(date, nbFiles, nbBytes, subfolders));
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        LOGGER.debug("Read directory size index "+file+": "+entries.size()+" folders");
+    }
+
+    /**
+     * Writes the index to disk if it has been modified since it was last saved.
+     */
+    private synchronized void save() {
+        if(!modified)
+            return;
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file.getOutputStream()));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(entries.size());
+                for(Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    out.writeUTF(mapEntry.getKey());
+                    out.writeLong(entry.date);
+                    out.writeInt(entry.nbFiles);
+                    out.writeLong(entry.nbBytes);
+                    out.writeInt(entry.subfolders.length);
+                    for(String subfolder : entry.subfolders)
+                        out.writeUTF(subfolder);
+                }
+            }
+            finally {
+                out.close();
+            }
+
+            modified = false;
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not write directory size index "+file, e);
+        }
+    }
+
+    /**
+     * Returns the entry of the given folder, <code>null</code> if the folder is not in the index or has changed since
+     * it was indexed.
+     *
+     * @param folder a folder of this index's volume
+     * @return the entry of the given folder, null if it has to be listed
+     */
+    synchronized Entry get(AbstractFile folder) {
+        Entry entry = entries.get(folder.getAbsolutePath(false));
+        if(entry==null || entry.date!=folder.getDate())
+            return null;
+
+        return entry;
+    }
+
+    /**
+     * Records the contents of the given folder, which has just been listed. Nothing is recorded if the folder's date
+     * is not known.
+     *
+     * @param folder a folder of this index's volume
+     * @param nbFiles number of files (folders excluded) the folder directly contains
+     * @param nbBytes total size of the files the folder directly contains
+     * @param subfolders names of the folder's subfolders
+     */
+    synchronized void put(AbstractFile folder, int nbFiles, long nbBytes, String subfolders[]) {
+        long date = folder.getDate();
+        if(date<=0)
+            return;
+
+        String path = folder.getAbsolutePath(false);
+        Entry oldEntry = entries.put(path, new Entry(date, nbFiles, nbBytes, subfolders));
+
+        // Forget the subfolders that no longer exist
+        if(oldEntry!=null) {
+            String separator = folder.getSeparator();
+            Set<String> newSubfolders = new HashSet<String>(Arrays.asList(subfolders));
+            for(String oldSubfolder : oldEntry.subfolders) {
+                if(!newSubfolders.contains(oldSubfolder))
+                    entries.remove(path+separator+oldSubfolder);
+            }
+        }
+
+        modified = true;
+    }
+
+    /**
+     * Removes the given folder from the index.
+     *
+     * @param folder a folder of this index's volume
+     */
+    synchronized void remove(AbstractFile folder) {
+        if(entries.remove(folder.getAbsolutePath(false))!=null)
+            modified = true;
+    }
+
+
+    /**
+     * The contents of a folder, as of the folder's date.
+     */
+    static class Entry {
+        private final long date;
+        /** Number of files (folders excluded) the folder directly contains */
+        final int nbFiles;
+        /** Total size of the files the folder directly contains */
+        final long nbBytes;
+        /** Names of the folder's subfolders */
+        final String subfolders[];
+
+        private Entry(long date, int nbFiles, long nbBytes, String subfolders[]) {
+            this.date = date;
+            this.nbFiles = nbFiles;
+            this.nbBytes = nbBytes;
+            this.subfolders = subfolders;
+        }
+    }
+}
@@ -110,6 +110,9 @@ public abstract class FileJob implements Runnable {
 
     /** If set to true, processed files will be unmarked from current table */
     private boolean autoUnmark = true;
+
+    /** Table the processed files are unmarked from, the active table when the job started */
+    private FileTable activeTable;
 	
     /** File to be selected after job has finished (can be null if not set) */
     private AbstractFile fileToSelect;
@@ -517,6 +520,46 @@ public abstract class FileJob implements Runnable {
     }
 	
 
+    /**
+     * This method is called by {@link #run()} after the last call to {@link #processFile(AbstractFile,Object)} is made,
+     * before the job is completed. This method implementation does nothing but it can be overridden by subclasses
+     * that process files in the background, to wait for them to be processed.
+     *
+     * <p>This method is called by the job's thread and may display dialogs to the user.</p>
+     */
+    protected void waitForPendingFiles() {
+    }
+
+
+    /**
+     * This method is called by {@link #run()} after a top-level file has been processed successfully, to find out
+     * whether it can be unmarked right away. This method implementation returns <code>true</code> but it can be
+     * overridden by subclasses that keep processing files in the background after
+     * {@link #processFile(AbstractFile,Object)} has returned: those return <code>false</code> for a file that is still
+     * being processed, and call {@link #unmarkFile(AbstractFile)} once the file has been processed successfully.
+     *
+     * @param file a top-level file that has been processed successfully
+     * @return <code>true</code> if the file has been completely processed and can be unmarked
+     */
+    protected boolean isFileProcessed(AbstractFile file) {
+        return true;
+    }
+
+
+    /**
+     * Unmarks the given top-level file in the table that was active when the job started, if 'auto unmark' is
+     * enabled. This method must be called by the job's thread.
+     *
+     * @param file the top-level file to unmark
+     */
+    protected void unmarkFile(AbstractFile file) {
+        if(autoUnmark) {
+            // Do not repaint rows individually as it would be too expensive
+            activeTable.setFileMarked(file, false, false);
+        }
+    }
+
+
     /**
      * This method is called when this job has completed normal execution : all files have been processed without any interruption
      * (without any call to {@link #interrupt()}).
@@ -798,7 +841,7 @@ public abstract class FileJob implements Runnable {
      * This method is public as a side-effect of this class implementing <code>Runnable</code>.
      */
     public final void run() {
-        FileTable activeTable = getMainFrame().getActiveTable();
+        activeTable = getMainFrame().getActiveTable();
         AbstractFile currentFile;
 
         // Notify that this job has started
@@ -817,16 +860,18 @@ public abstract class FileJob implements Runnable {
             // Process current file
             boolean success = processFile(currentFile, null);
 
+            // Once the last file has been processed, wait for the files that may still be processed in the background
+            if(i==nbFiles-1 && getState()!=INTERRUPTED)
+                waitForPendingFiles();
+
             // Stop if job was interrupted
             if(getState()==INTERRUPTED)
                 break;
 
             // Unmark file in active table if 'auto unmark' is enabled
             // and file was processed successfully
-            if(autoUnmark && success) {
-                // Do not repaint rows individually as it would be too expensive
-                activeTable.setFileMarked(currentFile, false, false);
-            }
+            if(success && isFileProcessed(currentFile))
+                unmarkFile(currentFile);
 
             // If last file was reached without any user interruption, all files have been processed with or
             // without errors, switch to FINISHED state and notify listeners
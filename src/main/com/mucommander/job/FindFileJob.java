@@ -5,18 +5,33 @@ import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.ui.main.MainFrame;
 import org.apache.commons.io.filefilter.AbstractFileFilter;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Searches a folder for files whose name matches a mask and, optionally, whose contents contain a string.
+ *
+ * <p>Folders are listed and files are searched by a pool of threads. Files found are reported to the
+ * {@link ResultListener} as soon as they are found, in no particular order.</p>
+ *
  * Created by trol on 18/12/13.
  */
 public class FindFileJob extends FileJob {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FindFileJob.class);
+
+    /** Number of threads listing folders and searching files */
+    private final static int NB_SEARCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** Interval at which the job's thread checks if the search has been interrupted, in milliseconds */
+    private final static long INTERRUPTION_CHECK_PERIOD = 200;
 
     private AbstractFile startDirectory;
     private String fileMask;
@@ -27,8 +42,36 @@ public class FindFileJob extends FileJob {
 
     private AbstractFileFilter fileFilter;
 
+    /** Searches the contents of files, null if only file names are matched */
+    private ContentMatcher contentMatcher;
+
     private List<AbstractFile> list = new ArrayList<AbstractFile>();
 
+    /** Notified of the files found, may be null */
+    private ResultListener resultListener;
+
+    /** Lists folders and searches files */
+    private ExecutorService executor;
+
+    /** Number of tasks submitted to the executor that have not completed yet */
+    private final AtomicInteger nbPendingTasks = new AtomicInteger();
+
+    /** Notified when all tasks have completed */
+    private final Object completionLock = new Object();
+
+    /**
+     * Listener notified of the files found by the job.
+     */
+    public interface ResultListener {
+        /**
+         * Called when a file has been found. This method is called by the threads searching files, possibly by several
+         * of them at once.
+         *
+         * @param file the file that has been found
+         */
+        void fileFound(AbstractFile file);
+    }
+
     public FindFileJob(MainFrame mainFrame) {
         super(mainFrame);
         setAutoUnmark(false);
@@ -47,78 +90,161 @@ public class FindFileJob extends FileJob {
             return false;
         }
 
-        // If file is a directory, recurse
-        if (file.isDirectory() && !file.isSymlink()) {
-            if (!searchSubdirs && !file.equals(startDirectory)) {
-                return true;
-            }
-            try {
-                AbstractFile subFiles[] = file.ls();
-                for (int i = 0; i < subFiles.length && getState() != INTERRUPTED; i++) {
-                    if (ignoreHidden && file.isHidden()) {
-                        continue;
-                    }
-                    // Notify job that we're starting to process this file (needed for recursive calls to processFile)
-                    nextFile(subFiles[i]);
-                    processFile(subFiles[i], null);
+        submit(new SearchTask(file));
+
+        // Wait for the folders to be listed and the files to be searched
+        synchronized (completionLock) {
+            while (nbPendingTasks.get() > 0 && getState() != INTERRUPTED) {
+                try {
+                    completionLock.wait(INTERRUPTION_CHECK_PERIOD);
+                } catch (InterruptedException e) {
+                    return false;
                 }
-            } catch(IOException e) {
-                // Should we tell the user?
-            }
-        } else { // If not, increase file counter and bytes total
-            if (!ignoreHidden || !file.isHidden()) {
-                searchInFile(file);
             }
         }
 
-        return true;
+        return getState() != INTERRUPTED;
     }
 
-    private void searchInFile(AbstractFile file) {
-        File f = new File(file.toString());
-        if (fileFilter.accept(f) && fileContainsString(f)) {
-            synchronized (list) {
-                list.add(file);
+    /**
+     * Hands the given task to the searching threads.
+     */
+    private void submit(Runnable task) {
+        nbPendingTasks.incrementAndGet();
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The job has been stopped
+            taskCompleted();
+        }
+    }
+
+    /**
+     * Called when a task has completed, wakes up the job's thread if it was the last one.
+     */
+    private void taskCompleted() {
+        if (nbPendingTasks.decrementAndGet() == 0) {
+            synchronized (completionLock) {
+                completionLock.notifyAll();
             }
         }
     }
 
-    private boolean fileContainsString(File f) {
-        if (fileContent == null || fileContent.isEmpty()) {
-            return true;
+    /**
+     * Searches the given folder, submitting a task for each of the files and folders it contains.
+     */
+    private void searchFolder(AbstractFile folder) {
+        if (!searchSubdirs && !folder.equals(startDirectory)) {
+            return;
         }
-        Scanner in = null;
-        boolean result = false;
+
+        AbstractFile subFiles[];
         try {
-            in = new Scanner(new FileReader(f));
-            while (in.hasNextLine() && !result) {
-                String line = in.nextLine();
-                if (caseSensitive) {
-                    result = line.indexOf(fileContent) >= 0;
+            subFiles = folder.ls();
+        } catch (IOException e) {
+            // Should we tell the user?
+            LOGGER.debug("Could not list " + folder, e);
+            return;
+        }
+
+        for (int i = 0; i < subFiles.length && getState() != INTERRUPTED; i++) {
+            AbstractFile subFile = subFiles[i];
+            if (ignoreHidden && subFile.isHidden()) {
+                continue;
+            }
+
+            if (subFile.isDirectory() && !subFile.isSymlink()) {
+                if (searchSubdirs) {
+                    submit(new SearchTask(subFile));
+                }
+            } else if (fileFilter.accept(null, subFile.getName())) {
+                // Name matches are reported right away, contents are searched by another thread
+                if (contentMatcher == null) {
+                    fileFound(subFile);
                 } else {
-                    line = line.toLowerCase();
-                    result = line.indexOf(fileContent) >= 0;
+                    submit(new SearchTask(subFile));
                 }
             }
+        }
+    }
+
+    /**
+     * Searches the contents of the given file, whose name matches the mask.
+     */
+    private void searchInFile(AbstractFile file) {
+        if ((!ignoreHidden || !file.isHidden()) && fileFilter.accept(null, file.getName()) && fileContainsString(file)) {
+            fileFound(file);
+        }
+    }
+
+    private boolean fileContainsString(AbstractFile file) {
+        if (contentMatcher == null) {
+            return true;
+        }
+
+        InputStream in = null;
+        try {
+            in = file.getInputStream();
+            return contentMatcher.matches(in);
         } catch (IOException e) {
-            e.printStackTrace();
+            LOGGER.debug("Could not search " + file, e);
+            return false;
         } finally {
-            try {
-                in.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Not much to do
+                }
             }
         }
-        return result;
     }
 
+    private void fileFound(AbstractFile file) {
+        if (getState() == INTERRUPTED) {
+            return;
+        }
+
+        synchronized (list) {
+            list.add(file);
+        }
+
+        if (resultListener != null) {
+            resultListener.fileFound(file);
+        }
+    }
+
+
+    @Override
+    protected void jobStarted() {
+        super.jobStarted();
+
+        executor = WorkerThreads.newPool(NB_SEARCH_THREADS, "Find file worker");
+    }
+
+    @Override
+    protected void jobStopped() {
+        super.jobStopped();
 
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
 
 
     public List<AbstractFile> getResults() {
         return list;
     }
 
+    /**
+     * Sets the listener notified of the files found by this job. The listener must be set before the job is started.
+     *
+     * @param resultListener the listener notified of the files found, null for none
+     */
+    public void setResultListener(ResultListener resultListener) {
+        this.resultListener = resultListener;
+    }
+
     public void setStartDirectory(AbstractFile startDirectory) {
         this.startDirectory = startDirectory;
         FileSet fs = new FileSet();
@@ -135,9 +261,37 @@ public class FindFileJob extends FileJob {
         this.ignoreHidden = ignoreHidden;
 
         fileFilter = new WildcardFileFilter(this.fileMask);
-        if (!caseSensitive && fileContent != null) {
-            this.fileContent = fileContent.toLowerCase();
-        }
+        contentMatcher = fileContent == null || fileContent.isEmpty() ? null : new ContentMatcher(fileContent, caseSensitive);
     }
 
+
+    /**
+     * Lists a folder or searches a file.
+     */
+    private class SearchTask implements Runnable {
+        private final AbstractFile file;
+
+        private SearchTask(AbstractFile file) {
+            this.file = file;
+        }
+
+        public void run() {
+            try {
+                if (getState() == INTERRUPTED) {
+                    return;
+                }
+
+                // Notify job that we're starting to process this file, waits while the job is paused
+                nextFile(file);
+
+                if (file.isDirectory() && !file.isSymlink()) {
+                    searchFolder(file);
+                } else {
+                    searchInFile(file);
+                }
+            } finally {
+                taskCompleted();
+            }
+        }
+    }
 }
@@ -0,0 +1,281 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.util.FileSet;
+
+/**
+ * Walks the files of a job in the background to calculate the total number of files and bytes the job will process,
+ * so that the job's progress can be weighted by bytes rather than by number of top-level files.
+ *
+ * <p>The scanner walks the files in the same order as the job processes them. Folder listings are shared with the
+ * job: whichever of the scanner or the job needs a folder's contents first lists the folder, and the other one
+ * takes the listing from the {@link #ls(AbstractFile)} queue instead of listing the folder again. At most
+ * {@link #MAX_PENDING_LISTINGS} listings are retained at a time; past that, folders are listed independently.</p>
+ *
+ * <p>Symlinks are not followed nor counted, as they are not copied.</p>
+ */
+class FolderScanner implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FolderScanner.class);
+
+    /** Maximum number of listings waiting to be taken by the job or the scanner */
+    private final static int MAX_PENDING_LISTINGS = 10000;
+
+    /** The top-level files to scan */
+    private final FileSet files;
+
+    /** Number of bytes of the files contained by each top-level file, filled as they are scanned */
+    private final long topLevelBytes[];
+
+    /** Listings made by either the scanner or the job, waiting to be taken by the other one */
+    private final ConcurrentMap<AbstractFile, Listing> pendingListings = new ConcurrentHashMap<AbstractFile, Listing>();
+
+    /** Number of files found so far */
+    private volatile int nbFiles;
+
+    /** Number of bytes found so far */
+    private volatile long nbBytes;
+
+    /** True once all files have been scanned */
+    private volatile boolean complete;
+
+    /** True if the scan has been stopped before completion */
+    private volatile boolean stopped;
+
+    /**
+     * Creates a new scanner for the given files. The scan is not started until {@link #start()} is called.
+     *
+     * @param files the top-level files of the job
+     */
+    FolderScanner(FileSet files) {
+        this.files = files;
+        this.topLevelBytes = new long[files.size()];
+    }
+
+    /**
+     * Starts scanning the files in a new daemon thread.
+     */
+    void start() {
+        Thread thread = new Thread(this, "Folder scanner");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops scanning the files. The listings that have not been taken yet are discarded.
+     */
+    void stop() {
+        stopped = true;
+        pendingListings.clear();
+    }
+
+    /**
+     * Returns <code>true</code> once all files have been scanned: the values returned by {@link #getNbFiles()} and
+     * {@link #getNbBytes()} are then the totals.
+     *
+     * @return true once all files have been scanned
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns the number of files (folders excluded) found so far.
+     *
+     * @return the number of files found so far
+     */
+    int getNbFiles() {
+        return nbFiles;
+    }
+
+    /**
+     * Returns the total size of the files found so far.
+     *
+     * @return the total size of the files found so far
+     */
+    long getNbBytes() {
+        return nbBytes;
+    }
+
+    /**
+     * Returns the total size of the top-level files preceding the given index, including the contents of folders.
+     * This method should only be called once the scan is complete.
+     *
+     * @param topLevelIndex index of a top-level file, the number of top-level files for the total size
+     * @return the total size of the top-level files preceding the given index
+     */
+    long getNbBytesBefore(int topLevelIndex) {
+        long bytes = 0;
+        for(int i=0; i<topLevelIndex && i<topLevelBytes.length; i++)
+            bytes += topLevelBytes[i];
+
+        return bytes;
+    }
+
+    /**
+     * Returns the contents of the given folder, taking the listing made by the scanner if there is one. This method is
+     * to be called by the job, in place of {@link AbstractFile#ls()}.
+     *
+     * @param folder the folder to list
+     * @return the contents of the given folder
+     * @throws IOException if the folder could not be listed
+     */
+    AbstractFile[] ls(AbstractFile folder) throws IOException {
+        return list(folder);
+    }
+
+    /**
+     * Lists the given folder or takes its listing if it has been (or is being) made by the other thread. A listing
+     * made by the calling thread is left for the other thread to take, unless the scan is over.
+     */
+    private AbstractFile[] list(AbstractFile folder) throws IOException {
+        Listing listing = pendingListings.remove(folder);
+        if(listing!=null)
+            return listing.get();
+
+        if(complete || stopped || pendingListings.size()>=MAX_PENDING_LISTINGS)
+            return folder.ls();
+
+        listing = new Listing(folder);
+        Listing otherListing = pendingListings.putIfAbsent(folder, listing);
+        if(otherListing!=null) {
+            // The other thread has just started listing the folder
+            pendingListings.remove(folder);
+            return otherListing.get();
+        }
+
+        return listing.run();
+    }
+
+    public void run() {
+        long startTime = System.currentTimeMillis();
+
+        for(int i=0; i<topLevelBytes.length && !stopped; i++)
+            topLevelBytes[i] = scan(files.elementAt(i));
+
+        if(!stopped) {
+            complete = true;
+            // Listings that the job has made after the scanner went past them will not be taken
+            pendingListings.clear();
+        }
+
+        LOGGER.debug("Scanned "+nbFiles+" files, "+nbBytes+" bytes in "+(System.currentTimeMillis()-startTime)+"ms, complete="+complete);
+    }
+
+    /**
+     * Recurses through the given file and returns the total size of the files it contains.
+     */
+    private long scan(AbstractFile file) {
+        if(file.isSymlink())
+            return 0;
+
+        if(!file.isDirectory()) {
+            long size = Math.max(0, file.getSize());
+            nbFiles++;
+            nbBytes += size;
+
+            return size;
+        }
+
+        AbstractFile children[];
+        try {
+            children = list(file);
+        }
+        catch(IOException e) {
+            // The job will report the error if it fails to list the folder too
+            LOGGER.debug("Failed to list "+file, e);
+            return 0;
+        }
+
+        long size = 0;
+        for(int i=0; i<children.length && !stopped; i++)
+            size += scan(children[i]);
+
+        return size;
+    }
+
+
+    /**
+     * The listing of a folder, made by one thread and taken by another one.
+     */
+    private class Listing {
+
+        private final AbstractFile folder;
+
+        private AbstractFile children[];
+
+        private boolean done;
+
+        private Listing(AbstractFile folder) {
+            this.folder = folder;
+        }
+
+        /**
+         * Lists the folder and makes the listing available to {@link #get()}.
+         */
+        private AbstractFile[] run() throws IOException {
+            AbstractFile result[] = null;
+            try {
+                result = folder.ls();
+                return result;
+            }
+            finally {
+                if(result==null) {
+                    // Let the other thread list the folder by itself
+                    pendingListings.remove(folder, this);
+                }
+
+                synchronized(this) {
+                    children = result;
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Waits for the folder to be listed and returns its contents. If the folder could not be listed by the other
+         * thread, it is listed again by the calling thread.
+         */
+        private AbstractFile[] get() throws IOException {
+            synchronized(this) {
+                while(!done) {
+                    try {
+                        wait();
+                    }
+                    catch(InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+
+            return children==null?folder.ls():children;
+        }
+    }
+}
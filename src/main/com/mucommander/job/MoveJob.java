@@ -20,6 +20,8 @@
 package com.mucommander.job;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +48,14 @@ public class MoveJob extends AbstractCopyJob {
     /** True if this job corresponds to a single file renaming */
     protected boolean renameMode = false;
 
+    /** Destination folders (and their original folders) whose date must be changed once the files transferred in the
+     * background have been moved */
+    private List<AbstractFile[]> pendingFolderDates = new ArrayList<AbstractFile[]>();
+
+    /** Source folders that can only be deleted once the files transferred in the background have been moved,
+     * children first */
+    private List<AbstractFile> pendingFolderDeletions = new ArrayList<AbstractFile>();
+
     
     /**
      * Creates a new MoveJob without starting it.
@@ -172,7 +182,7 @@ public class MoveJob extends AbstractCopyJob {
             // move each file in this folder recursively
             do {		// Loop for retry
                 try {
-                    AbstractFile subFiles[] = file.ls();
+                    AbstractFile subFiles[] = ls(file);
                     boolean isFolderEmpty = true;
                     for (AbstractFile subFile : subFiles) {
                         // Return now if the job was interrupted, so that we do not attempt to delete this folder
@@ -185,16 +195,12 @@ public class MoveJob extends AbstractCopyJob {
                             isFolderEmpty = false;
                     }
 
-                    // Only when finished with folder, set destination folder's date to match the original folder one
-                    if(destFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
-                        try {
-                            destFile.changeDate(file.getDate());
-                        }
-                        catch (IOException e) {
-                            LOGGER.debug("failed to change the date of "+destFile, e);
-                            // Fail silently
-                        }
-                    }
+                    // Only when finished with folder, set destination folder's date to match the original folder one.
+                    // If files are still being moved to the folder in the background, this is done once they are.
+                    if(isParallelTransfersEnabled())
+                        pendingFolderDates.add(new AbstractFile[]{destFile, file});
+                    else
+                        changeFolderDate(destFile, file);
 
                     // If one file failed to be moved, return false (failure) since this folder could not be moved totally
                     if(!isFolderEmpty)
@@ -212,56 +218,92 @@ public class MoveJob extends AbstractCopyJob {
                 break;
             } while(true);
 
-            // Return now if the job was interrupted, so that we do not attempt to delete this folder
-            if(getState()==INTERRUPTED)
-                return false;
+            // The folder is deleted by waitForPendingFiles() once the files moved in the background have been deleted
+            if(isParallelTransfersEnabled()) {
+                pendingFolderDeletions.add(file);
+                return true;
+            }
 
-            // finally, delete the empty folder
-            do {		// Loop for retry
-                try  {
-                    file.delete();
-                    return true;
-                }
-                catch(IOException e) {
-                    int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_folder", file.getAbsolutePath()));
-                    // Retry loops
-                    if(ret==RETRY_ACTION)
-                        continue;
-                    // Cancel, skip or close dialog returns false
-                    return false;
-                }
-            } while(true);
+            return deleteFolder(file);
         }
         // File is a regular file, move it by copying it to the destination and then deleting it
         else  {
-
             // if renameTo() was not supported or failed, or if it wasn't possible because of 'append',
             // try the hard way by copying the file first, and then deleting the source file.
-            if(tryCopyFile(file, destFile, append, errorDialogTitle) && getState()!=INTERRUPTED) {
-                // Delete the source file
-                do {		// Loop for retry
-                    try  {
-                        file.delete();
-                        // All OK
-                        return true;
-                    }
-                    catch(IOException e) {
-                        LOGGER.debug("IOException caught", e);
-
-                        int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_file", file.getAbsolutePath()));
-                        // Retry loops
-                        if(ret==RETRY_ACTION)
-                            continue;
-                        // Cancel, skip or close dialog returns false
-                        return false;
+            if(isParallelTransfersEnabled()) {
+                // The file is copied in the background and deleted once it has been copied. The move fails if
+                // the file cannot be deleted, which prevents its folder from being deleted.
+                final AbstractFile sourceFile = file;
+                return submitCopyFile(file, destFile, append, errorDialogTitle, new CopyCompletion() {
+                    public boolean fileCopied() {
+                        return getState()!=INTERRUPTED && deleteFile(sourceFile);
                     }
-                } while(true);
+                });
             }
 
+            if(tryCopyFile(file, destFile, append, errorDialogTitle) && getState()!=INTERRUPTED)
+                return deleteFile(file);
+
             return false;
         }
     }
 
+    /**
+     * Deletes the given source file once it has been copied, giving the user the choice to skip the file, retry or
+     * cancel if it cannot be deleted.
+     *
+     * @param file the file to delete
+     * @return <code>true</code> if the file was deleted
+     */
+    private boolean deleteFile(AbstractFile file) {
+        do {		// Loop for retry
+            try  {
+                file.delete();
+                // All OK
+                return true;
+            }
+            catch(IOException e) {
+                LOGGER.debug("IOException caught", e);
+
+                int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_file", file.getAbsolutePath()));
+                // Retry loops
+                if(ret==RETRY_ACTION)
+                    continue;
+                // Cancel, skip or close dialog returns false
+                return false;
+            }
+        } while(true);
+    }
+
+    /**
+     * Deletes the given source folder once its contents have been moved, giving the user the choice to skip the
+     * folder, retry or cancel if it cannot be deleted.
+     *
+     * @param file the folder to delete
+     * @return <code>true</code> if the folder was deleted
+     */
+    private boolean deleteFolder(AbstractFile file) {
+        // Return now if the job was interrupted, so that we do not attempt to delete this folder
+        if(getState()==INTERRUPTED)
+            return false;
+
+        // finally, delete the empty folder
+        do {		// Loop for retry
+            try  {
+                file.delete();
+                return true;
+            }
+            catch(IOException e) {
+                int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_folder", file.getAbsolutePath()));
+                // Retry loops
+                if(ret==RETRY_ACTION)
+                    continue;
+                // Cancel, skip or close dialog returns false
+                return false;
+            }
+        } while(true);
+    }
+
     // This job modifies baseDestFolder and its subfolders
     @Override
     protected boolean hasFolderChanged(AbstractFile folder) {
@@ -273,6 +315,27 @@ public class MoveJob extends AbstractCopyJob {
     // Overridden methods //
     ////////////////////////
 
+    @Override
+    protected void waitForPendingFiles() {
+        super.waitForPendingFiles();
+
+        // Now that all files have been moved, set the date of the destination folders
+        for(AbstractFile[] folders : pendingFolderDates)
+            changeFolderDate(folders[0], folders[1]);
+        pendingFolderDates.clear();
+
+        // and delete the source folders, children first. Folders containing files that could not be moved are left
+        // in place.
+        for(AbstractFile folder : pendingFolderDeletions) {
+            if(getState()==INTERRUPTED)
+                break;
+
+            if(!hasFailedTransfers(folder))
+                deleteFolder(folder);
+        }
+        pendingFolderDeletions.clear();
+    }
+
     @Override
     protected void jobCompleted() {
         super.jobCompleted();
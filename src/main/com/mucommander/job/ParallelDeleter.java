@@ -0,0 +1,406 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+
+/**
+ * Deletes folders recursively using a pool of worker threads.
+ *
+ * <p>Each folder is listed by a worker, which then hands its subfolders to other workers and deletes the files it
+ * contains in batches of at most {@link #BATCH_SIZE} files, each batch being a separate task. A folder is deleted by
+ * the worker that completes its last task, once all of its contents have been deleted.</p>
+ *
+ * <p>Errors are handed back to the thread that called {@link #deleteFolder(AbstractFile)}, which asks the
+ * {@link Context} what to do: the failed operation is either retried, or skipped in which case the folders that
+ * contain the file that could not be deleted are not deleted either. As with a serial deletion, symlinks are deleted
+ * but never followed.</p>
+ */
+class ParallelDeleter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelDeleter.class);
+
+    /** Maximum number of files deleted by a single task */
+    final static int BATCH_SIZE = 256;
+
+    /** Interval at which the calling thread checks if the deletion has been interrupted, in milliseconds */
+    private final static long INTERRUPTION_CHECK_PERIOD = 200;
+
+    /** The job the folders are deleted for */
+    private final Context context;
+
+    /** Executes the tasks */
+    private final ExecutorService executor;
+
+    /** Events handed to the calling thread: failures and the completion of the deletion */
+    private final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+
+    /**
+     * Gives the deleter access to the job it deletes files for.
+     */
+    interface Context {
+        /**
+         * Returns <code>true</code> if the deletion has been interrupted.
+         *
+         * @return true if the deletion has been interrupted
+         */
+        boolean isInterrupted();
+
+        /**
+         * Called by the worker threads before a file is deleted. This method may block, for instance while the job
+         * is paused.
+         *
+         * @param file the file about to be deleted
+         */
+        void fileDeleting(AbstractFile file);
+
+        /**
+         * Called on the thread that called {@link ParallelDeleter#deleteFolder(AbstractFile)} when a file could not
+         * be listed or deleted.
+         *
+         * @param file the file that could not be listed or deleted
+         * @param listing <code>true</code> if the file is a folder that could not be listed
+         * @return <code>true</code> to retry, <code>false</code> to skip the file
+         */
+        boolean retry(AbstractFile file, boolean listing);
+    }
+
+    /**
+     * Creates a new deleter using the given number of worker threads.
+     *
+     * @param context the job the folders are deleted for
+     * @param nbWorkers number of worker threads
+     */
+    ParallelDeleter(Context context, int nbWorkers) {
+        this.context = context;
+        this.executor = WorkerThreads.newPool(nbWorkers, "Delete worker");
+    }
+
+    /**
+     * Returns the number of worker threads configured for deleting files in the given folder, as configured by the
+     * {@link MuPreferences#PARALLEL_DELETES} preference and its per-protocol variants. Files located inside an archive
+     * are always deleted by the job's thread, as concurrent modifications would corrupt the archive.
+     *
+     * @param folder the folder files are deleted from
+     * @return the number of worker threads, 1 if files should be deleted by the job's thread
+     */
+    static int getConfiguredDeleters(AbstractFile folder) {
+        int defaultDeleters = MuConfigurations.getPreferences().getVariable(MuPreference.PARALLEL_DELETES, MuPreferences.DEFAULT_PARALLEL_DELETES);
+        if(folder==null)
+            return Math.max(1, defaultDeleters);
+
+        if(folder.getParentArchive()!=null)
+            return 1;
+
+        String scheme = folder.getURL().getScheme();
+        String value = MuConfigurations.getPreferences().getVariable(MuPreferences.PARALLEL_DELETES+'.'+scheme);
+        if(value==null)
+            return Math.max(1, defaultDeleters);
+
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        }
+        catch(NumberFormatException e) {
+            LOGGER.info("Invalid number of parallel deletes for "+scheme+": "+value);
+            return Math.max(1, defaultDeleters);
+        }
+    }
+
+    /**
+     * Deletes the given folder and its contents, blocking until it has been deleted, the deletion has failed or it
+     * has been interrupted. Errors are handled on the calling thread.
+     *
+     * @param folder the folder to delete
+     * @return <code>true</code> if the folder has been deleted
+     */
+    boolean deleteFolder(AbstractFile folder) {
+        Folder root = new Folder(folder, null);
+        execute(new ListTask(root));
+
+        while(true) {
+            Object event;
+            try {
+                event = events.poll(INTERRUPTION_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e) {
+                return false;
+            }
+
+            if(event==null) {
+                // Tasks stop as soon as they notice the interruption, there is no point waiting for them
+                if(context.isInterrupted())
+                    return false;
+            }
+            else if(event==root) {
+                return root.deleted;
+            }
+            else {
+                ((Failure)event).handle();
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads. Tasks that have not started yet are discarded.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Executes the given task on a worker thread. The workers are shut down as soon as the job is interrupted, by a
+     * Cancel in an error dialog for instance: if they have been, the task is run on the current thread, where it
+     * notices the interruption and completes its folder right away.
+     */
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        }
+        catch(RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+
+    /**
+     * A folder being deleted.
+     */
+    private class Folder {
+        private final AbstractFile file;
+        private final Folder parent;
+
+        /** Number of tasks and subfolders that have yet to complete before the folder can be deleted */
+        private final AtomicInteger nbPending = new AtomicInteger(1);
+
+        /** True if a file contained by the folder could not be deleted or listed */
+        private volatile boolean failed;
+
+        /** True once the folder has been deleted */
+        private volatile boolean deleted;
+
+        private Folder(AbstractFile file, Folder parent) {
+            this.file = file;
+            this.parent = parent;
+        }
+
+        /**
+         * Called when a task or subfolder of this folder has completed, deletes the folder if it was the last one.
+         */
+        private void pendingCompleted() {
+            if(nbPending.decrementAndGet()==0)
+                new DeleteFolderTask(this).run();
+        }
+
+        /**
+         * Called once this folder has been deleted, or has failed to be deleted.
+         */
+        private void completed(boolean deleted) {
+            this.deleted = deleted;
+
+            if(parent==null) {
+                // Wake up the calling thread
+                events.add(this);
+            }
+            else {
+                if(!deleted)
+                    parent.failed = true;
+                parent.pendingCompleted();
+            }
+        }
+    }
+
+    /**
+     * An operation that failed and that the calling thread has to decide what to do about.
+     */
+    private class Failure {
+        private final AbstractFile file;
+        private final boolean listing;
+        /** Executed if the user chooses to retry */
+        private final Runnable retryTask;
+        /** Executed if the user chooses to skip the file */
+        private final Runnable skipTask;
+
+        private Failure(AbstractFile file, boolean listing, Runnable retryTask, Runnable skipTask) {
+            this.file = file;
+            this.listing = listing;
+            this.retryTask = retryTask;
+            this.skipTask = skipTask;
+        }
+
+        private void handle() {
+            if(!context.isInterrupted() && context.retry(file, listing))
+                execute(retryTask);
+            else
+                execute(skipTask);
+        }
+    }
+
+    /**
+     * Lists a folder, hands its subfolders to other workers and deletes the files it contains in batches.
+     */
+    private class ListTask implements Runnable {
+        private final Folder folder;
+
+        private ListTask(Folder folder) {
+            this.folder = folder;
+        }
+
+        public void run() {
+            if(context.isInterrupted()) {
+                folder.completed(false);
+                return;
+            }
+
+            AbstractFile children[];
+            try {
+                children = folder.file.ls();
+            }
+            catch(IOException e) {
+                LOGGER.debug("IOException caught", e);
+
+                events.add(new Failure(folder.file, true, this, new Runnable() {
+                    public void run() {
+                        // The folder's contents are unknown, the folder cannot be deleted
+                        folder.completed(false);
+                    }
+                }));
+                return;
+            }
+
+            List<AbstractFile> files = new ArrayList<AbstractFile>();
+            List<Folder> subfolders = new ArrayList<Folder>();
+            for(AbstractFile child : children) {
+                // Important: symlinks must *not* be followed -- following symlinks could have disastrous effects.
+                if(child.isDirectory() && !child.isSymlink())
+                    subfolders.add(new Folder(child, folder));
+                else
+                    files.add(child);
+            }
+
+            int nbBatches = (files.size()+BATCH_SIZE-1)/BATCH_SIZE;
+            // The folder cannot be deleted before its subfolders and batches have completed
+            folder.nbPending.addAndGet(subfolders.size()+nbBatches);
+
+            for(Folder subfolder : subfolders)
+                execute(new ListTask(subfolder));
+
+            // Delete the first batch on this thread, the other ones on other workers
+            for(int i=1; i<nbBatches; i++)
+                execute(new DeleteBatchTask(folder, files.subList(i*BATCH_SIZE, Math.min(files.size(), (i+1)*BATCH_SIZE)), 0));
+            if(nbBatches>0)
+                new DeleteBatchTask(folder, files.subList(0, Math.min(files.size(), BATCH_SIZE)), 0).run();
+
+            // The listing task itself is complete
+            folder.pendingCompleted();
+        }
+    }
+
+    /**
+     * Deletes a batch of files contained by a folder.
+     */
+    private class DeleteBatchTask implements Runnable {
+        private final Folder folder;
+        private final List<AbstractFile> files;
+        private final int start;
+
+        private DeleteBatchTask(Folder folder, List<AbstractFile> files, int start) {
+            this.folder = folder;
+            this.files = files;
+            this.start = start;
+        }
+
+        public void run() {
+            for(int i=start; i<files.size(); i++) {
+                if(context.isInterrupted()) {
+                    folder.failed = true;
+                    break;
+                }
+
+                final AbstractFile file = files.get(i);
+                context.fileDeleting(file);
+                try {
+                    file.delete();
+                }
+                catch(IOException e) {
+                    LOGGER.debug("IOException caught", e);
+
+                    final int index = i;
+                    events.add(new Failure(file, false, new DeleteBatchTask(folder, files, index), new Runnable() {
+                        public void run() {
+                            folder.failed = true;
+                            new DeleteBatchTask(folder, files, index+1).run();
+                        }
+                    }));
+                    // The batch is resumed by the retry or skip task
+                    return;
+                }
+            }
+
+            folder.pendingCompleted();
+        }
+    }
+
+    /**
+     * Deletes a folder once its contents have been deleted.
+     */
+    private class DeleteFolderTask implements Runnable {
+        private final Folder folder;
+
+        private DeleteFolderTask(Folder folder) {
+            this.folder = folder;
+        }
+
+        public void run() {
+            if(folder.failed || context.isInterrupted()) {
+                folder.completed(false);
+                return;
+            }
+
+            context.fileDeleting(folder.file);
+            try {
+                folder.file.delete();
+                folder.completed(true);
+            }
+            catch(IOException e) {
+                LOGGER.debug("IOException caught", e);
+
+                events.add(new Failure(folder.file, false, this, new Runnable() {
+                    public void run() {
+                        folder.completed(false);
+                    }
+                }));
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.ByteCounter;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+
+/**
+ * Copies files on behalf of a {@link TransferFileJob} using a bounded pool of worker threads, so that several
+ * independent files can be transferred concurrently.
+ *
+ * <p>Only the transfer of file contents is performed by the workers. Everything that may require user interaction
+ * (collision checks, error dialogs, retries) remains on the job's thread: a transfer that fails is handed back to
+ * the job thread, which displays the usual error dialog and resubmits the transfer if the user chooses to retry or
+ * resume it. The job thread never has more than {@link #getMaxTransfers()} transfers in flight: when that limit
+ * is reached, {@link #submit(AbstractFile, AbstractFile, boolean, String, AbstractFile, TransferFileJob.CopyCompletion)}
+ * blocks until a transfer completes.</p>
+ *
+ * <p>A top-level file of the job is unmarked once all the transfers it was submitted for have succeeded, rather than
+ * when the job is done submitting them.</p>
+ *
+ * <p>Except for {@link #pause()}, {@link #resume()}, {@link #skipActiveTransfers()} and {@link #shutdown()}, the
+ * methods of this class must only be called from the job's thread.</p>
+ */
+class ParallelTransferPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelTransferPool.class);
+
+    /** The job the files are transferred for */
+    private final TransferFileJob job;
+
+    /** Maximum number of files transferred concurrently */
+    private final int maxTransfers;
+
+    /** Executes the transfers */
+    private final ExecutorService executor;
+
+    /** Transfers that have completed, successfully or not, and that the job thread has not handled yet */
+    private final BlockingQueue<Transfer> completedTransfers = new LinkedBlockingQueue<Transfer>();
+
+    /** Transfers that are currently being performed by a worker */
+    private final List<Transfer> activeTransfers = new ArrayList<Transfer>();
+
+    /** Source files that could not be transferred, accessed by the job thread only */
+    private final List<AbstractFile> failedFiles = new ArrayList<AbstractFile>();
+
+    /** Number of transfers in flight for each top-level file of the job, accessed by the job thread only */
+    private final Map<AbstractFile, Integer> nbTransfersByTopLevelFile = new HashMap<AbstractFile, Integer>();
+
+    /** Top-level files that the job has processed and that wait for their transfers to complete to be unmarked,
+     * accessed by the job thread only */
+    private final Set<AbstractFile> processedTopLevelFiles = new HashSet<AbstractFile>();
+
+    /** Counter all the transfers report their processed bytes to */
+    private final ByteCounter byteCounter;
+
+    /** Counter all the transfers report their skipped bytes to */
+    private final ByteCounter skippedByteCounter;
+
+    /** Number of submitted transfers that the job thread has not handled yet, accessed by the job thread only */
+    private int nbPendingTransfers;
+
+    /** True while the job is paused */
+    private boolean paused;
+
+    /**
+     * Creates a new pool performing at most <code>maxTransfers</code> transfers at once.
+     *
+     * @param job the job the files are transferred for
+     * @param maxTransfers maximum number of files transferred concurrently
+     * @param byteCounter counter all the transfers report their processed bytes to
+     * @param skippedByteCounter counter all the transfers report their skipped bytes to
+     */
+    ParallelTransferPool(TransferFileJob job, int maxTransfers, ByteCounter byteCounter, ByteCounter skippedByteCounter) {
+        this.job = job;
+        this.maxTransfers = maxTransfers;
+        this.byteCounter = byteCounter;
+        this.skippedByteCounter = skippedByteCounter;
+
+        this.executor = WorkerThreads.newPool(maxTransfers, "Transfer worker");
+    }
+
+    /**
+     * Returns the number of concurrent transfers that should be used to transfer files between the given folders.
+     * Each protocol uses the value of the {@link MuPreferences#PARALLEL_TRANSFERS} preference suffixed with its scheme
+     * (e.g. <code>file_transfer.parallel_transfers.sftp</code>) if it is set, the value of the preference itself
+     * otherwise. The smallest value of the source and destination protocols is returned, <code>1</code> meaning that
+     * files are transferred one at a time. Files are always transferred one at a time to a folder located inside an
+     * archive, as concurrent writes would corrupt the archive.
+     *
+     * @param sourceFolder the folder files are transferred from, may be <code>null</code>
+     * @param destFolder the folder files are transferred to, may be <code>null</code>
+     * @return the number of files that should be transferred concurrently, at least 1
+     */
+    static int getConfiguredTransfers(AbstractFile sourceFolder, AbstractFile destFolder) {
+        int defaultTransfers = MuConfigurations.getPreferences().getVariable(MuPreference.PARALLEL_TRANSFERS, MuPreferences.DEFAULT_PARALLEL_TRANSFERS);
+        int nbTransfers = defaultTransfers;
+
+        if(sourceFolder!=null)
+            nbTransfers = getConfiguredTransfers(sourceFolder.getURL().getScheme(), defaultTransfers);
+        if(destFolder!=null && destFolder.getParentArchive()!=null)
+            return 1;
+        if(destFolder!=null)
+            nbTransfers = Math.min(nbTransfers, getConfiguredTransfers(destFolder.getURL().getScheme(), defaultTransfers));
+
+        return Math.max(1, nbTransfers);
+    }
+
+    /**
+     * Returns the number of concurrent transfers configured for the given scheme, <code>defaultValue</code> if none
+     * is configured or if the configured value is invalid.
+     */
+    private static int getConfiguredTransfers(String scheme, int defaultValue) {
+        String value = MuConfigurations.getPreferences().getVariable(MuPreferences.PARALLEL_TRANSFERS+'.'+scheme);
+        if(value==null)
+            return defaultValue;
+
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException e) {
+            LOGGER.info("Invalid number of parallel transfers for "+scheme+": "+value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the maximum number of files transferred concurrently.
+     *
+     * @return the maximum number of files transferred concurrently
+     */
+    int getMaxTransfers() {
+        return maxTransfers;
+    }
+
+    /**
+     * Schedules the transfer of the given file. If the maximum number of transfers in flight has been reached, this
+     * method first waits for a transfer to complete, handling errors as they are reported.
+     *
+     * @param sourceFile the file to transfer
+     * @param destFile the file to transfer to
+     * @param append <code>true</code> to resume the transfer
+     * @param errorDialogTitle title of the dialog displayed if the transfer fails
+     * @param topLevelFile the top-level file of the job the file is transferred for, the file itself or one of its parents
+     * @param onSuccess executed on the job thread once the file has been transferred, may be <code>null</code>
+     */
+    void submit(AbstractFile sourceFile, AbstractFile destFile, boolean append, String errorDialogTitle, AbstractFile topLevelFile, TransferFileJob.CopyCompletion onSuccess) {
+        // Handle the transfers that have completed in the meantime, if any
+        Transfer completedTransfer;
+        while((completedTransfer=completedTransfers.poll())!=null)
+            handleCompletedTransfer(completedTransfer);
+
+        while(nbPendingTransfers>=maxTransfers && job.getState()!=FileJob.INTERRUPTED)
+            handleCompletedTransfer(takeCompletedTransfer());
+
+        if(job.getState()==FileJob.INTERRUPTED)
+            return;
+
+        Integer nbTransfers = nbTransfersByTopLevelFile.get(topLevelFile);
+        nbTransfersByTopLevelFile.put(topLevelFile, nbTransfers==null ? 1 : nbTransfers+1);
+
+        execute(new Transfer(sourceFile, destFile, append, errorDialogTitle, topLevelFile, onSuccess));
+    }
+
+    /**
+     * Waits for all the transfers in flight to complete, handling errors and retries as they are reported.
+     */
+    void waitForTransfers() {
+        while(nbPendingTransfers>0)
+            handleCompletedTransfer(takeCompletedTransfer());
+    }
+
+    /**
+     * Returns <code>true</code> if at least one file located in the given folder (or one of its subfolders) could
+     * not be transferred.
+     *
+     * @param folder the folder to test
+     * @return true if a file located in the given folder could not be transferred
+     */
+    boolean hasFailedTransfers(AbstractFile folder) {
+        for(AbstractFile file : failedFiles)
+            if(folder.isParentOf(file))
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Called by the job once it has processed the given top-level file successfully. Returns <code>true</code> if all
+     * the transfers submitted for the file have completed successfully. Otherwise, returns <code>false</code> and, if
+     * some of them are still in flight, unmarks the file once they have all succeeded.
+     *
+     * @param topLevelFile a top-level file that the job has processed successfully
+     * @return true if the file has been transferred successfully and can be unmarked right away
+     */
+    boolean isFileProcessed(AbstractFile topLevelFile) {
+        if(nbTransfersByTopLevelFile.containsKey(topLevelFile)) {
+            processedTopLevelFiles.add(topLevelFile);
+            return false;
+        }
+
+        return !hasFailedTransfersFor(topLevelFile);
+    }
+
+    /**
+     * Blocks the transfers in flight until {@link #resume()} is called. Transfers that start in the meantime are
+     * blocked as well.
+     */
+    void pause() {
+        synchronized(activeTransfers) {
+            paused = true;
+            for(Transfer transfer : activeTransfers)
+                transfer.state.setThroughputLimit(0);
+        }
+    }
+
+    /**
+     * Releases the transfers blocked by {@link #pause()}.
+     */
+    void resume() {
+        synchronized(activeTransfers) {
+            paused = false;
+            long throughputLimit = getThroughputLimit();
+            for(Transfer transfer : activeTransfers)
+                transfer.state.setThroughputLimit(throughputLimit);
+        }
+    }
+
+    /**
+     * Applies the job's current throughput limit to the transfers in flight.
+     */
+    void updateThroughputLimit() {
+        synchronized(activeTransfers) {
+            if(!paused) {
+                long throughputLimit = getThroughputLimit();
+                for(Transfer transfer : activeTransfers)
+                    transfer.state.setThroughputLimit(throughputLimit);
+            }
+        }
+    }
+
+    /**
+     * Skips the transfers currently in flight.
+     */
+    void skipActiveTransfers() {
+        synchronized(activeTransfers) {
+            for(Transfer transfer : activeTransfers)
+                transfer.state.skip();
+        }
+    }
+
+    /**
+     * Interrupts the transfers in flight and stops the worker threads.
+     */
+    void shutdown() {
+        executor.shutdown();
+
+        synchronized(activeTransfers) {
+            for(Transfer transfer : activeTransfers)
+                transfer.state.closeInputStream();
+        }
+    }
+
+    /**
+     * Returns the throughput limit of a single transfer: the job's limit is shared equally by all the workers.
+     */
+    private long getThroughputLimit() {
+        long throughputLimit = job.getThroughputLimit();
+        if(throughputLimit<=0)
+            return -1;
+
+        return Math.max(1, throughputLimit/maxTransfers);
+    }
+
+    private void execute(Transfer transfer) {
+        nbPendingTransfers++;
+        executor.execute(transfer);
+    }
+
+    private Transfer takeCompletedTransfer() {
+        return WorkerThreads.take(completedTransfers);
+    }
+
+    /**
+     * Handles a transfer that has completed, on the job thread: runs its completion task if it succeeded, or displays
+     * an error dialog and resubmits it if the user chooses to do so.
+     */
+    private void handleCompletedTransfer(Transfer transfer) {
+        nbPendingTransfers--;
+
+        if(transfer.error==null) {
+            if(job.getState()==FileJob.INTERRUPTED || (transfer.onSuccess!=null && !transfer.onSuccess.fileCopied()))
+                failedFiles.add(transfer.sourceFile);
+            transferDone(transfer);
+            return;
+        }
+
+        // The error is most likely a consequence of the job being interrupted or of the file being skipped
+        if(job.getState()==FileJob.INTERRUPTED || transfer.state.isSkipped()) {
+            failedFiles.add(transfer.sourceFile);
+            transferDone(transfer);
+            return;
+        }
+
+        LOGGER.debug("Copy failed", transfer.error);
+
+        int choice = job.showTransferErrorDialog(transfer.error, transfer.sourceFile, transfer.destFile, transfer.errorDialogTitle);
+        if(choice==FileJob.RETRY_ACTION || choice==FileJob.APPEND_ACTION) {
+            // Append resumes transfer
+            Transfer retry = new Transfer(transfer.sourceFile, transfer.destFile, choice==FileJob.APPEND_ACTION, transfer.errorDialogTitle, transfer.topLevelFile, transfer.onSuccess);
+            // Lets a resumed transfer resume the source file's digest instead of calculating it from scratch
+            retry.state.setChecksumInputStream(transfer.state.getChecksumInputStream());
+            execute(retry);
+            return;
+        }
+
+        // Skip or Cancel action (stop() is already called by showErrorDialog)
+        failedFiles.add(transfer.sourceFile);
+        transferDone(transfer);
+    }
+
+    /**
+     * Accounts for a transfer that will not be retried, unmarking its top-level file if it was the last one in flight
+     * for a file that the job has processed and none of them failed.
+     */
+    private void transferDone(Transfer transfer) {
+        AbstractFile topLevelFile = transfer.topLevelFile;
+        int nbTransfers = nbTransfersByTopLevelFile.get(topLevelFile)-1;
+        if(nbTransfers>0) {
+            nbTransfersByTopLevelFile.put(topLevelFile, nbTransfers);
+            return;
+        }
+
+        nbTransfersByTopLevelFile.remove(topLevelFile);
+        if(processedTopLevelFiles.remove(topLevelFile) && job.getState()!=FileJob.INTERRUPTED && !hasFailedTransfersFor(topLevelFile))
+            job.unmarkFile(topLevelFile);
+    }
+
+    /**
+     * Returns <code>true</code> if the given top-level file, or one of the files it contains, could not be transferred.
+     */
+    private boolean hasFailedTransfersFor(AbstractFile topLevelFile) {
+        return failedFiles.contains(topLevelFile) || hasFailedTransfers(topLevelFile);
+    }
+
+
+    /**
+     * Transfers a single file on a worker thread.
+     */
+    private class Transfer implements Runnable {
+
+        private final AbstractFile sourceFile;
+        private final AbstractFile destFile;
+        private final boolean append;
+        private final String errorDialogTitle;
+        private final AbstractFile topLevelFile;
+        private final TransferFileJob.CopyCompletion onSuccess;
+        private final TransferState state;
+
+        /** The error that caused the transfer to fail, null if it succeeded */
+        private FileTransferException error;
+
+        private Transfer(AbstractFile sourceFile, AbstractFile destFile, boolean append, String errorDialogTitle, AbstractFile topLevelFile, TransferFileJob.CopyCompletion onSuccess) {
+            this.sourceFile = sourceFile;
+            this.destFile = destFile;
+            this.append = append;
+            this.errorDialogTitle = errorDialogTitle;
+            this.topLevelFile = topLevelFile;
+            this.onSuccess = onSuccess;
+            this.state = new TransferState(new ByteCounter(), new ByteCounter(), byteCounter, skippedByteCounter);
+        }
+
+        public void run() {
+            try {
+                if(job.getState()==FileJob.INTERRUPTED)
+                    throw new FileTransferException(FileTransferException.UNKNOWN_REASON);
+
+                synchronized(activeTransfers) {
+                    activeTransfers.add(this);
+                    state.setThroughputLimit(paused?0:getThroughputLimit());
+                }
+
+                job.copyFile(sourceFile, destFile, append, state);
+            }
+            catch(FileTransferException e) {
+                error = e;
+            }
+            catch(RuntimeException e) {
+                LOGGER.info("Unexpected error while transferring "+sourceFile, e);
+                error = new FileTransferException(FileTransferException.UNKNOWN_REASON);
+            }
+            finally {
+                synchronized(activeTransfers) {
+                    activeTransfers.remove(this);
+                }
+                completedTransfers.add(this);
+            }
+        }
+    }
+}
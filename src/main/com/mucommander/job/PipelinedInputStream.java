@@ -0,0 +1,313 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+
+/**
+ * An InputStream that reads ahead the underlying stream in a separate thread, so that the source of a transfer is
+ * read while the destination is being written to by the thread consuming this stream.
+ *
+ * <p>The reader thread and the consumer are connected by a bounded ring of buffers which are reused for the whole
+ * transfer: the reader fills free buffers and hands them to the consumer, which hands them back once it has read
+ * them. The reader blocks when all buffers are full, the consumer when all buffers are empty, so neither side can get
+ * more than <code>depth</code> buffers ahead of the other.</p>
+ *
+ * <p>Errors that occur while reading ahead are reported to the consumer, once it has read the bytes that precede
+ * them. Closing this stream closes the underlying stream and stops the reader thread.</p>
+ */
+class PipelinedInputStream extends InputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedInputStream.class);
+
+    /** The stream read ahead */
+    private final InputStream in;
+
+    /** Buffers that the reader can fill */
+    private final BlockingQueue<Buffer> freeBuffers;
+
+    /** Buffers filled by the reader, waiting to be read by the consumer */
+    private final BlockingQueue<Buffer> filledBuffers;
+
+    /** Reads the underlying stream */
+    private final Thread readerThread;
+
+    /** Buffer currently being read by the consumer, null if none */
+    private Buffer currentBuffer;
+
+    /** True once the end of the stream or an error has been reached by the consumer */
+    private boolean eof;
+
+    /** True once this stream has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new <code>PipelinedInputStream</code> and starts reading ahead the given stream.
+     *
+     * @param in the stream to read ahead
+     * @param bufferSize size of each buffer
+     * @param depth number of buffers
+     */
+    PipelinedInputStream(InputStream in, int bufferSize, int depth) {
+        this.in = in;
+        this.freeBuffers = new ArrayBlockingQueue<Buffer>(depth);
+        // One more slot for the end of stream marker
+        this.filledBuffers = new ArrayBlockingQueue<Buffer>(depth+1);
+
+        for(int i=0; i<depth; i++)
+            freeBuffers.add(new Buffer(bufferSize));
+
+        readerThread = new Thread(new Reader(), "Transfer reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Returns <code>true</code> if transfers between the given files should be pipelined: both files must be remote
+     * (local files do not benefit from it) and the pipeline depth configured for their protocols must be at least 2.
+     *
+     * @param sourceFile the file to read
+     * @param destFile the file to write
+     * @return true if transfers between the given files should be pipelined
+     */
+    static boolean isPipeliningEnabled(AbstractFile sourceFile, AbstractFile destFile) {
+        return !isLocal(sourceFile) && !isLocal(destFile) && getConfiguredDepth(sourceFile, destFile)>=2;
+    }
+
+    /**
+     * Returns the number of buffers configured for transfers between the given files: the smallest of the values
+     * configured for their protocols, see {@link MuPreferences#PIPELINE_DEPTH}.
+     *
+     * @param sourceFile the file to read
+     * @param destFile the file to write
+     * @return the number of buffers to use
+     */
+    static int getConfiguredDepth(AbstractFile sourceFile, AbstractFile destFile) {
+        int defaultDepth = MuConfigurations.getPreferences().getVariable(MuPreference.PIPELINE_DEPTH, MuPreferences.DEFAULT_PIPELINE_DEPTH);
+
+        return Math.min(getConfiguredValue(MuPreferences.PIPELINE_DEPTH, sourceFile, defaultDepth),
+                getConfiguredValue(MuPreferences.PIPELINE_DEPTH, destFile, defaultDepth));
+    }
+
+    /**
+     * Returns the size of buffers configured for transfers between the given files: the largest of the values
+     * configured for their protocols, see {@link MuPreferences#PIPELINE_BUFFER_SIZE}.
+     *
+     * @param sourceFile the file to read
+     * @param destFile the file to write
+     * @return the size of the buffers to use
+     */
+    static int getConfiguredBufferSize(AbstractFile sourceFile, AbstractFile destFile) {
+        int defaultBufferSize = MuConfigurations.getPreferences().getVariable(MuPreference.PIPELINE_BUFFER_SIZE, MuPreferences.DEFAULT_PIPELINE_BUFFER_SIZE);
+
+        return Math.max(1024, Math.max(getConfiguredValue(MuPreferences.PIPELINE_BUFFER_SIZE, sourceFile, defaultBufferSize),
+                getConfiguredValue(MuPreferences.PIPELINE_BUFFER_SIZE, destFile, defaultBufferSize)));
+    }
+
+    private static boolean isLocal(AbstractFile file) {
+        return file.hasAncestor(LocalFile.class);
+    }
+
+    /**
+     * Returns the value of the given variable configured for the protocol of the given file, <code>defaultValue</code>
+     * if none is configured or if the configured value is invalid.
+     */
+    private static int getConfiguredValue(String variable, AbstractFile file, int defaultValue) {
+        String scheme = file.getURL().getScheme();
+        String value = MuConfigurations.getPreferences().getVariable(variable+'.'+scheme);
+        if(value==null)
+            return defaultValue;
+
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException e) {
+            LOGGER.info("Invalid value of "+variable+" for "+scheme+": "+value);
+            return defaultValue;
+        }
+    }
+
+
+    ////////////////////////////
+    // InputStream operations //
+    ////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        if(!nextBuffer())
+            return -1;
+
+        return currentBuffer.data[currentBuffer.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+
+        if(!nextBuffer())
+            return -1;
+
+        int nbRead = Math.min(len, currentBuffer.length-currentBuffer.position);
+        System.arraycopy(currentBuffer.data, currentBuffer.position, b, off, nbRead);
+        currentBuffer.position += nbRead;
+
+        return nbRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return currentBuffer==null?0:currentBuffer.length-currentBuffer.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed)
+            return;
+
+        closed = true;
+        // Unblocks the reader if it is waiting for a free buffer
+        readerThread.interrupt();
+        in.close();
+    }
+
+    /**
+     * Makes sure that {@link #currentBuffer} has bytes left to read, waiting for the reader to fill a buffer if needed.
+     *
+     * @return <code>false</code> if the end of the stream has been reached
+     * @throws IOException if the underlying stream could not be read, or if this stream is closed
+     */
+    private boolean nextBuffer() throws IOException {
+        if(closed)
+            throw new IOException("Stream closed");
+
+        if(currentBuffer!=null && currentBuffer.position<currentBuffer.length)
+            return true;
+
+        if(eof)
+            return false;
+
+        // Hand the buffer that has been read back to the reader
+        if(currentBuffer!=null) {
+            freeBuffers.add(currentBuffer);
+            currentBuffer = null;
+        }
+
+        Buffer buffer;
+        try {
+            buffer = filledBuffers.take();
+        }
+        catch(InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+
+        if(buffer.length==-1) {
+            eof = true;
+            // Errors of the reader thread are thrown again in the consumer's thread
+            if(buffer.error instanceof IOException)
+                throw (IOException)buffer.error;
+            if(buffer.error instanceof RuntimeException)
+                throw (RuntimeException)buffer.error;
+            if(buffer.error instanceof Error)
+                throw (Error)buffer.error;
+
+            return false;
+        }
+
+        currentBuffer = buffer;
+        return true;
+    }
+
+
+    /**
+     * A reusable buffer, or the end of stream marker if its length is <code>-1</code>.
+     */
+    private static class Buffer {
+        private final byte data[];
+        private int length;
+        private int position;
+        private Throwable error;
+
+        private Buffer(int size) {
+            data = new byte[size];
+        }
+    }
+
+
+    /**
+     * Fills free buffers with the contents of the underlying stream until the end of the stream is reached, an error
+     * occurs or the stream is closed.
+     */
+    private class Reader implements Runnable {
+        public void run() {
+            Buffer endMarker = new Buffer(0);
+            endMarker.length = -1;
+
+            Buffer buffer = null;
+            try {
+                int nbRead = 0;
+                while(!closed && nbRead!=-1) {
+                    buffer = freeBuffers.take();
+
+                    // Fill the buffer, so that the consumer gets large chunks to write
+                    buffer.length = 0;
+                    buffer.position = 0;
+                    while(buffer.length<buffer.data.length && (nbRead=in.read(buffer.data, buffer.length, buffer.data.length-buffer.length))!=-1)
+                        buffer.length += nbRead;
+
+                    if(buffer.length>0)
+                        filledBuffers.add(buffer);
+                    buffer = null;
+                }
+            }
+            catch(IOException e) {
+                // Hand the bytes that were read before the error, the error is reported to the consumer once it has
+                // read them
+                if(buffer!=null && buffer.length>0)
+                    filledBuffers.add(buffer);
+
+                endMarker.error = e;
+            }
+            catch(InterruptedException e) {
+                // The stream has been closed
+                endMarker.error = new InterruptedIOException();
+            }
+            catch(Throwable t) {
+                // Reported to the consumer like an I/O error, the underlying stream cannot be read any further
+                endMarker.error = t;
+            }
+            finally {
+                // The consumer would otherwise wait forever
+                filledBuffers.add(endMarker);
+            }
+        }
+    }
+}
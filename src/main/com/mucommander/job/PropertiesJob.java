@@ -24,12 +24,17 @@ import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.ui.main.MainFrame;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
  * This FileJob calculates the number of files contained in a list of file and folders and
  * computes their size.
  *
+ * <p>The contents of local folders are recorded in a {@link DirectorySizeIndex}: folders that have not changed since
+ * they were last indexed are not listed again, only their subfolders are checked.</p>
+ *
  * @author Maxence Bernard
  */
 public class PropertiesJob extends FileJob {
@@ -42,6 +47,9 @@ public class PropertiesJob extends FileJob {
 	
     /** Combined size of all files encountered so far */
     private long totalBytes;
+
+    /** Directory size indexes used by this job, so that they can be saved when it stops */
+    private List<DirectorySizeIndex> usedIndexes = new ArrayList<DirectorySizeIndex>();
 	
 	
     public PropertiesJob(FileSet files, MainFrame mainFrame) {
@@ -78,6 +86,8 @@ public class PropertiesJob extends FileJob {
     /**
      * Adds the given file to the total of files or folders and the total size,
      * and recurses if it is a folder.
+     *
+     * @param recurseParams the directory size index of the parent folder, <code>null</code> for top-level files
      */
     @Override
     protected boolean processFile(AbstractFile file, Object recurseParams) {
@@ -89,13 +99,38 @@ public class PropertiesJob extends FileJob {
         if (file.isDirectory() && !file.isSymlink()) {
             nbFolders++;
 
+            // Top-level folders look up the index of their volume, subfolders use their parent's
+            DirectorySizeIndex index = recurseParams==null?getIndex(file):(DirectorySizeIndex)recurseParams;
+            if(index!=null && processIndexedFolder(file, index))
+                return true;
+
             try {
                 AbstractFile subFiles[] = file.ls();
+                List<String> subfolders = new ArrayList<String>();
+                int nbFiles = 0;
+                long nbBytes = 0;
                 for(int i=0; i<subFiles.length && getState()!=INTERRUPTED; i++) {
                     // Notify job that we're starting to process this file (needed for recursive calls to processFile)
                     nextFile(subFiles[i]);
-                    processFile(subFiles[i], null);
+
+                    if(subFiles[i].isDirectory() && !subFiles[i].isSymlink()) {
+                        subfolders.add(subFiles[i].getName());
+                        processFile(subFiles[i], index);
+                    }
+                    else {
+                        // Same as processFile(), the folder's files are also totalled for the index
+                        long fileSize = subFiles[i].getSize();
+                        nbFilesRecurse++;
+                        nbFiles++;
+                        if(fileSize>0) {
+                            totalBytes += fileSize;
+                            nbBytes += fileSize;
+                        }
+                    }
                 }
+
+                if(index!=null && getState()!=INTERRUPTED)
+                    index.put(file, nbFiles, nbBytes, subfolders.toArray(new String[subfolders.size()]));
             }
             catch(IOException e) {
                 // Should we tell the user?
@@ -112,6 +147,58 @@ public class PropertiesJob extends FileJob {
         return true;
     }
 
+    /**
+     * Adds the files of the given folder as recorded by the index, and recurses into its subfolders.
+     *
+     * @return <code>false</code> if the folder has to be listed, because it is not in the index or has changed since
+     * it was indexed
+     */
+    private boolean processIndexedFolder(AbstractFile folder, DirectorySizeIndex index) {
+        DirectorySizeIndex.Entry entry = index.get(folder);
+        if(entry==null)
+            return false;
+
+        AbstractFile subfolders[] = new AbstractFile[entry.subfolders.length];
+        try {
+            for(int i=0; i<subfolders.length; i++)
+                subfolders[i] = folder.getChild(entry.subfolders[i]);
+        }
+        catch(IOException e) {
+            index.remove(folder);
+            return false;
+        }
+
+        nbFilesRecurse += entry.nbFiles;
+        totalBytes += entry.nbBytes;
+
+        for(int i=0; i<subfolders.length && getState()!=INTERRUPTED; i++) {
+            nextFile(subfolders[i]);
+            processFile(subfolders[i], index);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the directory size index of the given folder's volume, <code>null</code> if it has none.
+     */
+    private DirectorySizeIndex getIndex(AbstractFile folder) {
+        DirectorySizeIndex index = DirectorySizeIndex.getIndex(folder, this);
+        if(index!=null && !usedIndexes.contains(index))
+            usedIndexes.add(index);
+
+        return index;
+    }
+
+    @Override
+    protected void jobStopped() {
+        super.jobStopped();
+
+        for(DirectorySizeIndex index : usedIndexes)
+            index.release(this);
+        usedIndexes.clear();
+    }
+
     // This job does not modify anything
     @Override
     protected boolean hasFolderChanged(AbstractFile folder) {
@@ -0,0 +1,360 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * An InputStream that digests the bytes read from a file as they go through, and keeps the information needed to verify
+ * the transfer of those bytes without reading the whole file again:
+ * <ul>
+ *   <li>the state of the digest is saved every {@link #CHECKPOINT_INTERVAL} bytes, so that if the transfer is
+ * interrupted and later resumed, the digest can be resumed from the closest checkpoint instead of hashing the part of
+ * the file that has already been transferred (see {@link #getCheckpoint(long)})</li>
+ *   <li>a few blocks of the file can be kept as they go through, to be compared with the corresponding blocks of the
+ * destination file once the transfer is over (see {@link #setSampledRange(long, long)} and
+ * {@link #verifySamples(AbstractFile)}). This is only a spot check: unlike the digest, it does not detect a
+ * corruption located outside the sampled blocks.</li>
+ * </ul>
+ *
+ * <p>Checkpoints require the <code>MessageDigest</code> implementation to be cloneable; if it isn't, no checkpoint
+ * is saved.</p>
+ */
+class ResumableChecksumInputStream extends FilterInputStream {
+
+    /** Number of bytes between two checkpoints */
+    final static long CHECKPOINT_INTERVAL = 4*1024*1024;
+
+    /** Number of most recent checkpoints that are kept */
+    private final static int MAX_CHECKPOINTS = 4;
+
+    /** Number of blocks sampled by {@link #setSampledRange(long, long)} */
+    private final static int NB_SAMPLES = 4;
+
+    /** Size of a sampled block */
+    private final static int SAMPLE_SIZE = 64*1024;
+
+    /** The file the bytes are read from */
+    private final AbstractFile file;
+
+    /** The digest the bytes are fed to, null if the bytes are not digested */
+    private final MessageDigest digest;
+
+    /** Offset in the file of the next byte to be read */
+    private long position;
+
+    /** Saved digest states, oldest first */
+    private final List<Checkpoint> checkpoints;
+
+    /** Offsets of the sampled blocks in the file */
+    private long sampleOffsets[];
+
+    /** Contents of the sampled blocks, filled as the bytes go through */
+    private byte samples[][];
+
+    /** End of the sampled range, i.e. the expected size of the destination file */
+    private long sampledRangeEnd;
+
+    /**
+     * Creates a new stream digesting the bytes read from the given stream.
+     *
+     * @param in the stream to read, positioned at <code>position</code> in the file
+     * @param file the file the stream is read from
+     * @param digest the digest the bytes are fed to, already fed with the bytes preceding <code>position</code>.
+     * May be <code>null</code> if the stream is only used for sampling blocks.
+     * @param position offset in the file of the next byte to be read from the stream
+     */
+    ResumableChecksumInputStream(InputStream in, AbstractFile file, MessageDigest digest, long position) {
+        super(in);
+
+        this.file = file;
+        this.digest = digest;
+        this.position = position;
+        this.checkpoints = new ArrayList<Checkpoint>();
+    }
+
+    /**
+     * Creates a new stream resuming the digest of the given checkpoint.
+     *
+     * @param in the stream to read, positioned at the checkpoint's offset in the file
+     * @param file the file the stream is read from
+     * @param checkpoint the checkpoint to resume the digest from, as returned by {@link #getCheckpoint(long)}
+     */
+    ResumableChecksumInputStream(InputStream in, AbstractFile file, Checkpoint checkpoint) {
+        this(in, file, cloneDigest(checkpoint.digest), checkpoint.offset);
+
+        // The checkpoint's digest has already been cloned once, a null clone is not expected here
+        if(digest!=null)
+            checkpoints.add(checkpoint);
+    }
+
+    /**
+     * Returns the file the bytes are read from.
+     *
+     * @return the file the bytes are read from
+     */
+    AbstractFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the offset in the file of the next byte to be read.
+     *
+     * @return the offset in the file of the next byte to be read
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns <code>true</code> if blocks are being sampled, see {@link #setSampledRange(long, long)}.
+     *
+     * @return true if blocks are being sampled
+     */
+    boolean isSampling() {
+        return samples!=null;
+    }
+
+    /**
+     * Returns the digest of the bytes read so far, including the ones that preceded the stream's start position.
+     * This method may only be called once the stream has been read entirely, <code>null</code> is returned if the
+     * bytes are not digested.
+     *
+     * @return the digest of the bytes read so far
+     */
+    byte[] getDigest() {
+        return digest==null?null:digest.digest();
+    }
+
+    /**
+     * Returns the checkpoint with the highest offset that does not exceed the given one, <code>null</code> if there
+     * is none. The returned checkpoint holds its own copy of the digest, which can be fed with more bytes.
+     *
+     * @param maxOffset the offset the checkpoint must not exceed
+     * @return the closest checkpoint, null if there is none
+     */
+    synchronized Checkpoint getCheckpoint(long maxOffset) {
+        for(int i=checkpoints.size()-1; i>=0; i--) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            if(checkpoint.offset<=maxOffset) {
+                MessageDigest digestCopy = cloneDigest(checkpoint.digest);
+                return digestCopy==null?null:new Checkpoint(checkpoint.offset, digestCopy);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Keeps a copy of a few blocks of the given range as they are read: the first and last blocks and blocks evenly
+     * spaced in between. The range must start at or after the current position.
+     *
+     * @param start offset of the first byte of the range
+     * @param end offset of the byte following the range, i.e. the expected size of the destination file
+     */
+    void setSampledRange(long start, long end) {
+        sampledRangeEnd = end;
+
+        long length = end-start;
+        if(length<=0) {
+            sampleOffsets = new long[0];
+            samples = new byte[0][];
+            return;
+        }
+
+        int nbSamples = length<=SAMPLE_SIZE*NB_SAMPLES?(int)((length+SAMPLE_SIZE-1)/SAMPLE_SIZE):NB_SAMPLES;
+        sampleOffsets = new long[nbSamples];
+        samples = new byte[nbSamples][];
+        for(int i=0; i<nbSamples; i++) {
+            long offset;
+            if(nbSamples==NB_SAMPLES && length>SAMPLE_SIZE*NB_SAMPLES)
+                offset = start + (length-SAMPLE_SIZE)*i/(nbSamples-1);
+            else
+                offset = start + (long)i*SAMPLE_SIZE;
+
+            sampleOffsets[i] = offset;
+            samples[i] = new byte[(int)Math.min(SAMPLE_SIZE, end-offset)];
+        }
+    }
+
+    /**
+     * Verifies that the given destination file has the expected size and that the blocks sampled while the bytes went
+     * through match the corresponding blocks of the destination file.
+     *
+     * @param destFile the file the bytes were written to
+     * @return <code>true</code> if the destination file matches the samples
+     * @throws IOException if the destination file could not be read
+     */
+    boolean verifySamples(AbstractFile destFile) throws IOException {
+        long destSize = destFile.getSize();
+        if(destSize!=-1 && destSize!=sampledRangeEnd)
+            return false;
+
+        for(int i=0; i<sampleOffsets.length; i++) {
+            byte destBlock[] = new byte[samples[i].length];
+            InputStream destIn = destFile.getInputStream(sampleOffsets[i]);
+            try {
+                int nbRead = 0;
+                while(nbRead<destBlock.length) {
+                    int ret = destIn.read(destBlock, nbRead, destBlock.length-nbRead);
+                    if(ret<=0)
+                        return false;
+                    nbRead += ret;
+                }
+            }
+            finally {
+                destIn.close();
+            }
+
+            if(!MessageDigest.isEqual(samples[i], destBlock))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /////////////////////////////////
+    // FilterInputStream overrides //
+    /////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        int i = in.read();
+        if(i>=0)
+            processBytes(new byte[]{(byte)i}, 0, 1);
+
+        return i;
+    }
+
+    @Override
+    public int read(byte b[]) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        int nbRead = in.read(b, off, len);
+        if(nbRead>0)
+            processBytes(b, off, nbRead);
+
+        return nbRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes have to be digested
+        byte buffer[] = new byte[(int)Math.min(n, 8192)];
+        long nbSkipped = 0;
+        while(nbSkipped<n) {
+            int nbRead = read(buffer, 0, (int)Math.min(buffer.length, n-nbSkipped));
+            if(nbRead<=0)
+                break;
+            nbSkipped += nbRead;
+        }
+
+        return nbSkipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Feeds the given bytes to the digest, saving checkpoints on interval boundaries, and copies the parts of them
+     * that belong to sampled blocks.
+     */
+    private void processBytes(byte b[], int off, int len) {
+        if(samples!=null)
+            copySamples(b, off, len);
+
+        if(digest==null) {
+            position += len;
+            return;
+        }
+
+        while(len>0) {
+            long nextCheckpoint = (position/CHECKPOINT_INTERVAL+1)*CHECKPOINT_INTERVAL;
+            int chunkLen = (int)Math.min(len, nextCheckpoint-position);
+
+            digest.update(b, off, chunkLen);
+            position += chunkLen;
+            off += chunkLen;
+            len -= chunkLen;
+
+            if(position==nextCheckpoint)
+                saveCheckpoint();
+        }
+    }
+
+    private synchronized void saveCheckpoint() {
+        MessageDigest digestCopy = cloneDigest(digest);
+        if(digestCopy==null)
+            return;
+
+        checkpoints.add(new Checkpoint(position, digestCopy));
+        if(checkpoints.size()>MAX_CHECKPOINTS)
+            checkpoints.remove(0);
+    }
+
+    private void copySamples(byte b[], int off, int len) {
+        for(int i=0; i<sampleOffsets.length; i++) {
+            long sampleStart = Math.max(sampleOffsets[i], position);
+            long sampleEnd = Math.min(sampleOffsets[i]+samples[i].length, position+len);
+            if(sampleStart<sampleEnd)
+                System.arraycopy(b, off+(int)(sampleStart-position), samples[i], (int)(sampleStart-sampleOffsets[i]), (int)(sampleEnd-sampleStart));
+        }
+    }
+
+    /**
+     * Returns a copy of the given digest, <code>null</code> if the digest implementation cannot be cloned.
+     */
+    private static MessageDigest cloneDigest(MessageDigest digest) {
+        try {
+            return (MessageDigest)digest.clone();
+        }
+        catch(CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * The state of the digest after the bytes preceding a given offset have been fed to it.
+     */
+    static class Checkpoint {
+        /** Offset of the byte following the last byte fed to the digest */
+        final long offset;
+        /** The digest */
+        final MessageDigest digest;
+
+        Checkpoint(long offset, MessageDigest digest) {
+            this.offset = offset;
+            this.digest = digest;
+        }
+    }
+}
@@ -19,8 +19,12 @@
 
 package com.mucommander.job;
 
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -34,10 +38,7 @@ import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.commons.io.ByteCounter;
-import com.mucommander.commons.io.ChecksumInputStream;
-import com.mucommander.commons.io.CounterInputStream;
 import com.mucommander.commons.io.FileTransferException;
-import com.mucommander.commons.io.ThroughputLimitInputStream;
 import com.mucommander.commons.io.security.MuProvider;
 import com.mucommander.commons.runtime.OsFamily;
 import com.mucommander.text.Translator;
@@ -62,32 +63,59 @@ public abstract class TransferFileJob extends FileJob {
     /** Contains the number of bytes skipped in the current file so far, see {@link #getCurrentFileSkippedByteCounter()} ()} */
     private ByteCounter currentFileSkippedByteCounter;
 
+    /** Contains the number of bytes processed by parallel transfers so far */
+    private ByteCounter parallelByteCounter;
+
+    /** Contains the number of bytes skipped by parallel transfers so far (resumed files) */
+    private ByteCounter parallelSkippedByteCounter;
+
     /** Contains the number of bytes processed so far, see {@link #getTotalByteCounter()} */
     private ByteCounter totalByteCounter;
 
     /** Contains the number of bytes skipped so far (resumed files), see {@link #getTotalSkippedByteCounter()} */
     private ByteCounter totalSkippedByteCounter;
 
-    /** InputStream currently being processed, may be null */
-    private ThroughputLimitInputStream tlin;
+    /** State of the transfers performed by the job's thread: InputStream currently being processed, ... */
+    private TransferState transferState;
 
     /** ThroughputLimit in bytes per second, -1 initially (no limit) */
     private long throughputLimit = -1;
 
-    /** Has the file currently being processed been skipped ? */
-    private boolean currentFileSkipped;
-
     /** If true, all transfers will be checked for integrity: the checksum of the source and destination file will
      *  be calculated and compared to verify they match. */
     private boolean integrityCheckEnabled;
 
-    /** True when the checksum of the source or destination file is being calculated. */
-    private boolean isCheckingIntegrity;
+    /** If true, transferred files are only spot-checked, by comparing the size and a few blocks of the destination
+     *  file with those of the source file, rather than the checksums of the whole files. */
+    private boolean spotCheckEnabled;
+
+    /** Maximum number of files transferred concurrently, 1 (files are transferred one at a time) by default */
+    private int parallelTransfers = 1;
+
+    /** Performs the transfers submitted with {@link #submitCopyFile(AbstractFile, AbstractFile, boolean, String, CopyCompletion)},
+     * created when the first transfer is submitted */
+    private ParallelTransferPool parallelTransferPool;
+
+    /** If true, the files are scanned in the background when the job starts to find out the total number of files
+     *  and bytes to transfer */
+    private boolean prescanEnabled;
+
+    /** Scans the files in the background, null if the pre-scan is disabled or the job has not started yet */
+    private FolderScanner folderScanner;
+
+    /** Number of files (folders excluded) processed so far */
+    private int nbProcessedFiles;
 
     /** The checksum algorithm used for checking the integrity of transferred files. The algorithm has to be the fastest
      * possible (to have the minimum impact on transfer speed) and does not need to have a good resitance to collision. */
     private final static String CHECKSUM_VERIFICATION_ALGORITHM = "Adler32";
 
+    /** Maximum number of bytes transferred at once when copying local files with channels */
+    private final static long CHANNEL_TRANSFER_CHUNK_SIZE = 8*1024*1024;
+
+    /** Minimum number of bytes transferred at once when copying local files with channels and the throughput is limited */
+    private final static long MIN_CHANNEL_TRANSFER_CHUNK_SIZE = 64*1024;
+
 
     static {
         // Register additional MessageDigest implementations provided by the muCommander API
@@ -103,9 +131,13 @@ public abstract class TransferFileJob extends FileJob {
         this.currentFileByteCounter = new ByteCounter();
         this.currentFileSkippedByteCounter = new ByteCounter();
 
-        // Account the current file's byte counter in the total byte counter
-        this.totalByteCounter = new ByteCounter(currentFileByteCounter);
-        this.totalSkippedByteCounter = new ByteCounter(currentFileSkippedByteCounter);
+        // Account the current file's and parallel transfers' byte counters in the total byte counter
+        this.parallelByteCounter = new ByteCounter(currentFileByteCounter);
+        this.parallelSkippedByteCounter = new ByteCounter(currentFileSkippedByteCounter);
+        this.totalByteCounter = new ByteCounter(parallelByteCounter);
+        this.totalSkippedByteCounter = new ByteCounter(parallelSkippedByteCounter);
+
+        this.transferState = new TransferState(currentFileByteCounter, currentFileSkippedByteCounter);
     }
 
 	
@@ -114,8 +146,16 @@ public abstract class TransferFileJob extends FileJob {
      * As much as the source and destination protocols allow, the source file's date and permissions will be preserved.
      */
     protected void copyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append) throws FileTransferException {
+        copyFile(sourceFile, destFile, append, transferState);
+    }
+
+    /**
+     * Copies the given source file to the specified destination file, using the given {@link TransferState} to read
+     * the source file. This method may be called concurrently by parallel transfer workers, each with its own state.
+     */
+    void copyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append, TransferState state) throws FileTransferException {
         // Reset this field in case it was set to true for the previous file
-        isCheckingIntegrity = false;
+        state.setCheckingIntegrity(false);
 
         // Throw a specific FileTransferException if source and destination files are identical
         if(sourceFile.equalsCanonical(destFile))
@@ -137,47 +177,82 @@ public abstract class TransferFileJob extends FileJob {
         }
 
         // If the file wasn't copied using copyRemotelyTo(), or if copyRemotelyTo() failed
-        InputStream in = null;
-        if(!copied) {
+        ResumableChecksumInputStream checksumIn = null;
+        if(!copied && canTransferChannels(sourceFile, destFile)) {
+            // Both files are local: let the OS copy the file without bringing its contents in user space
+            transferChannels(sourceFile, destFile, append, state);
+        }
+        else if(!copied) {
             // Copy source file stream to destination file
+            PipelinedInputStream pipelinedIn = null;
             try {
                 long inLength = sourceFile.getSize();
+                InputStream in;
 
                 // Try to open InputStream
                 try  {
                     long destFileSize = destFile.getSize();
                     if(append && destFileSize!=-1) {
-                        in = sourceFile.getInputStream(destFileSize);
-                        // Do not calculate checksum, as it needs to be calculated on the whole file
+                        if(integrityCheckEnabled) {
+                            // Resume the source file's digest from the closest checkpoint, and digest the part of the
+                            // file that has already been transferred up to the point where the transfer resumes
+                            checksumIn = openChecksumInputStream(sourceFile, destFileSize, inLength, state);
+                            state.addSkippedBytes(checksumIn.getPosition());
+                            skipFully(state.setInputStream(checksumIn), destFileSize-checksumIn.getPosition());
+                        }
+                        else {
+                            in = sourceFile.getInputStream(destFileSize);
+                            // Increase current file ByteCounter and skipped ByteCounter by the number of bytes skipped
+                            state.addSkippedBytes(destFileSize);
+                            state.setInputStream(in);
+                        }
 
                         inLength -= destFileSize;
-                        // Increase current file ByteCounter by the number of bytes skipped
-                        currentFileByteCounter.add(destFileSize);
-                        // Increase skipped ByteCounter by the number of bytes skipped
-                        currentFileSkippedByteCounter.add(destFileSize);
                     }
                     else {
-                        in = sourceFile.getInputStream();
-                        if(integrityCheckEnabled)
-                            in = new ChecksumInputStream(in, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM));
+                        if(integrityCheckEnabled) {
+                            checksumIn = openChecksumInputStream(sourceFile, 0, inLength, state);
+                            in = checksumIn;
+                        }
+                        else {
+                            in = sourceFile.getInputStream();
+                        }
+
+                        state.setInputStream(in);
                     }
-
-                    setCurrentInputStream(in);
                 }
                 catch(Exception e) {
                     LOGGER.debug("IOException caught, throwing FileTransferException", e);
                     throw new FileTransferException(FileTransferException.OPENING_SOURCE);
                 }
 
+                // Between remote files, read the source file in a separate thread while the destination file
+                // is being written to
+                InputStream transferIn = state.getInputStream();
+                if(PipelinedInputStream.isPipeliningEnabled(sourceFile, destFile)) {
+                    int bufferSize = PipelinedInputStream.getConfiguredBufferSize(sourceFile, destFile);
+                    // Not worth a thread for files that fit in a single buffer
+                    if(inLength==-1 || inLength>bufferSize) {
+                        pipelinedIn = new PipelinedInputStream(transferIn, bufferSize, PipelinedInputStream.getConfiguredDepth(sourceFile, destFile));
+                        transferIn = pipelinedIn;
+                    }
+                }
+
                 // Copy source stream to destination file
-                destFile.copyStream(tlin, append, inLength);
+                destFile.copyStream(transferIn, append, inLength);
             }
             finally {
                 // This block will always be executed, even if an exception
                 // was thrown in the catch block
 
+                // Stops reading ahead, if the source file was being read in a separate thread
+                if(pipelinedIn!=null) {
+                    try { pipelinedIn.close(); }
+                    catch(IOException e) {}
+                }
+
                 // Tries to close the streams no matter what happened before
-                closeCurrentInputStream();
+                state.closeInputStream();
             }
         }
 
@@ -221,55 +296,229 @@ public abstract class TransferFileJob extends FileJob {
 
         // This block is executed only if integrity check has been enabled (disabled by default)
         if(integrityCheckEnabled) {
-            String sourceChecksum;
-            String destinationChecksum;
-
             // Indicate that integrity is being checked, the value is reset when the next file starts
-            isCheckingIntegrity = true;
+            state.setCheckingIntegrity(true);
 
-            if(in!=null && (in instanceof ChecksumInputStream)) {
-                // The file was copied with a ChecksumInputStream, the checksum is already calculated, simply
-                // retrieve it
-                sourceChecksum = ((ChecksumInputStream)in).getChecksumString();
+            if(checksumIn!=null && checksumIn.isSampling()) {
+                // Spot check: compare the size and the blocks that were sampled while the file was copied, rather
+                // than reading the whole destination file again
+                boolean samplesMatch;
+                try {
+                    samplesMatch = checksumIn.verifySamples(destFile);
+                }
+                catch(IOException e) {
+                    throw new FileTransferException(FileTransferException.READING_DESTINATION);
+                }
+
+                if(!samplesMatch)
+                    throw new FileTransferException(FileTransferException.CHECKSUM_MISMATCH);
             }
             else {
-                // The file was copied using AbstractFile#copyRemotelyTo(), or the transfer was resumed:
-                // we have to calculate the source file's checksum from scratch.
+                byte sourceDigest[];
+                byte destinationDigest[];
+
+                if(checksumIn!=null) {
+                    // The file was copied with a ResumableChecksumInputStream, the checksum is already calculated,
+                    // simply retrieve it
+                    sourceDigest = checksumIn.getDigest();
+                }
+                else {
+                    // The file was copied using AbstractFile#copyRemotelyTo(): we have to calculate the source file's
+                    // checksum from scratch.
+                    try {
+                        sourceDigest = calculateDigest(sourceFile, state);
+                    }
+                    catch(Exception e) {
+                        throw new FileTransferException(FileTransferException.READING_SOURCE);
+                    }
+                }
+
+                // Calculate the destination file's checksum, reading it again so that what was actually written is
+                // verified
                 try {
-                    sourceChecksum = calculateChecksum(sourceFile);
+                    destinationDigest = calculateDigest(destFile, state);
                 }
                 catch(Exception e) {
-                    throw new FileTransferException(FileTransferException.READING_SOURCE);
+                    throw new FileTransferException(FileTransferException.READING_DESTINATION);
+                }
+
+                // Compare both checksums and throw an exception if they don't match
+                if(!MessageDigest.isEqual(sourceDigest, destinationDigest)) {
+                    LOGGER.debug("Checksum mismatch between "+sourceFile+" and "+destFile);
+                    throw new FileTransferException(FileTransferException.CHECKSUM_MISMATCH);
+                }
+            }
+
+            // The file has been verified, there is nothing left to resume
+            state.setChecksumInputStream(null);
+        }
+    }
+
+    /**
+     * Opens an InputStream that digests the given source file as it is read, positioned at or before the given offset.
+     * If the source file was being digested by a previous transfer that was interrupted, the stream starts at the last
+     * checkpoint of that transfer that does not exceed the offset, so that the part of the file that precedes the
+     * checkpoint does not have to be digested again. Otherwise, the stream starts at the beginning of the file.
+     *
+     * <p>When spot check is enabled and the size of the file is known, the stream is not digested but samples the
+     * blocks located after the offset instead.</p>
+     */
+    private ResumableChecksumInputStream openChecksumInputStream(AbstractFile sourceFile, long offset, long size, TransferState state) throws IOException, NoSuchAlgorithmException {
+        ResumableChecksumInputStream checksumIn;
+
+        if(spotCheckEnabled && size!=-1) {
+            checksumIn = new ResumableChecksumInputStream(offset==0?sourceFile.getInputStream():sourceFile.getInputStream(offset), sourceFile, null, offset);
+            checksumIn.setSampledRange(offset, size);
+        }
+        else {
+            ResumableChecksumInputStream.Checkpoint checkpoint = null;
+            ResumableChecksumInputStream previous = state.getChecksumInputStream();
+            if(offset>0 && previous!=null && previous.getFile().equals(sourceFile))
+                checkpoint = previous.getCheckpoint(offset);
+
+            if(checkpoint==null)
+                checksumIn = new ResumableChecksumInputStream(sourceFile.getInputStream(), sourceFile, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM), 0);
+            else
+                checksumIn = new ResumableChecksumInputStream(sourceFile.getInputStream(checkpoint.offset), sourceFile, checkpoint);
+        }
+
+        state.setChecksumInputStream(checksumIn);
+        return checksumIn;
+    }
+
+    /**
+     * Reads and discards the given number of bytes from the given InputStream.
+     *
+     * @throws IOException if the end of the stream was reached before the given number of bytes could be read
+     */
+    private static void skipFully(InputStream in, long nbBytes) throws IOException {
+        byte buffer[] = new byte[(int)Math.min(nbBytes, 65536)];
+        while(nbBytes>0) {
+            int nbRead = in.read(buffer, 0, (int)Math.min(buffer.length, nbBytes));
+            if(nbRead==-1)
+                throw new EOFException();
+
+            nbBytes -= nbRead;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given source file can be copied with {@link #transferChannels(AbstractFile, AbstractFile, boolean, TransferState)}:
+     * both files must be local, and the integrity check disabled as the file contents do not go through user space.
+     */
+    private boolean canTransferChannels(AbstractFile sourceFile, AbstractFile destFile) {
+        return !integrityCheckEnabled
+            && sourceFile.hasAncestor(LocalFile.class)
+            && destFile.hasAncestor(LocalFile.class);
+    }
+
+    /**
+     * Copies the given local source file to the specified local destination file using <code>FileChannel#transferTo</code>,
+     * which lets the OS copy the file without bringing its contents in user space whenever possible.
+     * The file is copied in chunks, so that the transfer can be paused, limited in throughput, skipped or
+     * interrupted like a stream copy.
+     */
+    private void transferChannels(AbstractFile sourceFile, AbstractFile destFile, boolean append, TransferState state) throws FileTransferException {
+        java.io.File source = (java.io.File)sourceFile.getAncestor(LocalFile.class).getUnderlyingFileObject();
+        java.io.File destination = (java.io.File)destFile.getAncestor(LocalFile.class).getUnderlyingFileObject();
+
+        FileInputStream fin = null;
+        FileOutputStream fout = null;
+        try {
+            try {
+                fin = new FileInputStream(source);
+            }
+            catch(IOException e) {
+                LOGGER.debug("IOException caught, throwing FileTransferException", e);
+                throw new FileTransferException(FileTransferException.OPENING_SOURCE);
+            }
+
+            long position = 0;
+            try {
+                if(append && destination.exists()) {
+                    position = destination.length();
+                    // Increase current file ByteCounter and skipped ByteCounter by the number of bytes skipped
+                    state.addSkippedBytes(position);
                 }
+
+                fout = new FileOutputStream(destination, append);
+            }
+            catch(IOException e) {
+                LOGGER.debug("IOException caught, throwing FileTransferException", e);
+                throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
             }
 
-            LOGGER.debug("Source checksum= "+sourceChecksum);
+            FileChannel inChannel = fin.getChannel();
+            FileChannel outChannel = fout.getChannel();
+            state.setChannels(inChannel, outChannel);
 
-            // Calculate the destination file's checksum
+            long size;
             try {
-                destinationChecksum = calculateChecksum(destFile);
+                size = inChannel.size();
+                while(position<size) {
+                    long chunkSize = Math.min(getChannelTransferChunkSize(state), size-position);
+                    // Blocks while the job is paused, and as long as needed to honour the throughput limit
+                    state.waitForThroughput(chunkSize);
+
+                    long nbTransferred = inChannel.transferTo(position, chunkSize, outChannel);
+                    if(nbTransferred<=0)
+                        break;
+
+                    position += nbTransferred;
+                    state.addProcessedBytes(nbTransferred);
+                }
             }
-            catch(Exception e) {
-                throw new FileTransferException(FileTransferException.READING_DESTINATION);
+            catch(IOException e) {
+                LOGGER.debug("IOException caught, throwing FileTransferException", e);
+                throw new FileTransferException(FileTransferException.WRITING_DESTINATION);
             }
 
-            LOGGER.debug("Destination checksum= "+destinationChecksum);
+            // The source file has shrunk while being copied
+            if(position<size)
+                throw new FileTransferException(FileTransferException.READING_SOURCE);
+        }
+        finally {
+            // Tries to close the channels no matter what happened before
+            state.closeInputStream();
+
+            if(fin!=null) {
+                try { fin.close(); }
+                catch(IOException e) {}
+            }
 
-            // Compare both checksums and throw an exception if they don't match
-            if(!sourceChecksum.equals(destinationChecksum)) {
-                throw new FileTransferException(FileTransferException.CHECKSUM_MISMATCH);
+            if(fout!=null) {
+                try { fout.close(); }
+                catch(IOException e) {}
             }
         }
     }
 
-    private String calculateChecksum(AbstractFile file) throws IOException, NoSuchAlgorithmException {
-        currentFileByteCounter.reset();
-        InputStream in = setCurrentInputStream(file.getInputStream());
+    /**
+     * Returns the number of bytes to transfer at once with channels: when the throughput is limited, chunks are
+     * made small enough for the limit to be honoured smoothly.
+     */
+    private static long getChannelTransferChunkSize(TransferState state) {
+        long throughputLimit = state.getThroughputLimit();
+        if(throughputLimit<=0)
+            return CHANNEL_TRANSFER_CHUNK_SIZE;
+
+        return Math.max(MIN_CHANNEL_TRANSFER_CHUNK_SIZE, Math.min(CHANNEL_TRANSFER_CHUNK_SIZE, throughputLimit/4));
+    }
+
+    private byte[] calculateDigest(AbstractFile file, TransferState state) throws IOException, NoSuchAlgorithmException {
+        state.getByteCounter().reset();
+        InputStream in = state.setInputStream(file.getInputStream());
         try {
-            return AbstractFile.calculateChecksum(in, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM));
+            MessageDigest digest = MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM);
+            byte buffer[] = new byte[65536];
+            int nbRead;
+            while((nbRead=in.read(buffer))!=-1)
+                digest.update(buffer, 0, nbRead);
+
+            return digest.digest();
         }
         finally {
-            closeCurrentInputStream();
+            state.closeInputStream();
         }
     }
 
@@ -299,33 +548,7 @@ public abstract class TransferFileJob extends FileJob {
                 // Print the exception's stack trace
                 LOGGER.debug("Copy failed", e);
 
-                int reason = e.getReason();
-                int choice;
-                switch(reason) {
-                    // Could not open source file for read
-                    case FileTransferException.OPENING_SOURCE:
-                        choice = showErrorDialog(errorDialogTitle, Translator.get("cannot_read_file", sourceFile.getName()));
-                        break;
-                    // Could not open destination file for write
-                    case FileTransferException.OPENING_DESTINATION:
-                        choice = showErrorDialog(errorDialogTitle, Translator.get("cannot_write_file", destFile.getName()));
-                        break;
-                    // Source and destination files are identical
-                    case FileTransferException.SOURCE_AND_DESTINATION_IDENTICAL:
-                        choice = showErrorDialog(errorDialogTitle, Translator.get("same_source_destination"));
-                        break;
-                    // Checksum of source and destination files don't match
-                    case FileTransferException.CHECKSUM_MISMATCH:
-                        choice = showErrorDialog(errorDialogTitle, Translator.get("integrity_check_error"));
-                        break;
-                    default:
-                        choice = showErrorDialog(errorDialogTitle,
-                                                 Translator.get("error_while_transferring", sourceFile.getName()),
-                                                 new String[]{SKIP_TEXT, SKIP_ALL_TEXT, APPEND_TEXT, RETRY_TEXT, CANCEL_TEXT},
-                                                 new int[]{SKIP_ACTION, SKIP_ALL_ACTION, APPEND_ACTION, RETRY_ACTION, CANCEL_ACTION}
-                                                 );
-                    break;
-                }
+                int choice = showTransferErrorDialog(e, sourceFile, destFile, errorDialogTitle);
 
                 // Retry action (append or retry)
                 if(choice==RETRY_ACTION || choice==APPEND_ACTION) {
@@ -344,6 +567,45 @@ public abstract class TransferFileJob extends FileJob {
     }
 
 
+    /**
+     * Displays an error dialog matching the reason of the given {@link FileTransferException}, offering to skip the
+     * file, retry or cancel (and resume the transfer when applicable), and returns the user's choice.
+     *
+     * @return the action chosen by the user
+     */
+    int showTransferErrorDialog(FileTransferException e, AbstractFile sourceFile, AbstractFile destFile, String errorDialogTitle) {
+        int reason = e.getReason();
+        int choice;
+        switch(reason) {
+            // Could not open source file for read
+            case FileTransferException.OPENING_SOURCE:
+                choice = showErrorDialog(errorDialogTitle, Translator.get("cannot_read_file", sourceFile.getName()));
+                break;
+            // Could not open destination file for write
+            case FileTransferException.OPENING_DESTINATION:
+                choice = showErrorDialog(errorDialogTitle, Translator.get("cannot_write_file", destFile.getName()));
+                break;
+            // Source and destination files are identical
+            case FileTransferException.SOURCE_AND_DESTINATION_IDENTICAL:
+                choice = showErrorDialog(errorDialogTitle, Translator.get("same_source_destination"));
+                break;
+            // Checksum of source and destination files don't match
+            case FileTransferException.CHECKSUM_MISMATCH:
+                choice = showErrorDialog(errorDialogTitle, Translator.get(spotCheckEnabled?"spot_check_error":"integrity_check_error"));
+                break;
+            default:
+                choice = showErrorDialog(errorDialogTitle,
+                                         Translator.get("error_while_transferring", sourceFile.getName()),
+                                         new String[]{SKIP_TEXT, SKIP_ALL_TEXT, APPEND_TEXT, RETRY_TEXT, CANCEL_TEXT},
+                                         new int[]{SKIP_ACTION, SKIP_ALL_ACTION, APPEND_ACTION, RETRY_ACTION, CANCEL_ACTION}
+                                         );
+            break;
+        }
+
+        return choice;
+    }
+
+
     /**
      * Registers the given InputStream as currently in use, in order to:
      * <ul>
@@ -358,25 +620,15 @@ public abstract class TransferFileJob extends FileJob {
      * @param in the InputStream to be used
      * @return the 'augmented' InputStream using the given stream as the underlying InputStream
      */
-    protected synchronized InputStream setCurrentInputStream(InputStream in) {
-        if(tlin==null) {
-            tlin = new ThroughputLimitInputStream(new CounterInputStream(in, currentFileByteCounter), throughputLimit);
-        }
-        else {
-            tlin.setUnderlyingInputStream(new CounterInputStream(in, currentFileByteCounter));
-        }
-
-        return tlin;
+    protected InputStream setCurrentInputStream(InputStream in) {
+        return transferState.setInputStream(in);
     }
 
     /**
      * Closes the currently registered source InputStream.
      */
-    protected synchronized void closeCurrentInputStream() {
-        if(tlin !=null) {
-            try { tlin.close(); }
-            catch(IOException e) {}
-        }
+    protected void closeCurrentInputStream() {
+        transferState.closeInputStream();
     }
 
 
@@ -400,13 +652,207 @@ public abstract class TransferFileJob extends FileJob {
         this.integrityCheckEnabled = integrityCheckEnabled;
     }
 
+    /**
+     * Returns <code>true</code> if transferred files are only spot-checked rather than checked for integrity,
+     * see {@link #setSpotCheckEnabled(boolean)}.
+     *
+     * @return true if transferred files are only spot-checked
+     */
+    public boolean isSpotCheckEnabled() {
+        return spotCheckEnabled;
+    }
+
+    /**
+     * Specifies whether transferred files are only spot-checked, when checking is enabled. If <code>true</code> is
+     * specified, the destination file's size and a few blocks of it are compared with the bytes that were read from
+     * the source file. This is much faster than comparing checksums but is not an integrity check: a corruption
+     * located outside the sampled blocks goes undetected. Files copied by the server
+     * (see {@link AbstractFile#copyRemotelyTo(AbstractFile)}) are always verified by comparing checksums.
+     *
+     * @param spotCheckEnabled true to only spot-check transferred files
+     */
+    public void setSpotCheckEnabled(boolean spotCheckEnabled) {
+        this.spotCheckEnabled = spotCheckEnabled;
+    }
+
     /**
      * Returns <code>true</code> if the integrity of the current file is being verified.
      *
      * @return true if the integrity of the current file is being verified
      */
     protected boolean isCheckingIntegrity() {
-        return isCheckingIntegrity;
+        return transferState.isCheckingIntegrity();
+    }
+
+    /**
+     * Sets the maximum number of files that can be transferred concurrently by
+     * {@link #submitCopyFile(AbstractFile, AbstractFile, boolean, String, CopyCompletion)}. A value of <code>1</code>
+     * (the default) disables parallel transfers: files are copied one at a time by the job's thread.
+     * This method has no effect once the job has started transferring files.
+     *
+     * @param parallelTransfers maximum number of files transferred concurrently
+     */
+    public void setParallelTransfers(int parallelTransfers) {
+        this.parallelTransfers = Math.max(1, parallelTransfers);
+    }
+
+    /**
+     * Returns the maximum number of files that can be transferred concurrently, <code>1</code> if parallel
+     * transfers are disabled.
+     *
+     * @return the maximum number of files that can be transferred concurrently
+     */
+    public int getParallelTransfers() {
+        return parallelTransfers;
+    }
+
+    /**
+     * Returns the number of files that should be transferred concurrently between the given folders, as configured
+     * by the {@link com.mucommander.conf.MuPreferences#PARALLEL_TRANSFERS} preference and its per-protocol variants.
+     *
+     * @param sourceFolder the folder files are transferred from, may be <code>null</code>
+     * @param destFolder the folder files are transferred to, may be <code>null</code>
+     * @return the number of files that should be transferred concurrently, 1 if parallel transfers are disabled
+     * @see #setParallelTransfers(int)
+     */
+    public static int getConfiguredParallelTransfers(AbstractFile sourceFolder, AbstractFile destFolder) {
+        return ParallelTransferPool.getConfiguredTransfers(sourceFolder, destFolder);
+    }
+
+    /**
+     * Returns <code>true</code> if files submitted with {@link #submitCopyFile(AbstractFile, AbstractFile, boolean, String, CopyCompletion)}
+     * are transferred in the background, concurrently with the job's thread.
+     *
+     * @return true if parallel transfers are enabled
+     */
+    protected boolean isParallelTransfersEnabled() {
+        return parallelTransfers>1;
+    }
+
+    /**
+     * A task executed on the job's thread once a file submitted with
+     * {@link #submitCopyFile(AbstractFile, AbstractFile, boolean, String, CopyCompletion)} has been copied successfully.
+     */
+    protected interface CopyCompletion {
+
+        /**
+         * Completes the processing of a file that has been copied successfully.
+         *
+         * @return <code>true</code> if the file was processed successfully, <code>false</code> if it failed
+         */
+        public boolean fileCopied();
+    }
+
+    /**
+     * Copies the given source file to the specified destination file, like {@link #tryCopyFile(AbstractFile, AbstractFile, boolean, String)}
+     * does. If parallel transfers are enabled, the file is copied in the background and this method returns as soon
+     * as the transfer has been scheduled: errors are reported, and the given completion task executed, on the job's
+     * thread by a subsequent call to this method or to {@link #waitForPendingFiles()}.
+     * If parallel transfers are disabled, the file is copied right away and the completion task executed if the copy
+     * succeeded.
+     *
+     * <p>Files are always copied right away when the destination file is located inside an archive, as concurrent
+     * writes would corrupt the archive.</p>
+     *
+     * @param onSuccess executed on the job's thread once the file has been copied successfully, may be <code>null</code>
+     * @return <code>false</code> if the file was copied right away and the transfer or the completion task failed,
+     * <code>true</code> otherwise
+     */
+    protected boolean submitCopyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append, String errorDialogTitle, CopyCompletion onSuccess) {
+        if(!isParallelTransfersEnabled() || destFile.getParentArchive()!=null) {
+            if(!tryCopyFile(sourceFile, destFile, append, errorDialogTitle))
+                return false;
+
+            return onSuccess==null || onSuccess.fileCopied();
+        }
+
+        synchronized(this) {
+            if(parallelTransferPool==null) {
+                parallelTransferPool = new ParallelTransferPool(this, parallelTransfers, parallelByteCounter, parallelSkippedByteCounter);
+                if(getState()==PAUSED)
+                    parallelTransferPool.pause();
+            }
+        }
+
+        parallelTransferPool.submit(sourceFile, destFile, append, errorDialogTitle, files.elementAt(getCurrentFileIndex()), onSuccess);
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if a file located in the given folder (or in one of its subfolders) was submitted
+     * with {@link #submitCopyFile(AbstractFile, AbstractFile, boolean, String, CopyCompletion)} and could not be
+     * transferred in the background. Always returns <code>false</code> if parallel transfers are disabled.
+     *
+     * @param folder the folder to test
+     * @return true if a file located in the given folder could not be transferred in the background
+     */
+    protected boolean hasFailedTransfers(AbstractFile folder) {
+        return parallelTransferPool!=null && parallelTransferPool.hasFailedTransfers(folder);
+    }
+
+    /**
+     * Specifies whether the files are scanned in the background when the job starts, to find out the total number of
+     * files and bytes to transfer. When the scan is complete, the job's progress is weighted by the number of bytes
+     * transferred rather than by the number of top-level files processed. This method has no effect once the job
+     * has started.
+     *
+     * @param prescanEnabled true to scan the files in the background when the job starts
+     */
+    public void setPrescanEnabled(boolean prescanEnabled) {
+        this.prescanEnabled = prescanEnabled;
+    }
+
+    /**
+     * Returns <code>true</code> if the files are scanned in the background when the job starts.
+     *
+     * @return true if the files are scanned in the background when the job starts
+     */
+    public boolean isPrescanEnabled() {
+        return prescanEnabled;
+    }
+
+    /**
+     * Returns the total number of bytes this job has to transfer, <code>-1</code> if it is not known (yet): the
+     * pre-scan is disabled or has not completed.
+     *
+     * @return the total number of bytes this job has to transfer, -1 if it is not known
+     */
+    public long getTotalBytes() {
+        FolderScanner scanner = folderScanner;
+        return scanner!=null && scanner.isComplete()?scanner.getNbBytes():-1;
+    }
+
+    /**
+     * Returns the total number of files (folders excluded) this job has to transfer, <code>-1</code> if it is not
+     * known (yet): the pre-scan is disabled or has not completed.
+     *
+     * @return the total number of files this job has to transfer, -1 if it is not known
+     */
+    public int getTotalNbFiles() {
+        FolderScanner scanner = folderScanner;
+        return scanner!=null && scanner.isComplete()?scanner.getNbFiles():-1;
+    }
+
+    /**
+     * Returns the number of files (folders excluded) this job has processed so far.
+     *
+     * @return the number of files processed so far
+     */
+    public int getNbFilesProcessed() {
+        return nbProcessedFiles;
+    }
+
+    /**
+     * Returns the contents of the given folder. This method should be used in place of {@link AbstractFile#ls()} to
+     * list the folders being transferred, so that folders already listed by the pre-scan are not listed again.
+     *
+     * @param folder the folder to list
+     * @return the contents of the given folder
+     * @throws IOException if the folder could not be listed
+     */
+    protected AbstractFile[] ls(AbstractFile folder) throws IOException {
+        FolderScanner scanner = folderScanner;
+        return scanner==null?folder.ls():scanner.ls(folder);
     }
 
 
@@ -414,15 +860,14 @@ public abstract class TransferFileJob extends FileJob {
      * Interrupts the current file transfer and advance to the next one.
      */
     public synchronized void skipCurrentFile() {
-        if(tlin !=null) {
-            LOGGER.debug("skipping current file, closing "+ tlin);
+        LOGGER.debug("skipping current file");
 
-            // Prevents an error from being reported when the current InputStream is closed
-            currentFileSkipped = true;
+        // Close the current input stream to interrupt the transfer
+        transferState.skip();
 
-            // Close the current input stream to interrupt the transfer
-            closeCurrentInputStream();
-        }
+        // Files that are being transferred in the background are all skipped
+        if(parallelTransferPool!=null)
+            parallelTransferPool.skipActiveTransfers();
 
         // Resume job if currently paused 
         if(getState()==PAUSED)
@@ -435,7 +880,7 @@ public abstract class TransferFileJob extends FileJob {
      * @return true if the file that is currently being processed has been skipped
      */
     public synchronized boolean wasCurrentFileSkipped() {
-        return currentFileSkipped;
+        return transferState.isSkipped();
     }
 
     /**
@@ -500,6 +945,26 @@ public abstract class TransferFileJob extends FileJob {
         return totalSkippedByteCounter;
     }
 
+    /**
+     * Returns the counter that files processed by background threads report their processed bytes to, so that they are
+     * accounted in the {@link #getTotalByteCounter() total byte counter}.
+     *
+     * @return the counter that files processed in the background report their processed bytes to
+     */
+    ByteCounter getParallelByteCounter() {
+        return parallelByteCounter;
+    }
+
+    /**
+     * Returns the counter that files processed by background threads report their skipped bytes to, so that they are
+     * accounted in the {@link #getTotalSkippedByteCounter() total skipped byte counter}.
+     *
+     * @return the counter that files processed in the background report their skipped bytes to
+     */
+    ByteCounter getParallelSkippedByteCounter() {
+        return parallelSkippedByteCounter;
+    }
+
 
     /**
      * Sets a transfer throughput limit in bytes per seconds, replacing any previous limit.
@@ -518,8 +983,12 @@ public abstract class TransferFileJob extends FileJob {
         this.throughputLimit = bytesPerSecond<=0?-1:bytesPerSecond;
 
         synchronized(this) {
-            if(getState()!=PAUSED && tlin !=null)
-                tlin.setThroughputLimit(throughputLimit);
+            if(getState()!=PAUSED) {
+                transferState.setThroughputLimit(throughputLimit);
+
+                if(parallelTransferPool!=null)
+                    parallelTransferPool.updateThroughputLimit();
+            }
         }
     }
 
@@ -539,18 +1008,36 @@ public abstract class TransferFileJob extends FileJob {
     ////////////////////////
 
     /**
-     * Overrides {@link FileJob#jobStopped()} to stop any file processing by closing the source InputStream.
+     * Overrides {@link FileJob#jobStopped()} to stop any file processing by closing the source InputStream, and the
+     * ones of parallel transfers.
      */
     @Override
     protected void jobStopped() {
         super.jobStopped();
 
         synchronized(this) {
-            if(tlin !=null) {
-                LOGGER.debug("closing current InputStream "+ tlin);
+            LOGGER.debug("closing current InputStream");
+            closeCurrentInputStream();
 
-                closeCurrentInputStream();
-            }
+            if(parallelTransferPool!=null)
+                parallelTransferPool.shutdown();
+
+            if(folderScanner!=null)
+                folderScanner.stop();
+        }
+    }
+
+    /**
+     * Overrides {@link FileJob#jobStarted()} to start scanning the files in the background if the pre-scan
+     * is enabled.
+     */
+    @Override
+    protected void jobStarted() {
+        super.jobStarted();
+
+        if(prescanEnabled) {
+            folderScanner = new FolderScanner(files);
+            folderScanner.start();
         }
     }
 
@@ -564,8 +1051,10 @@ public abstract class TransferFileJob extends FileJob {
         super.jobPaused();
 
         synchronized(this) {
-            if(tlin !=null)
-                tlin.setThroughputLimit(0);
+            transferState.setThroughputLimit(0);
+
+            if(parallelTransferPool!=null)
+                parallelTransferPool.pause();
         }
     }
 
@@ -580,11 +1069,34 @@ public abstract class TransferFileJob extends FileJob {
 
         synchronized(this) {
             // Restore previous throughput limit (if any, -1 by default)
-            if(tlin !=null)
-                tlin.setThroughputLimit(throughputLimit);
+            transferState.setThroughputLimit(throughputLimit);
+
+            if(parallelTransferPool!=null)
+                parallelTransferPool.resume();
         }
     }
 
+    /**
+     * Overrides {@link FileJob#waitForPendingFiles()} to wait for the files that are being transferred in the background.
+     */
+    @Override
+    protected void waitForPendingFiles() {
+        super.waitForPendingFiles();
+
+        if(parallelTransferPool!=null)
+            parallelTransferPool.waitForTransfers();
+    }
+
+    /**
+     * Overrides {@link FileJob#isFileProcessed(AbstractFile)} to return <code>false</code> while some of the given
+     * file's transfers are still in flight: the file is unmarked by the transfer pool once they have all succeeded.
+     * Returns <code>false</code> as well if one of them failed.
+     */
+    @Override
+    protected boolean isFileProcessed(AbstractFile file) {
+        return parallelTransferPool==null || parallelTransferPool.isFileProcessed(file);
+    }
+
 
     /**
      * Advances file index and resets current file's byte counters. This method should be called by subclasses
@@ -592,11 +1104,15 @@ public abstract class TransferFileJob extends FileJob {
      */
     @Override
     protected void nextFile(AbstractFile file) {
+        // Symlinks are not transferred, nor counted by the pre-scan
+        if(!file.isDirectory() && !file.isSymlink())
+            nbProcessedFiles++;
+
         totalByteCounter.add(currentFileByteCounter, true);
         totalSkippedByteCounter.add(currentFileSkippedByteCounter, true);
 
         // Reset some fields that need it
-        currentFileSkipped = false;
+        transferState.resetSkipped();
 
         super.nextFile(file);
     }
@@ -607,6 +1123,18 @@ public abstract class TransferFileJob extends FileJob {
      */
     @Override
     public float getTotalPercentDone() {
+        // Once the pre-scan is complete, the percentage is weighted by bytes. Top-level files that have been processed
+        // count in full, even if their bytes were not transferred (skipped, renamed or copied by the server).
+        long totalBytes = getTotalBytes();
+        if(totalBytes>0) {
+            long bytesProcessed = Math.max(totalByteCounter.getByteCount(), folderScanner.getNbBytesBefore(getCurrentFileIndex()));
+            return Math.min(1, bytesProcessed/(float)totalBytes);
+        }
+        else if(totalBytes==0 && getTotalNbFiles()>0) {
+            // Only empty files
+            return Math.min(1, nbProcessedFiles/(float)getTotalNbFiles());
+        }
+
         float nbFilesProcessed = getCurrentFileIndex();
         int nbFiles = getNbFiles();
 
@@ -628,7 +1156,7 @@ public abstract class TransferFileJob extends FileJob {
     @Override
     public String getStatusString() {
         if(isCheckingIntegrity())
-            return Translator.get("progress_dialog.verifying_file", getCurrentFilename());
+            return Translator.get(spotCheckEnabled?"progress_dialog.spot_checking_file":"progress_dialog.verifying_file", getCurrentFilename());
 
         return super.getStatusString();
     }
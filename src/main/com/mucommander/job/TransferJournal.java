@@ -0,0 +1,408 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.PlatformManager;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
+import com.mucommander.commons.file.util.FileSet;
+
+/**
+ * Records the progress of a transfer job in a file located in the preferences folder, so that if the job is
+ * interrupted (application quit or crash, job cancelled), running the same job again resumes it where it stopped:
+ * the files that were transferred entirely can be skipped without the usual collision check, and the files that
+ * were being transferred can be resumed without asking the user. Files that have changed since they were recorded
+ * go through the usual collision check instead, which asks the user what to do with their destination.
+ *
+ * <p>Two jobs are considered the same if they transfer the same source files to the same destination. The journal
+ * is deleted when the job completes. Journals of jobs that were never completed expire after
+ * {@link #JOURNAL_EXPIRATION_PERIOD}.</p>
+ *
+ * <p>The journal is an append-only text file, each line of which records an event: a file has started or finished
+ * being transferred, or a checkpoint of a file being transferred. Every {@link #CHECKPOINT_PERIOD} milliseconds, and
+ * when the journal is closed, the size of the local destination files being written is recorded: the destination file
+ * holds at least that many bytes written by the job, which also holds after a crash. To keep the overhead low with
+ * many small files, records are written to disk at most every {@link #CHECKPOINT_PERIOD} milliseconds: records lost
+ * in a crash only mean that the corresponding files will go through the usual collision check.</p>
+ *
+ * <p>Files copied to a destination that is not a local file cannot be resumed from the journal, as the size of such
+ * a file is not reliably known while it is being written. Those go through the usual collision check.</p>
+ */
+class TransferJournal {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransferJournal.class);
+
+    /** Name of the folder containing the journals, in the preferences folder */
+    private final static String JOURNALS_FOLDER_NAME = "journals";
+
+    /** Extension of journal files */
+    private final static String JOURNAL_EXTENSION = ".journal";
+
+    /** Journals that have not been modified for this long are deleted */
+    private final static long JOURNAL_EXPIRATION_PERIOD = 7*24*60*60*1000L;
+
+    /** Period of time between two checkpoints of the files being transferred, and between two writes of the
+     * journal to disk, in milliseconds */
+    private final static long CHECKPOINT_PERIOD = 2000;
+
+    /** Record of a file that started being transferred: size, date, path */
+    private final static char STARTED_RECORD = 'S';
+    /** Record of a file that was transferred entirely: size, date, path */
+    private final static char COMPLETED_RECORD = 'C';
+    /** Record of the size of the destination of a file being transferred: size, path */
+    private final static char CHECKPOINT_RECORD = 'P';
+
+    /** The journal file */
+    private final AbstractFile file;
+
+    /** Writes records to the journal file, null if it could not be opened */
+    private Writer writer;
+
+    /** Records the checkpoints and writes the journal to disk periodically, null once the journal is closed */
+    private Timer checkpointTimer;
+
+    /** Files transferred entirely by a previous run of the job, by path */
+    private final Map<String, RecordedFile> completedFiles = new HashMap<String, RecordedFile>();
+
+    /** Files that were being transferred by a previous run of the job, by path */
+    private final Map<String, RecordedFile> interruptedFiles = new HashMap<String, RecordedFile>();
+
+    /** Files currently being transferred, by path */
+    private final Map<String, StartedFile> startedFiles = new LinkedHashMap<String, StartedFile>();
+
+    private TransferJournal(AbstractFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal of the job transferring the given files to the given destination, reading the records left by
+     * a previous run of the same job if there are any.
+     *
+     * @param files the source files of the job
+     * @param destFolder the destination folder of the job
+     * @param newName the name of the destination file, <code>null</code> if source file names are used
+     * @return the job's journal, <code>null</code> if it could not be opened
+     */
+    static TransferJournal open(FileSet files, AbstractFile destFolder, String newName) {
+        try {
+            AbstractFile journalsFolder = PlatformManager.getPreferencesFolder().getChild(JOURNALS_FOLDER_NAME);
+            if(!journalsFolder.exists())
+                journalsFolder.mkdir();
+            else
+                deleteExpiredJournals(journalsFolder);
+
+            TransferJournal journal = new TransferJournal(journalsFolder.getChild(getJournalName(files, destFolder, newName)+JOURNAL_EXTENSION));
+            if(journal.file.exists())
+                journal.read();
+
+            journal.writer = new OutputStreamWriter(journal.file.exists()?journal.file.getAppendOutputStream():journal.file.getOutputStream(), "UTF-8");
+
+            final TransferJournal checkpointedJournal = journal;
+            journal.checkpointTimer = new Timer("Transfer journal", true);
+            journal.checkpointTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    checkpointedJournal.checkpoint();
+                }
+            }, CHECKPOINT_PERIOD, CHECKPOINT_PERIOD);
+
+            return journal;
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not open transfer journal", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a name that identifies the job transferring the given files to the given destination.
+     */
+    private static String getJournalName(FileSet files, AbstractFile destFolder, String newName) throws IOException {
+        StringBuilder key = new StringBuilder(destFolder.getAbsolutePath());
+        key.append('\n').append(newName);
+        for(int i=0; i<files.size(); i++)
+            key.append('\n').append(files.elementAt(i).getAbsolutePath());
+
+        return DigestUtils.getFileName(key.toString());
+    }
+
+    private static void deleteExpiredJournals(AbstractFile journalsFolder) throws IOException {
+        long expirationDate = System.currentTimeMillis()-JOURNAL_EXPIRATION_PERIOD;
+        for(AbstractFile journalFile : journalsFolder.ls()) {
+            if(journalFile.getName().endsWith(JOURNAL_EXTENSION) && journalFile.getDate()<expirationDate) {
+                try {
+                    journalFile.delete();
+                }
+                catch(IOException e) {
+                    LOGGER.debug("Could not delete expired journal "+journalFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the records left by a previous run of the job.
+     */
+    private void read() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(), "UTF-8"));
+        try {
+            String line;
+            while((line=reader.readLine())!=null) {
+                try {
+                    readRecord(line);
+                }
+                catch(RuntimeException e) {
+                    // The last line may be truncated if the application crashed while writing it
+                    LOGGER.debug("Ignoring invalid journal record: "+line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        LOGGER.debug("Read journal "+file+": "+completedFiles.size()+" completed files, "+interruptedFiles.size()+" interrupted files");
+    }
+
+    private void readRecord(String line) {
+        String fields[];
+        switch(line.charAt(0)) {
+            case STARTED_RECORD:
+                fields = line.split("\t", 4);
+                interruptedFiles.put(fields[3], new RecordedFile(Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                completedFiles.remove(fields[3]);
+                break;
+
+            case CHECKPOINT_RECORD:
+                fields = line.split("\t", 3);
+                RecordedFile interruptedFile = interruptedFiles.get(fields[2]);
+                if(interruptedFile!=null)
+                    interruptedFile.offset = Long.parseLong(fields[1]);
+                break;
+
+            case COMPLETED_RECORD:
+                fields = line.split("\t", 4);
+                completedFiles.put(fields[3], new RecordedFile(Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                interruptedFiles.remove(fields[3]);
+                break;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given file was transferred entirely to the given destination file by a previous
+     * run of the job, and has not changed since: the source file has the size and date it had when it was
+     * transferred, and the destination file exists and has the same size. A file that has changed must go through the
+     * usual collision check.
+     *
+     * @param sourceFile a source file of the job
+     * @param destFile the file the source file is transferred to
+     * @return true if the given file was transferred entirely by a previous run of the job and has not changed since
+     */
+    boolean isCompleted(AbstractFile sourceFile, AbstractFile destFile) {
+        RecordedFile completedFile = completedFiles.get(sourceFile.getAbsolutePath());
+        if(completedFile==null || !completedFile.isUnchanged(sourceFile) || !destFile.exists())
+            return false;
+
+        long destSize = destFile.getSize();
+        return destSize==-1 || destSize==completedFile.size;
+    }
+
+    /**
+     * Returns <code>true</code> if the given file was being transferred to the given destination file when a previous
+     * run of the job was interrupted, and the transfer can be resumed from the end of the destination file: the source
+     * file has not changed since, and the destination file is at least as large as when it was last checkpointed, and
+     * not larger than the source file. Transfers that were never checkpointed cannot be resumed.
+     *
+     * @param sourceFile a source file of the job
+     * @param destFile the file the source file is transferred to
+     * @return true if the transfer of the given file can be resumed
+     */
+    boolean canResume(AbstractFile sourceFile, AbstractFile destFile) {
+        RecordedFile interruptedFile = interruptedFiles.get(sourceFile.getAbsolutePath());
+        if(interruptedFile==null || interruptedFile.offset==-1 || !interruptedFile.isUnchanged(sourceFile) || !destFile.exists())
+            return false;
+
+        long destSize = destFile.getSize();
+        return destSize>=interruptedFile.offset && destSize<=interruptedFile.size;
+    }
+
+    /**
+     * Records that the given file is starting to be transferred to the given destination file. Several files may be
+     * transferred at once.
+     *
+     * @param sourceFile the file being transferred
+     * @param destFile the file the source file is transferred to
+     */
+    synchronized void fileStarted(AbstractFile sourceFile, AbstractFile destFile) {
+        String path = sourceFile.getAbsolutePath();
+        startedFiles.put(path, new StartedFile(destFile));
+        write(STARTED_RECORD+"\t"+sourceFile.getSize()+"\t"+sourceFile.getDate()+"\t"+path);
+    }
+
+    /**
+     * Records that the given file has been transferred entirely.
+     *
+     * @param sourceFile the file that was transferred
+     */
+    synchronized void fileCompleted(AbstractFile sourceFile) {
+        String path = sourceFile.getAbsolutePath();
+        startedFiles.remove(path);
+
+        write(COMPLETED_RECORD+"\t"+sourceFile.getSize()+"\t"+sourceFile.getDate()+"\t"+path);
+    }
+
+    /**
+     * Records the size of the local destination files being written that have grown since their last checkpoint, and
+     * writes the journal to disk.
+     */
+    private synchronized void checkpoint() {
+        if(writer==null)
+            return;
+
+        for(Map.Entry<String, StartedFile> entry : startedFiles.entrySet()) {
+            StartedFile startedFile = entry.getValue();
+            if(!startedFile.destFile.hasAncestor(LocalFile.class))
+                continue;
+
+            long destSize = startedFile.destFile.getSize();
+            if(destSize>startedFile.checkpoint) {
+                write(CHECKPOINT_RECORD+"\t"+destSize+"\t"+entry.getKey());
+                startedFile.checkpoint = destSize;
+            }
+        }
+
+        if(writer==null)
+            return;
+
+        try {
+            writer.flush();
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not write journal "+file+", no longer journaling", e);
+            close();
+        }
+    }
+
+    /**
+     * Records a last checkpoint of the files being transferred and closes the journal, leaving it on disk so that the
+     * job can be resumed.
+     */
+    synchronized void close() {
+        if(checkpointTimer!=null) {
+            checkpointTimer.cancel();
+            checkpointTimer = null;
+            checkpoint();
+        }
+
+        if(writer==null)
+            return;
+
+        try {
+            writer.close();
+        }
+        catch(IOException e) {
+            LOGGER.debug("Could not close journal "+file, e);
+        }
+        writer = null;
+    }
+
+    /**
+     * Closes and deletes the journal, once the job has completed.
+     */
+    void delete() {
+        close();
+
+        try {
+            file.delete();
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not delete journal "+file, e);
+        }
+    }
+
+    /**
+     * Appends the given record to the journal. Records are written to disk by the next checkpoint.
+     */
+    private synchronized void write(String record) {
+        // Records are stored one per line
+        if(writer==null || record.indexOf('\n')!=-1 || record.indexOf('\r')!=-1)
+            return;
+
+        try {
+            writer.write(record);
+            writer.write('\n');
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not write journal "+file+", no longer journaling", e);
+            close();
+        }
+    }
+
+
+    /**
+     * A file being transferred by the job.
+     */
+    private static class StartedFile {
+        /** The file the source file is transferred to */
+        private final AbstractFile destFile;
+        /** Size of the destination file recorded by the last checkpoint, -1 if none */
+        private long checkpoint = -1;
+
+        private StartedFile(AbstractFile destFile) {
+            this.destFile = destFile;
+        }
+    }
+
+    /**
+     * A file that was transferred, or being transferred, by a previous run of the job.
+     */
+    private static class RecordedFile {
+        /** Size of the source file when it was recorded */
+        private final long size;
+        /** Date of the source file when it was recorded */
+        private final long date;
+        /** Size of the destination file at the last checkpoint, -1 if it was never checkpointed */
+        private long offset = -1;
+
+        private RecordedFile(long size, long date) {
+            this.size = size;
+            this.date = date;
+        }
+
+        /**
+         * Returns <code>true</code> if the given source file has the size and date it had when it was recorded.
+         */
+        private boolean isUnchanged(AbstractFile sourceFile) {
+            return sourceFile.getSize()==size && sourceFile.getDate()==date;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import com.mucommander.commons.io.ByteCounter;
+import com.mucommander.commons.io.CounterInputStream;
+import com.mucommander.commons.io.ThroughputLimitInputStream;
+
+/**
+ * Holds the state of a file transfer performed by a {@link TransferFileJob}: the source InputStream (or the channels)
+ * currently being read, the byte counters it reports to, and whether the transfer has been skipped or is being verified.
+ *
+ * <p>A job uses a single instance for all the transfers carried out by its own thread. When files are transferred
+ * in parallel (see {@link ParallelTransferPool}), each transfer gets its own instance, the bytes of which are also
+ * reported to counters shared by all the transfers of the job.</p>
+ */
+class TransferState {
+
+    /** Number of bytes processed in the file being transferred */
+    private final ByteCounter byteCounter;
+
+    /** Number of bytes skipped in the file being transferred (resumed transfers) */
+    private final ByteCounter skippedByteCounter;
+
+    /** Counter the processed bytes are also reported to, may be null */
+    private final ByteCounter sharedByteCounter;
+
+    /** Counter the skipped bytes are also reported to, may be null */
+    private final ByteCounter sharedSkippedByteCounter;
+
+    /** InputStream currently being read, may be null */
+    private ThroughputLimitInputStream tlin;
+
+    /** Throughput limit in bytes per second, -1 for no limit, 0 to block reads */
+    private long throughputLimit = -1;
+
+    /** Channels currently being transferred, may be null */
+    private Closeable channels[];
+
+    /** True when the channels have been closed */
+    private boolean channelsClosed;
+
+    /** Time at which the current throughput measurement period of channel transfers started */
+    private long throughputPeriodStart;
+
+    /** Number of bytes of channel transfers allowed since the current throughput measurement period started */
+    private long throughputPeriodBytes;
+
+    /** Has the transfer been skipped ? */
+    private boolean skipped;
+
+    /** True when the checksum of the source or destination file is being calculated */
+    private boolean checkingIntegrity;
+
+    /** Digests the source file of the last transfer that was checked for integrity, may be null */
+    private ResumableChecksumInputStream checksumInputStream;
+
+    /**
+     * Creates a new <code>TransferState</code> reporting to the given counters only.
+     *
+     * @param byteCounter counter for the bytes processed in the current file
+     * @param skippedByteCounter counter for the bytes skipped in the current file
+     */
+    TransferState(ByteCounter byteCounter, ByteCounter skippedByteCounter) {
+        this(byteCounter, skippedByteCounter, null, null);
+    }
+
+    /**
+     * Creates a new <code>TransferState</code> reporting to its own counters and to the given shared ones.
+     *
+     * @param byteCounter counter for the bytes processed in the current file
+     * @param skippedByteCounter counter for the bytes skipped in the current file
+     * @param sharedByteCounter counter the processed bytes are also added to, may be <code>null</code>
+     * @param sharedSkippedByteCounter counter the skipped bytes are also added to, may be <code>null</code>
+     */
+    TransferState(ByteCounter byteCounter, ByteCounter skippedByteCounter, ByteCounter sharedByteCounter, ByteCounter sharedSkippedByteCounter) {
+        this.byteCounter = byteCounter;
+        this.skippedByteCounter = skippedByteCounter;
+        this.sharedByteCounter = sharedByteCounter;
+        this.sharedSkippedByteCounter = sharedSkippedByteCounter;
+    }
+
+    /**
+     * Registers the given InputStream as the one being read, counting the bytes that are read from it and limiting
+     * the throughput as specified by {@link #setThroughputLimit(long)}.
+     *
+     * @param in the InputStream to be used
+     * @return the 'augmented' InputStream using the given stream as the underlying InputStream
+     */
+    synchronized InputStream setInputStream(InputStream in) {
+        InputStream countedIn = new CounterInputStream(in, byteCounter);
+        if(sharedByteCounter!=null)
+            countedIn = new CounterInputStream(countedIn, sharedByteCounter);
+
+        if(tlin==null)
+            tlin = new ThroughputLimitInputStream(countedIn, throughputLimit);
+        else
+            tlin.setUnderlyingInputStream(countedIn);
+
+        return tlin;
+    }
+
+    /**
+     * Returns the InputStream registered with {@link #setInputStream(InputStream)}, <code>null</code> if none
+     * has been registered yet.
+     *
+     * @return the InputStream currently being read
+     */
+    synchronized InputStream getInputStream() {
+        return tlin;
+    }
+
+    /**
+     * Closes the InputStream and the channels currently being read, if any.
+     */
+    synchronized void closeInputStream() {
+        if(tlin!=null) {
+            try { tlin.close(); }
+            catch(IOException e) {}
+        }
+
+        if(channels!=null) {
+            for(Closeable channel : channels) {
+                try { channel.close(); }
+                catch(IOException e) {}
+            }
+
+            channelsClosed = true;
+            // Wake up a transfer waiting for its throughput allowance
+            notifyAll();
+        }
+    }
+
+    /**
+     * Registers the given channels as the ones being transferred. The bytes transferred between them are not counted
+     * automatically: {@link #addProcessedBytes(long)} and {@link #waitForThroughput(long)} must be called for each
+     * chunk of data. The channels are closed by {@link #closeInputStream()}.
+     *
+     * @param channels the channels to be used
+     */
+    synchronized void setChannels(Closeable... channels) {
+        this.channels = channels;
+        this.channelsClosed = false;
+        this.throughputPeriodStart = System.currentTimeMillis();
+        this.throughputPeriodBytes = 0;
+    }
+
+    /**
+     * Blocks until the given number of bytes can be transferred between the registered channels without exceeding
+     * the throughput limit. This method blocks for as long as the throughput limit is <code>0</code> (the job is
+     * paused), and returns immediately if there is no limit.
+     *
+     * @param nbBytes the number of bytes about to be transferred
+     * @throws InterruptedIOException if the channels have been closed or the thread interrupted while waiting
+     */
+    synchronized void waitForThroughput(long nbBytes) throws InterruptedIOException {
+        try {
+            while(throughputLimit==0 && !channelsClosed)
+                wait();
+
+            if(throughputLimit>0) {
+                long now = System.currentTimeMillis();
+                // Start a new measurement period every second
+                if(now-throughputPeriodStart>=1000) {
+                    throughputPeriodStart = now;
+                    throughputPeriodBytes = 0;
+                }
+
+                throughputPeriodBytes += nbBytes;
+                long allowedTime = throughputPeriodStart + throughputPeriodBytes*1000/throughputLimit;
+                while(now<allowedTime && throughputLimit>0 && !channelsClosed) {
+                    wait(allowedTime-now);
+                    now = System.currentTimeMillis();
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+
+        if(channelsClosed)
+            throw new InterruptedIOException("Transfer interrupted");
+    }
+
+    /**
+     * Returns the current throughput limit in bytes per second, -1 for no limit, 0 if reads are blocked.
+     *
+     * @return the current throughput limit in bytes per second
+     */
+    synchronized long getThroughputLimit() {
+        return throughputLimit;
+    }
+
+    /**
+     * Accounts for bytes that were transferred without going through the registered InputStream.
+     *
+     * @param nbBytes number of bytes that were transferred
+     */
+    void addProcessedBytes(long nbBytes) {
+        byteCounter.add(nbBytes);
+
+        if(sharedByteCounter!=null)
+            sharedByteCounter.add(nbBytes);
+    }
+
+    /**
+     * Changes the throughput limit of the InputStream currently being read and of the ones registered afterwards.
+     *
+     * @param throughputLimit throughput limit in bytes per second, -1 for no limit, 0 to block reads
+     */
+    synchronized void setThroughputLimit(long throughputLimit) {
+        this.throughputLimit = throughputLimit;
+        // Wake up a channel transfer waiting for its throughput allowance
+        notifyAll();
+
+        if(tlin!=null)
+            tlin.setThroughputLimit(throughputLimit);
+    }
+
+    /**
+     * Interrupts the transfer by closing the InputStream currently being read. Nothing is done if no stream
+     * has been registered.
+     */
+    synchronized void skip() {
+        if(tlin!=null || channels!=null) {
+            // Prevents an error from being reported when the current InputStream is closed
+            skipped = true;
+            closeInputStream();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the transfer has been skipped.
+     *
+     * @return true if the transfer has been skipped
+     */
+    synchronized boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Resets the skipped status, before a new file is transferred.
+     */
+    synchronized void resetSkipped() {
+        skipped = false;
+    }
+
+    boolean isCheckingIntegrity() {
+        return checkingIntegrity;
+    }
+
+    void setCheckingIntegrity(boolean checkingIntegrity) {
+        this.checkingIntegrity = checkingIntegrity;
+    }
+
+    /**
+     * Returns the stream that digested the source file of the last transfer checked for integrity, <code>null</code>
+     * if there was none. When that transfer is resumed, its digest can be resumed from the stream's checkpoints.
+     *
+     * @return the stream that digested the source file of the last transfer checked for integrity
+     */
+    ResumableChecksumInputStream getChecksumInputStream() {
+        return checksumInputStream;
+    }
+
+    void setChecksumInputStream(ResumableChecksumInputStream checksumInputStream) {
+        this.checksumInputStream = checksumInputStream;
+    }
+
+    /**
+     * Accounts for bytes that did not need to be transferred because the transfer has been resumed.
+     *
+     * @param nbBytes number of bytes that were skipped
+     */
+    void addSkippedBytes(long nbBytes) {
+        byteCounter.add(nbBytes);
+        skippedByteCounter.add(nbBytes);
+
+        if(sharedByteCounter!=null)
+            sharedByteCounter.add(nbBytes);
+        if(sharedSkippedByteCounter!=null)
+            sharedSkippedByteCounter.add(nbBytes);
+    }
+
+    /**
+     * Returns the number of bytes processed in the file being transferred.
+     *
+     * @return the number of bytes processed in the file being transferred
+     */
+    ByteCounter getByteCounter() {
+        return byteCounter;
+    }
+
+    /**
+     * Resets the counters of the file being transferred. Bytes that have already been reported to the shared counters
+     * are left untouched.
+     */
+    void resetByteCounters() {
+        byteCounter.reset();
+        skippedByteCounter.reset();
+    }
+}
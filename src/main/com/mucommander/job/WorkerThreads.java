@@ -0,0 +1,68 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class contains helper methods shared by the jobs that process files with a pool of worker threads, and collect
+ * the processed files from a queue in the job's thread.
+ */
+class WorkerThreads {
+
+    /**
+     * Creates a pool of the given number of worker threads. Threads are daemon threads named after the given name
+     * followed by their number, so that they do not prevent the application from exiting.
+     *
+     * @param nbThreads number of worker threads
+     * @param name name of the threads, followed by their number
+     * @return the pool of worker threads
+     */
+    static ExecutorService newPool(int nbThreads, final String name) {
+        return Executors.newFixedThreadPool(nbThreads, new ThreadFactory() {
+            private int threadNumber;
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name+" "+(++threadNumber));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Waits for an element of the given queue to be available and returns it, ignoring interruptions.
+     *
+     * @param queue the queue completed tasks are added to by the worker threads
+     * @return the head of the queue
+     */
+    static <T> T take(BlockingQueue<T> queue) {
+        while(true) {
+            try {
+                return queue.take();
+            }
+            catch(InterruptedException e) {
+                // Loop one more time
+            }
+        }
+    }
+}
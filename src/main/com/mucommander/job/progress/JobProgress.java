@@ -43,6 +43,9 @@ public class JobProgress {
 	private long lastBytesTotal;
 	private String jobStatusString;
 	private long jobPauseStartDate;
+	private long jobTotalBytes = -1;
+	private int jobTotalNbFiles = -1;
+	private int jobNbFilesProcessed;
 
 	public JobProgress(FileJob job) {
 		this.job = job;
@@ -143,28 +146,40 @@ public class JobProgress {
 
 			lastBytesTotal = bytesTotal;
 			lastTime = now;
+
+			// Totals are known once the job's pre-scan is complete (-1 otherwise)
+			jobTotalBytes = transferFileJob.getTotalBytes();
+			jobTotalNbFiles = transferFileJob.getTotalNbFiles();
+			jobNbFilesProcessed = transferFileJob.getNbFilesProcessed();
 		}
 
 		// Update total progress bar
-		// Total job percent is based on the *number* of files remaining, not
-		// their actual size.
-		// So this is very approximate.
+		// Total job percent is based on the number of bytes processed if the
+		// total number of bytes is known, on the *number* of top-level files
+		// remaining otherwise, which is very approximate.
 		float totalPercentFloat = job.getTotalPercentDone();
 		totalPercentInt = (int) (100 * totalPercentFloat);
 
 		totalProgressText = totalPercentInt + "%";
 
-		// Add a rough estimate of the total remaining time (ETA):
-		// total remaining time is based on the total job percent completed
-		// which itself is based on the *number*
+		// Add an estimate of the total remaining time (ETA): if the total
+		// number of bytes is known, it is based on the number of bytes
+		// remaining and the average speed. Otherwise, it is based on the
+		// total job percent completed which itself is based on the *number*
 		// of files remaining, not their actual size. So this is very
 		// approximate.
 		// Do not add ETA if job is already finished (100%)
 		if (totalPercentFloat < 1) {
 			totalProgressText += " - ";
 
+			if (jobTotalBytes > 0 && totalBps > 0) {
+				totalRemainingTime = (long) ((1 - totalPercentFloat) * jobTotalBytes * 1000d / totalBps);
+				totalRemainingTime = Math.max(totalRemainingTime,
+						currentFileRemainingTime);
+				totalProgressText += DurationFormat.format(totalRemainingTime);
+			}
 			// Avoid potential divisions by zero
-			if (totalPercentFloat == 0) {
+			else if (totalPercentFloat == 0) {
 				totalProgressText += "?";
 			} else {
 				// Make sure that total ETA is never smaller than current file
@@ -227,4 +242,33 @@ public class JobProgress {
 		return jobPauseStartDate;
 	}
 
+	/**
+	 * Returns the total number of bytes the job has to transfer, -1 if it is
+	 * not known (yet).
+	 * 
+	 * @return the total number of bytes the job has to transfer
+	 */
+	public long getJobTotalBytes() {
+		return jobTotalBytes;
+	}
+
+	/**
+	 * Returns the total number of files the job has to transfer, -1 if it is
+	 * not known (yet).
+	 * 
+	 * @return the total number of files the job has to transfer
+	 */
+	public int getJobTotalNbFiles() {
+		return jobTotalNbFiles;
+	}
+
+	/**
+	 * Returns the number of files the job has processed so far.
+	 * 
+	 * @return the number of files the job has processed so far
+	 */
+	public int getJobNbFilesProcessed() {
+		return jobNbFilesProcessed;
+	}
+
 }
@@ -55,9 +55,7 @@ public class MarkAllAction extends MuAction {
         FileTable fileTable = mainFrame.getActiveTable();
         FileTableModel tableModel = fileTable.getFileTableModel();
 
-        int nbRows = tableModel.getRowCount();
-        for(int i=tableModel.getFirstMarkableRow(); i<nbRows; i++)
-            tableModel.setRowMarked(i, mark);
+        tableModel.setRangeMarked(tableModel.getFirstMarkableRow(), tableModel.getRowCount()-1, mark);
         fileTable.repaint();
 
         // Notify registered listeners that currently marked files have changed on the FileTable
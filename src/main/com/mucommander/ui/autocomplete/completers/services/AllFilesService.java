@@ -20,8 +20,6 @@ package com.mucommander.ui.autocomplete.completers.services;
 
 import com.mucommander.commons.file.AbstractFile;
 
-import java.io.IOException;
-
 /**
  * This <code>FilesService</code> returns all the files in a given directory.
  * 
@@ -31,7 +29,7 @@ import java.io.IOException;
 public class AllFilesService extends FilesService {
 
 	@Override
-    protected AbstractFile[] getFiles(AbstractFile directory) throws IOException {
-		return directory.ls();
+    protected AbstractFile[] getFiles(AbstractFile[] files) {
+		return files;
 	}	
 }
@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.FileFactory;
+import com.mucommander.core.ListingCache;
 
 /**
  * This <code>CompletionService</code> handles file paths completion.
@@ -39,22 +40,21 @@ public abstract class FilesService implements CompletionService {
 	
 	private String cachedDirectoryName;
 	private String[] cachedDirectoryFileNames;
-	private long cachedDirectoryDate;
+	/** The listing from which the cached file names were created, shared with the other users of the listing cache */
+	private AbstractFile[] cachedDirectoryFiles;
 	
 	public FilesService() {
 		cachedDirectoryFileNames = new String[0];
-		cachedDirectoryDate = -1;
 	}
 
 	/**
-	 * This abstract function gets a directory and should return it's children
-	 * files that match a certain criteria.
+	 * This abstract function gets a directory's children files and should
+	 * return those that match a certain criteria.
 	 * 
-	 * @param directory - a directory.
+	 * @param files - the children files of a directory, which must not be modified.
 	 * @return subgroup of the given directory's children files.
-	 * @throws IOException
 	 */
-	protected abstract AbstractFile[] getFiles(AbstractFile directory) throws IOException;
+	protected abstract AbstractFile[] getFiles(AbstractFile[] files);
 	
 	public Vector<String> getPossibleCompletions(String path) {
 		Vector<String> result = new Vector<String>();
@@ -63,16 +63,18 @@ public abstract class FilesService implements CompletionService {
 	        String currentDirectoryName = path.substring(0, index+1);
 	        
 	        AbstractFile currentDirectory = FileFactory.getFile(currentDirectoryName);
-	        if (currentDirectory != null && currentDirectory.exists()) {	        
-		        long currentDirectoryDate = currentDirectory.getDate();
-		        if (cachedDirectoryName == null || !cachedDirectoryName.equals(currentDirectoryName) || currentDirectoryDate != cachedDirectoryDate) {
-		        	AbstractFile[] currentDirectoryFiles;
-					try {
-						currentDirectoryFiles = getFiles(currentDirectory);
-					} catch (IOException e) {
-                        LOGGER.debug("Caught exception", e);
-						return new Vector<String>();
-					}
+	        if (currentDirectory != null) {
+	        	AbstractFile[] directoryFiles;
+				try {
+					directoryFiles = ListingCache.getInstance().ls(currentDirectory);
+				} catch (IOException e) {
+                    LOGGER.debug("Caught exception", e);
+					return new Vector<String>();
+				}
+
+		        // The file names are created again only when the directory has been listed again
+		        if (directoryFiles != cachedDirectoryFiles) {
+		        	AbstractFile[] currentDirectoryFiles = getFiles(directoryFiles);
 		
 		        	int nbCurrentDirectoryFiles = currentDirectoryFiles.length;
 		        	cachedDirectoryFileNames = new String[nbCurrentDirectoryFiles];
@@ -85,7 +87,7 @@ public abstract class FilesService implements CompletionService {
 		        	Arrays.sort(cachedDirectoryFileNames, String.CASE_INSENSITIVE_ORDER);
 		        	
 		        	cachedDirectoryName = currentDirectory.getAbsolutePath() + (currentDirectory.isDirectory() ? "" : currentDirectory.getSeparator());
-		        	cachedDirectoryDate = currentDirectoryDate;
+		        	cachedDirectoryFiles = directoryFiles;
 		        }
 				
 		        final String prefix = index==path.length()-1 ? null : path.substring(index + 1).toLowerCase();
@@ -21,8 +21,6 @@ package com.mucommander.ui.autocomplete.completers.services;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.filter.FileFilter;
 
-import java.io.IOException;
-
 /**
  * This <code>FilesService</code> returns filtered files in a given directory,
  * according to a certain <code>FileFilter</code>.
@@ -38,7 +36,7 @@ public class FilteredFilesService extends FilesService {
 	}
 
 	@Override
-    protected AbstractFile[] getFiles(AbstractFile directory) throws IOException {
-		return fileFilter.filter(directory.ls());
+    protected AbstractFile[] getFiles(AbstractFile[] files) {
+		return fileFilter.filter(files);
 	}
 }
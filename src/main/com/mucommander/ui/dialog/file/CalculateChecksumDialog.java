@@ -33,6 +33,8 @@ import com.mucommander.ui.main.MainFrame;
 import com.mucommander.ui.text.FilePathField;
 
 import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -42,19 +44,21 @@ import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Security;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
- * This dialog prepares a {@link com.mucommander.job.CalculateChecksumJob} and lets the user choose a checksum
- * algorithm, and a destination for the checksum file.
+ * This dialog prepares a {@link com.mucommander.job.CalculateChecksumJob} and lets the user choose one or several
+ * checksum algorithms, and a destination for the checksum files.
  *
  * @author Maxence Bernard
  */
-public class CalculateChecksumDialog extends JobDialog implements ActionListener, ItemListener {
+public class CalculateChecksumDialog extends JobDialog implements ActionListener, ItemListener, ListSelectionListener {
 
-    private JComboBox algorithmComboBox;
+    private JList algorithmList;
     private JRadioButton specificLocationRadioButton;
     private JTextField specificLocationTextField;
     private JButton okButton;
@@ -65,8 +69,11 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
     /** Default checksum algorithm (most commonly used) */
     private final static String DEFAULT_ALGORITHM = "MD5";
 
-    /** Last algorithm used, saved after validation of this dialog */
-    private static String lastUsedAlgorithm = DEFAULT_ALGORITHM;
+    /** Last algorithms used, saved after validation of this dialog */
+    private static String lastUsedAlgorithms[] = {DEFAULT_ALGORITHM};
+
+    /** Number of algorithms visible in the list without scrolling */
+    private final static int VISIBLE_ALGORITHMS = 6;
 
     /** Dialog size constraints */
     private final static Dimension MINIMUM_DIALOG_DIMENSION = new Dimension(320,0);
@@ -106,19 +113,36 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         messageDigests = new MessageDigest[algorithmSortedSet.size()];
         algorithmSortedSet.toArray(messageDigests);
 
-        // Add the sorted list of algorithms to a combo box to let the user choose one
-        algorithmComboBox = new JComboBox();
-        for (MessageDigest messageDigest : messageDigests) 
-            algorithmComboBox.addItem(messageDigest.getAlgorithm());
-
-        // Select the last used algorithm (if any), or the default algorithm
-        algorithmComboBox.setSelectedItem(lastUsedAlgorithm);
-        algorithmComboBox.addItemListener(this);
+        // Add the sorted list of algorithms to a list to let the user choose one or several, all of them being
+        // calculated from a single read of the files
+        String algorithms[] = new String[messageDigests.length];
+        for (int i=0; i<messageDigests.length; i++)
+            algorithms[i] = messageDigests[i].getAlgorithm();
+
+        algorithmList = new JList(algorithms);
+        algorithmList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        algorithmList.setVisibleRowCount(VISIBLE_ALGORITHMS);
+
+        // Select the last used algorithms (if any), or the default algorithm
+        List<Integer> selectedIndices = new ArrayList<Integer>();
+        for (String lastUsedAlgorithm : lastUsedAlgorithms) {
+            for (int i=0; i<algorithms.length; i++) {
+                if (algorithms[i].equals(lastUsedAlgorithm))
+                    selectedIndices.add(i);
+            }
+        }
+        int selection[] = new int[selectedIndices.size()];
+        for (int i=0; i<selection.length; i++)
+            selection[i] = selectedIndices.get(i);
+        algorithmList.setSelectedIndices(selection);
+        if (selection.length>0)
+            algorithmList.ensureIndexIsVisible(selection[0]);
+        algorithmList.addListSelectionListener(this);
 
         FlowLayout flowLayout = new FlowLayout(FlowLayout.LEADING, 0, 0);
         JPanel tempPanel = new JPanel(flowLayout);
         tempPanel.add(new JLabel(Translator.get("calculate_checksum_dialog.checksum_algorithm")+" : "));
-        tempPanel.add(algorithmComboBox);
+        tempPanel.add(new JScrollPane(algorithmList));
 
         mainPanel.add(tempPanel);
         mainPanel.addSpace(10);
@@ -137,7 +161,7 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         specificLocationRadioButton.addItemListener(this);
         
         // Create a path field with auto-completion capabilities
-        specificLocationTextField = new FilePathField(getChecksumFilename(lastUsedAlgorithm));
+        specificLocationTextField = new FilePathField(getChecksumFilename(lastUsedAlgorithms[0]));
         specificLocationTextField.setEnabled(false);
         tempPanel.add(specificLocationTextField, BorderLayout.CENTER);
 
@@ -166,7 +190,7 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         getContentPane().add(mainPanel);
 
         // Give initial keyboard focus to the 'Delete' button
-        setInitialFocusComponent(algorithmComboBox);
+        setInitialFocusComponent(algorithmList);
 
         // Call dispose() when dialog is closed
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
@@ -177,12 +201,17 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
     }
 
     /**
-     * Returns the MessageDigest instance corresponding to the currently selected algorithm.
+     * Returns the MessageDigest instances corresponding to the currently selected algorithms.
      *
-     * @return the MessageDigest instance corresponding to the currently selected algorithm.
+     * @return the MessageDigest instances corresponding to the currently selected algorithms, empty if none is selected
      */
-    private MessageDigest getSelectedMessageDigest() {
-        return messageDigests[algorithmComboBox.getSelectedIndex()];
+    private MessageDigest[] getSelectedMessageDigests() {
+        int selectedIndices[] = algorithmList.getSelectedIndices();
+        MessageDigest selectedDigests[] = new MessageDigest[selectedIndices.length];
+        for (int i=0; i<selectedIndices.length; i++)
+            selectedDigests[i] = messageDigests[selectedIndices[i]];
+
+        return selectedDigests;
     }
 
     /**
@@ -225,11 +254,17 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
 
         if(e.getSource()==okButton) {
             try {
-                MessageDigest digest = getSelectedMessageDigest();
-                String algorithm = digest.getAlgorithm();
-                AbstractFile checksumFile;
+                MessageDigest digests[] = getSelectedMessageDigests();
+                if(digests.length==0)
+                    return;
+
+                String algorithms[] = new String[digests.length];
+                for(int i=0; i<digests.length; i++)
+                    algorithms[i] = digests[i].getAlgorithm();
+
+                AbstractFile checksumFiles[] = new AbstractFile[digests.length];
 
-                // Resolve the destination checksum file
+                // Resolve the destination checksum files
 
                 if(specificLocationRadioButton.isSelected()) {
                     // User-defined checksum file
@@ -242,22 +277,27 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
                         return;
                     }
 
-                    if(resolvedDest.getDestinationType()==PathUtils.ResolvedDestination.EXISTING_FOLDER)
-                        checksumFile = resolvedDest.getDestinationFile().getDirectChild(getChecksumFilename(algorithm));
-                    else
-                        checksumFile = resolvedDest.getDestinationFile();
+                    for(int i=0; i<algorithms.length; i++) {
+                        if(resolvedDest.getDestinationType()==PathUtils.ResolvedDestination.EXISTING_FOLDER)
+                            checksumFiles[i] = resolvedDest.getDestinationFile().getDirectChild(getChecksumFilename(algorithms[i]));
+                        else if(i==0)
+                            checksumFiles[i] = resolvedDest.getDestinationFile();
+                        else    // The other checksum files are created next to the entered one
+                            checksumFiles[i] = resolvedDest.getDestinationFile().getParent().getDirectChild(getChecksumFilename(algorithms[i]));
+                    }
                 }
                 else {
-                    // Temporary file
-                    checksumFile = FileFactory.getTemporaryFile(getChecksumFilename(algorithm), true);
+                    // Temporary files
+                    for(int i=0; i<algorithms.length; i++)
+                        checksumFiles[i] = FileFactory.getTemporaryFile(getChecksumFilename(algorithms[i]), true);
                 }
 
-                // Save the algorithm that was used for the next time this dialog is invoked
-                lastUsedAlgorithm = algorithm; 
+                // Save the algorithms that were used for the next time this dialog is invoked
+                lastUsedAlgorithms = algorithms;
 
                 // Start processing files
                 ProgressDialog progressDialog = new ProgressDialog(mainFrame, Translator.get("properties_dialog.calculating"));
-                CalculateChecksumJob job = new CalculateChecksumJob(progressDialog, mainFrame, files, checksumFile, digest);
+                CalculateChecksumJob job = new CalculateChecksumJob(progressDialog, mainFrame, files, checksumFiles, digests);
                 progressDialog.start(job);
             }
             catch(IOException ex) {
@@ -281,8 +321,19 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
             specificLocationTextField.setEnabled(specificLocationRadioButton.isSelected());
             specificLocationTextField.requestFocus();
         }
-        else if(source==algorithmComboBox) {
-            specificLocationTextField.setText(getChecksumFilename(getSelectedMessageDigest().getAlgorithm()));
-        }
+    }
+
+
+    //////////////////////////////////////////
+    // ListSelectionListener implementation //
+    //////////////////////////////////////////
+
+    public void valueChanged(ListSelectionEvent e) {
+        // The entered path is the one of the first checksum file, the other ones are created next to it
+        MessageDigest digests[] = getSelectedMessageDigests();
+        if(digests.length>0)
+            specificLocationTextField.setText(getChecksumFilename(digests[0].getAlgorithm()));
+
+        okButton.setEnabled(digests.length>0);
     }
 }
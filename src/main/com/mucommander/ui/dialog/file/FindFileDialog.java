@@ -65,24 +65,30 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
     private JList<AbstractFile> list;
     protected JLabel lblTotal;
 
-    private class UpdateRunner extends SwingWorker<List<AbstractFile>, AbstractFile> {
+    /**
+     * Adds the files found by the job to the list as they are found, and waits for the job to finish.
+     */
+    private class UpdateRunner extends SwingWorker<List<AbstractFile>, AbstractFile> implements FindFileJob.ResultListener {
 
         @Override
         protected List<AbstractFile> doInBackground() throws Exception {
             btnNewSearch.setEnabled(false);
             while (job != null && job.getState() != FileJob.FINISHED) {
-                checkUpdates();
                 try {
                     Thread.sleep(REFRESH_RATE);
                 } catch(InterruptedException e) {
                     e.printStackTrace();
                 }
             }
-            checkUpdates();
             job = null;
             return null;
         }
 
+        public void fileFound(AbstractFile file) {
+            // Files are added to the list in batches by process()
+            publish(file);
+        }
+
         @Override
         protected void done() {
             super.done();
@@ -94,22 +100,8 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
         protected void process(List<AbstractFile> chunks) {
             for (AbstractFile f : chunks) {
                 listModel.addElement(f);
-                lblTotal.setText(Translator.get("Found files: ") + listModel.size() + " ");
-            }
-        }
-
-
-        private void checkUpdates() {
-            if (job == null) {
-                return;
-            }
-            List<AbstractFile> jobResults = job.getResults();
-            synchronized (jobResults) {
-                for (int i = listModel.size(); i < jobResults.size(); i++) {
-                    AbstractFile f = jobResults.get(i);
-                    publish(f);
-                }
             }
+            lblTotal.setText(Translator.get("Found files: ") + listModel.size() + " ");
         }
 
     }
@@ -248,12 +240,14 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
     private void start() {
         showProgress(true);
         clearResults();
+        UpdateRunner updateRunner = new UpdateRunner();
         job = new FindFileJob(mainFrame);
         job.setStartDirectory(FileFactory.getFile(edtFromDirectory.getText()));
         job.setup(edtFileName.getText(), edtText.getText(), cbSearchSubdirectories.isSelected(), cbCaseSensitive.isSelected(), cbIgnoreHidden.isSelected());
+        job.setResultListener(updateRunner);
         job.start();
         updateButtons();
-        new UpdateRunner().execute();
+        updateRunner.execute();
     }
 
     private void clearResults() {
@@ -359,12 +359,24 @@ public class ProgressDialog extends FocusDialog implements ActionListener, ItemL
             currentFileProgressBar.setValue(progress.getFilePercentInt());
             currentFileProgressBar.setString(progress.getFileProgressText());
 
-            // Update total transferred label
-            totalTransferredLabel.setText(
-               Translator.get("progress_dialog.transferred",
-                              SizeFormat.format(progress.getBytesTotal(), SizeFormat.DIGITS_MEDIUM| SizeFormat.UNIT_LONG| SizeFormat.ROUND_TO_KB),
-                              SizeFormat.format(progress.getTotalBps(), SizeFormat.UNIT_SPEED| SizeFormat.DIGITS_MEDIUM| SizeFormat.UNIT_SHORT| SizeFormat.ROUND_TO_KB))
-            );
+            // Update total transferred label, with the totals once the job has found them out
+            if(progress.getJobTotalBytes()>=0 && progress.getJobTotalNbFiles()>=0) {
+                totalTransferredLabel.setText(
+                   Translator.get("progress_dialog.transferred_of_total",
+                                  SizeFormat.format(progress.getBytesTotal(), SizeFormat.DIGITS_MEDIUM| SizeFormat.UNIT_LONG| SizeFormat.ROUND_TO_KB),
+                                  SizeFormat.format(progress.getJobTotalBytes(), SizeFormat.DIGITS_MEDIUM| SizeFormat.UNIT_LONG| SizeFormat.ROUND_TO_KB),
+                                  Integer.toString(progress.getJobNbFilesProcessed()),
+                                  Integer.toString(progress.getJobTotalNbFiles()),
+                                  SizeFormat.format(progress.getTotalBps(), SizeFormat.UNIT_SPEED| SizeFormat.DIGITS_MEDIUM| SizeFormat.UNIT_SHORT| SizeFormat.ROUND_TO_KB))
+                );
+            }
+            else {
+                totalTransferredLabel.setText(
+                   Translator.get("progress_dialog.transferred",
+                                  SizeFormat.format(progress.getBytesTotal(), SizeFormat.DIGITS_MEDIUM| SizeFormat.UNIT_LONG| SizeFormat.ROUND_TO_KB),
+                                  SizeFormat.format(progress.getTotalBps(), SizeFormat.UNIT_SPEED| SizeFormat.DIGITS_MEDIUM| SizeFormat.UNIT_SHORT| SizeFormat.ROUND_TO_KB))
+                );
+            }
             
             // Add new immediate bytes per second speed sample to speed graph and label and repaint it
             // Skip this sample if job was paused and resumed, speed would not be accurate
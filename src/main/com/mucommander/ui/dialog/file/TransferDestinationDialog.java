@@ -41,6 +41,9 @@ import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.commons.file.util.PathUtils;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
 import com.mucommander.job.TransferFileJob;
 import com.mucommander.text.Translator;
 import com.mucommander.ui.dialog.DialogToolkit;
@@ -145,7 +148,7 @@ public abstract class TransferDestinationDialog extends JobDialog implements Act
             skipErrorsCheckBox = new JCheckBox(Translator.get("destination_dialog.skip_errors"));
             mainPanel.add(skipErrorsCheckBox);
 
-            verifyIntegrityCheckBox = new JCheckBox(Translator.get("destination_dialog.verify_integrity"));
+            verifyIntegrityCheckBox = new JCheckBox(Translator.get(isSpotCheckEnabled()?"destination_dialog.spot_check":"destination_dialog.verify_integrity"));
             mainPanel.add(verifyIntegrityCheckBox);
 
             mainPanel.addSpace(10);
@@ -294,10 +297,23 @@ public abstract class TransferDestinationDialog extends JobDialog implements Act
         if(job!=null) {
             job.setAutoSkipErrors(skipErrors);
             job.setIntegrityCheckEnabled(verifyIntegrity);
+            job.setSpotCheckEnabled(isSpotCheckEnabled());
+            job.setParallelTransfers(TransferFileJob.getConfiguredParallelTransfers(files.getBaseFolder(), resolvedDest.getDestinationFolder()));
+            job.setPrescanEnabled(MuConfigurations.getPreferences().getVariable(MuPreference.PRESCAN_TRANSFERS, MuPreferences.DEFAULT_PRESCAN_TRANSFERS));
             progressDialog.start(job);
         }
     }
 
+    /**
+     * Returns <code>true</code> if transferred files are only spot-checked rather than checked for integrity when the
+     * 'verify' option is enabled, as configured by the {@link MuPreferences#INTEGRITY_CHECK_MODE} preference.
+     *
+     * @return true if transferred files are only spot-checked
+     */
+    private static boolean isSpotCheckEnabled() {
+        return MuPreferences.INTEGRITY_CHECK_SPOT.equals(MuConfigurations.getPreferences().getVariable(MuPreference.INTEGRITY_CHECK_MODE, MuPreferences.DEFAULT_INTEGRITY_CHECK_MODE));
+    }
+
     /**
      * Called when the path has changed while {@link InitialPathRetriever} is running.
      */
@@ -19,6 +19,8 @@
 package com.mucommander.ui.event;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
@@ -29,6 +31,8 @@ import com.mucommander.commons.file.FileURL;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
 import com.mucommander.core.FolderChangeMonitor;
 import com.mucommander.core.GlobalLocationHistory;
+import com.mucommander.core.ListingCache;
+import com.mucommander.core.ListingPrefetcher;
 import com.mucommander.ui.main.ConfigurableFolderFilter;
 import com.mucommander.ui.main.FolderPanel;
 
@@ -52,6 +56,16 @@ public class LocationManager {
 
 	private FolderChangeMonitor folderChangeMonitor;
 
+	/** Local folders containing more files than this are displayed before all their files have been created. Remote
+	 * folders are always displayed once entirely listed, as the file API can only list them at once. */
+	private final static int PROGRESSIVE_LISTING_THRESHOLD = 5000;
+
+	/** Number of files added to the table at once when a folder is displayed progressively */
+	private final static int PROGRESSIVE_LISTING_BATCH_SIZE = 2000;
+
+	/** Adds the remaining files of the current folder if it is being displayed progressively, null otherwise */
+	private ProgressiveListing progressiveListing;
+
     /**
      * Creates a new LocationManager that manages location events listeners and broadcasts for the specified FolderPanel.
      *
@@ -74,13 +88,44 @@ public class LocationManager {
      */
     public void setCurrentFolder(AbstractFile folder, AbstractFile fileToSelect, boolean changeLockedTab) {
     	LOGGER.trace("calling ls()");
+    	// The files of a folder that is still being displayed progressively must not be added to the new folder, nor
+    	// to the current folder once it has been refreshed with all its files
+    	cancelProgressiveListing();
+
+    	// Local folders are listed by name, and large ones are displayed before their files have all been created and
+    	// filtered. Remote folders can only be listed at once. The current folder is listed at once when it is
+    	// refreshed, as only the files that have changed are updated.
+    	boolean refresh = currentFolder!=null && folder.equalsCanonical(currentFolder);
+    	String names[] = refresh ? null : listNames(folder);
+    	boolean progressive = names!=null && names.length>PROGRESSIVE_LISTING_THRESHOLD;
+
+    	// Remote folders listed recently or prefetched are displayed at once, and revalidated in the background.
+    	// The current folder is always listed when it is refreshed.
+    	boolean cacheable = ListingPrefetcher.isEnabled() && ListingCache.isRemote(folder);
+    	AbstractFile[] cachedChildren = cacheable && !refresh ? ListingCache.getInstance().get(folder) : null;
+
     	AbstractFile[] children;
-		try {
-			children = folder.ls(configurableFolderFilter);
-		} catch (Exception e) {
-			LOGGER.debug("Couldn't ls children of " + folder.getAbsolutePath() + ", error: " + e.getMessage());
-			children = new AbstractFile[0];
-		}
+    	if(names!=null) {
+    		children = getChildren(folder, names, 0, progressive ? PROGRESSIVE_LISTING_BATCH_SIZE : names.length);
+    	}
+    	else if(cachedChildren!=null) {
+    		children = configurableFolderFilter.filter(cachedChildren);
+    	}
+    	else {
+    		try {
+    			if(cacheable) {
+    				AbstractFile[] allChildren = folder.ls();
+    				ListingCache.getInstance().put(folder, allChildren);
+    				children = configurableFolderFilter.filter(allChildren);
+    			}
+    			else {
+    				children = folder.ls(configurableFolderFilter);
+    			}
+    		} catch (Exception e) {
+    			LOGGER.debug("Couldn't ls children of " + folder.getAbsolutePath() + ", error: " + e.getMessage());
+    			children = new AbstractFile[0];
+    		}
+    	}
 
     	folderPanel.setCurrentFolder(folder, children, fileToSelect, changeLockedTab);
 
@@ -89,11 +134,130 @@ public class LocationManager {
     	// Notify listeners that the location has changed
     	fireLocationChanged(folder.getURL());
 
+    	// Add the remaining files batch by batch in the background, so that the table can be browsed and another folder
+    	// can be opened in the meantime
+    	if(progressive)
+    		startProgressiveListing(folder, names);
+
+    	if(cachedChildren!=null)
+    		ListingPrefetcher.revalidate(folderPanel, folder, cachedChildren);
+
     	// After the initial folder is set, initialize the monitoring thread
     	if (folderChangeMonitor == null)
     		folderChangeMonitor = new FolderChangeMonitor(folderPanel);
     }
 
+    /**
+     * Starts adding the files of the given folder whose names come after the first batch, in a separate thread.
+     *
+     * @param folder the current folder
+     * @param names names of the folder's files
+     */
+    private synchronized void startProgressiveListing(AbstractFile folder, String names[]) {
+    	progressiveListing = new ProgressiveListing(folder, names);
+    	Thread thread = new Thread(progressiveListing, "Progressive listing");
+    	thread.setDaemon(true);
+    	thread.start();
+    }
+
+    /**
+     * Stops adding files to the current folder if it is being displayed progressively. Once this method has returned,
+     * no more files are added to the folder panel.
+     */
+    private void cancelProgressiveListing() {
+    	ProgressiveListing listing;
+    	synchronized(this) {
+    		listing = progressiveListing;
+    		progressiveListing = null;
+    	}
+
+    	if(listing!=null)
+    		listing.cancel();
+    }
+
+    /**
+     * Returns the names of the files contained by the given folder if it is a folder of the local filesystem, whose
+     * files can be listed by name before they are created.
+     *
+     * @param folder the folder to list
+     * @return the names of the folder's files, <code>null</code> if the folder is not a local folder or could not be
+     * listed
+     */
+    private static String[] listNames(AbstractFile folder) {
+    	Object underlyingFolder = folder.getUnderlyingFileObject();
+    	if(!(underlyingFolder instanceof java.io.File))
+    		return null;
+
+    	return ((java.io.File)underlyingFolder).list();
+    }
+
+    /**
+     * Creates the files of the given folder whose names are in the given range, and returns those which are accepted
+     * by the folder filter.
+     *
+     * @param folder the folder containing the files
+     * @param names names of the folder's files
+     * @param start index of the first name of the range, inclusive
+     * @param end index of the last name of the range, exclusive
+     * @return the accepted files whose names are in the given range
+     */
+    private AbstractFile[] getChildren(AbstractFile folder, String names[], int start, int end) {
+    	List<AbstractFile> children = new ArrayList<AbstractFile>(end-start);
+    	for(int i=start; i<end; i++) {
+    		try {
+    			AbstractFile child = folder.getChild(names[i]);
+    			if(configurableFolderFilter.accept(child))
+    				children.add(child);
+    		} catch (IOException e) {
+    			LOGGER.debug("Couldn't get child " + names[i] + " of " + folder.getAbsolutePath() + ", error: " + e.getMessage());
+    		}
+    	}
+
+    	return children.toArray(new AbstractFile[children.size()]);
+    }
+
+    /**
+     * Adds the files of a folder that has been made current after its first batch of files was created, batch by batch.
+     * The files of a batch are created while the table can be browsed, and added to the table unless the listing has
+     * been cancelled in the meantime.
+     */
+    private class ProgressiveListing implements Runnable {
+    	private final AbstractFile folder;
+    	private final String names[];
+    	/** True if the files should no longer be added, accessed while holding the lock on this listing */
+    	private boolean cancelled;
+
+    	private ProgressiveListing(AbstractFile folder, String names[]) {
+    		this.folder = folder;
+    		this.names = names;
+    	}
+
+    	/**
+    	 * Stops adding files, waiting for the batch being added to the table if any.
+    	 */
+    	private synchronized void cancel() {
+    		cancelled = true;
+    	}
+
+    	public void run() {
+    		for(int i=PROGRESSIVE_LISTING_BATCH_SIZE; i<names.length; i+=PROGRESSIVE_LISTING_BATCH_SIZE) {
+    			AbstractFile children[] = getChildren(folder, names, i, Math.min(i+PROGRESSIVE_LISTING_BATCH_SIZE, names.length));
+
+    			// The lock is held while the batch is added, so that a folder change waits for it
+    			synchronized(this) {
+    				if(cancelled)
+    					return;
+    				folderPanel.addFiles(children);
+    			}
+    		}
+
+    		synchronized(LocationManager.this) {
+    			if(progressiveListing==this)
+    				progressiveListing = null;
+    		}
+    	}
+    }
+
     /**
      * Return the folder presented in the {@link FolderPanel}
      * 
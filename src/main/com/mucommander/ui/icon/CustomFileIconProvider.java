@@ -30,7 +30,8 @@ import java.util.Map;
 /**
  * This {@link com.mucommander.commons.file.icon.FileIconProvider} returns icons from the
  * {@link IconManager#FILE_ICON_SET IconManager's custom file icon set}, based on files' extension and type.
- * No caching is performed by this class as {@link IconManager} already takes care of this. 
+ * No caching is performed by this class as {@link IconManager} already takes care of this, except for symlink icons
+ * which are composed once for each target icon.
  *
  * @author Maxence Bernard
  */
@@ -42,6 +43,9 @@ public class CustomFileIconProvider implements FileIconProvider {
     /** Hashtable that associates file extensions with icon names */
     private static Map<String, String> extensionMap;
 
+    /** Symlink icons composed so far, by target icon */
+    private final static Map<Icon, ImageIcon> symlinkIcons = new Hashtable<Icon, ImageIcon>();
+
     /** Icon for directories */
     public final static String FOLDER_ICON_NAME = "folder.png";
 
@@ -142,7 +146,14 @@ public class CustomFileIconProvider implements FileIconProvider {
      * @return an icon symbolizing a symlink to the given target
      */
     private static ImageIcon getSymlinkIcon(Icon targetIcon) {
-        return IconManager.getCompositeIcon(targetIcon, IconManager.getIcon(IconManager.FILE_ICON_SET, SYMLINK_ICON_NAME));
+        // Target icons come from the IconManager's cache, so there is a limited number of them
+        ImageIcon icon = symlinkIcons.get(targetIcon);
+        if(icon==null) {
+            icon = IconManager.getCompositeIcon(targetIcon, IconManager.getIcon(IconManager.FILE_ICON_SET, SYMLINK_ICON_NAME));
+            symlinkIcons.put(targetIcon, icon);
+        }
+
+        return icon;
     }
 
 
@@ -0,0 +1,176 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.icon;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.Icon;
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * Resolves file icons in the background, so that components painting many files do not access them in the event
+ * dispatch thread. Icons that have already been resolved are returned right away from the cache of {@link FileIcons}.
+ * Otherwise, a placeholder icon is returned and the icon is resolved by a pool of threads; the component is then
+ * notified that the icon is available and can repaint the file.
+ *
+ * <p>Icons requested last are resolved first, as they are those of the files that have been painted last. Past
+ * {@link #MAX_PENDING_TASKS} requests, the oldest ones are dropped: their files have most likely been scrolled out of
+ * view, and are requested again if they are painted again.</p>
+ */
+public class FileIconLoader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileIconLoader.class);
+
+    /** Number of threads resolving icons */
+    private final static int NB_LOADER_THREADS = 2;
+
+    /** Maximum number of icons waiting to be resolved, several screens worth */
+    private final static int MAX_PENDING_TASKS = 256;
+
+    /** Resolves the icons, the most recently requested first */
+    private final static ExecutorService executor = new ThreadPoolExecutor(NB_LOADER_THREADS, NB_LOADER_THREADS,
+            0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingDeque<Runnable>() {
+                @Override
+                public boolean offer(Runnable task) {
+                    // Called by getFileIcon while holding the lock on pendingFiles
+                    if(size()>=MAX_PENDING_TASKS) {
+                        LoadTask droppedTask = (LoadTask)pollLast();
+                        if(droppedTask!=null)
+                            pendingFiles.remove(droppedTask.file);
+                    }
+
+                    return offerFirst(task);
+                }
+            },
+            new ThreadFactory() {
+                private int threadNumber;
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "File icon loader "+(++threadNumber));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** Listeners to notify of the icons being resolved, by file */
+    private final static Map<AbstractFile, List<Listener>> pendingFiles = new HashMap<AbstractFile, List<Listener>>();
+
+    /**
+     * Listener notified when the icon of a file has been resolved.
+     */
+    public interface Listener {
+        /**
+         * Called in the event dispatch thread when the icon of the given file has been resolved, the icon can now be
+         * obtained from {@link FileIconLoader#getFileIcon(AbstractFile, Icon, Listener)} without delay.
+         *
+         * @param file the file whose icon has been resolved
+         */
+        void fileIconLoaded(AbstractFile file);
+    }
+
+    private FileIconLoader() {
+    }
+
+    /**
+     * Returns the icon of the given file, with the dimension returned by {@link FileIcons#getIconDimension()}, if it
+     * has already been resolved. Otherwise, returns the given placeholder and resolves the icon in the background,
+     * notifying the listener when it is done.
+     *
+     * @param file the file for which an icon will be returned
+     * @param placeholder the icon to return if the file's icon hasn't been resolved yet
+     * @param listener notified when the file's icon has been resolved
+     * @return the icon of the given file, or the placeholder
+     * @see FileIcons#getFileIcon(AbstractFile)
+     */
+    public static Icon getFileIcon(AbstractFile file, Icon placeholder, Listener listener) {
+        Dimension iconDimension = FileIcons.getIconDimension();
+        Icon icon = FileIcons.getCachedFileIcon(file, iconDimension);
+        if(icon!=null)
+            return icon;
+
+        synchronized(pendingFiles) {
+            List<Listener> listeners = pendingFiles.get(file);
+            if(listeners==null) {
+                listeners = new ArrayList<Listener>(1);
+                pendingFiles.put(file, listeners);
+                executor.execute(new LoadTask(file, iconDimension));
+            }
+
+            if(!listeners.contains(listener))
+                listeners.add(listener);
+        }
+
+        return placeholder;
+    }
+
+
+    /**
+     * Resolves the icon of a file and notifies the listeners waiting for it.
+     */
+    private static class LoadTask implements Runnable {
+        private final AbstractFile file;
+        private final Dimension iconDimension;
+
+        private LoadTask(AbstractFile file, Dimension iconDimension) {
+            this.file = file;
+            this.iconDimension = iconDimension;
+        }
+
+        public void run() {
+            boolean loaded = false;
+            try {
+                // Stores the icon in the cache
+                FileIcons.getFileIcon(file, iconDimension);
+                loaded = true;
+            }
+            catch(Exception e) {
+                // The placeholder remains until the file is painted again
+                LOGGER.debug("Could not resolve the icon of "+file, e);
+            }
+
+            final List<Listener> listeners;
+            synchronized(pendingFiles) {
+                listeners = pendingFiles.remove(file);
+            }
+
+            if(loaded) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        for(Listener listener : listeners)
+                            listener.fileIconLoaded(file);
+                    }
+                });
+            }
+        }
+    }
+}
@@ -20,6 +20,8 @@ package com.mucommander.ui.icon;
 
 import java.awt.Dimension;
 import java.awt.Image;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
@@ -43,6 +45,12 @@ import com.mucommander.commons.runtime.OsFamily;
  * Icons can be requested indifferently for any type of {@link AbstractFile} files: local files, remote files,
  * archives entries... The </p>
  *
+ * <p>The icons returned by {@link #getFileIcon(AbstractFile, Dimension)} are kept in a cache shared by all the
+ * components displaying files. Custom icons only depend on the kind and extension of files, so they are cached by kind,
+ * extension and dimension, and resolved once for all the files of the same type. System icons, and the icons of
+ * symlinks and roots, are cached by file. Rescaled icons are cached as well. {@link FileIconLoader} resolves the icons
+ * that are not in the cache yet in the background.</p>
+ *
  * <p>It is important to note that not all platforms have proper support for system file icons.
  * The {@link #hasProperSystemIcons()} method can be used to determine if the current platform properly supports system
  * icons. Non-supported platforms may return no icon (<code>null</code> values), or icons that do not resemble the
@@ -68,6 +76,39 @@ public class FileIcons {
     /** Base width and height of icons for a scale factor of 1 */
     private final static int BASE_ICON_DIMENSION = 16;
 
+    /** Maximum number of file type icons kept in the cache, the least recently used are discarded past that */
+    private final static int TYPE_ICONS_CACHE_SIZE = 1024;
+
+    /** Maximum number of icons of individual files kept in the cache, a few screens worth */
+    private final static int FILE_ICONS_CACHE_SIZE = 1024;
+
+    /** Maximum number of rescaled icons kept in the cache */
+    private final static int SCALED_ICONS_CACHE_SIZE = 256;
+
+    /** Icons of the file types resolved so far, by type and dimension, see {@link #getIconType(AbstractFile)} */
+    private final static Map<IconKey, Icon> typeIcons = new LinkedHashMap<IconKey, Icon>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<IconKey, Icon> eldest) {
+            return size()>TYPE_ICONS_CACHE_SIZE;
+        }
+    };
+
+    /** Icons of the files whose icon does not only depend on their type resolved so far, by file and dimension */
+    private final static Map<IconKey, Icon> fileIcons = new LinkedHashMap<IconKey, Icon>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<IconKey, Icon> eldest) {
+            return size()>FILE_ICONS_CACHE_SIZE;
+        }
+    };
+
+    /** Rescaled versions of the icons returned by the icon providers, by original icon and dimension */
+    private final static Map<IconKey, Icon> scaledIcons = new LinkedHashMap<IconKey, Icon>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<IconKey, Icon> eldest) {
+            return size()>SCALED_ICONS_CACHE_SIZE;
+        }
+    };
+
     /** Controls if and when system file icons should be used instead of custom icons */
     private static String systemIconsPolicy = DEFAULT_SYSTEM_ICONS_POLICY;
 
@@ -119,6 +160,96 @@ public class FileIcons {
      * @see #getSystemIconsPolicy()
      */
     public static Icon getFileIcon(AbstractFile file, Dimension iconDimension) {
+        // Files that do not exist have a dedicated icon
+        if(!file.exists())
+            return resolveFileIcon(file, iconDimension);
+
+        Map<IconKey, Icon> cache = getCache(file);
+        IconKey key = getCacheKey(file, iconDimension);
+        Icon icon;
+        synchronized(cache) {
+            icon = cache.get(key);
+        }
+
+        if(icon==null) {
+            icon = resolveFileIcon(file, iconDimension);
+            synchronized(cache) {
+                cache.put(key, icon);
+            }
+        }
+
+        return icon;
+    }
+
+    /**
+     * Returns the icon of the given file if it has already been resolved for the file or for a file of the same type.
+     * Only the attributes describing the file's type are accessed, which are usually cached by the components displaying
+     * files. Unlike {@link #getFileIcon(AbstractFile, Dimension)}, this method does not check whether the file exists.
+     *
+     * @param file the AbstractFile instance for which an icon will be returned
+     * @param iconDimension the icon's dimension
+     * @return the icon of the given file, <code>null</code> if it is not in the cache
+     * @see #getFileIcon(AbstractFile, Dimension)
+     */
+    public static Icon getCachedFileIcon(AbstractFile file, Dimension iconDimension) {
+        Map<IconKey, Icon> cache = getCache(file);
+        synchronized(cache) {
+            return cache.get(getCacheKey(file, iconDimension));
+        }
+    }
+
+    /**
+     * Returns the cache the icon of the given file is stored in.
+     */
+    private static Map<IconKey, Icon> getCache(AbstractFile file) {
+        return getIconType(file)==null?fileIcons:typeIcons;
+    }
+
+    /**
+     * Returns the key of the icon of the given file in its cache.
+     */
+    private static IconKey getCacheKey(AbstractFile file, Dimension iconDimension) {
+        String type = getIconType(file);
+        return new IconKey(type==null?file:type, iconDimension);
+    }
+
+    /**
+     * Returns the type of the given file its custom icon is based on: whether it is a folder, an archive or a regular
+     * file, and its extension. Returns <code>null</code> if the icon of the file does not only depend on its type: the
+     * file has a system icon under the current policy, or is a symlink or a root.
+     *
+     * @param file a file
+     * @return the type of the file, <code>null</code> if its icon depends on the file itself
+     */
+    private static String getIconType(AbstractFile file) {
+        if(USE_SYSTEM_ICONS_ALWAYS.equals(systemIconsPolicy)
+            || (USE_SYSTEM_ICONS_APPLICATIONS.equals(systemIconsPolicy) && com.mucommander.desktop.DesktopManager.isApplication(file))
+            || file.isSymlink() || file.isRoot())
+            return null;
+
+        String extension = file.getExtension();
+        char kind = file.isDirectory()?'D':file.isBrowsable()?'A':'F';
+
+        return extension==null?String.valueOf(kind):kind+extension.toLowerCase();
+    }
+
+    /**
+     * Returns an icon from the file icon set, scaled to the current icon dimension. The icon does not depend on any
+     * file and can be used as a placeholder while a file's icon is being resolved.
+     *
+     * @param iconName filename of the icon, see the constants of {@link CustomFileIconProvider}
+     * @return the icon of the file icon set with the given name, <code>null</code> if it couldn't be loaded
+     */
+    public static Icon getFileSetIcon(String iconName) {
+        Icon icon = IconManager.getIcon(IconManager.FILE_ICON_SET, iconName);
+        return icon==null?null:getScaledIcon(icon, iconDimension);
+    }
+
+    /**
+     * Returns an icon for the given file without looking it up in the cache, see
+     * {@link #getFileIcon(AbstractFile, Dimension)}.
+     */
+    private static Icon resolveFileIcon(AbstractFile file, Dimension iconDimension) {
         boolean systemIcon = false;
 
         if(USE_SYSTEM_ICONS_ALWAYS.equals(systemIconsPolicy))
@@ -203,12 +334,50 @@ public class FileIcons {
         if(icon==null)
             return null;
 
+        return getScaledIcon(icon, iconDimension);
+    }
+
+    /**
+     * Returns the given icon scaled to the specified dimension. Scaled icons are cached, as providers usually return
+     * the same icon instances for many files.
+     *
+     * @param icon the icon to scale
+     * @param iconDimension the icon's dimension
+     * @return the given icon if it already has the specified dimension, a scaled version of it otherwise
+     */
+    private static Icon getScaledIcon(Icon icon, Dimension iconDimension) {
         if(iconDimension.width==icon.getIconWidth() && iconDimension.height==icon.getIconHeight())
             return icon;    // the icon already has the right dimension
 
-        // Scale the icon to the target dimension
-        ImageIcon imageIcon = IconManager.getImageIcon(icon);
-        return new ImageIcon(imageIcon.getImage().getScaledInstance(iconDimension.width, iconDimension.height, Image.SCALE_AREA_AVERAGING));
+        IconKey key = new IconKey(icon, iconDimension);
+        Icon scaledIcon;
+        synchronized(scaledIcons) {
+            scaledIcon = scaledIcons.get(key);
+        }
+
+        if(scaledIcon==null) {
+            // Scale the icon to the target dimension
+            ImageIcon imageIcon = IconManager.getImageIcon(icon);
+            scaledIcon = new ImageIcon(imageIcon.getImage().getScaledInstance(iconDimension.width, iconDimension.height, Image.SCALE_AREA_AVERAGING));
+
+            synchronized(scaledIcons) {
+                scaledIcons.put(key, scaledIcon);
+            }
+        }
+
+        return scaledIcon;
+    }
+
+    /**
+     * Discards the cached file icons, which have to be resolved again.
+     */
+    private static void clearFileIcons() {
+        synchronized(typeIcons) {
+            typeIcons.clear();
+        }
+        synchronized(fileIcons) {
+            fileIcons.clear();
+        }
     }
 
 
@@ -228,6 +397,7 @@ public class FileIcons {
      */
     public static void setCustomFileIconProvider(FileIconProvider fip) {
         customFileIconProvider = fip;
+        clearFileIcons();
     }
 
     /**
@@ -246,6 +416,7 @@ public class FileIcons {
      */
     public static void setSystemFileIconProvider(FileIconProvider fip) {
         systemFileIconProvider = fip;
+        clearFileIcons();
     }
 
 
@@ -304,6 +475,7 @@ public class FileIcons {
      */
     public static void setSystemIconsPolicy(String policy) {
         systemIconsPolicy = policy;
+        clearFileIcons();
     }
 
 
@@ -319,4 +491,35 @@ public class FileIcons {
     public static boolean hasProperSystemIcons() {
         return OsFamily.MAC_OS_X.isCurrent() || OsFamily.WINDOWS.isCurrent();
     }
+
+
+    /**
+     * Key of the icon caches: a file type, a file or an icon, and an icon dimension. Files are equal if they have the
+     * same URL, icons if they are the same instance.
+     */
+    private static class IconKey {
+        private final Object object;
+        private final int width;
+        private final int height;
+
+        private IconKey(Object object, Dimension dimension) {
+            this.object = object;
+            this.width = dimension.width;
+            this.height = dimension.height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof IconKey))
+                return false;
+
+            IconKey key = (IconKey)o;
+            return width==key.width && height==key.height && object.equals(key.object);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*(31*object.hashCode()+width)+height;
+        }
+    }
 }
@@ -46,6 +46,7 @@ import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileURL;
 import com.mucommander.core.FolderChangeMonitor;
 import com.mucommander.core.LocalLocationHistory;
+import com.mucommander.core.ListingPrefetcher;
 import com.mucommander.core.LocationChanger;
 import com.mucommander.core.LocationChanger.ChangeFolderThread;
 import com.mucommander.ui.action.ActionKeymap;
@@ -103,6 +104,9 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
 
     private LocationChanger locationChanger;
 
+    /** Lists the folders likely to be visited next while the user idles */
+    private ListingPrefetcher listingPrefetcher;
+
     /** Is directory tree visible */
     private boolean treeVisible = false;
 
@@ -171,6 +175,8 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
         fileTable = new FileTable(mainFrame, this, conf);
 
         locationChanger = new LocationChanger(mainFrame, this, locationManager);
+
+        listingPrefetcher = new ListingPrefetcher(this);
         
         // Create the Tabs (Must be called after the fileTable was created and current folder was set)
         tabs = new FileTableTabs(mainFrame, this, initialTabs);
@@ -419,6 +425,16 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
     			fileTable.setCurrentFolder(folder, children, fileToSelect);
     }
 
+    /**
+     * Adds files that have just been listed to the current folder, when the folder has been made current before it was
+     * entirely listed.
+     *
+     * @param children files of the current folder that are not displayed yet
+     */
+    public void addFiles(AbstractFile children[]) {
+    		fileTable.addFiles(children);
+    }
+
     /**
      * Shows the pop up which is located the given index in fileTablePopups.
      * 
@@ -0,0 +1,425 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FilePermissions;
+import com.mucommander.commons.file.util.FileComparator;
+import com.mucommander.commons.runtime.JavaVersion;
+
+/**
+ * Sorts the files of a folder by one of the {@link FileComparator} criteria.
+ *
+ * <p>The values files are compared on are extracted once, when the sorter is created, and stored in arrays indexed
+ * like the files: names folded to lower case, and the size, date, permissions, extension, owner or group depending on
+ * the criterion. Comparing two files then only involves these arrays. Files are ordered by the criterion's value,
+ * then by case-insensitive name, then by case-sensitive name, directories being placed first if requested, whatever
+ * the order. Files with no extension, owner or group come first in ascending order, files whose size is not known
+ * come last.</p>
+ *
+ * <p>The sort is a merge sort, which is stable and runs in linear time on files that are already sorted. Large
+ * folders are sorted by several threads when running on Java 1.7 or higher, by a single thread otherwise.</p>
+ */
+class FileSorter {
+
+    /** Ranges of files smaller than this are sorted by a single thread */
+    private final static int PARALLEL_SORT_THRESHOLD = 8192;
+
+    /** Ranges of files smaller than this are sorted with an insertion sort */
+    private final static int INSERTION_SORT_THRESHOLD = 16;
+
+    /** True if the fork/join framework, which parallel sorts rely on, is available */
+    private final static boolean PARALLEL_SORT_AVAILABLE = JavaVersion.JAVA_1_7.isCurrentOrHigher();
+
+    private final int criterion;
+    private final boolean ascending;
+    private final boolean foldersFirst;
+
+    /** The files to sort */
+    private AbstractFile files[];
+
+    /** Number of files whose values have been extracted */
+    private int nbFiles;
+
+    /** True for directories */
+    private boolean directories[];
+
+    /** Names of the files */
+    private String names[];
+
+    /** Names of the files, folded to lower case */
+    private String foldedNames[];
+
+    /** Size, date or permissions of the files, depending on the criterion, null for other criteria */
+    private long longValues[];
+
+    /** Extension, owner or group of the files folded to lower case, depending on the criterion, null for other criteria */
+    private String stringValues[];
+
+
+    /**
+     * Creates a new sorter for the given files, and extracts the values they are compared on.
+     *
+     * @param files the files to sort
+     * @param criterion one of the {@link FileComparator} criteria
+     * @param ascending true for ascending order, false for descending order
+     * @param foldersFirst true if directories are placed first, whatever the order
+     * @param previous a sorter of the same files whose names can be reused, may be <code>null</code>
+     */
+    FileSorter(AbstractFile files[], int criterion, boolean ascending, boolean foldersFirst, FileSorter previous) {
+        this.criterion = criterion;
+        this.ascending = ascending;
+        this.foldersFirst = foldersFirst;
+
+        if(criterion==FileComparator.SIZE_CRITERION || criterion==FileComparator.DATE_CRITERION || criterion==FileComparator.PERMISSIONS_CRITERION)
+            longValues = new long[0];
+        else if(criterion!=FileComparator.NAME_CRITERION)
+            stringValues = new String[0];
+
+        // Names and types do not depend on the criterion
+        if(previous!=null && previous.files==files && previous.nbFiles==files.length) {
+            this.files = files;
+            this.nbFiles = files.length;
+            this.directories = previous.directories;
+            this.names = previous.names;
+            this.foldedNames = previous.foldedNames;
+            if(longValues!=null)
+                longValues = new long[nbFiles];
+            else if(stringValues!=null)
+                stringValues = new String[nbFiles];
+            for(int i=0; i<nbFiles; i++)
+                extractCriterionValue(i);
+        }
+        else {
+            this.files = new AbstractFile[0];
+            directories = new boolean[0];
+            names = new String[0];
+            foldedNames = new String[0];
+            setFiles(files);
+        }
+    }
+
+    /**
+     * Returns a sorter for the given criterion, ascending order and 'folders first' values.
+     *
+     * @param files the files to sort
+     * @param sortInfo how to sort the files
+     * @param previous a sorter of the same files whose names can be reused, may be <code>null</code>
+     * @return a sorter for the given files
+     */
+    static FileSorter getSorter(AbstractFile files[], SortInfo sortInfo, FileSorter previous) {
+        return new FileSorter(files, sortInfo.getCriterion().getFileComparatorCriterion(), sortInfo.getAscendingOrder(), sortInfo.getFoldersFirst(), previous);
+    }
+
+    /**
+     * Returns a sorter of the given files, which sorts them like this one.
+     *
+     * @param files the files to sort
+     * @return a sorter of the given files
+     */
+    FileSorter getSorter(AbstractFile files[]) {
+        return new FileSorter(files, criterion, ascending, foldersFirst, null);
+    }
+
+    /**
+     * Returns <code>true</code> if this sorter sorts files as described by the given SortInfo.
+     *
+     * @param sortInfo how files are to be sorted
+     * @return true if this sorter sorts files as described by the given SortInfo
+     */
+    boolean sortsLike(SortInfo sortInfo) {
+        return criterion==sortInfo.getCriterion().getFileComparatorCriterion()
+            && ascending==sortInfo.getAscendingOrder()
+            && foldersFirst==sortInfo.getFoldersFirst();
+    }
+
+    /**
+     * Returns <code>true</code> if the given array is the one containing the files this sorter sorts.
+     *
+     * @param files an array of files
+     * @return true if the given array is the one containing the files this sorter sorts
+     */
+    boolean isSorting(AbstractFile files[]) {
+        return this.files==files;
+    }
+
+    /**
+     * Sets the files to sort, which must start with the files this sorter was created with, and extracts the values of
+     * the files that have been added.
+     *
+     * @param files the files to sort
+     */
+    void setFiles(AbstractFile files[]) {
+        int length = files.length;
+        this.files = files;
+
+        boolean newDirectories[] = new boolean[length];
+        System.arraycopy(directories, 0, newDirectories, 0, nbFiles);
+        directories = newDirectories;
+
+        names = grow(names, length);
+        foldedNames = grow(foldedNames, length);
+        if(longValues!=null) {
+            long newLongValues[] = new long[length];
+            System.arraycopy(longValues, 0, newLongValues, 0, nbFiles);
+            longValues = newLongValues;
+        }
+        else if(stringValues!=null) {
+            stringValues = grow(stringValues, length);
+        }
+
+        for(int i=nbFiles; i<length; i++) {
+            AbstractFile file = files[i];
+            directories[i] = file.isDirectory();
+            names[i] = file.getName();
+            foldedNames[i] = fold(names[i]);
+            extractCriterionValue(i);
+        }
+
+        nbFiles = length;
+    }
+
+    /**
+     * Returns a copy of the given array with the specified length.
+     */
+    private static String[] grow(String array[], int length) {
+        String newArray[] = new String[length];
+        System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+        return newArray;
+    }
+
+    /**
+     * Extracts the value of the sort criterion of the file located at the given index.
+     */
+    private void extractCriterionValue(int i) {
+        AbstractFile file = files[i];
+
+        if(criterion==FileComparator.SIZE_CRITERION) {
+            // Consider that directories have a size of 0, and files whose size is not known are the largest
+            long size = directories[i]?0:file.getSize();
+            longValues[i] = size<0?Long.MAX_VALUE:size;
+        }
+        else if(criterion==FileComparator.DATE_CRITERION) {
+            longValues[i] = file.getDate();
+        }
+        else if(criterion==FileComparator.PERMISSIONS_CRITERION) {
+            FilePermissions permissions = file.getPermissions();
+            longValues[i] = permissions==null?0:permissions.getIntValue();
+        }
+        else if(criterion==FileComparator.EXTENSION_CRITERION) {
+            stringValues[i] = fold(file.getExtension());
+        }
+        else if(criterion==FileComparator.OWNER_CRITERION) {
+            stringValues[i] = fold(file.getOwner());
+        }
+        else if(criterion==FileComparator.GROUP_CRITERION) {
+            stringValues[i] = fold(file.getGroup());
+        }
+    }
+
+    /**
+     * Folds the given string to lower case, character by character, so that folded strings compare like
+     * {@link String#compareToIgnoreCase(String)} compares the original strings.
+     */
+    private static String fold(String s) {
+        if(s==null)
+            return null;
+
+        char chars[] = null;
+        int length = s.length();
+        for(int i=0; i<length; i++) {
+            char c = s.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            if(folded!=c) {
+                if(chars==null)
+                    chars = s.toCharArray();
+                chars[i] = folded;
+            }
+        }
+
+        return chars==null?s:new String(chars);
+    }
+
+
+    /**
+     * Returns the index of the files in sorted order.
+     *
+     * @return the index of the files in sorted order
+     */
+    int[] sort() {
+        int order[] = new int[nbFiles];
+        for(int i=0; i<nbFiles; i++)
+            order[i] = i;
+
+        sort(order, 0, nbFiles);
+
+        return order;
+    }
+
+    /**
+     * Sorts the given range of an array of file indexes.
+     *
+     * @param order indexes of the files to sort
+     * @param lo index of the first element of the range, inclusive
+     * @param hi index of the last element of the range, exclusive
+     */
+    void sort(int order[], int lo, int hi) {
+        int tmp[] = new int[order.length];
+        if(hi-lo<=PARALLEL_SORT_THRESHOLD || !PARALLEL_SORT_AVAILABLE)
+            sequentialSort(order, tmp, lo, hi);
+        else
+            ParallelSort.sort(this, order, tmp, lo, hi);
+    }
+
+    private void sequentialSort(int order[], int tmp[], int lo, int hi) {
+        if(hi-lo<=INSERTION_SORT_THRESHOLD) {
+            insertionSort(order, lo, hi);
+            return;
+        }
+
+        int mid = (lo+hi)>>>1;
+        sequentialSort(order, tmp, lo, mid);
+        sequentialSort(order, tmp, mid, hi);
+        merge(order, tmp, lo, mid, hi);
+    }
+
+    private void insertionSort(int order[], int lo, int hi) {
+        for(int i=lo+1; i<hi; i++) {
+            int index = order[i];
+            int j = i;
+            while(j>lo && compare(order[j-1], index)>0) {
+                order[j] = order[j-1];
+                j--;
+            }
+            order[j] = index;
+        }
+    }
+
+    /**
+     * Merges the sorted ranges [lo, mid[ and [mid, hi[ of the given array, using the same range of tmp as a buffer.
+     * Elements of the first range come first when equal, so that the sort is stable.
+     */
+    private void merge(int order[], int tmp[], int lo, int mid, int hi) {
+        // Nothing to do if the ranges are already in order
+        if(compare(order[mid-1], order[mid])<=0)
+            return;
+
+        System.arraycopy(order, lo, tmp, lo, mid-lo);
+        int i = lo;
+        int j = mid;
+        int k = lo;
+        while(i<mid && j<hi) {
+            if(compare(order[j], tmp[i])<0)
+                order[k++] = order[j++];
+            else
+                order[k++] = tmp[i++];
+        }
+        while(i<mid)
+            order[k++] = tmp[i++];
+    }
+
+    /**
+     * Sorts ranges of file indexes in parallel. The fork/join classes are only referenced from this class, so that they
+     * are not loaded unless it is used, which requires Java 1.7 or higher.
+     */
+    private static class ParallelSort {
+
+        /** Shared by all sorters, threads are created when needed */
+        private final static ForkJoinPool POOL = new ForkJoinPool();
+
+        /**
+         * Sorts the given range of an array of file indexes using the given sorter.
+         */
+        private static void sort(FileSorter sorter, int order[], int tmp[], int lo, int hi) {
+            POOL.invoke(new SortTask(sorter, order, tmp, lo, hi));
+        }
+
+        /**
+         * Sorts a range of file indexes, splitting it in two ranges sorted in parallel if it is large.
+         */
+        private static class SortTask extends RecursiveAction {
+            private final FileSorter sorter;
+            private final int order[];
+            private final int tmp[];
+            private final int lo;
+            private final int hi;
+
+            private SortTask(FileSorter sorter, int order[], int tmp[], int lo, int hi) {
+                this.sorter = sorter;
+                this.order = order;
+                this.tmp = tmp;
+                this.lo = lo;
+                this.hi = hi;
+            }
+
+            @Override
+            protected void compute() {
+                if(hi-lo<=PARALLEL_SORT_THRESHOLD) {
+                    sorter.sequentialSort(order, tmp, lo, hi);
+                    return;
+                }
+
+                int mid = (lo+hi)>>>1;
+                invokeAll(new SortTask(sorter, order, tmp, lo, mid), new SortTask(sorter, order, tmp, mid, hi));
+                sorter.merge(order, tmp, lo, mid, hi);
+            }
+        }
+    }
+
+
+    /**
+     * Compares the files located at the given indexes.
+     *
+     * @param i index of the first file
+     * @param j index of the second file
+     * @return a negative value if the first file comes first, a positive value if it comes last, 0 if they are equal
+     */
+    int compare(int i, int j) {
+        if(foldersFirst && directories[i]!=directories[j])
+            return directories[i]?-1:1;
+
+        int diff = 0;
+        if(longValues!=null)
+            diff = longValues[i]<longValues[j]?-1:longValues[i]==longValues[j]?0:1;
+        else if(stringValues!=null)
+            diff = compareStrings(stringValues[i], stringValues[j]);
+
+        if(diff==0)
+            diff = foldedNames[i].compareTo(foldedNames[j]);
+        if(diff==0)
+            diff = names[i].compareTo(names[j]);
+
+        return ascending?diff:-diff;
+    }
+
+    /**
+     * Compares the given strings, <code>null</code> coming first.
+     */
+    private static int compareStrings(String s1, String s2) {
+        if(s1==null)
+            return s2==null?0:-1;
+        if(s2==null)
+            return 1;
+
+        return s1.compareTo(s2);
+    }
+}
@@ -33,8 +33,17 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.DefaultCellEditor;
 import javax.swing.InputMap;
@@ -67,8 +76,10 @@ import com.mucommander.desktop.DesktopManager;
 import com.mucommander.job.MoveJob;
 import com.mucommander.text.CustomDateFormat;
 import com.mucommander.text.Translator;
+import com.mucommander.ui.action.ActionCategories;
 import com.mucommander.ui.action.ActionKeymap;
 import com.mucommander.ui.action.ActionManager;
+import com.mucommander.ui.action.ActionProperties;
 import com.mucommander.ui.action.impl.MarkNextRowAction;
 import com.mucommander.ui.action.impl.MarkPreviousRowAction;
 import com.mucommander.ui.action.impl.MarkSelectedFileAction;
@@ -107,6 +118,13 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     private final static int RESERVED_NAME_COLUMN_WIDTH = 40;
     /** Miniumn column width when in automatic column sizing mode */
     private final static int MIN_COLUMN_AUTO_WIDTH = 20;
+    /** Maximum number of files whose values are measured to calculate the width of columns, larger folders are sampled */
+    private final static int COLUMN_WIDTHS_SAMPLE_SIZE = 5000;
+    /** Maximum number of string widths kept in the cache, the cache is cleared past that */
+    private final static int STRING_WIDTHS_CACHE_SIZE = 20000;
+
+    /** Folders with at least this number of files are sorted by another thread than the event dispatch thread */
+    private final static int BACKGROUND_SORT_THRESHOLD = 10000;
 
 
     // - Containers ----------------------------------------------------------------------
@@ -156,6 +174,37 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     /** Instance of the inner class that handles quick search */
     private QuickSearch<AbstractFile> quickSearch = new FileTableQuickSearch();
 
+    /** File to select that was not found when the folder was changed, null if there is none */
+    private AbstractFile pendingFileToSelect;
+
+    /** File that was selected instead of pendingFileToSelect */
+    private AbstractFile pendingFileToSelectReplacement;
+
+    /** Number of times the table has been sorted by another thread, used to ignore outdated sorts */
+    private int nbSortRequests;
+
+    /** Width of the widest value of each column (indexed by ordinal) in the current folder, -1 if it is not known */
+    private int columnContentWidths[];
+
+    /** Number of times the width of columns has been calculated, used to ignore outdated calculations */
+    private volatile int nbColumnWidthsRequests;
+
+    /** Calculates the width of columns, one request at a time. Only the latest request waits to be calculated, older
+     * ones are discarded, and the thread stops when there is nothing to calculate. */
+    private final ThreadPoolExecutor columnWidthsExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(1),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FileTable column widths thread");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            },
+            new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    /** Width of the strings measured so far with the current font */
+    private final Map<String, Integer> stringWidths = new HashMap<String, Integer>();
+
     /** TableSelectionListener instances registered to receive selection change events */
     private WeakHashMap<TableSelectionListener, ?> tableSelectionListeners = new WeakHashMap<TableSelectionListener, Object>();
 
@@ -187,6 +236,8 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         tableModel = (FileTableModel)getModel();
         tableModel.setSortInfo(sortInfo);
 
+        columnWidthsExecutor.allowCoreThreadTimeOut(true);
+
         ThemeManager.addCurrentThemeListener(this);
 
         setAutoResizeMode(AUTO_RESIZE_NEXT_COLUMN);
@@ -228,7 +279,7 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     }
     
     public String getFileNameAtRow(int index) {
-    	return (index==0 && tableModel.hasParentFolder()) ? ".." : tableModel.getFileAtRow(index).getName();
+    	return tableModel.getFileNameAtRow(index);
     }
 
     /**
@@ -479,22 +530,17 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
      * @param fileToSelect the file to select, <code>null</code> for the default selection.
      */
     public void setCurrentFolder(AbstractFile folder, AbstractFile children[], AbstractFile fileToSelect) {
-        // Stop quick search in case it was being used before folder change
-        quickSearch.stop();
-
         AbstractFile currentFolder = folderPanel.getCurrentFolder();
 
-        // If we're refreshing the current folder, save the current selection and marked files
-        // in order to restore them properly.
-        FileSet markedFiles  = null;
+        // If we're refreshing the current folder, only update the files that have changed: the current selection,
+        // marked files, scroll position and quick search filter are preserved.
         if(currentFolder != null && folder.equalsCanonical(currentFolder)) {
-            markedFiles = tableModel.getMarkedFiles();
-            if(fileToSelect==null)
-                fileToSelect = getSelectedFile();
+            invokeAndWait(new FolderRefreshThread(folder, children, fileToSelect));
+            return;
         }
 
         // If we're navigating to the current folder's parent, we select the current folder.
-        else if(fileToSelect==null) {
+        if(fileToSelect==null) {
             if(tableModel.hasParentFolder() && folder.equals(tableModel.getParentFolder()))
                 fileToSelect = currentFolder;
         }
@@ -502,18 +548,44 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         // Changes the current folder in the swing thread to make sure that repaints cannot
         // happen in the middle of the operation - this is used to prevent flickering, badly
         // refreshed frames and such unpleasant graphical artifacts.
-        Runnable folderChangeThread = new FolderChangeThread(folder, children, markedFiles, fileToSelect);
-
         // Wait for the task to complete, so that we return only when the folder has actually been changed and the
         // table updated to reflect the new folder.
+        invokeAndWait(new FolderChangeThread(folder, children, fileToSelect));
+    }
+
+    /**
+     * Adds the given files to the current folder's contents, and refreshes the table to reflect them. This method is
+     * called when a large folder has been made current before it was entirely listed, with the files that have been
+     * listed since. Rows remain sorted and the selected file and marked files remain the same. The file to select and
+     * marked files that could not be restored when the folder was changed are restored if they are among the new files.
+     *
+     * <p>
+     * This method returns only when the table has been refreshed.<br>
+     * <b>Important:</b> This method should only be called by {@link FolderPanel} and in any case MUST be synchronized
+     * externally to ensure this method is never called concurrently by different threads.
+     * </p>
+     *
+     * @param children files of the current folder that are not in the table yet
+     */
+    public void addFiles(AbstractFile children[]) {
+        invokeAndWait(new FilesAddedThread(children));
+    }
+
+    /**
+     * Runs the given task in the event dispatch thread and waits for it to complete. The task must call
+     * <code>notify()</code> on itself when it is done.
+     *
+     * @param task the task to run in the event dispatch thread
+     */
+    private void invokeAndWait(Runnable task) {
         // Note: we use a wait/notify scheme rather than calling SwingUtilities#invokeAndWait to avoid deadlocks
         // due to AWT thread synchronization issues.
-        synchronized(folderChangeThread) {
-            SwingUtilities.invokeLater(folderChangeThread);
+        synchronized(task) {
+            SwingUtilities.invokeLater(task);
             while(true) {
                 try {
-                    // FolderChangeThread will call notify when done
-                    folderChangeThread.wait();
+                    // The task will call notify when done
+                    task.wait();
                     break;
                 }
                 catch(InterruptedException e) {
@@ -557,8 +629,8 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         if(autoSizeColumnsEnabled) {
             getTableHeader().setResizingAllowed(false);
 
-            // Will invoke doLayout()
-            resizeAndRepaint();
+            // Will invoke doLayout() once the width of the columns' values is known
+            updateColumnContentWidths();
         }
         else
             getTableHeader().setResizingAllowed(true);
@@ -905,6 +977,8 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
         for(Column c : Column.values())
             columnModel.setColumnVisible(c, columnModel.isColumnEnabled(c) && isColumnDisplayable(c));
+
+        updateColumnContentWidths();
     }
 
     /**
@@ -993,6 +1067,12 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
      * their position will have changed in the newly sorted table.
      */
     private void sortTable() {
+        // Large folders are sorted by another thread, the table remains usable in the meantime
+        if(tableModel.getFileCount()>=BACKGROUND_SORT_THRESHOLD) {
+            new SortThread(++nbSortRequests).start();
+            return;
+        }
+
         // Save currently selected file
         AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
 
@@ -1061,14 +1141,7 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         Column                c;
         int                   remainingWidth;
         int                   columnWidth;
-        int                   rowCount;
-        FontMetrics           fm;
-        String                val;
-        int                   dirStringWidth;
-        int                   stringWidth;
-
-        fm             = getFontMetrics(FileTableCellRenderer.getCellFont());
-        dirStringWidth = fm.stringWidth(FileTableModel.DIRECTORY_SIZE_STRING);
+
         remainingWidth = getSize().width - RESERVED_NAME_COLUMN_WIDTH;
         columns        = respectSize ? new Enumerator<TableColumn>(getColumnModel().getColumns()) : getFileTableColumnModel().getAllColumns();
         nameColumn     = null;
@@ -1082,19 +1155,9 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
             else {
                 if(c == Column.EXTENSION)
                     columnWidth = (int)FileIcons.getIconDimension().getWidth();
-                else {
-                    columnWidth = MIN_COLUMN_AUTO_WIDTH;
-
-                    rowCount = getModel().getRowCount();
-                    for(int rowNum = 0; rowNum < rowCount; rowNum++) {
-                        val = (String)getModel().getValueAt(rowNum, column.getModelIndex());
-                        stringWidth = val==null?0
-                                :c==Column.SIZE && val.equals(FileTableModel.DIRECTORY_SIZE_STRING)?dirStringWidth
-                                :fm.stringWidth(val);
-
-                        columnWidth = Math.max(columnWidth, stringWidth);
-                    }
-                }
+                // The width of the column's values is calculated by ColumnWidthsTask when the folder changes
+                else
+                    columnWidth = columnContentWidths==null?MIN_COLUMN_AUTO_WIDTH:Math.max(MIN_COLUMN_AUTO_WIDTH, columnContentWidths[c.ordinal()]);
                 if(respectSize)
                     columnWidth = Math.min(columnWidth, remainingWidth);
                 columnWidth +=  2 * CellLabel.CELL_BORDER_WIDTH;
@@ -1110,6 +1173,26 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         nameColumn.setWidth(remainingWidth + RESERVED_NAME_COLUMN_WIDTH);
     }
 
+    /**
+     * Calculates the width of the visible columns' values in the current folder by another thread than the event
+     * dispatch thread, and lays out the table again once they are known. This method must be called when the
+     * folder's contents, the visible columns or the way values are displayed have changed.
+     */
+    private void updateColumnContentWidths() {
+        // Values are only measured when columns are sized automatically
+        if(!autoSizeColumnsEnabled && getFileTableColumnModel().wereColumnSizesSet())
+            return;
+
+        List<Column> columns = new ArrayList<Column>();
+        for(Column c : Column.values()) {
+            if(c!=Column.NAME && c!=Column.EXTENSION && getFileTableColumnModel().isColumnVisible(c))
+                columns.add(c);
+        }
+
+        // The cell editor's font is used for the same reason as in setRowHeight()
+        columnWidthsExecutor.execute(new ColumnWidthsTask(++nbColumnWidthsRequests, columns, getFontMetrics(filenameEditor.filenameField.getFont())));
+    }
+
     private void doStaticLayout() {
         int         width;
         TableColumn nameColumn;
@@ -1489,7 +1572,8 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         
         if (var.equals(MuPreferences.DISPLAY_COMPACT_FILE_SIZE)) {
         	FileTableModel.setSizeFormat(event.getBooleanValue());
-        	tableModel.fillCellCache();
+        	tableModel.clearCellCache();
+        	updateColumnContentWidths();
         	resizeAndRepaint();
         }
         else if (var.equals(MuPreferences.DATE_FORMAT) || var.equals(MuPreferences.DATE_SEPARATOR) || var.equals(MuPreferences.TIME_FORMAT)) {
@@ -1498,7 +1582,8 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
             // Since listeners are stored by MuConfiguration in a hash map, order is pretty much random.
             // So CustomDateFormat#updateDateFormat() has to be called before to ensure that is uses the new date format.
             CustomDateFormat.updateDateFormat();
-            tableModel.fillCellCache();
+            tableModel.clearCellCache();
+            updateColumnContentWidths();
             resizeAndRepaint();
         }
         // Repaint file icons if their size has changed
@@ -1626,10 +1711,16 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     }
 
     /**
-     * This inner class adds 'quick search' functionality to the FileTable
+     * This inner class adds 'quick search' functionality to the FileTable. Depending on the
+     * {@link MuPreferences#QUICK_SEARCH_FILTERS_ROWS} preference, the search either selects the best matching file
+     * and dims the others, or hides the files that do not match until it is cancelled. In the latter case, selection
+     * actions remain available and only apply to the files that are displayed.
      */
     private class FileTableQuickSearch extends QuickSearch<AbstractFile> {
 
+        /** True if the current search hides the files that do not match */
+        private boolean filtering;
+
         /**
          * Creates a new QuickSearch instance, only one instance per FileTable should be created.
          */
@@ -1639,22 +1730,86 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         
         @Override
 		protected void searchStarted() {
+            filtering = MuConfigurations.getPreferences().getVariable(MuPreference.QUICK_SEARCH_FILTERS_ROWS,
+                                                                      MuPreferences.DEFAULT_QUICK_SEARCH_FILTERS_ROWS);
+
         	// Repaint the table to add the 'dim' effect on non-matching files
-            scrollpaneWrapper.dimBackground();
+            if(!filtering)
+                scrollpaneWrapper.dimBackground();
 		}
 
 		@Override
 		protected void searchStopped() {
+            if(filtering) {
+                filtering = false;
+
+                // Display all files again, the selected file remaining selected
+                AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+                tableModel.setNameFilter("");
+                if(selectedFile==null || !selectFile(selectedFile))
+                    selectRow(0);
+                resizeAndRepaint();
+            }
+
 			mainFrame.getStatusBar().updateSelectedFilesInfo();
             // Removes the 'dim' effect on non-matching files.
             scrollpaneWrapper.undimBackground();
 		}
+
+        @Override
+        protected boolean isTimeoutEnabled() {
+            return !filtering;
+        }
+
+        @Override
+        public boolean matches(int itemIndex) {
+            // Files that do not match are not displayed
+            return filtering ? isActive() : super.matches(itemIndex);
+        }
+
+        @Override
+        protected void findMatch(int startRow, boolean descending, boolean findBestMatch) {
+            if(!filtering) {
+                super.findMatch(startRow, descending, findBestMatch);
+                return;
+            }
+
+            String searchString = getSearchString();
+            int row;
+            if(findBestMatch) {
+                // The search string has changed, display the files that match it
+                AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+                tableModel.setNameFilter(searchString);
+                row = tableModel.getBestFilteredRow();
+
+                // Without a match, the selected file remains selected if it is still displayed
+                if(row==-1 && (selectedFile==null || !selectFile(selectedFile)) && tableModel.getRowCount()>0)
+                    selectRow(0);
+                resizeAndRepaint();
+            }
+            else {
+                // All the files that are displayed match
+                row = startRow>=tableModel.getFirstMarkableRow() && startRow<tableModel.getRowCount() ? startRow : -1;
+            }
+
+            if(searchString.length()==0)
+                searchStringBecameEmpty(searchString);
+            else if(row!=-1)
+                matchFound(row, searchString);
+            else
+                matchNotFound(searchString);
+        }
 		
 		@Override
 		protected int getNumOfItems() {
 			return tableModel.getRowCount();
 		}
 
+		@Override
+		protected int getItemsModCount() {
+			return tableModel.getRowsModCount();
+		}
+
 		@Override
 		protected String getItemString(int index) {
             return getFileNameAtRow(index);
@@ -1773,6 +1928,12 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 	                // (or any other KeyListener on this FileTable)
 	                e.consume();
 
+	                // Selection actions apply to the files that are displayed, the search goes on
+	                if(filtering && ActionProperties.getActionCategory(muActionId)==ActionCategories.SELECTION) {
+	                    ActionManager.getActionInstance(muActionId, mainFrame).performAction();
+	                    return;
+	                }
+
 	                // Cancel quick search
 	                stop();
 
@@ -1806,6 +1967,12 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
             // Changes filename editor's font
             filenameEditor.filenameField.setFont(event.getFont());
 
+            // Strings have to be measured again
+            synchronized(stringWidths) {
+                stringWidths.clear();
+            }
+            updateColumnContentWidths();
+
             // Recalcule row height, revalidate and repaint the table
             setRowHeight();
         }
@@ -1827,18 +1994,20 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     private class FolderChangeThread implements Runnable {
         private AbstractFile   folder;
         private AbstractFile[] children;
-        private FileSet        markedFiles;
         private AbstractFile   selectedFile;
 
-        private FolderChangeThread(AbstractFile folder, AbstractFile[] children, FileSet markedFiles, AbstractFile selectedFile) {
+        private FolderChangeThread(AbstractFile folder, AbstractFile[] children, AbstractFile selectedFile) {
             this.folder       = folder;
             this.children     = children;
-            this.markedFiles  = markedFiles;
             this.selectedFile = selectedFile;
         }
 
         public void run() {
             try {
+                // Stop quick search in case it was being used before folder change. This is done in the event
+                // dispatch thread, as a filtering quick search displays all the files again when it stops.
+                quickSearch.stop();
+
                 // Set the new current folder.
                 tableModel.setCurrentFolder(folder, children);
 
@@ -1863,12 +2032,15 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
                 // Computes the index of the new row selection.
                 int rowToSelect;
+                pendingFileToSelect = null;
                 if(selectedFile!=null) {
                     // Tries to find the index of the file to select. If it cannot be found (the file might not
                     // exist anymore, for example), use the closest possible row.
                     if((rowToSelect = tableModel.getFileRow(selectedFile)) == -1) {
                         int rowCount = tableModel.getRowCount();
                         rowToSelect = currentRow < rowCount ? currentRow : rowCount - 1;
+                        // The file may not have been listed yet
+                        pendingFileToSelect = selectedFile;
                     }
                 }
                 // If no file was marked as needing to be selected, selects the first line.
@@ -1878,36 +2050,240 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
                 selectRow(currentRow = rowToSelect);
                 fireSelectedFileChangedEvent();
+                pendingFileToSelectReplacement = tableModel.getFileAtRow(currentRow);
 
-                // Restore previously marked files (if any / current folder hasn't changed)
-                if(markedFiles != null) {
-                    // Restore previsouly marked files
-                    int nbMarkedFiles = markedFiles.size();
-                    int fileRow;
-                    for(int i  =0; i < nbMarkedFiles; i++) {
-                        fileRow = tableModel.getFileRow(markedFiles.elementAt(i));
-                        if(fileRow != -1)
-                            tableModel.setRowMarked(fileRow, true);
+                // Notify registered listeners that there are no marked files anymore
+                fireMarkedFilesChangedEvent();
+
+                resizeAndRepaint();
+            }
+
+            catch(Throwable e) {
+                // While no such thing should happen, we want to make absolutely sure no exception
+                // is propagated to the AWT event dispatch thread.
+                LOGGER.warn("Caught exception while changing folder, this should not happen!", e);
+            }
+            finally {
+                // Notify #setCurrentFolder that we're done changing the folder.
+                synchronized(this) {
+                    notify();
+                }
+            }
+        }
+    }
+
+    /**
+     * This thread refreshes the current folder: only the files that have been added, removed or modified since the
+     * folder was last listed are updated, the marked files and the selection are preserved.
+     */
+    private class FolderRefreshThread implements Runnable {
+        private AbstractFile   folder;
+        private AbstractFile[] children;
+        private AbstractFile   selectedFile;
+
+        private FolderRefreshThread(AbstractFile folder, AbstractFile[] children, AbstractFile selectedFile) {
+            this.folder       = folder;
+            this.children     = children;
+            this.selectedFile = selectedFile;
+        }
+
+        public void run() {
+            try {
+                if(selectedFile == null)
+                    selectedFile = tableModel.getFileAtRow(currentRow);
+
+                if(tableModel.refreshCurrentFolder(folder, children)) {
+                    // Tries to find the row of the file to select. If it cannot be found (the file might not exist
+                    // anymore, for example), use the closest possible row.
+                    int rowToSelect = selectedFile == null ? -1 : tableModel.getFileRow(selectedFile);
+                    if(rowToSelect == -1) {
+                        int rowCount = tableModel.getRowCount();
+                        rowToSelect = currentRow < rowCount ? currentRow : rowCount - 1;
                     }
 
-                    // Notify registered listeners that currently marked files have changed on this FileTable
+                    selectRow(currentRow = rowToSelect);
+                    fireSelectedFileChangedEvent();
+
+                    // Files that were marked may have been removed
                     fireMarkedFilesChangedEvent();
+
+                    updateColumnContentWidths();
+                    resizeAndRepaint();
                 }
+                // Nothing has changed, only select the requested file
+                else if(selectedFile != null) {
+                    selectFile(selectedFile);
+                }
+            }
+            catch(Throwable e) {
+                // While no such thing should happen, we want to make absolutely sure no exception
+                // is propagated to the AWT event dispatch thread.
+                LOGGER.warn("Caught exception while refreshing folder, this should not happen!", e);
+            }
+            finally {
+                // Notify #setCurrentFolder that we're done refreshing the folder.
+                synchronized(this) {
+                    notify();
+                }
+            }
+        }
+    }
+
+    /**
+     * This thread adds files that have just been listed to the current folder.
+     */
+    private class FilesAddedThread implements Runnable {
+        private AbstractFile[] children;
 
+        private FilesAddedThread(AbstractFile[] children) {
+            this.children = children;
+        }
+
+        public void run() {
+            try {
+                AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+
+                tableModel.addFiles(children);
+
+                // Select the file that was requested when the folder was changed if it has just been listed, unless
+                // another file has been selected in the meantime
+                if(pendingFileToSelect != null) {
+                    if(selectedFile == null || !selectedFile.equals(pendingFileToSelectReplacement))
+                        pendingFileToSelect = null;
+                    else if(tableModel.getFileRow(pendingFileToSelect) != -1) {
+                        selectedFile = pendingFileToSelect;
+                        pendingFileToSelect = null;
+                    }
+                }
+
+                // The selected file has most likely moved to another row
+                if(selectedFile != null)
+                    selectFile(selectedFile);
+
+                updateColumnContentWidths();
                 resizeAndRepaint();
             }
-
             catch(Throwable e) {
                 // While no such thing should happen, we want to make absolutely sure no exception
                 // is propagated to the AWT event dispatch thread.
-                LOGGER.warn("Caught exception while changing folder, this should not happen!", e);
+                LOGGER.warn("Caught exception while adding files, this should not happen!", e);
             }
             finally {
-                // Notify #setCurrentFolder that we're done changing the folder.
+                // Notify #addFiles that we're done adding the files.
                 synchronized(this) {
                     notify();
                 }
             }
         }
     }
+
+    /**
+     * This thread sorts the rows of a large folder, and updates the table in the event dispatch thread. The sort is
+     * ignored if another one has been requested in the meantime, and done again if files have been added.
+     */
+    private class SortThread extends Thread {
+        private final int sortRequest;
+
+        private SortThread(int sortRequest) {
+            super("FileTable sort thread");
+            this.sortRequest = sortRequest;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final FileSorter sorter = tableModel.createSorter();
+            final int order[] = sorter.sort();
+
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    if(sortRequest != nbSortRequests)
+                        return;
+
+                    AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+
+                    if(!tableModel.setSortedRows(sorter, order)) {
+                        // The folder has been changed or files have been added since the sort started: files that
+                        // have been added were sorted like the other rows, which may not be the requested order
+                        if(!tableModel.isSorted())
+                            new SortThread(++nbSortRequests).start();
+                        return;
+                    }
+
+                    selectFile(selectedFile);
+                    repaint();
+                }
+            });
+        }
+    }
+
+    /**
+     * This task calculates the width of the widest value of some columns in the current folder, and lays out the
+     * table in the event dispatch thread. Large folders are sampled, so the widths are estimates. The calculation is
+     * abandoned if another one has been requested in the meantime.
+     */
+    private class ColumnWidthsTask implements Runnable {
+        private final int request;
+        private final List<Column> columns;
+        private final FontMetrics fm;
+
+        private ColumnWidthsTask(int request, List<Column> columns, FontMetrics fm) {
+            this.request = request;
+            this.columns = columns;
+            this.fm = fm;
+        }
+
+        public void run() {
+            if(request != nbColumnWidthsRequests)
+                return;
+
+
+            AbstractFile files[] = tableModel.getFilesSample(COLUMN_WIDTHS_SAMPLE_SIZE);
+
+            final int widths[] = new int[Column.values().length];
+            Arrays.fill(widths, -1);
+            // Only one thread measures strings at a time
+            synchronized(stringWidths) {
+                if(stringWidths.size() > STRING_WIDTHS_CACHE_SIZE)
+                    stringWidths.clear();
+
+                for(Column column : columns) {
+                    int width = 0;
+                    for(AbstractFile file : files) {
+                        if(request != nbColumnWidthsRequests)
+                            return;
+
+                        String value = FileTableModel.formatCellValue(file, column);
+                        if(value != null)
+                            width = Math.max(width, getStringWidth(value));
+                    }
+                    widths[column.ordinal()] = width;
+                }
+            }
+
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    if(request != nbColumnWidthsRequests)
+                        return;
+
+                    columnContentWidths = widths;
+                    // Will invoke doLayout()
+                    resizeAndRepaint();
+                }
+            });
+        }
+
+        /**
+         * Returns the width of the given string, measuring it only if it hasn't been measured already.
+         */
+        private int getStringWidth(String value) {
+            Integer width = stringWidths.get(value);
+            if(width == null) {
+                width = fm.stringWidth(value);
+                stringWidths.put(value, width);
+            }
+
+            return width;
+        }
+    }
 }
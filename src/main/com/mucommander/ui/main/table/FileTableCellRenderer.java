@@ -30,8 +30,8 @@ import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.ui.icon.CustomFileIconProvider;
+import com.mucommander.ui.icon.FileIconLoader;
 import com.mucommander.ui.icon.FileIcons;
-import com.mucommander.ui.icon.IconManager;
 import com.mucommander.ui.quicksearch.QuickSearch;
 import com.mucommander.ui.theme.ColorChangedEvent;
 import com.mucommander.ui.theme.FontChangedEvent;
@@ -60,7 +60,7 @@ import com.mucommander.ui.theme.ThemeListener;
  *
  * @author Maxence Bernard, Nicolas Rinaudo
  */
-public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
+public class FileTableCellRenderer implements TableCellRenderer, ThemeListener, FileIconLoader.Listener {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FileTableCellRenderer.class);
 	
     private FileTable table;
@@ -179,7 +179,7 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
             matches = true;
         else {
             if(search.isActive())
-                matches = search.matches(this.table.getFileNameAtRow(rowIndex));
+                matches = search.matches(rowIndex);
             else
                 matches = true;
         }
@@ -195,10 +195,11 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
 
         // Extension/icon column: return ImageIcon instance
         if(column == Column.EXTENSION) {
-            // Set file icon (parent folder icon if '..' file)
+            // Set file icon (parent folder icon if '..' file). File icons are resolved in the background, a folder
+            // or file icon is displayed until the file's icon is available.
             label.setIcon(rowIndex ==0 && tableModel.hasParentFolder()
-                    ?IconManager.getIcon(IconManager.FILE_ICON_SET, CustomFileIconProvider.PARENT_FOLDER_ICON_NAME, FileIcons.getScaleFactor())
-                    :FileIcons.getFileIcon(file));
+                    ?FileIcons.getFileSetIcon(CustomFileIconProvider.PARENT_FOLDER_ICON_NAME)
+                    :FileIconLoader.getFileIcon(file, FileIcons.getFileSetIcon(file.isDirectory()?CustomFileIconProvider.FOLDER_ICON_NAME:CustomFileIconProvider.FILE_ICON_NAME), this));
         }
         // Any other column (name, date or size)
         else {
@@ -278,4 +279,17 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
             setCellLabelsFont(ThemeCache.tableFont);
         }
     }
+
+
+    // - File icons loading ----------------------------------------------------------
+    // -------------------------------------------------------------------------------
+    /**
+     * Repaints the icon cell of the given file, whose icon has been resolved.
+     */
+    public void fileIconLoaded(AbstractFile file) {
+        int row = tableModel.getFileRow(file);
+        int column = table.convertColumnIndexToView(Column.EXTENSION.ordinal());
+        if(row!=-1 && column!=-1)
+            table.repaint(table.getCellRect(row, column, false));
+    }
 }
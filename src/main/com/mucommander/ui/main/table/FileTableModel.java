@@ -18,20 +18,28 @@
 
 package com.mucommander.ui.main.table;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.table.AbstractTableModel;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.impl.CachedFile;
-import com.mucommander.commons.file.util.FileComparator;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.conf.MuConfigurations;
 import com.mucommander.conf.MuPreference;
 import com.mucommander.conf.MuPreferences;
 import com.mucommander.text.CustomDateFormat;
 import com.mucommander.text.SizeFormat;
+import com.mucommander.ui.quicksearch.QuickSearchIndex;
 
 
 /**
@@ -53,14 +61,64 @@ public class FileTableModel extends AbstractTableModel {
     /** Cached file instances */
     private AbstractFile cachedFiles[];
 
+    /**
+     * Incremented each time files are removed from or replaced in cachedFiles, that is each time the indexes of the
+     * current files may change. Adding files at the end of cachedFiles leaves it unchanged.
+     */
+    private int listingModCount;
+
     /** Index array */
     private int fileArrayIndex[];
 
-    /** Cell values cache */
-    private Object cellValuesCache[][];
+    /**
+     * Indexes in cachedFiles of the files displayed by the rows, parent row excluded: the files of fileArrayIndex that
+     * match the name filter, in the same order. Same array as fileArrayIndex when rows are not filtered.
+     */
+    private int filteredFileArrayIndex[];
+
+    /** Incremented each time the rows are changed or reordered */
+    private int rowsModCount;
+
+    /** Current name filter, empty when rows are not filtered */
+    private String nameFilter = "";
+
+    /** Index of the names of the current files, indexed like cachedFiles. Null until rows are first filtered */
+    private QuickSearchIndex nameFilterIndex;
+
+    /** Size of each file, indexed like cachedFiles, -1 for directories. Only valid once the file's attributes have been fetched */
+    private long fileSizes[];
+
+    /** Date of each file, indexed like cachedFiles. Only valid once the file's attributes have been fetched */
+    private long fileDates[];
+
+    /** Combination of FETCHED, DIRECTORY and FORMATTED flags for each file, indexed like cachedFiles */
+    private byte fileFlags[];
+
+    /** Cell values of the '..' row, null if the current folder has no parent */
+    private String parentCellValues[];
+
+    /** Cell values of the most recently displayed rows, by index in cachedFiles */
+    private final Map<Integer, String[]> cellValuesCache = new LinkedHashMap<Integer, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size()>CELL_VALUES_CACHE_SIZE;
+        }
+    };
+
+    /** Marked files, indexed like cachedFiles */
+    private BitSet markedFileIndexes;
+
+    /**
+     * Open addressing hash table of the current files by name: each slot contains the index of a file in cachedFiles
+     * plus one, 0 for empty slots. Null until a file is first looked up.
+     */
+    private int fileNameIndex[];
 
-    /** Marked rows array */
-    private boolean rowMarked[];
+    /**
+     * Row of each file (parent row excluded), indexed like cachedFiles, -1 for files hidden by the name filter. Null until
+     * a file is first looked up
+     */
+    private int fileRows[];
 	
     /** Combined size of files currently marked */
     private long markedTotalSize;
@@ -71,6 +129,9 @@ public class FileTableModel extends AbstractTableModel {
     /** Contains sort-related variables */
     private SortInfo sortInfo;
 
+    /** Sorter the rows are currently sorted with, null if they have not been sorted yet */
+    private FileSorter sorter;
+
     /** True if the name column is temporarily editable */
     private boolean nameColumnEditable;
 
@@ -80,6 +141,21 @@ public class FileTableModel extends AbstractTableModel {
     /** String used as size information for directories */
     public final static String DIRECTORY_SIZE_STRING = "<DIR>";
 
+    /** Maximum number of rows whose cell values are kept formatted, a few screens worth */
+    private final static int CELL_VALUES_CACHE_SIZE = 2048;
+
+    /** Number of rows whose attributes are fetched at once, when a row whose attributes have not been fetched is displayed */
+    private final static int PREFETCH_WINDOW = 128;
+
+    /** Flag set in fileFlags when the file's attributes have been fetched */
+    private final static byte FETCHED = 1;
+
+    /** Flag set in fileFlags when the file is a directory */
+    private final static byte DIRECTORY = 2;
+
+    /** Flag set in fileFlags when the file's cells have been formatted, and thus its permissions, owner and group fetched */
+    private final static byte FORMATTED = 4;
+
 
     static {
         // Initialize the size column format based on the configuration
@@ -110,8 +186,11 @@ public class FileTableModel extends AbstractTableModel {
         // Init arrays to avoid NullPointerExceptions until setCurrentFolder() gets called for the first time
         cachedFiles = new AbstractFile[0];
         fileArrayIndex = new int[0];
-        cellValuesCache = new Object[0][Column.values().length-1];
-        rowMarked = new boolean[0];
+        filteredFileArrayIndex = fileArrayIndex;
+        fileSizes = new long[0];
+        fileDates = new long[0];
+        fileFlags = new byte[0];
+        markedFileIndexes = new BitSet();
     }
 
     /**
@@ -174,6 +253,9 @@ public class FileTableModel extends AbstractTableModel {
     /**
      * Sets the current folder and its children.
      *
+     * <p>The attributes of the children are not fetched here: they are fetched and formatted when the rows are
+     * displayed, marked or sorted, so that folders with a large number of files can be opened quickly.</p>
+     *
      * @param folder the current folder
      * @param children the current folder's children
      */
@@ -181,6 +263,7 @@ public class FileTableModel extends AbstractTableModel {
         int nbFiles = children.length;
 
         this.currentFolder = (folder instanceof CachedFile)?folder:new CachedFile(folder, true);
+        this.currentFolderDateSnapshot = currentFolder.getDate();
 
         this.parent = currentFolder.getParent();    // Note: the returned parent is a CachedFile instance
         if(parent!=null) {
@@ -190,28 +273,277 @@ public class FileTableModel extends AbstractTableModel {
 
         // Initialize file indexes and create CachedFile instances to speed up table display and navigation
         this.cachedFiles = children;
+        this.listingModCount++;
         this.fileArrayIndex = new int[nbFiles];
-        AbstractFile file;
         for(int i=0; i<nbFiles; i++) {
-            file = new CachedFile(children[i], true);
+            cachedFiles[i] = new CachedFile(children[i], true);
+            fileArrayIndex[i] = i;
+        }
 
-            // Pre-fetch the attributes that are used by the table renderer and some actions.
-            prefetchCachedFileAttributes(file);
+        this.fileSizes = new long[nbFiles];
+        this.fileDates = new long[nbFiles];
+        this.fileFlags = new byte[nbFiles];
+        this.sorter = null;
+
+        this.fileNameIndex = null;
+        this.fileRows = null;
+
+        // A new folder is displayed unfiltered
+        this.nameFilter = "";
+        this.nameFilterIndex = null;
+        this.filteredFileArrayIndex = fileArrayIndex;
+        this.rowsModCount++;
+
+        // Reset marked files
+        this.markedFileIndexes = new BitSet(nbFiles);
+        this.markedTotalSize = 0;
+        this.nbRowsMarked = 0;
+
+        clearCellCache();
+    }
+
+    /**
+     * Adds the given files to the current folder's children. This method is used when a folder is displayed before
+     * it has been entirely listed: the new files are sorted and merged with the current ones, so that rows remain
+     * sorted. Marked files and cell values of the current files are preserved.
+     *
+     * @param newChildren files to add to the current folder's children
+     */
+    synchronized void addFiles(AbstractFile newChildren[]) {
+        int nbNewFiles = newChildren.length;
+        if(nbNewFiles==0)
+            return;
+
+        int nbOldFiles = cachedFiles.length;
+        int nbFiles = nbOldFiles + nbNewFiles;
+
+        AbstractFile newCachedFiles[] = new AbstractFile[nbFiles];
+        System.arraycopy(cachedFiles, 0, newCachedFiles, 0, nbOldFiles);
+        for(int i=0; i<nbNewFiles; i++)
+            newCachedFiles[nbOldFiles+i] = new CachedFile(newChildren[i], true);
+        this.cachedFiles = newCachedFiles;
+
+        this.fileSizes = grow(fileSizes, nbFiles);
+        this.fileDates = grow(fileDates, nbFiles);
+        byte newFileFlags[] = new byte[nbFiles];
+        System.arraycopy(fileFlags, 0, newFileFlags, 0, nbOldFiles);
+        this.fileFlags = newFileFlags;
+        this.fileRows = null;
+        if(fileNameIndex!=null) {
+            if(nbFiles*2>fileNameIndex.length)
+                this.fileNameIndex = null;
+            else
+                for(int i=nbOldFiles; i<nbFiles; i++)
+                    addToFileNameIndex(i);
+        }
 
-            cachedFiles[i] = file;
+        // Sort the new files only, and merge them with the current files which are already sorted
+        int oldFileArrayIndex[] = fileArrayIndex;
+        this.fileArrayIndex = new int[nbFiles];
+        System.arraycopy(oldFileArrayIndex, 0, fileArrayIndex, 0, nbOldFiles);
+        for(int i=nbOldFiles; i<nbFiles; i++)
             fileArrayIndex[i] = i;
+
+        if(sorter!=null) {
+            sorter.setFiles(cachedFiles);
+            mergeSortedRows(nbOldFiles);
         }
 
-        // Reset marked files
-        int nbRows = getRowCount();
-        this.rowMarked = new boolean[nbRows];
+        this.nameFilterIndex = null;
+        applyNameFilter(fileArrayIndex);
+    }
+
+    /**
+     * Sorts the rows that follow the given number of rows, which are already sorted, and merges both ranges.
+     *
+     * @param nbSortedRows number of rows at the beginning of fileArrayIndex which are already sorted
+     */
+    private void mergeSortedRows(int nbSortedRows) {
+        int nbFiles = fileArrayIndex.length;
+        sorter.sort(fileArrayIndex, nbSortedRows, nbFiles);
+
+        int newFileArrayIndex[] = new int[nbFiles];
+        int oldPos = 0;
+        int newPos = nbSortedRows;
+        for(int i=0; i<nbFiles; i++) {
+            if(newPos==nbFiles || (oldPos<nbSortedRows && sorter.compare(fileArrayIndex[oldPos], fileArrayIndex[newPos])<=0))
+                newFileArrayIndex[i] = fileArrayIndex[oldPos++];
+            else
+                newFileArrayIndex[i] = fileArrayIndex[newPos++];
+        }
+        this.fileArrayIndex = newFileArrayIndex;
+    }
+
+    /**
+     * Refreshes the current folder with the given children, which are the result of a new listing of the folder.
+     * Files are matched by name with the current files: those whose type, size, date, permissions, owner and group have
+     * not changed are kept
+     * along with their cached attributes and cell values, the others are replaced, and files that no longer exist are
+     * removed. Marked files remain marked, including files that have been modified, and rows remain sorted.
+     *
+     * @param folder the current folder
+     * @param children the current folder's children
+     * @return <code>true</code> if files have been added, removed or modified, <code>false</code> if the folder's
+     * contents have not changed
+     */
+    synchronized boolean refreshCurrentFolder(AbstractFile folder, AbstractFile children[]) {
+        this.currentFolder = (folder instanceof CachedFile)?folder:new CachedFile(folder, true);
+        this.currentFolderDateSnapshot = currentFolder.getDate();
+        formatParentCellValues();
+
+        int nbOldFiles = cachedFiles.length;
+        int nbFiles = children.length;
+
+        Map<String, Integer> oldFileIndexes = new HashMap<String, Integer>(nbOldFiles*2);
+        for(int i=0; i<nbOldFiles; i++)
+            oldFileIndexes.put(cachedFiles[i].getName(), i);
+
+        // Match the new files with the current ones
+        AbstractFile newCachedFiles[] = new AbstractFile[nbFiles];
+        int newFileIndexes[] = new int[nbOldFiles];
+        Arrays.fill(newFileIndexes, -1);
+        boolean keptFiles[] = new boolean[nbFiles];
+        BitSet newMarkedFileIndexes = new BitSet(nbFiles);
+        int nbKeptFiles = 0;
+        for(int i=0; i<nbFiles; i++) {
+            AbstractFile file = new CachedFile(children[i], true);
+            Integer oldFileIndex = oldFileIndexes.get(file.getName());
+            if(oldFileIndex!=null && newFileIndexes[oldFileIndex]==-1) {
+                if(isUnchanged(oldFileIndex, file)) {
+                    // Files whose attributes have not been fetched are replaced, so that their attributes are
+                    // fetched from the new file when they are first displayed
+                    if((fileFlags[oldFileIndex]&FETCHED)!=0)
+                        file = cachedFiles[oldFileIndex];
+                    newFileIndexes[oldFileIndex] = i;
+                    keptFiles[i] = true;
+                    nbKeptFiles++;
+                }
+                if(markedFileIndexes.get(oldFileIndex))
+                    newMarkedFileIndexes.set(i);
+            }
+            newCachedFiles[i] = file;
+        }
+
+        if(nbKeptFiles==nbOldFiles && nbKeptFiles==nbFiles) {
+            for(int i=0; i<nbOldFiles; i++)
+                cachedFiles[i] = newCachedFiles[newFileIndexes[i]];
+            return false;
+        }
+
+        // Carry over the attributes and cell values of the files that have been kept
+        long newFileSizes[] = new long[nbFiles];
+        long newFileDates[] = new long[nbFiles];
+        byte newFileFlags[] = new byte[nbFiles];
+        for(int i=0; i<nbOldFiles; i++) {
+            int newFileIndex = newFileIndexes[i];
+            if(newFileIndex!=-1) {
+                newFileSizes[newFileIndex] = fileSizes[i];
+                newFileDates[newFileIndex] = fileDates[i];
+                newFileFlags[newFileIndex] = fileFlags[i];
+            }
+        }
+
+        List<Map.Entry<Integer, String[]>> cellValues = new ArrayList<Map.Entry<Integer, String[]>>(cellValuesCache.entrySet());
+        cellValuesCache.clear();
+        for(Map.Entry<Integer, String[]> entry : cellValues) {
+            int newFileIndex = newFileIndexes[entry.getKey()];
+            if(newFileIndex!=-1)
+                cellValuesCache.put(newFileIndex, entry.getValue());
+        }
+
+        // Kept files remain in the same order, the others are sorted and merged with them
+        int newFileArrayIndex[] = new int[nbFiles];
+        int nbSortedRows = 0;
+        for(int oldFileIndex : fileArrayIndex) {
+            if(newFileIndexes[oldFileIndex]!=-1)
+                newFileArrayIndex[nbSortedRows++] = newFileIndexes[oldFileIndex];
+        }
+        int row = nbSortedRows;
+        for(int i=0; i<nbFiles; i++) {
+            if(!keptFiles[i])
+                newFileArrayIndex[row++] = i;
+        }
+
+        this.cachedFiles = newCachedFiles;
+        this.listingModCount++;
+        this.fileSizes = newFileSizes;
+        this.fileDates = newFileDates;
+        this.fileFlags = newFileFlags;
+        this.fileArrayIndex = newFileArrayIndex;
+        this.fileNameIndex = null;
+        this.fileRows = null;
+
+        // Count marked files again, as some of them may have been removed or modified
+        this.markedFileIndexes = new BitSet(nbFiles);
         this.markedTotalSize = 0;
         this.nbRowsMarked = 0;
+        for(int i=newMarkedFileIndexes.nextSetBit(0); i>=0; i=newMarkedFileIndexes.nextSetBit(i+1))
+            setFileIndexMarked(i, true);
+
+        if(sorter!=null) {
+            sorter = sorter.getSorter(cachedFiles);
+            mergeSortedRows(nbSortedRows);
+        }
+
+        this.nameFilterIndex = null;
+        applyNameFilter(fileArrayIndex);
+
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if the given file has the same attributes as the current file located at the given
+     * index in the cachedFiles array. Only the attributes that have already been fetched are compared, as this method
+     * is called for each file of the folder in the event dispatch thread: the type, size and date of the files whose
+     * attributes have been fetched, and the permissions, owner and group of the files whose cells have been formatted.
+     * Files whose attributes have not been fetched are considered unchanged.
+     */
+    private boolean isUnchanged(int fileIndex, AbstractFile file) {
+        byte flags = fileFlags[fileIndex];
+        if((flags&FETCHED)==0)
+            return true;
+
+        boolean directory = file.isDirectory();
+        if(directory!=((flags&DIRECTORY)!=0) || file.getDate()!=fileDates[fileIndex])
+            return false;
+
+        if(!directory && file.getSize()!=fileSizes[fileIndex])
+            return false;
+
+        if((flags&FORMATTED)==0)
+            return true;
+
+        AbstractFile cachedFile = cachedFiles[fileIndex];
+        return equals(file.getPermissions(), cachedFile.getPermissions())
+            && equals(file.getOwner(), cachedFile.getOwner())
+            && equals(file.getGroup(), cachedFile.getGroup());
+    }
+
+    /**
+     * Returns <code>true</code> if the given permissions have the same values and mask, or are both <code>null</code>.
+     */
+    private static boolean equals(FilePermissions permissions1, FilePermissions permissions2) {
+        if(permissions1==null || permissions2==null)
+            return permissions1==permissions2;
+
+        return permissions1.getIntValue()==permissions2.getIntValue()
+            && permissions1.getMask().getIntValue()==permissions2.getMask().getIntValue();
+    }
 
-        // Init and fill cell cache to speed up table even more
-        this.cellValuesCache = new Object[nbRows][Column.values().length-1];
+    /**
+     * Returns <code>true</code> if the given strings are equal, or are both <code>null</code>.
+     */
+    private static boolean equals(String s1, String s2) {
+        return s1==null?s2==null:s1.equals(s2);
+    }
 
-        fillCellCache();
+    /**
+     * Returns a copy of the given array with the specified length.
+     */
+    private static long[] grow(long array[], int length) {
+        long newArray[] = new long[length];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
     }
 
     /**
@@ -233,46 +565,177 @@ public class FileTableModel extends AbstractTableModel {
         }
     }
 
-	
     /**
-     * Retrieves all cell values and stores them in an array for fast access.
+     * Fetches the attributes of the file located at the given index in the cachedFiles array, if they have not been
+     * fetched yet.
+     *
+     * @param fileIndex index of the file in the cachedFiles array
      */
-    synchronized void fillCellCache() {
-        int len = cellValuesCache.length;
-        if(len==0)
+    private void fetchAttributes(int fileIndex) {
+        if((fileFlags[fileIndex]&FETCHED)!=0)
             return;
-		
-        // Special '..' file
+
+        AbstractFile file = cachedFiles[fileIndex];
+        prefetchCachedFileAttributes(file);
+
+        byte flags = FETCHED;
+        // Do not call getSize() on directories, it's unnecessary and the value is most likely not cached by CachedFile yet
+        if(file.isDirectory()) {
+            flags |= DIRECTORY;
+            fileSizes[fileIndex] = -1;
+        }
+        else {
+            fileSizes[fileIndex] = file.getSize();
+        }
+        fileDates[fileIndex] = file.getDate();
+
+        fileFlags[fileIndex] = flags;
+    }
+
+    /**
+     * Fetches the attributes of the file displayed at the given position (parent row excluded) if they have not been
+     * fetched yet, along with those of the neighbouring rows which are likely to be displayed next.
+     *
+     * @param fileRow position of the file in the filteredFileArrayIndex array
+     */
+    private void fetchRowAttributes(int fileRow) {
+        if((fileFlags[filteredFileArrayIndex[fileRow]]&FETCHED)!=0)
+            return;
+
+        int end = Math.min(fileRow+PREFETCH_WINDOW, filteredFileArrayIndex.length);
+        for(int i=Math.max(0, fileRow-PREFETCH_WINDOW/4); i<end; i++)
+            fetchAttributes(filteredFileArrayIndex[i]);
+    }
+
+    /**
+     * Returns the cell values of the file located at the given index in the cachedFiles array, formatting them if they
+     * are not in the cache.
+     *
+     * @param fileIndex index of the file in the cachedFiles array
+     * @return the cell values of the file, indexed by column ordinal minus one
+     */
+    private String[] getCellValues(int fileIndex) {
+        String values[] = cellValuesCache.get(fileIndex);
+        if(values!=null)
+            return values;
+
+        fetchAttributes(fileIndex);
+
+        AbstractFile file = cachedFiles[fileIndex];
+        values = new String[Column.values().length-1];
+        values[Column.NAME.ordinal()-1] = file.getName();
+        values[Column.SIZE.ordinal()-1] = (fileFlags[fileIndex]&DIRECTORY)!=0?DIRECTORY_SIZE_STRING:SizeFormat.format(fileSizes[fileIndex], sizeFormat);
+        values[Column.DATE.ordinal()-1] = CustomDateFormat.format(new Date(fileDates[fileIndex]));
+        values[Column.PERMISSIONS.ordinal()-1] = file.getPermissionsString();
+        values[Column.OWNER.ordinal()-1] = file.getOwner();
+        values[Column.GROUP.ordinal()-1] = file.getGroup();
+
+        cellValuesCache.put(fileIndex, values);
+        fileFlags[fileIndex] |= FORMATTED;
+
+        return values;
+    }
+
+    /**
+     * Returns the files of the current folder if there are no more than the given number of them, or a sample of evenly
+     * spaced files otherwise. Files are returned in no particular order.
+     *
+     * @param maxNbFiles maximum number of files to return
+     * @return the files of the current folder or a sample of them
+     */
+    synchronized AbstractFile[] getFilesSample(int maxNbFiles) {
+        int nbFiles = cachedFiles.length;
+        if(nbFiles<=maxNbFiles)
+            return cachedFiles.clone();
+
+        AbstractFile sample[] = new AbstractFile[maxNbFiles];
+        for(int i=0; i<maxNbFiles; i++)
+            sample[i] = cachedFiles[(int)((long)i*nbFiles/maxNbFiles)];
+
+        return sample;
+    }
+
+    /**
+     * Formats the value of the given column for the given file as it is displayed in the table, without using the cell
+     * values cache. Unlike the other methods of this class, this method can be called from any thread.
+     *
+     * @param file a file of the current folder
+     * @param column a column other than {@link Column#EXTENSION}
+     * @return the value of the column for the file
+     */
+    static String formatCellValue(AbstractFile file, Column column) {
+        switch(column) {
+            case NAME:
+                return file.getName();
+            case SIZE:
+                return file.isDirectory()?DIRECTORY_SIZE_STRING:SizeFormat.format(file.getSize(), sizeFormat);
+            case DATE:
+                return CustomDateFormat.format(new Date(file.getDate()));
+            case PERMISSIONS:
+                return file.getPermissionsString();
+            case OWNER:
+                return file.getOwner();
+            case GROUP:
+                return file.getGroup();
+            default:
+                return null;
+        }
+    }
+
+	
+    /**
+     * Discards the cell values that have been formatted so far, so that they are formatted again the next time they
+     * are displayed. This method must be called when the format of the size or date columns has changed.
+     */
+    synchronized void clearCellCache() {
+        cellValuesCache.clear();
+        formatParentCellValues();
+    }
+
+    /**
+     * Formats the cell values of the special '..' file.
+     */
+    private void formatParentCellValues() {
         if(parent!=null) {
-            cellValuesCache[0][Column.NAME.ordinal()-1] = "..";
-            cellValuesCache[0][Column.SIZE.ordinal()-1] = DIRECTORY_SIZE_STRING;
-            currentFolderDateSnapshot = currentFolder.getDate();
-            cellValuesCache[0][Column.DATE.ordinal()-1] =	CustomDateFormat.format(new Date(currentFolderDateSnapshot));
+            parentCellValues = new String[Column.values().length-1];
+            parentCellValues[Column.NAME.ordinal()-1] = "..";
+            parentCellValues[Column.SIZE.ordinal()-1] = DIRECTORY_SIZE_STRING;
+            parentCellValues[Column.DATE.ordinal()-1] = CustomDateFormat.format(new Date(currentFolderDateSnapshot));
             // Don't display parent's permissions as they can have a different format from the folder contents
             // (e.g. for archives) and this looks weird
-            cellValuesCache[0][Column.PERMISSIONS.ordinal()-1] = "";
-            cellValuesCache[0][Column.OWNER.ordinal()-1] = "";
-            cellValuesCache[0][Column.GROUP.ordinal()-1] = "";
+            parentCellValues[Column.PERMISSIONS.ordinal()-1] = "";
+            parentCellValues[Column.OWNER.ordinal()-1] = "";
+            parentCellValues[Column.GROUP.ordinal()-1] = "";
         }
-		
-        AbstractFile file;
-        int fileIndex = 0;
-
-        for(int i=parent==null?0:1; i<len; i++) {
-            file = getCachedFileAtRow(i);
-            int cellIndex = fileArrayIndex[fileIndex]+(parent==null?0:1);
-            cellValuesCache[cellIndex][Column.NAME.ordinal()-1] = file.getName();
-            cellValuesCache[cellIndex][Column.SIZE.ordinal()-1] = file.isDirectory()?DIRECTORY_SIZE_STRING:SizeFormat.format(file.getSize(), sizeFormat);
-            cellValuesCache[cellIndex][Column.DATE.ordinal()-1] = CustomDateFormat.format(new Date(file.getDate()));
-            cellValuesCache[cellIndex][Column.PERMISSIONS.ordinal()-1] = file.getPermissionsString();
-            cellValuesCache[cellIndex][Column.OWNER.ordinal()-1] = file.getOwner();
-            cellValuesCache[cellIndex][Column.GROUP.ordinal()-1] = file.getGroup();
-
-            fileIndex++;
+        else {
+            parentCellValues = null;
         }
     }
 	
 	
+    /**
+     * Returns the name of the file located at the given row index, <code>..</code> for the parent folder row. Unlike
+     * {@link #getCachedFileAtRow(int)}, this method does not fetch the attributes of the file, so that the names of all
+     * rows can be read without accessing the files.
+     *
+     * <p>Returns <code>null</code> if rowIndex is lower than 0 or is greater than or equals
+     * {@link #getRowCount() getRowCount()}.</p>
+     *
+     * @param rowIndex a row index, comprised between 0 and #getRowCount()
+     * @return the name of the file located at the given row index
+     */
+    public synchronized String getFileNameAtRow(int rowIndex) {
+        if(rowIndex==0 && parent!=null)
+            return "..";
+
+        if(parent!=null)
+            rowIndex--;
+
+        if(rowIndex>=0 && rowIndex<filteredFileArrayIndex.length)
+            return cachedFiles[filteredFileArrayIndex[rowIndex]].getName();
+        return null;
+    }
+
     /**
      * Returns a CachedFile instance of the file located at the given row index.
      * This method can return the parent folder file ('..') if a parent exists and rowIndex is 0.
@@ -293,14 +756,16 @@ public class FileTableModel extends AbstractTableModel {
         // Need to check that row index is not larger than actual number of rows
         // because if table has just been changed (rows have been removed),
         // JTable may have an old row count value and may try to repaint rows that are out of bounds.
-        if(rowIndex>=0 && rowIndex<fileArrayIndex.length)
-            return cachedFiles[fileArrayIndex[rowIndex]];
+        if(rowIndex>=0 && rowIndex<filteredFileArrayIndex.length) {
+            fetchRowAttributes(rowIndex);
+            return cachedFiles[filteredFileArrayIndex[rowIndex]];
+        }
         return null;
     }
 
     /**
-     * Returns the current folder's children. The returned array contains {@link CachedFile} instances, where
-     * most attributes have already been fetched and cached.
+     * Returns the current folder's children. The returned array contains {@link CachedFile} instances, which cache
+     * attributes once they have been fetched.
      *
      * @return the current folder's children, as an array of CachedFile instances
      * @see #getFiles()
@@ -353,39 +818,69 @@ public class FileTableModel extends AbstractTableModel {
 
     /**
      * Returns the index of the row where the given file is located, <code>-1<code> if the file is not in the
-     * current folder.
+     * current folder or is hidden by the name filter. The file is looked up by name in a hash index of the current
+     * folder's files, so this method runs in constant time.
      *
      * @param file the file for which to find the row index
-     * @return the index of the row where the given file is located, <code>-1<code> if the file is not in the
-     * current folder
+     * @return the index of the row where the given file is located, <code>-1<code> if the file is not displayed
      */
     public synchronized int getFileRow(AbstractFile file) {
         // Handle parent folder file
         if(parent!=null && file.equals(parent))
             return 0;
 
-        // Use dichotomic binary search rather than a dumb linear search since file array is sorted,
-        // complexity is reduced to O(log n) instead of O(n^2)
-        int left = parent==null?0:1;
-        int right = getRowCount()-1;
-        int mid;
-        AbstractFile midFile;
-        FileComparator fc = getFileComparator(sortInfo);
-
-        while(left<=right) {
-            mid = (right-left)/2 + left;
-            midFile = getCachedFileAtRow(mid);
-            if(midFile.equals(file))
-                return mid;
-            if(fc.compare(file, midFile)<0)
-                right = mid-1;
-            else
-                left = mid+1;
+        int fileIndex = getFileIndex(file);
+        if(fileIndex==-1)
+            return -1;
+
+        if(fileRows==null) {
+            fileRows = new int[cachedFiles.length];
+            if(filteredFileArrayIndex!=fileArrayIndex)
+                Arrays.fill(fileRows, -1);
+            for(int i=0; i<filteredFileArrayIndex.length; i++)
+                fileRows[filteredFileArrayIndex[i]] = i;
         }
-		
+
+        int fileRow = fileRows[fileIndex];
+        return fileRow==-1 ? -1 : fileRow+(parent==null?0:1);
+    }
+
+    /**
+     * Returns the index of the given file in the cachedFiles array, <code>-1</code> if the file is not in the current
+     * folder.
+     */
+    private int getFileIndex(AbstractFile file) {
+        if(fileNameIndex==null) {
+            // Keep the table at most half full
+            fileNameIndex = new int[Integer.highestOneBit(Math.max(cachedFiles.length, 1))*4];
+            for(int i=0; i<cachedFiles.length; i++)
+                addToFileNameIndex(i);
+        }
+
+        int mask = fileNameIndex.length-1;
+        int slot = file.getName().hashCode()&mask;
+        int entry;
+        while((entry=fileNameIndex[slot])!=0) {
+            if(cachedFiles[entry-1].equals(file))
+                return entry-1;
+            slot = (slot+1)&mask;
+        }
+
         return -1;
     }
 
+    /**
+     * Adds the file located at the given index in the cachedFiles array to the file name index.
+     */
+    private void addToFileNameIndex(int fileIndex) {
+        int mask = fileNameIndex.length-1;
+        int slot = cachedFiles[fileIndex].getName().hashCode()&mask;
+        while(fileNameIndex[slot]!=0)
+            slot = (slot+1)&mask;
+
+        fileNameIndex[slot] = fileIndex+1;
+    }
+
 	
     /**
      * Returns the file located at the given index, not including the parent file.
@@ -426,7 +921,7 @@ public class FileTableModel extends AbstractTableModel {
         if(row==0 && parent!=null)
             return false;
 
-        return row<getRowCount() && rowMarked[fileArrayIndex[parent==null?row:row-1]];
+        return row<getRowCount() && markedFileIndexes.get(filteredFileArrayIndex[parent==null?row:row-1]);
     }
 
 
@@ -441,16 +936,19 @@ public class FileTableModel extends AbstractTableModel {
         if(row==0 && parent!=null)
             return;
 			
-        int rowIndex = parent==null?row:row-1;
+        setFileIndexMarked(filteredFileArrayIndex[parent==null?row:row-1], marked);
+    }
 
-        // Return if the row is already marked/unmarked
-        if((marked && rowMarked[fileArrayIndex[rowIndex]]) || (!marked && !rowMarked[fileArrayIndex[rowIndex]]))
+    /**
+     * Marks/Unmarks the file located at the given index in the cachedFiles array.
+     */
+    private void setFileIndexMarked(int fileIndex, boolean marked) {
+        // Return if the file is already marked/unmarked
+        if(markedFileIndexes.get(fileIndex)==marked)
             return;
 
-        AbstractFile file = getCachedFileAtRow(row);
-
-        // Do not call getSize() on directories, it's unnecessary and the value is most likely not cached by CachedFile yet
-        long fileSize = file.isDirectory()?0:file.getSize();
+        fetchAttributes(fileIndex);
+        long fileSize = fileSizes[fileIndex];
 
         // Update :
         // - Combined size of marked files
@@ -470,7 +968,7 @@ public class FileTableModel extends AbstractTableModel {
             nbRowsMarked--;
         }
 
-        rowMarked[fileArrayIndex[rowIndex]] = marked;
+        markedFileIndexes.set(fileIndex, marked);
     }
 
 
@@ -482,7 +980,7 @@ public class FileTableModel extends AbstractTableModel {
      * @param endRow index of the last row to mark/ummark, startRow may be less or greater than startRow
      * @param marked if true, all the rows within the range will be marked, unmarked otherwise
      */
-    public void setRangeMarked(int startRow, int endRow, boolean marked) {
+    public synchronized void setRangeMarked(int startRow, int endRow, boolean marked) {
         if(endRow >= startRow) {
             for(int i= startRow; i<= endRow; i++)
                 setRowMarked(i, marked);
@@ -494,6 +992,19 @@ public class FileTableModel extends AbstractTableModel {
     }
 
 
+    /**
+     * Marks/unmarks the rows whose index is set in the given BitSet. The parent folder row '..' is never marked.
+     *
+     * @param rows the indexes of the rows to mark/unmark
+     * @param marked if true, the rows will be marked, unmarked otherwise
+     */
+    public synchronized void setRowsMarked(BitSet rows, boolean marked) {
+        int nbRows = getRowCount();
+        for(int row=rows.nextSetBit(0); row>=0 && row<nbRows; row=rows.nextSetBit(row+1))
+            setRowMarked(row, marked);
+    }
+
+
     /**
      * Marks/Unmarks the given file.
      *
@@ -501,30 +1012,58 @@ public class FileTableModel extends AbstractTableModel {
      * @param marked <code>true</code> to mark the row, <code>false</code> to unmark it.
      */
     public synchronized void setFileMarked(AbstractFile file, boolean marked) {
-        int row = getFileRow(file);
+        int fileIndex = getFileIndex(file);
 
-    	if(row!=-1)
-            setRowMarked(row, marked);
+    	if(fileIndex!=-1)
+            setFileIndexMarked(fileIndex, marked);
     }
 
 
     /**
-     * Marks/unmarks the files that match the given {@link FileFilter}.
+     * Marks/unmarks the files that match the given {@link FileFilter}, among the files that are not hidden by the name
+     * filter. The filter is evaluated without holding the lock on this model, the matching files are then marked at
+     * once.
      *
      * @param filter the FileFilter to match the files against
      * @param marked if true, matching files will be marked, if false, they will be unmarked
      */
-    public synchronized void setFilesMarked(FileFilter filter, boolean marked) {
-        int nbFiles = getRowCount();
-        for(int i=parent==null?0:1; i<nbFiles; i++) {
-            if(filter.match(getCachedFileAtRow(i)))
-                setRowMarked(i, marked);
+    public void setFilesMarked(FileFilter filter, boolean marked) {
+        AbstractFile files[];
+        int modCount;
+        synchronized(this) {
+            files = cachedFiles;
+            modCount = listingModCount;
+        }
+
+        BitSet matchingFiles = new BitSet(files.length);
+        for(int i=0; i<files.length; i++) {
+            if(filter.match(files[i]))
+                matchingFiles.set(i);
+        }
+
+        synchronized(this) {
+            // Files may only have been added since the filter was evaluated, in which case indexes have not changed
+            if(modCount!=listingModCount) {
+                // Files have been removed or replaced, evaluate the filter again
+                matchingFiles.clear();
+                files = cachedFiles;
+                for(int i=0; i<files.length; i++) {
+                    if(filter.match(files[i]))
+                        matchingFiles.set(i);
+                }
+            }
+
+            for(int i=matchingFiles.nextSetBit(0); i>=0; i=matchingFiles.nextSetBit(i+1)) {
+                if(nameFilter.length()==0 || nameFilterIndex.matches(i))
+                    setFileIndexMarked(i, marked);
+            }
         }
     }
 
 
     /**
-     * Returns a {@link com.mucommander.commons.file.util.FileSet FileSet} with all currently marked files.
+     * Returns a {@link com.mucommander.commons.file.util.FileSet FileSet} with all currently marked files, including
+     * those hidden by the name filter.
      * <p>
      * The returned <code>FileSet</code> is a freshly created instance, so it can be safely modified.
      & However, it won't be kept current : the returned FileSet is just a snapshot
@@ -536,21 +1075,11 @@ public class FileTableModel extends AbstractTableModel {
      */
     public synchronized FileSet getMarkedFiles() {
         FileSet markedFiles = new FileSet(currentFolder, nbRowsMarked);
-        int nbRows = getRowCount();
-
-        if(parent==null) {
-            for(int i=0; i<nbRows; i++) {
-                if(rowMarked[fileArrayIndex[i]])
-                    markedFiles.add(getFileAtRow(i));
-            }
-        }
-        else {
-            for(int i=1, iMinusOne=0; i<nbRows; i++) {
-                if(rowMarked[fileArrayIndex[iMinusOne]])
-                    markedFiles.add(getFileAtRow(i));
 
-                iMinusOne = i;
-            }
+        // Files are added in the order of the rows
+        for(int fileIndex : fileArrayIndex) {
+            if(markedFileIndexes.get(fileIndex))
+                markedFiles.add(((CachedFile)cachedFiles[fileIndex]).getProxiedFile());
         }
 
         return markedFiles;
@@ -586,82 +1115,166 @@ public class FileTableModel extends AbstractTableModel {
         this.nameColumnEditable = editable;
     }
 
-	
-    //////////////////
-    // Sort methods //
-    //////////////////
-
-    private static FileComparator getFileComparator(SortInfo sortInfo) {
-        return new FileComparator(sortInfo.getCriterion().getFileComparatorCriterion(), sortInfo.getAscendingOrder(), sortInfo.getFoldersFirst());
-    }
 
+    ////////////////////
+    // Filter methods //
+    ////////////////////
 
     /**
-     * Sorts rows by the current criterion, ascending/descending order and 'folders first' value.
+     * Displays only the files whose name contains the characters of the given string in the same order, ignoring
+     * case, like {@link com.mucommander.ui.quicksearch.QuickSearch quick search} matches names. The parent folder row
+     * remains displayed. Rows are filtered without listing the folder again: the names of the current files are
+     * indexed when they are first filtered, and when a character is added to the filter, only the files that matched
+     * the previous filter are tested again.
+     *
+     * <p>Hidden files that are marked remain marked, but can only be marked or unmarked by row while they are hidden.
+     * Rows remain filtered when they are sorted or files are added, until the current folder is changed.</p>
+     *
+     * @param filter the string the names of the displayed files must match, an empty string to display all files
      */
-    synchronized void sortRows()  {
-        sort(getFileComparator(sortInfo), 0, fileArrayIndex.length-1);
+    synchronized void setNameFilter(String filter) {
+        // Files that did not match the previous filter can't match a filter starting with it
+        boolean narrowing = nameFilter.length()>0 && filter.toLowerCase().startsWith(nameFilter.toLowerCase());
+
+        this.nameFilter = filter;
+        applyNameFilter(narrowing?filteredFileArrayIndex:fileArrayIndex);
     }
 
+    /**
+     * Returns the current name filter, an empty string if rows are not filtered.
+     *
+     * @return the current name filter
+     * @see #setNameFilter(String)
+     */
+    public synchronized String getNameFilter() {
+        return nameFilter;
+    }
 
     /**
-     * Quick sort implementation, based on James Gosling's implementation.
+     * Returns the row of the file that best matches the name filter, as ranked by {@link QuickSearchIndex}. If several
+     * files match as well, the first row is returned.
+     *
+     * @return the row of the best matching file, <code>-1</code> if rows are not filtered or no file matches
      */
-    private void sort(FileComparator fc, int lo0, int hi0) {
-        int lo = lo0;
-        int hi = hi0;
+    synchronized int getBestFilteredRow() {
+        if(nameFilter.length()==0)
+            return -1;
+
+        int bestRow = -1;
+        int bestScore = -1;
+        for(int i=0; i<filteredFileArrayIndex.length; i++) {
+            int score = nameFilterIndex.getScore(filteredFileArrayIndex[i]);
+            if(score>bestScore) {
+                bestRow = i;
+                bestScore = score;
+            }
+        }
+
+        return bestRow==-1 ? -1 : bestRow+(parent==null?0:1);
+    }
 
-        int temp;
+    /**
+     * Updates the rows after the filter or fileArrayIndex has changed, keeping the given files that match the filter.
+     *
+     * @param candidates files of fileArrayIndex in the same order, including all those that match the filter
+     */
+    private void applyNameFilter(int candidates[]) {
+        fileRows = null;
+        rowsModCount++;
 
-        if (lo >= hi) {
+        if(nameFilter.length()==0) {
+            filteredFileArrayIndex = fileArrayIndex;
             return;
         }
-        else if( lo == hi - 1 ) {
-            // sort a two element list by swapping if necessary
-            if (fc.compare(cachedFiles[fileArrayIndex[lo]],cachedFiles[fileArrayIndex[hi]])>0) {
-                temp = fileArrayIndex[lo];
-                fileArrayIndex[lo] = fileArrayIndex[hi];
-                fileArrayIndex[hi] = temp;
-            }
-            return;
+
+        if(nameFilterIndex==null) {
+            String names[] = new String[cachedFiles.length];
+            for(int i=0; i<names.length; i++)
+                names[i] = cachedFiles[i].getName();
+            nameFilterIndex = new QuickSearchIndex(names);
         }
+        nameFilterIndex.setSearchString(nameFilter);
 
-        // Pick a pivot and move it out of the way
-        int pivotIndex = fileArrayIndex[(lo + hi) / 2];
-        fileArrayIndex[(lo + hi) / 2] = fileArrayIndex[hi];
-        fileArrayIndex[hi] = pivotIndex;
-        AbstractFile pivot = cachedFiles[pivotIndex];
+        int filtered[] = new int[nameFilterIndex.getNbMatches()];
+        int nbFiltered = 0;
+        for(int fileIndex : candidates) {
+            if(nameFilterIndex.matches(fileIndex))
+                filtered[nbFiltered++] = fileIndex;
+        }
+        filteredFileArrayIndex = filtered;
+    }
 
-        while( lo < hi ) {
-            // Search forward from files[lo] until an element is found that
-            // is greater than the pivot or lo >= hi
-            while (fc.compare(cachedFiles[fileArrayIndex[lo]], pivot)<=0 && lo < hi) {
-                lo++;
-            }
 
-            // Search backward from files[hi] until element is found that
-            // is less than the pivot, or lo >= hi
-            while (fc.compare(pivot, cachedFiles[fileArrayIndex[hi]])<=0 && lo < hi ) {
-                hi--;
-            }
+    //////////////////
+    // Sort methods //
+    //////////////////
 
-            // Swap elements files[lo] and files[hi]
-            if( lo < hi ) {
-                temp = fileArrayIndex[lo];
-                fileArrayIndex[lo] = fileArrayIndex[hi];
-                fileArrayIndex[hi] = temp;
-            }
+    /**
+     * Returns a number that changes each time the rows are changed or reordered: when the current folder is changed
+     * or refreshed, files are added, rows are sorted or filtered.
+     *
+     * @return a number that changes each time the rows are changed or reordered
+     */
+    synchronized int getRowsModCount() {
+        return rowsModCount;
+    }
+
+    /**
+     * Sorts rows by the current criterion, ascending/descending order and 'folders first' value.
+     */
+    synchronized void sortRows()  {
+        sorter = FileSorter.getSorter(cachedFiles, sortInfo, sorter);
+        fileArrayIndex = sorter.sort();
+        applyNameFilter(fileArrayIndex);
+    }
+
+    /**
+     * Creates a sorter of the current files for the current criterion, ascending/descending order and 'folders first'
+     * value. This method can be called by any thread, and extracts the values files are compared on, which may be
+     * I/O bound: the files can then be sorted by any thread, and the rows sorted with
+     * {@link #setSortedRows(FileSorter, int[])} in the event dispatch thread.
+     *
+     * @return a sorter of the current files
+     */
+    FileSorter createSorter() {
+        AbstractFile files[];
+        FileSorter previousSorter;
+        SortInfo currentSortInfo;
+        synchronized(this) {
+            files = cachedFiles;
+            previousSorter = sorter;
+            currentSortInfo = sortInfo.clone();
         }
 
-        // Put the median in the "center" of the list
-        fileArrayIndex[hi0] = fileArrayIndex[hi];
-        fileArrayIndex[hi] = pivotIndex;
+        return FileSorter.getSorter(files, currentSortInfo, previousSorter);
+    }
 
-        // Recursive calls, elements files[lo0] to files[lo-1] are less than or
-        // equal to pivot, elements files[hi+1] to files[hi0] are greater than
-        // pivot.
-        sort(fc, lo0, lo-1);
-        sort(fc, hi+1, hi0);
+    /**
+     * Sorts the rows in the given order, which has been computed with a sorter created by
+     * {@link #createSorter()}. The rows are left untouched
+     * if the current folder has been changed or files added since then.
+     *
+     * @param newSorter the sorter the order was computed with
+     * @param order the index of the files in sorted order
+     * @return <code>true</code> if the rows were sorted, <code>false</code> if the files have changed
+     */
+    synchronized boolean setSortedRows(FileSorter newSorter, int order[]) {
+        if(!newSorter.isSorting(cachedFiles))
+            return false;
+
+        sorter = newSorter;
+        fileArrayIndex = order;
+        applyNameFilter(fileArrayIndex);
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if the rows are sorted as described by the current {@link SortInfo}.
+     *
+     * @return true if the rows are sorted as described by the current SortInfo
+     */
+    synchronized boolean isSorted() {
+        return sorter!=null && sorter.sortsLike(sortInfo);
     }
 
 
@@ -682,7 +1295,7 @@ public class FileTableModel extends AbstractTableModel {
      * Returns the total number of rows, including the special parent folder file '..', if there is one.
      */
     public synchronized int getRowCount() {
-        return fileArrayIndex.length + (parent==null?0:1);
+        return filteredFileArrayIndex.length + (parent==null?0:1);
     }
 
 		
@@ -701,13 +1314,14 @@ public class FileTableModel extends AbstractTableModel {
         if(column==Column.EXTENSION)
             return null;
 		
-        // Decrement column index for cellValuesCache array
+        // Decrement column index for cell values arrays
         columnIndex--;
         // Handle special '..' file
         if(rowIndex==0 && parent!=null)
-            return cellValuesCache[0][columnIndex];
-        int fileIndex = parent==null?rowIndex:rowIndex-1;
-        return cellValuesCache[fileArrayIndex[fileIndex]+(parent==null?0:1)][columnIndex];
+            return parentCellValues[columnIndex];
+        int fileRow = parent==null?rowIndex:rowIndex-1;
+        fetchRowAttributes(fileRow);
+        return getCellValues(filteredFileArrayIndex[fileRow])[columnIndex];
     }
 
 	
@@ -19,30 +19,76 @@
 package com.mucommander.ui.main.tree;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileProtocols;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.impl.local.LocalFile;
+
 
 /**
- * A class that monitors IOThread if it is running or has been blocked.
- * This class maintains a list of tasks to execute and a thread that 
- * executes these tasks. It checks periodically if the IOThread is running.
- * If IOThread has been blocked then it's killed and a new IOThread is 
- * instantiated. Then the next task from the list will be executed.
+ * A class that schedules i/o tasks and monitors the threads executing them.
+ * Tasks are executed in lanes: each lane has its own queue and its own
+ * IOThread, so that tasks accessing a slow or unresponsive host or volume
+ * do not delay the tasks of other lanes. Within a lane, tasks with a higher
+ * priority are executed first. Tasks can be given a key, in which case
+ * a task with the same key is not queued twice, and can be cancelled as
+ * long as it hasn't been started.
+ * This class checks periodically if the IOThreads are running. If an
+ * IOThread has been blocked then it's killed and a new IOThread is 
+ * instantiated for its lane. Then the next task of the lane will be executed.
  * @author Mariusz Jakubowski
  *
  */
 public class AbstractIOThreadManager extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractIOThreadManager.class);
-	
-    /** a queue with tasks to execute */
-    protected final List<Runnable> queue = Collections.synchronizedList(new ArrayList<Runnable>());
 
-    /** a thread that executes tasks */
-    protected IOThread ioThread;
+    /** priority of tasks that can wait, e.g. folders that are not displayed yet */
+    public final static int PRIORITY_LOW = 0;
+
+    /** priority of tasks added without a priority */
+    public final static int PRIORITY_NORMAL = 1;
+
+    /** priority of tasks that are awaited by the user, e.g. folders that are displayed */
+    public final static int PRIORITY_HIGH = 2;
+
+    /** lane of tasks added without a lane */
+    public final static String DEFAULT_LANE = "";
+
+    /** a time after which an idle IOThread stops [ms] */
+    private final static long IDLE_THREAD_TIMEOUT = 60000;
+
+    /** a time after which the list of local volumes is read again [ms] */
+    private final static long VOLUMES_REFRESH_PERIOD = 30000;
+
+    /** local volumes, used to assign local folders to lanes */
+    private static AbstractFile volumes[];
+
+    /** a time when local volumes were read */
+    private static long volumesTimestamp;
+
+    /** true while local volumes are being read */
+    private static boolean volumesReading;
+
+    /** queues with tasks to execute, by lane */
+    protected final Map<String, PriorityQueue<IOTask>> queues = new HashMap<String, PriorityQueue<IOTask>>();
+
+    /** threads that execute tasks, by lane */
+    protected final Map<String, IOThread> ioThreads = new HashMap<String, IOThread>();
+
+    /** queued tasks by key */
+    private final Map<Object, IOTask> queuedTasks = new IdentityHashMap<Object, IOTask>();
+
+    /** number of tasks added so far, used to execute tasks of the same priority in order */
+    private long nbTasks;
     
     /** a time after i/o thread is marked as blocked */
     protected long blockThreshold;
@@ -56,34 +102,203 @@ public class AbstractIOThreadManager extends Thread {
     public AbstractIOThreadManager(String name, long blockThreshold) {
         super(name);
         this.blockThreshold = blockThreshold;
-        ioThread = new IOThread(queue, blockThreshold);
-        ioThread.start();
     }
 
     /**
      * Adds new task to execute. A task is an instance of Runnable interface.
      * A proper exception handling within the Runnable instance have to be implemented.
-     * If this task rises an exception, this exception is printed to stderr.
+     * If this task rises an exception, this exception is logged.
      * @param task a task to be executed
      */
     public void addTask(Runnable task) {
-        queue.add(task);
-        synchronized(ioThread) {
-            ioThread.notify();
+        addTask(null, DEFAULT_LANE, PRIORITY_NORMAL, task);
+    }
+
+    /**
+     * Adds new task to execute in the given lane. If a task with the same key
+     * is already queued, the task is not added and the queued task is given
+     * the specified priority if it is higher than its own.
+     * @param key an object identifying the task, compared by identity, may be null
+     * @param lane a lane in which the task will be executed, see {@link #getLane(AbstractFile)}
+     * @param priority a priority of the task, e.g. {@link #PRIORITY_HIGH}
+     * @param task a task to be executed
+     * @return true if the task has been added, false if a task with the same key is already queued
+     */
+    public boolean addTask(Object key, String lane, int priority, Runnable task) {
+        synchronized(queues) {
+            if (key != null && raisePriority(key, priority))
+                return false;
+
+            IOTask ioTask = new IOTask(key, lane, priority, nbTasks++, task);
+            PriorityQueue<IOTask> queue = queues.get(lane);
+            if (queue == null) {
+                queue = new PriorityQueue<IOTask>();
+                queues.put(lane, queue);
+            }
+            queue.add(ioTask);
+            if (key != null)
+                queuedTasks.put(key, ioTask);
+
+            if (!ioThreads.containsKey(lane))
+                startIOThread(lane);
+
+            queues.notifyAll();
+            return true;
         }
     }
-    
+
+    /**
+     * Gives the specified priority to a queued task, if it is higher than its own.
+     * @param key an object identifying the task
+     * @param priority a new priority of the task
+     * @return true if the task is queued, false if it has been started or doesn't exist
+     */
+    public boolean raisePriority(Object key, int priority) {
+        synchronized(queues) {
+            IOTask ioTask = queuedTasks.get(key);
+            if (ioTask == null)
+                return false;
+
+            if (priority > ioTask.priority) {
+                PriorityQueue<IOTask> queue = queues.get(ioTask.lane);
+                queue.remove(ioTask);
+                ioTask.priority = priority;
+                queue.add(ioTask);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Removes a queued task, which will not be executed.
+     * @param key an object identifying the task
+     * @return true if the task has been removed, false if it has been started or doesn't exist
+     */
+    public boolean cancelTask(Object key) {
+        synchronized(queues) {
+            IOTask ioTask = queuedTasks.remove(key);
+            if (ioTask == null)
+                return false;
+
+            queues.get(ioTask.lane).remove(ioTask);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the next task of the given lane, waiting until one is added.
+     * @param ioThread the thread that executes the tasks of the lane
+     * @return the next task, or null if the thread has been replaced or has been idle for too long
+     * @throws InterruptedException if the thread has been interrupted
+     */
+    Runnable takeTask(IOThread ioThread) throws InterruptedException {
+        String lane = ioThread.getLane();
+        // notifyAll() wakes up the threads of all lanes, so the idle time is measured from a fixed deadline
+        long idleDeadline = System.currentTimeMillis() + IDLE_THREAD_TIMEOUT;
+        synchronized(queues) {
+            while (true) {
+                if (ioThreads.get(lane) != ioThread)
+                    return null;
+
+                PriorityQueue<IOTask> queue = queues.get(lane);
+                IOTask ioTask = queue == null ? null : queue.poll();
+                if (ioTask != null) {
+                    if (ioTask.key != null)
+                        queuedTasks.remove(ioTask.key);
+                    return ioTask.task;
+                }
+
+                long idleTime = idleDeadline - System.currentTimeMillis();
+                if (idleTime <= 0) {
+                    ioThreads.remove(lane);
+                    queues.remove(lane);
+                    return null;
+                }
+                queues.wait(idleTime);
+            }
+        }
+    }
+
+    /**
+     * Starts a new thread that executes the tasks of the given lane.
+     */
+    private void startIOThread(String lane) {
+        IOThread ioThread = new IOThread(this, lane, blockThreshold);
+        ioThreads.put(lane, ioThread);
+        ioThread.start();
+    }
+
+    /**
+     * Returns the lane in which i/o tasks accessing the given file should be
+     * executed: one lane per local volume, and one lane per remote host.
+     * @param file a file
+     * @return a lane
+     */
+    public static String getLane(AbstractFile file) {
+        FileURL url = file.getURL();
+        if (!FileProtocols.FILE.equals(url.getScheme()))
+            return url.getScheme() + "://" + url.getHost();
+
+        // The longest volume path that contains the file
+        String path = file.getAbsolutePath(true);
+        String lane = DEFAULT_LANE;
+        for (AbstractFile volume : getVolumes()) {
+            String volumePath = volume.getAbsolutePath(true);
+            if (path.startsWith(volumePath) && volumePath.length() > lane.length())
+                lane = volumePath;
+        }
+        return lane;
+    }
+
+    /**
+     * Returns local volumes, which are read again periodically. This method
+     * can be called from the event dispatch thread: volumes are read by
+     * another thread, as reading them may block on an unresponsive mount.
+     * Until they have been read once, no volume is returned and the tasks
+     * accessing local folders are executed in the default lane.
+     */
+    private static synchronized AbstractFile[] getVolumes() {
+        if (!volumesReading && (volumes == null || System.currentTimeMillis() - volumesTimestamp > VOLUMES_REFRESH_PERIOD)) {
+            volumesReading = true;
+            Thread volumesThread = new Thread("IOThread volumes") {
+                @Override
+                public void run() {
+                    AbstractFile newVolumes[] = null;
+                    try {
+                        newVolumes = LocalFile.getVolumes();
+                    } finally {
+                        synchronized (AbstractIOThreadManager.class) {
+                            if (newVolumes != null)
+                                volumes = newVolumes;
+                            volumesTimestamp = System.currentTimeMillis();
+                            volumesReading = false;
+                        }
+                    }
+                }
+            };
+            volumesThread.setDaemon(true);
+            volumesThread.start();
+        }
+        return volumes == null ? new AbstractFile[0] : volumes;
+    }
 
     
     @Override
     public void run() {
         while (!interrupted()) {
-            synchronized (queue) {
-                if (ioThread.isBlocked()) {
-                	LOGGER.debug("Killing IOThread " + ioThread);
+            synchronized (queues) {
+                List<String> blockedLanes = new ArrayList<String>();
+                for (Map.Entry<String, IOThread> entry : ioThreads.entrySet()) {
+                    if (entry.getValue().isBlocked())
+                        blockedLanes.add(entry.getKey());
+                }
+
+                // Only the lanes of the blocked threads are affected
+                for (String lane : blockedLanes) {
+                    IOThread ioThread = ioThreads.get(lane);
+                    LOGGER.debug("Killing IOThread " + ioThread);
                     ioThread.interrupt();
-                    ioThread = new IOThread(queue, blockThreshold);
-                    ioThread.start();
+                    startIOThread(lane);
                 }
             }
             try {
@@ -92,8 +307,37 @@ public class AbstractIOThreadManager extends Thread {
                 break;
             }
         }
-        ioThread.interrupt();
+        synchronized (queues) {
+            for (IOThread ioThread : ioThreads.values())
+                ioThread.interrupt();
+            ioThreads.clear();
+        }
+    }
+
+
+    /**
+     * A queued task.
+     */
+    private static class IOTask implements Comparable<IOTask> {
+        private final Object key;
+        private final String lane;
+        private int priority;
+        private final long sequence;
+        private final Runnable task;
+
+        private IOTask(Object key, String lane, int priority, long sequence, Runnable task) {
+            this.key = key;
+            this.lane = lane;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public int compareTo(IOTask other) {
+            // Higher priority first, then first added first
+            if (priority != other.priority)
+                return priority > other.priority ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
     }
-    
-    
 }
@@ -30,8 +30,8 @@ import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.impl.ProxyFile;
+import com.mucommander.core.ListingCache;
 import com.mucommander.ui.icon.CustomFileIconProvider;
-import com.mucommander.ui.icon.FileIcons;
 import com.mucommander.ui.icon.IconManager;
 
 /**
@@ -50,6 +50,9 @@ public class CachedDirectory extends ProxyFile {
     
     /** a flag indicating that a thread is running, caching children */
     private boolean readingChildren = false;
+
+    /** a flag indicating that caching children has been cancelled before it started */
+    private boolean cachingCancelled = false;
     
     /** a timestamp of last modification time of this directory */
     private long lsTimeStamp = -1;
@@ -57,8 +60,11 @@ public class CachedDirectory extends ProxyFile {
     /** a cache in which this object is stored */
     private DirectoryCache cache;
 
-    /** a cached icon */
-    private Icon cachedIcon;
+    /** a cached icon, overrides the folder's icon if set */
+    private volatile Icon cachedIcon;
+
+    /** a lane in which children are read, see {@link AbstractIOThreadManager#getLane(AbstractFile)} */
+    private String lane;
     
 
     /**
@@ -73,19 +79,32 @@ public class CachedDirectory extends ProxyFile {
 
     /**
      * Checks if this directory is already cached. If it isn't cached then a new
-     * cache thread is started.
+     * cache task is queued with a high priority, as this directory is displayed.
      * @return true if directory is cached, false otherwise
      */
-    public synchronized boolean isCached() {
-        // check if caching thread is running
+    public boolean isCached() {
+        return isCached(AbstractIOThreadManager.PRIORITY_HIGH);
+    }
+
+    /**
+     * Checks if this directory is already cached. If it isn't cached then a new
+     * cache task is queued with the given priority, or the queued task is given
+     * the priority if it is higher.
+     * @param priority a priority of the cache task
+     * @return true if directory is cached, false otherwise
+     */
+    public synchronized boolean isCached(int priority) {
+        // check if caching task is queued or running
         if (isReadingChildren()) {
+            TreeIOThreadManager.getInstance().raisePriority(this, priority);
             return false;
         }
         // check if directory contents changed
         if (lsTimeStamp != file.getDate()) {
+            cachingCancelled = false;
             setReadingChildren(true);
             // read children in caching thread
-            TreeIOThreadManager.getInstance().addTask(new Runnable() {
+            TreeIOThreadManager.getInstance().addTask(this, getLane(), priority, new Runnable() {
                 public void run() {
                     lsAsync();
                 }
@@ -95,18 +114,47 @@ public class CachedDirectory extends ProxyFile {
         return true;
     }
 
+    /**
+     * Cancels the cache task of this directory if it hasn't been started yet,
+     * e.g. because the directory is no longer displayed.
+     */
+    public synchronized void cancelCaching() {
+        if (isReadingChildren() && TreeIOThreadManager.getInstance().cancelTask(this)) {
+            cachingCancelled = true;
+            setReadingChildren(false);
+        }
+    }
+
+    /**
+     * Returns true if caching children has been cancelled before it started.
+     */
+    public synchronized boolean isCachingCancelled() {
+        return cachingCancelled;
+    }
+
+    /**
+     * Returns a lane in which children of this directory are read.
+     */
+    private String getLane() {
+        if (lane == null) {
+            lane = AbstractIOThreadManager.getLane(file);
+        }
+        return lane;
+    }
+
     /**
      * Gets children of current directory. Files are filtered and then sorted. This
      * method is executed in caching thread.
      */
     private void lsAsync() {
-        if (getCachedIcon() == null || getCachedIcon() == NOT_ACCESSIBLE_ICON) {
-            setCachedIcon(FileIcons.getFileIcon(getProxiedFile()));
-        }
-
         AbstractFile[] children;
         try {
-            children = file.ls(cache.getFilter());
+            // The listing may be shared with the file tables and other trees
+            children = cache.getFilter().filter(ListingCache.getInstance().ls(file));
+            // icons of accessible folders are loaded when they are displayed
+            if (getCachedIcon() == NOT_ACCESSIBLE_ICON) {
+                setCachedIcon(null);
+            }
         } catch (Exception e) {
             LOGGER.debug("Caught exception", e);
             children = new AbstractFile[0];
@@ -114,31 +162,19 @@ public class CachedDirectory extends ProxyFile {
         }
 
         Arrays.sort(children, cache.getSort());
-        Icon icons[] = new Icon[children.length];
-        for (int i = 0; i < children.length; i++) {
-            icons[i] = FileIcons.getFileIcon(children[i]);
-        }
-        synchronized (cache) {
-            for (int i = 0; i < children.length; i++) {
-                CachedDirectory cachedChild = cache.getOrAdd(children[i]);
-                cachedChild.setCachedIcon(icons[i]);
-            }
-        }
         
         final AbstractFile[] children2 = children;
-        try {
-            /*
-             * Set cache to new value. This is invoked in swing thread
-             * so event listeners are called from right thread. 
-             */
-            SwingUtilities.invokeAndWait(new Runnable() {
-                public void run() {
-                    setLsCache(children2, file.getDate());
-                }
-            });
-        } catch (Exception e) {
-            LOGGER.debug("Caught exception", e);
-        }
+        final long lsTimeStamp = file.getDate();
+        /*
+         * Set cache to new value. This is invoked in swing thread
+         * so event listeners are called from right thread. This thread
+         * doesn't wait for it, and can proceed with the next directory.
+         */
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                setLsCache(children2, lsTimeStamp);
+            }
+        });
     }
 
     /**
@@ -147,8 +183,10 @@ public class CachedDirectory extends ProxyFile {
      * @param lsTimeStamp timestamp of cache
      */
     private synchronized void setLsCache(AbstractFile[] children, long lsTimeStamp) {
+        int oldNbChildren = cachedChildren == null ? 0 : cachedChildren.length;
         this.lsTimeStamp = lsTimeStamp;
         this.cachedChildren = children;
+        cache.childrenCached(this, oldNbChildren);
         setReadingChildren(false);
     }
 
@@ -23,19 +23,48 @@ import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.util.FileComparator;
 
 import javax.swing.event.EventListenerList;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This class holds cached directories. 
  * It maps AbstractFiles to DirectoryCache instances.
+ * The cache is bounded: when the cached directories and their children
+ * exceed its capacity, the least recently used directories are evicted.
+ * Expanded directories are pinned, they and their children (which are
+ * displayed) are never evicted, so only the directories of collapsed
+ * subtrees are.
  * @author Mariusz Jakubowski
  *
  */
 public class DirectoryCache {
+
+    /** maximum number of cached directories and children before directories are evicted */
+    private final static int CAPACITY = 50000;
     
-    /** a map that holds cached folders */
-    private Map<AbstractFile, CachedDirectory> cache;
+    /** a map that holds cached folders, the least recently used first */
+    private LinkedHashMap<AbstractFile, CachedDirectory> cache;
+
+    /** expanded folders, which must not be evicted */
+    private Set<AbstractFile> pinned = new HashSet<AbstractFile>();
+
+    /** number of cached directories and children */
+    private int size;
+
+    /** number of cached directories found in the cache */
+    private int nbHits;
+
+    /** number of directories that were not in the cache */
+    private int nbMisses;
+
+    /** number of directories evicted from the cache */
+    private int nbEvictions;
     
     /** Comparator used to sort folders */
     private FileComparator sort;
@@ -54,7 +83,7 @@ public class DirectoryCache {
      */
     public DirectoryCache(FileFilter filter, FileComparator sort) {
         //this.cache = Collections.synchronizedMap(new HashMap());
-        this.cache = new HashMap<AbstractFile, CachedDirectory>();
+        this.cache = new LinkedHashMap<AbstractFile, CachedDirectory>(16, 0.75f, true);
         this.filter = filter;
         this.sort = sort;
     }
@@ -101,6 +130,8 @@ public class DirectoryCache {
 
     public synchronized void clear() {
         cache.clear();
+        pinned.clear();
+        size = 0;
     }
 
     public synchronized CachedDirectory get(AbstractFile key) {
@@ -108,7 +139,112 @@ public class DirectoryCache {
     }
 
     public synchronized void put(AbstractFile key, CachedDirectory value) {
-        cache.put(key, value);
+        CachedDirectory oldValue = cache.put(key, value);
+        if (oldValue != null) {
+            size -= getSize(oldValue);
+        }
+        size += getSize(value);
+        evict();
+    }
+
+    /**
+     * Pins an expanded folder, it and its children won't be evicted.
+     */
+    public synchronized void pin(AbstractFile key) {
+        pinned.add(key);
+    }
+
+    /**
+     * Unpins a collapsed folder and its subfolders, they may be evicted.
+     */
+    public synchronized void unpinWithChildren(AbstractFile key) {
+        pinned.remove(key);
+        CachedDirectory cachedDir = cache.get(key);
+        if (cachedDir != null) {
+            AbstractFile[] children = cachedDir.get();
+            if (children != null) {
+                for (AbstractFile child : children) {
+                    if (pinned.contains(child)) {
+                        unpinWithChildren(child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when the children of a directory have been cached.
+     * @param cachedDir a directory
+     * @param oldNbChildren number of children that were cached before
+     */
+    synchronized void childrenCached(CachedDirectory cachedDir, int oldNbChildren) {
+        // the directory may have been evicted or removed while its children were read
+        if (cache.get(cachedDir.getProxiedFile()) != cachedDir) {
+            return;
+        }
+        size += getSize(cachedDir) - 1 - oldNbChildren;
+        evict();
+    }
+
+    /**
+     * Returns the number of cached directories found in the cache.
+     */
+    public synchronized int getHitCount() {
+        return nbHits;
+    }
+
+    /**
+     * Returns the number of directories that were not in the cache.
+     */
+    public synchronized int getMissCount() {
+        return nbMisses;
+    }
+
+    /**
+     * Returns the number of directories evicted from the cache.
+     */
+    public synchronized int getEvictionCount() {
+        return nbEvictions;
+    }
+
+    /**
+     * Returns the size of a cached directory: the directory and its children.
+     */
+    private static int getSize(CachedDirectory cachedDir) {
+        AbstractFile[] children = cachedDir.get();
+        return 1 + (children == null ? 0 : children.length);
+    }
+
+    /**
+     * Evicts the least recently used directories that are neither expanded
+     * nor displayed, until the cache is back under three quarters of its capacity.
+     */
+    private void evict() {
+        if (size <= CAPACITY) {
+            return;
+        }
+
+        // children of expanded folders are displayed
+        Set<AbstractFile> displayed = new HashSet<AbstractFile>(pinned);
+        for (AbstractFile key : pinned) {
+            CachedDirectory cachedDir = cache.get(key);
+            AbstractFile[] children = cachedDir == null ? null : cachedDir.get();
+            if (children != null) {
+                displayed.addAll(Arrays.asList(children));
+            }
+        }
+
+        Iterator<Map.Entry<AbstractFile, CachedDirectory>> iterator = cache.entrySet().iterator();
+        while (size > CAPACITY * 3 / 4 && iterator.hasNext()) {
+            Map.Entry<AbstractFile, CachedDirectory> entry = iterator.next();
+            CachedDirectory cachedDir = entry.getValue();
+            if (displayed.contains(entry.getKey()) || cachedDir.isReadingChildren()) {
+                continue;
+            }
+            iterator.remove();
+            size -= getSize(cachedDir);
+            nbEvictions++;
+        }
     }
     
     /**
@@ -118,6 +254,7 @@ public class DirectoryCache {
         CachedDirectory cachedDir = cache.get(key);
         if (cachedDir != null) {
             cache.remove(key);
+            size -= getSize(cachedDir);
             AbstractFile[] children = cachedDir.get();
             if (children != null) {
                 for (AbstractFile child : children) {
@@ -127,6 +264,37 @@ public class DirectoryCache {
         }
     }
     
+    /**
+     * Cancels the cache tasks of an entry and all its children that haven't
+     * been started yet.
+     */
+    public void cancelCachingWithChildren(AbstractFile key) {
+        List<CachedDirectory> cachedDirs = new ArrayList<CachedDirectory>();
+        synchronized (this) {
+            collectWithChildren(key, cachedDirs);
+        }
+        // Cache tasks are cancelled without holding the lock, as cancelling fires events
+        for (CachedDirectory cachedDir : cachedDirs) {
+            cachedDir.cancelCaching();
+        }
+    }
+
+    /**
+     * Adds an entry and all its children to the given list.
+     */
+    private void collectWithChildren(AbstractFile key, List<CachedDirectory> cachedDirs) {
+        CachedDirectory cachedDir = cache.get(key);
+        if (cachedDir != null) {
+            cachedDirs.add(cachedDir);
+            AbstractFile[] children = cachedDir.get();
+            if (children != null) {
+                for (AbstractFile child : children) {
+                    collectWithChildren(child, cachedDirs);
+                }
+            }
+        }
+    }
+    
     /**
      * Gets a cached instance of a file. If the cached instance
      * of the file doesn't exists it's added to the cache.
@@ -136,8 +304,12 @@ public class DirectoryCache {
     public synchronized CachedDirectory getOrAdd(AbstractFile key) {
         CachedDirectory cachedDir = cache.get(key);
         if (cachedDir == null) {
+            nbMisses++;
             cachedDir = new CachedDirectory(key, this);
             cache.put(key, cachedDir);
+            size++;
+        } else {
+            nbHits++;
         }
         return cachedDir;
     }
@@ -21,7 +21,6 @@ package com.mucommander.ui.main.tree;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.util.FileComparator;
-import com.mucommander.ui.icon.FileIcons;
 import com.mucommander.ui.icon.SpinningDial;
 
 import javax.swing.*;
@@ -30,7 +29,12 @@ import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * A tree model for files.
@@ -58,12 +62,28 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
     /** icon used to show that a children of a directory are being cached */
     private SpinningDial spinningIcon = new SpinningDial(16, 16, false);
 
+    /** delay after which structure changes are fired, about a frame [ms] */
+    private final static int STRUCTURE_CHANGES_DELAY = 16;
+
+    /** folders whose children have been cached since structure changes were last fired */
+    private Set<AbstractFile> changedFolders = new LinkedHashSet<AbstractFile>();
+
+    /** fires the structure changes of the changed folders at once */
+    private Timer structureChangesTimer;
+
 
     public FilesTreeModel(FileFilter filter, FileComparator sort) {
         super();
         this.sort = sort;
         cache = new DirectoryCache(filter, sort);
         cache.addCachedDirectoryListener(this);
+
+        structureChangesTimer = new Timer(STRUCTURE_CHANGES_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                fireStructureChanges();
+            }
+        });
+        structureChangesTimer.setRepeats(false);
     }
 
     /**
@@ -73,12 +93,12 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
      */
     public void setRoot(AbstractFile newRoot) {
         final CachedDirectory cachedRoot = new CachedDirectory(newRoot, cache);
-        cachedRoot.setCachedIcon(FileIcons.getFileIcon(newRoot));
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                 root = cachedRoot.getProxiedFile();
                 cache.clear();
                 cache.put(root, cachedRoot);
+                cache.pin(root);
                 TreePath path = new TreePath(root);
                 fireTreeStructureChanged(this, path);
             }
@@ -204,7 +224,8 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
                 retNodes = getPathToRoot(aNode.getParent(), depth);
             }
             retNodes[retNodes.length - depth] = aNode;
-            cache.getOrAdd(aNode).isCached();       // ensures that a path is in cache
+            // ensures that a path is in cache, folders of the path that are displayed are read first
+            cache.getOrAdd(aNode).isCached(AbstractIOThreadManager.PRIORITY_LOW);
         }
         return retNodes;
     }
@@ -231,6 +252,24 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
         fireTreeStructureChanged(this, path);
     }
 
+    /**
+     * Keeps the children of an expanded folder, which are displayed, in cache.
+     * @param folder an expanded folder
+     */
+    public void folderExpanded(AbstractFile folder) {
+        cache.pin(folder);
+    }
+
+    /**
+     * Cancels reading the children of a folder and its subfolders, which are no
+     * longer displayed, and allows them to be evicted from cache.
+     * @param folder a collapsed folder
+     */
+    public void folderCollapsed(AbstractFile folder) {
+        cache.unpinWithChildren(folder);
+        cache.cancelCachingWithChildren(folder);
+    }
+
     public void cachingStarted(AbstractFile parent) {
         cachingNum++;
         if (cachingNum == 1) {
@@ -243,15 +282,44 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
         if (cachingNum == 0) {
             spinningIcon.setAnimated(false);
         }
-        TreePath path = new TreePath(getPathToRoot(parent));
-        fireTreeStructureChanged(this, path);
+        CachedDirectory cachedDir = (CachedDirectory) parent;
+        // children of a collapsed folder haven't been read, nothing has changed
+        if (cachedDir.isCachingCancelled()) {
+            return;
+        }
+        // many folders may be cached in a short time, their structure changes are fired together
+        changedFolders.add(cachedDir.getProxiedFile());
+        if (!structureChangesTimer.isRunning()) {
+            structureChangesTimer.start();
+        }
+    }
+
+    /**
+     * Fires a 'tree structure changed' event for each folder whose children
+     * have been cached, except for subfolders of folders that have changed too.
+     */
+    private void fireStructureChanges() {
+        AbstractFile[] folders = changedFolders.toArray(new AbstractFile[changedFolders.size()]);
+        changedFolders.clear();
+
+        Set<AbstractFile> changed = new HashSet<AbstractFile>(Arrays.asList(folders));
+        for (AbstractFile folder : folders) {
+            AbstractFile[] path = getPathToRoot(folder);
+            boolean ancestorChanged = false;
+            for (int i = 0; i < path.length - 1 && !ancestorChanged; i++) {
+                ancestorChanged = changed.contains(path[i]);
+            }
+            if (!ancestorChanged) {
+                fireTreeStructureChanged(this, new TreePath(path));
+            }
+        }
     }
     
     /**
-     * Returns an icon of this directory or spinning icon if this directory is
-     * being cached.
-     * @return an icon of this directory or spinning icon if this directory is
-     *         being cached.
+     * Returns a spinning icon if this directory is being cached, or the icon
+     * cached for this directory, e.g. if it isn't accessible.
+     * @return a spinning icon if this directory is being cached, its cached
+     *         icon, or null if the directory's own icon should be displayed.
      */
     public Icon getCurrentIcon(AbstractFile file) {
         CachedDirectory cached = cache.get(file);
@@ -261,7 +329,7 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
             }
             return cached.getCachedIcon();
         }
-        return spinningIcon;
+        return null;
     }
 
 
@@ -26,6 +26,7 @@ import java.awt.event.FocusListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Enumeration;
 
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
@@ -34,6 +35,8 @@ import javax.swing.JScrollPane;
 import javax.swing.JTree;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.event.TreeSelectionEvent;
@@ -74,7 +77,7 @@ import com.mucommander.ui.theme.ThemeListener;
  */
 public class FoldersTreePanel extends JPanel implements TreeSelectionListener, 
 							LocationListener, FocusListener, ThemeListener, 
-							TreeModelListener, ConfigurationListener {
+							TreeModelListener, TreeExpansionListener, ConfigurationListener {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FoldersTreePanel.class);
 	
     /** Directory tree */
@@ -134,6 +137,7 @@ public class FoldersTreePanel extends JPanel implements TreeSelectionListener,
         tree.setCellRenderer(renderer);
 
         tree.addTreeSelectionListener(this);
+        tree.addTreeExpansionListener(this);
         tree.addFocusListener(this);
 
         // add a popup menu
@@ -393,4 +397,24 @@ public class FoldersTreePanel extends JPanel implements TreeSelectionListener,
         }
     }
 
+    // - TreeExpansionListener code --------------------------------------------
+    // -------------------------------------------------------------------------
+
+    public void treeExpanded(TreeExpansionEvent event) {
+        // subfolders that were expanded when the folder was collapsed are displayed expanded again, without being
+        // notified, so they have to be pinned along with the folder
+        Enumeration<TreePath> expandedPaths = tree.getExpandedDescendants(event.getPath());
+        if (expandedPaths == null) {
+            model.folderExpanded((AbstractFile) event.getPath().getLastPathComponent());
+            return;
+        }
+        while (expandedPaths.hasMoreElements())
+            model.folderExpanded((AbstractFile) expandedPaths.nextElement().getLastPathComponent());
+    }
+
+    public void treeCollapsed(TreeExpansionEvent event) {
+        // subfolders of a collapsed folder are no longer displayed, there's no need to read or keep them
+        model.folderCollapsed((AbstractFile) event.getPath().getLastPathComponent());
+    }
+
 }
@@ -19,6 +19,9 @@
 package com.mucommander.ui.main.tree;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.ui.icon.CustomFileIconProvider;
+import com.mucommander.ui.icon.FileIconLoader;
+import com.mucommander.ui.icon.FileIcons;
 import com.mucommander.ui.theme.ThemeCache;
 
 import javax.swing.*;
@@ -27,12 +30,13 @@ import java.awt.*;
 
 /**
  * A renderer for the directory tree. It renders model's items (which are
- * AbstractFiles), using file names. It also renders a correct icon for a folder.
+ * AbstractFiles), using file names. It also renders a correct icon for a folder,
+ * which is loaded in the background the first time the folder is displayed.
  * 
  * @author Mariusz Jakubowski
  * 
  */
-public class FoldersTreeRenderer extends DefaultTreeCellRenderer {
+public class FoldersTreeRenderer extends DefaultTreeCellRenderer implements FileIconLoader.Listener {
 
     private JTree tree;
     private FilesTreeModel model;
@@ -81,8 +85,17 @@ public class FoldersTreeRenderer extends DefaultTreeCellRenderer {
         String name = file.isRoot()?file.getAbsolutePath():file.getName();
         super.getTreeCellRendererComponent(tree, name, sel, expanded, leaf,
                 row, hasFocus);
-        setIcon(model.getCurrentIcon(file));
+        Icon icon = model.getCurrentIcon(file);
+        if (icon == null) {
+            icon = FileIconLoader.getFileIcon(file, FileIcons.getFileSetIcon(CustomFileIconProvider.FOLDER_ICON_NAME), this);
+        }
+        setIcon(icon);
         return this;
     }
 
+    public void fileIconLoaded(AbstractFile file) {
+        // repaints are coalesced, icons loaded together are painted at once
+        tree.repaint();
+    }
+
 }
@@ -18,74 +18,85 @@
 
 package com.mucommander.ui.main.tree;
 
-import java.util.List;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A thread that executes i/o operations. 
+ * A thread that executes the i/o operations of a lane. 
  * @author Mariusz Jakubowski
  *
  */
 public class IOThread extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(IOThread.class);
 	
-    /** a queue with tasks to execute */
-    private List<Runnable> queue;
+    /** a manager that provides tasks to execute */
+    private AbstractIOThreadManager manager;
+
+    /** a lane whose tasks this thread executes */
+    private String lane;
     
     /** a time after this thread is marked as blocked */
     private long blockThreshold;
 
-    /** a time when this thread signalled that is alive */
-    private volatile long lastActionTime = 0;
+    /** a time when the task being executed was started, 0 if this thread is waiting for a task */
+    private volatile long taskStartTime = 0;
     
     
     /**
      * Creates a new instance of an IOThread.
-     * @param queue a queue with tasks
+     * @param manager a manager that provides tasks
+     * @param lane a lane whose tasks will be executed
      * @param blockThreshold a time after this thread is marked as blocked [ms]
      */
-    public IOThread(List<Runnable> queue, long blockThreshold) {
-        super("IOThread");
-        this.queue = queue;
+    public IOThread(AbstractIOThreadManager manager, String lane, long blockThreshold) {
+        super("IOThread " + lane);
+        this.manager = manager;
+        this.lane = lane;
         this.blockThreshold = blockThreshold;
+        setDaemon(true);
+    }
+
+    /**
+     * Returns the lane whose tasks this thread executes.
+     */
+    public String getLane() {
+        return lane;
     }
-    
     
     
     @Override
     public void run() {
         
         while (!interrupted()) {
-            lastActionTime = System.currentTimeMillis(); 
-            while (queue.size() > 0) {
-                Runnable task = queue.remove(0);
-                try {
-                    task.run();
-                } catch (Exception e) {
-                    LOGGER.debug("Caught exception", e);
-                }
-                lastActionTime = System.currentTimeMillis(); 
-            }
+            Runnable task;
             try {
-                synchronized (this) {
-                    wait(blockThreshold / 2);
-                }
+                task = manager.takeTask(this);
             } catch (InterruptedException e) {
                 break;
             }
+            // this thread has been replaced or has been idle for too long
+            if (task == null)
+                break;
+
+            taskStartTime = System.currentTimeMillis(); 
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOGGER.debug("Caught exception", e);
+            }
+            taskStartTime = 0; 
         }
         
     }
     
     /**
      * Checks if current thread is blocked. This is done by checking if 
-     * last action time is smaller than block threshold.
-     * @return true if thread is running
+     * the task being executed has been started for longer than block threshold.
+     * @return true if thread is blocked
      */
     public boolean isBlocked() {
-        return (lastActionTime != 0) && (System.currentTimeMillis() - lastActionTime > blockThreshold); 
+        long startTime = taskStartTime;
+        return (startTime != 0) && (System.currentTimeMillis() - startTime > blockThreshold); 
     }
     
 }
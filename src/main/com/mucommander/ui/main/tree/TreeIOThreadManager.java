@@ -19,7 +19,8 @@
 package com.mucommander.ui.main.tree;
 
 /**
- * Monitors thread that reads children and icons for the tree.
+ * Schedules tasks that read children and icons for the tree, and monitors
+ * the threads that execute them.
  * @author Mariusz Jakubowski
  *
  */
@@ -166,7 +166,7 @@ public class QuickListDataList<T> extends JList {
 			}
 
 			QuickSearch<T> search = QuickListDataList.this.getQuickSearch();
-			boolean matches = search.isActive() ? search.matches(getItemAsString(item)) : true;
+			boolean matches = search.isActive() ? search.matches(rowIndex) : true;
 
 			CellLabel label = new CellLabel();
 			label.setFont(itemFont);
@@ -18,10 +18,13 @@
 
 package com.mucommander.ui.quicksearch;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 
 import javax.swing.JComponent;
+import javax.swing.Timer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,18 +37,26 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Arik Hadas
  */
-public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
+public abstract class QuickSearch<T> extends KeyAdapter {
 	private static final Logger LOGGER = LoggerFactory.getLogger(QuickSearch.class);
 	
 	/** Quick search string */
     private String searchString;
 
-	/** Timestamp of the last search string change, used when quick search is active */
-    private long lastSearchStringChange;
+    /** Quick search string, lowercased */
+    private String searchStringLC;
 
-    /** Thread that's responsible for canceling the quick search on timeout,
-     * has a null value when quick search is not active */
-    private Thread timeoutThread;
+    /** <code>true</code> when quick search is active */
+    private boolean active;
+
+    /** Timer that cancels the quick search when the search string hasn't changed for QUICK_SEARCH_TIMEOUT */
+    private Timer timeoutTimer;
+
+    /** Index of the searched items, built when first needed after quick search has started */
+    private QuickSearchIndex index;
+
+    /** Value of {@link #getItemsModCount()} when the index was built */
+    private int indexModCount;
 
 	/** Quick search timeout in ms */
     private final static int QUICK_SEARCH_TIMEOUT = 2000;
@@ -60,6 +71,13 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
     
     protected QuickSearch(JComponent component) {
     	this.component = component;
+
+    	timeoutTimer = new Timer(QUICK_SEARCH_TIMEOUT, new ActionListener() {
+    	    public void actionPerformed(ActionEvent e) {
+    	        stop();
+    	    }
+    	});
+    	timeoutTimer.setRepeats(false);
     	
     	// Listener to key events to start quick search or update search string when it is active
     	component.addKeyListener(this);
@@ -74,12 +92,15 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         if(!isActive()) {
             // Reset search string
             searchString = "";
-            // Start the thread that's responsible for canceling the quick search on timeout
-            timeoutThread = new Thread(this, "QuickSearch timeout thread");
-            timeoutThread.start();
-            lastSearchStringChange = System.currentTimeMillis();
+            searchStringLC = "";
+            index = null;
+            active = true;
 
             searchStarted();
+
+            // Start the timer that's responsible for canceling the quick search on timeout
+            if(isTimeoutEnabled())
+                timeoutTimer.restart();
         }
     }
 
@@ -88,7 +109,9 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
      */
     public synchronized void stop() {
         if(isActive()) {
-            timeoutThread = null;
+            active = false;
+            timeoutTimer.stop();
+            index = null;
 
             searchStopped();
         }
@@ -100,19 +123,55 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
      * @return true if a quick search is being performed
      */
     public synchronized boolean isActive() {
-        return timeoutThread != null;
+        return active;
     }
 
 
     /**
-     * Returns <code>true</code> if the current quick search string matches the given string.
+     * Returns <code>true</code> if the current quick search string matches the given string, that is if the string
+     * contains the characters of the search string in the same order, ignoring case.
      * Always returns <code>false</code> when the quick search is inactive.
      *
      * @param string the string to test against the quick search string
      * @return true if the current quick search string matches the given string
+     * @see #matches(int)
      */
     public boolean matches(String string) {
-        return isActive() && string.toLowerCase().indexOf(searchString.toLowerCase())!=-1;
+        return isActive() && QuickSearchIndex.getMatchEnd(string.toLowerCase(), searchStringLC)!=-1;
+    }
+
+    /**
+     * Returns <code>true</code> if the current quick search string matches the item at the given index. Unlike
+     * {@link #matches(String)}, this method doesn't need to lowercase the item, and should be preferred by renderers.
+     * Always returns <code>false</code> when the quick search is inactive.
+     *
+     * @param itemIndex index of the item to test against the quick search string
+     * @return true if the current quick search string matches the item
+     */
+    public synchronized boolean matches(int itemIndex) {
+        return isActive() && itemIndex<getNumOfItems() && getIndex().matches(itemIndex);
+    }
+
+    /**
+     * Returns the index of the searched items, matching the current search string. The index is built when first
+     * needed, and rebuilt if the items have changed since, as reported by their number and
+     * {@link #getItemsModCount()}.
+     */
+    private QuickSearchIndex getIndex() {
+        int nbItems = getNumOfItems();
+        int modCount = getItemsModCount();
+        if(index==null || index.size()!=nbItems || indexModCount!=modCount) {
+            String items[] = new String[nbItems];
+            for(int i=0; i<nbItems; i++)
+                items[i] = getItemString(i);
+            index = new QuickSearchIndex(items);
+            indexModCount = modCount;
+        }
+
+        if(!index.getSearchString().equals(searchString))
+            index.setSearchString(searchString);
+
+        return index;
     }
 
 
@@ -138,12 +197,34 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
     }
     
     /**
-     * Setter for the last search string change time
+     * Setter for the last search string change time: the quick search times out if the search string isn't changed
+     * again within {@link #QUICK_SEARCH_TIMEOUT} milliseconds from now.
      * 
      * @param lastSearchStringChange - the time of the last change made to the search string
      */
 	protected void setLastSearchStringChange(long lastSearchStringChange) {
-		this.lastSearchStringChange = lastSearchStringChange;
+		if(isActive() && isTimeoutEnabled())
+			timeoutTimer.restart();
+	}
+
+	/**
+	 * Returns <code>true</code> if the quick search is stopped when the search string hasn't changed for
+	 * {@link #QUICK_SEARCH_TIMEOUT} milliseconds. This method returns <code>true</code>, subclasses may override it to
+	 * keep the quick search active until it is cancelled by the user.
+	 *
+	 * @return true if the quick search times out
+	 */
+	protected boolean isTimeoutEnabled() {
+		return true;
+	}
+
+	/**
+	 * Returns the current search string, an empty string if quick search has just started.
+	 *
+	 * @return the current search string
+	 */
+	protected String getSearchString() {
+		return searchString;
 	}
 
 	protected boolean isSearchStringEmpty() {
@@ -158,6 +239,7 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         // the cancel() method will be called, and repainting twice would result in an
         // unpleasant graphical artifact.
         searchString = searchString.substring(0, searchString.length()-1);
+        searchStringLC = searchString.toLowerCase();
         if(searchString.length() != 0)
             component.repaint();
 	}
@@ -167,11 +249,13 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         // Since the search string has been updated, match information has changed as well
         // and we need to repaint the table.
         searchString += keyChar;
+        searchStringLC = searchString.toLowerCase();
         component.repaint();
 	}
 	
 	/**
      * Finds a match (if any) for the current quick search string and selects the corresponding row.
+     * Matches are ranked as described in {@link QuickSearchIndex}.
      *
      * @param startRow first row to be tested
      * @param descending specifies whether rows should be tested in ascending or descending order
@@ -185,7 +269,8 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
             searchStringBecameEmpty(searchString);
         }
         else {
-        	int bestMatch = getBestMatch(startRow, descending, findBestMatch);
+        	int bestMatch = getIndex().getMatch(startRow, descending, findBestMatch);
+        	LOGGER.trace("bestMatch="+bestMatch);
 
             if (bestMatch != -1)
                 matchFound(bestMatch, searchString);
@@ -193,90 +278,6 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
                 matchNotFound(searchString);
         }
     }
-	
-	private int getBestMatch(int startRow, boolean descending, boolean findBestMatch) {
-    	String searchStringLC = searchString.toLowerCase();
-    	int searchStringLen = searchString.length();
-        int startsWithCaseMatch = -1;
-        int startsWithNoCaseMatch = -1;
-        int containsCaseMatch = -1;
-        int containsNoCaseMatch = -1;
-        int nbRows = getNumOfItems();
-
-        // Iterate on rows and look the first strings to match one of the following tests,
-        // in the following order of importance :
-        // - search string matches the beginning of the string with the same case
-        // - search string matches the beginning of the string with a different case
-        // - string contains search string with the same case
-        // - string contains search string with a different case
-        for(int i=startRow; descending?i<nbRows:i>=0; i=descending?i+1:i-1) {
-            // if findBestMatch was not specified, stop to the first match
-            if(!findBestMatch && (startsWithCaseMatch!=-1 || startsWithNoCaseMatch!=-1 || containsCaseMatch!=-1 || containsNoCaseMatch!=-1))
-                break;
-
-            String item = getItemString(i);
-            int itemLen = item.length();
-
-            // No need to compare strings if quick search string is longer than compared string,
-            // they won't match
-            if(itemLen<searchStringLen)
-                continue;
-
-            // Compare quick search string against
-            if (item.startsWith(searchString)) {
-                // We've got the best match we could ever have, let's get out of this loop!
-                startsWithCaseMatch = i;
-                break;
-            }
-
-            // If we already have a match on this test case, let's skip to the next string
-            if(startsWithNoCaseMatch!=-1)
-                continue;
-
-            String itemLC = item.toLowerCase();
-            if(itemLC.startsWith(searchStringLC)) {
-                // We've got a match, let's see if we can find a better match on the next string
-                startsWithNoCaseMatch = i;
-            }
-
-            // No need to check if the compared string contains search string if both size are equal,
-            // in the case startsWith test yields the same result
-            if(itemLen==searchStringLen)
-                continue;
-
-            // If we already have a match on this test case, let's skip to the next string
-            if(containsCaseMatch!=-1)
-                continue;
-
-            if(item.indexOf(searchString)!=-1) {
-                // We've got a match, let's see if we can find a better match on the next string
-                containsCaseMatch = i;
-                continue;
-            }
-
-            // If we already have a match on this test case, let's skip to the next string
-            if(containsNoCaseMatch!=-1)
-                continue;
-
-            if(itemLC.indexOf(searchStringLC)!=-1) {
-                // We've got a match, let's see if we can find a better match on the next string
-                containsNoCaseMatch = i;
-                continue;
-            }
-        }
-    	
-        // Determines what the best match is, based on all the matches we found
-        int bestMatch = startsWithCaseMatch!=-1?startsWithCaseMatch
-            :startsWithNoCaseMatch!=-1?startsWithNoCaseMatch
-            :containsCaseMatch!=-1?containsCaseMatch
-            :containsNoCaseMatch!=-1?containsNoCaseMatch
-            :-1;
-        
-        LOGGER.trace("startsWithCaseMatch="+startsWithCaseMatch+" containsCaseMatch="+containsCaseMatch+" startsWithNoCaseMatch="+startsWithNoCaseMatch+" containsNoCaseMatch="+containsNoCaseMatch);
-        LOGGER.trace("bestMatch="+bestMatch);
-        
-        return bestMatch;
-    }
 
 	//////////////////////
 	// Abstract methods //
@@ -299,6 +300,17 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
 	 */
 	protected abstract int getNumOfItems();
 	
+	/**
+	 * Returns a number that changes whenever the searched items are changed or reordered, so that the index of the
+	 * items is rebuilt. This method returns 0: subclasses whose items may change while the quick search is active
+	 * without their number changing must override it.
+	 *
+	 * @return a number that changes whenever the items are changed or reordered
+	 */
+	protected int getItemsModCount() {
+		return 0;
+	}
+
 	/**
 	 * Return item at a given index as String
 	 * 
@@ -329,26 +341,6 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
 	 */
 	protected abstract void matchNotFound(String searchString);
 
-    //////////////////////
-    // Runnable methods //
-    //////////////////////
-
-    public void run() {
-        do {
-            try { Thread.sleep(100); }
-            catch(InterruptedException e) {
-                // No problemo
-            }
-
-            synchronized(this) {
-                if(timeoutThread!=null && System.currentTimeMillis()-lastSearchStringChange >= QUICK_SEARCH_TIMEOUT) {
-                    stop();
-                }
-            }
-        }
-        while(timeoutThread!=null);
-    }
-
     ///////////////////////////////
     // KeyAdapter implementation //
     ///////////////////////////////
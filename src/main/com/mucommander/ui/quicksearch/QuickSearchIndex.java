@@ -0,0 +1,358 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.quicksearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * An index of the items searched by a {@link QuickSearch}, built once when the search starts so that the items do not
+ * have to be retrieved and lowercased again on each keystroke.
+ *
+ * <p>An item matches the search string if the characters of the search string appear in the item in the same order,
+ * ignoring case, though not necessarily next to each other. As a character added to the search string can only
+ * narrow down the matching items, only the items matching the previous search string are tested again, and the
+ * matches of the previous search strings are kept so that removing a character does not require any test.
+ * Each item also has a mask of the characters it contains, which rejects most of the items that do not match without
+ * comparing them character by character.</p>
+ *
+ * <p>Matching items are ranked, from best to worst:
+ * <ol>
+ *   <li>items starting with the search string, with the same case</li>
+ *   <li>items starting with the search string, with a different case</li>
+ *   <li>items containing the search string, with the same case</li>
+ *   <li>items containing the search string, with a different case</li>
+ *   <li>items containing the characters of the search string, ranked by the number of them that are consecutive
+ *   or at the beginning of a word, and by how far apart they are</li>
+ * </ol>
+ * Items that rank the same are ranked in the order in which they are searched.</p>
+ */
+public class QuickSearchIndex {
+
+    /** Score range of each kind of match */
+    private final static int MATCH_RANGE = 1<<20;
+
+    /** Score of each character of the search string found in the item */
+    private final static int SCORE_CHARACTER = 16;
+    /** Bonus of a character found at the beginning of a word */
+    private final static int BONUS_WORD_START = 8;
+    /** Bonus of an uppercase character found after a lowercase one, as in camelCase */
+    private final static int BONUS_CAMEL_CASE = 7;
+    /** Bonus of a character found right after the previous one */
+    private final static int BONUS_CONSECUTIVE = 4;
+    /** Penalty of a gap between two characters found */
+    private final static int PENALTY_GAP_START = 3;
+    /** Penalty of each character of a gap after the first one */
+    private final static int PENALTY_GAP_EXTENSION = 1;
+
+    /** The searched items */
+    private final String items[];
+    /** The searched items, lowercased */
+    private final String itemsLC[];
+    /** Masks of the characters contained by each lowercased item */
+    private final long masks[];
+
+    /** Lowercased search strings, each one starting with the previous one */
+    private final List<String> searchStrings = new ArrayList<String>();
+    /** Indexes of the items matching each search string, in ascending order */
+    private final List<int[]> searchMatches = new ArrayList<int[]>();
+
+    /** Current search string */
+    private String searchString = "";
+    /** Current search string, lowercased */
+    private String searchStringLC = "";
+    /** Items matching the current search string, all of them if it is empty */
+    private int matches[];
+    /** Items matching the current search string */
+    private final BitSet matchesSet;
+
+    /**
+     * Creates a new index of the given items, all of which match until a search string is set.
+     *
+     * @param items the items to search
+     */
+    public QuickSearchIndex(String items[]) {
+        int nbItems = items.length;
+        this.items = items;
+        this.itemsLC = new String[nbItems];
+        this.masks = new long[nbItems];
+        this.matches = new int[nbItems];
+        this.matchesSet = new BitSet(nbItems);
+
+        for(int i=0; i<nbItems; i++) {
+            itemsLC[i] = items[i].toLowerCase();
+            masks[i] = getMask(itemsLC[i]);
+            matches[i] = i;
+        }
+        matchesSet.set(0, nbItems);
+    }
+
+    /**
+     * Returns the number of items of this index.
+     *
+     * @return the number of items
+     */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Returns the current search string.
+     *
+     * @return the current search string
+     */
+    public String getSearchString() {
+        return searchString;
+    }
+
+    /**
+     * Sets the search string and finds the items that match it, testing only the items that match the longest previous
+     * search string it starts with.
+     *
+     * @param searchString the new search string
+     */
+    public void setSearchString(String searchString) {
+        String searchStringLC = searchString.toLowerCase();
+
+        // Forget the matches of the search strings that the new one does not start with
+        int last = searchStrings.size()-1;
+        while(last>=0 && !searchStringLC.startsWith(searchStrings.get(last))) {
+            searchStrings.remove(last);
+            searchMatches.remove(last--);
+        }
+
+        int newMatches[];
+        if(searchStringLC.length()==0)
+            newMatches = getAllItems();
+        else if(last>=0 && searchStrings.get(last).equals(searchStringLC))
+            newMatches = searchMatches.get(last);
+        else {
+            newMatches = narrow(last>=0 ? searchMatches.get(last) : getAllItems(), searchStringLC);
+            searchStrings.add(searchStringLC);
+            searchMatches.add(newMatches);
+        }
+
+        this.searchString = searchString;
+        this.searchStringLC = searchStringLC;
+        this.matches = newMatches;
+        matchesSet.clear();
+        for(int match : newMatches)
+            matchesSet.set(match);
+    }
+
+    /**
+     * Returns <code>true</code> if the item at the given index matches the current search string.
+     *
+     * @param index index of an item
+     * @return true if the item matches the current search string
+     */
+    public boolean matches(int index) {
+        return matchesSet.get(index);
+    }
+
+    /**
+     * Returns the number of items matching the current search string.
+     *
+     * @return the number of items matching the current search string
+     */
+    public int getNbMatches() {
+        return matches.length;
+    }
+
+    /**
+     * Returns the score of the item at the given index for the current search string, the higher the better. Items
+     * with the same score rank the same.
+     *
+     * @param index index of an item
+     * @return the score of the item, -1 if it doesn't match the current search string
+     */
+    public int getScore(int index) {
+        return matchesSet.get(index) ? getScore(items[index], itemsLC[index], searchString, searchStringLC) : -1;
+    }
+
+    /**
+     * Returns the item matching the current search string that ranks best among the items from the given index
+     * onwards, or backwards.
+     *
+     * @param startIndex index of the first item to consider
+     * @param ascending <code>true</code> to consider the items after the first one, <code>false</code> for those
+     * before it
+     * @param findBestMatch if <code>false</code>, the first matching item is returned, not necessarily the best
+     * @return index of the matching item, -1 if there is none
+     */
+    public int getMatch(int startIndex, boolean ascending, boolean findBestMatch) {
+        int nbMatches = matches.length;
+        int first = getFirstMatch(startIndex, ascending);
+        if(first==-1 || !findBestMatch)
+            return first==-1 ? -1 : matches[first];
+
+        int bestMatch = -1;
+        int bestScore = -1;
+        for(int i=first; ascending?i<nbMatches:i>=0; i=ascending?i+1:i-1) {
+            int index = matches[i];
+            int score = getScore(index);
+            if(score>bestScore) {
+                bestMatch = index;
+                bestScore = score;
+            }
+        }
+
+        return bestMatch;
+    }
+
+    /**
+     * Returns the position in {@link #matches} of the first match from the given index onwards, or backwards.
+     */
+    private int getFirstMatch(int startIndex, boolean ascending) {
+        int position = Arrays.binarySearch(matches, startIndex);
+        if(position<0) {
+            // Insertion point: the first match after the index
+            position = -position-1;
+            if(!ascending)
+                position--;
+        }
+
+        return position>=0 && position<matches.length ? position : -1;
+    }
+
+    /**
+     * Returns the items of the given ones that match the given search string.
+     */
+    private int[] narrow(int candidates[], String searchStringLC) {
+        long mask = getMask(searchStringLC);
+        int narrowed[] = new int[candidates.length];
+        int nbNarrowed = 0;
+        for(int index : candidates) {
+            if((masks[index]&mask)==mask && getMatchEnd(itemsLC[index], searchStringLC)!=-1)
+                narrowed[nbNarrowed++] = index;
+        }
+
+        int result[] = new int[nbNarrowed];
+        System.arraycopy(narrowed, 0, result, 0, nbNarrowed);
+        return result;
+    }
+
+    /**
+     * Returns the indexes of all the items.
+     */
+    private int[] getAllItems() {
+        int all[] = new int[items.length];
+        for(int i=0; i<all.length; i++)
+            all[i] = i;
+        return all;
+    }
+
+    /**
+     * Returns the mask of the characters contained by the given string: each character sets one of the 64 bits,
+     * several characters may set the same bit.
+     */
+    private static long getMask(String s) {
+        long mask = 0;
+        int len = s.length();
+        for(int i=0; i<len; i++)
+            mask |= 1L<<(s.charAt(i)&63);
+        return mask;
+    }
+
+    /**
+     * Returns the index of the item character that matches the last character of the search string, when the
+     * characters of the search string are looked for in the item in order, -1 if they can't all be found.
+     *
+     * @param itemLC the item, lowercased
+     * @param searchStringLC the search string, lowercased
+     * @return index of the end of the first match in the item, -1 if the item doesn't match
+     */
+    static int getMatchEnd(String itemLC, String searchStringLC) {
+        int itemLen = itemLC.length();
+        int searchStringLen = searchStringLC.length();
+        if(searchStringLen==0)
+            return 0;
+
+        int s = 0;
+        for(int i=0; i<itemLen; i++) {
+            if(itemLC.charAt(i)==searchStringLC.charAt(s) && ++s==searchStringLen)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the score of the given item for the given search string, the higher the better, -1 if the item doesn't
+     * match the search string.
+     *
+     * @param item the item
+     * @param itemLC the item, lowercased
+     * @param searchString the search string
+     * @param searchStringLC the search string, lowercased
+     * @return the score of the item, -1 if the item doesn't match
+     */
+    static int getScore(String item, String itemLC, String searchString, String searchStringLC) {
+        if(item.startsWith(searchString))
+            return 5*MATCH_RANGE;
+        if(itemLC.startsWith(searchStringLC))
+            return 4*MATCH_RANGE;
+        if(item.indexOf(searchString)!=-1)
+            return 3*MATCH_RANGE;
+        if(itemLC.indexOf(searchStringLC)!=-1)
+            return 2*MATCH_RANGE;
+
+        int end = getMatchEnd(itemLC, searchStringLC);
+        if(end==-1)
+            return -1;
+
+        // Look backwards from the end of the match for the shortest match
+        int start = end;
+        for(int s=searchStringLC.length()-1; start>=0; start--) {
+            if(itemLC.charAt(start)==searchStringLC.charAt(s) && --s<0)
+                break;
+        }
+
+        // Case is ignored when lowercasing changes the length of the item
+        String cased = item.length()==itemLC.length() ? item : itemLC;
+        int score = 0;
+        int previous = -1;
+        for(int i=start, s=0; s<searchStringLC.length(); i++) {
+            if(itemLC.charAt(i)!=searchStringLC.charAt(s))
+                continue;
+
+            score += SCORE_CHARACTER;
+            char c = cased.charAt(i);
+            char before = i==0 ? ' ' : cased.charAt(i-1);
+            if(!Character.isLetterOrDigit(before))
+                score += BONUS_WORD_START;
+            else if(Character.isLowerCase(before) && Character.isUpperCase(c))
+                score += BONUS_CAMEL_CASE;
+
+            if(previous!=-1) {
+                if(i==previous+1)
+                    score += BONUS_CONSECUTIVE;
+                else
+                    score -= PENALTY_GAP_START + (i-previous-2)*PENALTY_GAP_EXTENSION;
+            }
+
+            previous = i;
+            s++;
+        }
+
+        return MATCH_RANGE + Math.max(0, Math.min(score, MATCH_RANGE-1));
+    }
+}
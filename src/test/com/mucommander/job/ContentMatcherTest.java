@@ -0,0 +1,88 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Runs tests on the {@link ContentMatcher} class.
+ */
+public class ContentMatcherTest {
+    // - Test constants ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Size of the blocks files are read in, small so that the test data spans many blocks. */
+    private static final int    BUFFER_SIZE = 256;
+    /** Text the string is searched in. */
+    private static final String TEXT;
+
+    static {
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 200; i++)
+            text.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit.\n");
+        TEXT = text.toString();
+    }
+
+
+
+    // - Helper methods ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Returns <code>true</code> if the given string is found in the given text.
+     */
+    private static boolean matches(String string, boolean caseSensitive, String text) throws IOException {
+        return new ContentMatcher(string, caseSensitive, BUFFER_SIZE).matches(new ByteArrayInputStream(text.getBytes("UTF-8")));
+    }
+
+
+
+    // - Tests ---------------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure that occurrences are found wherever they are, including across blocks.
+     */
+    @Test
+    public void testMatch() throws IOException {
+        for(int offset = 0; offset < BUFFER_SIZE * 2; offset += 5) {
+            String text = TEXT.substring(0, BUFFER_SIZE * 3 + offset) + "muCommander" + TEXT;
+
+            assert matches("muCommander", true, text);
+            assert matches("MUCOMMANDER", false, text);
+            assert !matches("MUCOMMANDER", true, text);
+        }
+
+        assert matches("Lorem", true, TEXT);
+        assert matches("elit.\n", true, TEXT);
+        assert !matches("muCommander", false, TEXT);
+    }
+
+    /**
+     * Makes sure that binary files are not searched.
+     */
+    @Test
+    public void testBinary() throws IOException {
+        byte[] data = new byte[BUFFER_SIZE * 4];
+        for(int i = 0; i < data.length; i++)
+            data[i] = (byte)(i % 7 == 0 ? 0 : 'a' + i % 26);
+
+        assert !new ContentMatcher("abc", true, BUFFER_SIZE).matches(new ByteArrayInputStream(data));
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Runs tests on the {@link ParallelDeleter} class, and compares its speed with a serial deletion.
+ */
+public class ParallelDeleterTest {
+    // - Test constants ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Number of worker threads. */
+    private static final int NB_WORKERS    = 4;
+    /** Number of subfolders of each folder of the test tree. */
+    private static final int NB_SUBFOLDERS = 4;
+    /** Depth of the test tree. */
+    private static final int DEPTH         = 3;
+    /** Number of files in each folder of the test tree, more than a batch so that folders are split. */
+    private static final int NB_FILES      = ParallelDeleter.BATCH_SIZE + 10;
+
+
+
+    // - Helper methods ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Creates a test tree in a new temporary folder and returns the folder.
+     */
+    private static File createTree() throws IOException {
+        File root = File.createTempFile("ParallelDeleterTest", null);
+        root.delete();
+        createTree(root, DEPTH);
+
+        return root;
+    }
+
+    private static void createTree(File folder, int depth) throws IOException {
+        folder.mkdir();
+
+        for(int i = 0; i < NB_FILES; i++) {
+            FileOutputStream out = new FileOutputStream(new File(folder, "file" + i));
+            try {
+                out.write(i);
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        if(depth > 0)
+            for(int i = 0; i < NB_SUBFOLDERS; i++)
+                createTree(new File(folder, "folder" + i), depth - 1);
+    }
+
+    /**
+     * Deletes the given folder the way {@link DeleteJob} does when it is not given a {@link ParallelDeleter}.
+     */
+    private static void deleteSerially(AbstractFile file) throws IOException {
+        if(file.isDirectory() && !file.isSymlink())
+            for(AbstractFile child : file.ls())
+                deleteSerially(child);
+
+        file.delete();
+    }
+
+    /**
+     * A context that counts the files being deleted and fails the test on errors.
+     */
+    private static class CountingContext implements ParallelDeleter.Context {
+        private int nbFiles;
+
+        public boolean isInterrupted() {
+            return false;
+        }
+
+        public synchronized void fileDeleting(AbstractFile file) {
+            nbFiles++;
+        }
+
+        public boolean retry(AbstractFile file, boolean listing) {
+            assert false : "Unexpected error on " + file;
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of files and folders in the test tree, its root included.
+     */
+    private static int getTreeSize() {
+        int size = 0;
+        int nbFolders = 1;
+        for(int depth = 0; depth <= DEPTH; depth++) {
+            size += nbFolders * (NB_FILES + 1);
+            nbFolders *= NB_SUBFOLDERS;
+        }
+
+        return size;
+    }
+
+
+
+    // - Tests ---------------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure that a folder and all of its contents are deleted.
+     */
+    @Test
+    public void testDeleteFolder() throws IOException {
+        File             root;
+        CountingContext  context;
+        ParallelDeleter  deleter;
+
+        root    = createTree();
+        context = new CountingContext();
+        deleter = new ParallelDeleter(context, NB_WORKERS);
+        try {
+            assert deleter.deleteFolder(FileFactory.getFile(root.getAbsolutePath()));
+            assert !root.exists();
+            assert context.nbFiles == getTreeSize();
+        }
+        finally {
+            deleter.shutdown();
+        }
+    }
+
+    /**
+     * Makes sure that a folder whose contents could not be listed is not deleted when the error is skipped.
+     */
+    @Test
+    public void testSkip() throws IOException {
+        File             root;
+        ParallelDeleter  deleter;
+
+        root = File.createTempFile("ParallelDeleterTest", null);
+        root.delete();
+
+        deleter = new ParallelDeleter(new CountingContext() {
+                @Override
+                public boolean retry(AbstractFile file, boolean listing) {
+                    return false;
+                }
+            }, NB_WORKERS);
+        try {
+            // A folder that does not exist cannot be listed
+            assert !deleter.deleteFolder(FileFactory.getFile(root.getAbsolutePath()));
+        }
+        finally {
+            deleter.shutdown();
+        }
+    }
+
+    /**
+     * Makes sure that a deletion cancelled from the error dialog completes, although the workers have been shut down
+     * by the time the error is handled.
+     */
+    @Test
+    public void testCancel() throws IOException {
+        File                    root;
+        final ParallelDeleter[] deleter = new ParallelDeleter[1];
+        final boolean[]         interrupted = new boolean[1];
+
+        root = File.createTempFile("ParallelDeleterTest", null);
+        root.delete();
+
+        deleter[0] = new ParallelDeleter(new CountingContext() {
+                @Override
+                public boolean isInterrupted() {
+                    return interrupted[0];
+                }
+
+                @Override
+                public boolean retry(AbstractFile file, boolean listing) {
+                    // Cancelling the job interrupts it and stops the workers before the dialog returns
+                    interrupted[0] = true;
+                    deleter[0].shutdown();
+                    return false;
+                }
+            }, NB_WORKERS);
+        try {
+            // A folder that does not exist cannot be listed
+            assert !deleter[0].deleteFolder(FileFactory.getFile(root.getAbsolutePath()));
+        }
+        finally {
+            deleter[0].shutdown();
+        }
+    }
+
+    /**
+     * Compares the time taken to delete the test tree serially and with the {@link ParallelDeleter}. The result depends
+     * on the file system and is only reported, not asserted.
+     */
+    @Test(groups = "benchmark")
+    public void benchmark() throws IOException {
+        File             root;
+        long             serialTime;
+        long             parallelTime;
+        ParallelDeleter  deleter;
+
+        root       = createTree();
+        serialTime = System.currentTimeMillis();
+        deleteSerially(FileFactory.getFile(root.getAbsolutePath()));
+        serialTime = System.currentTimeMillis() - serialTime;
+        assert !root.exists();
+
+        root    = createTree();
+        deleter = new ParallelDeleter(new CountingContext(), NB_WORKERS);
+        try {
+            parallelTime = System.currentTimeMillis();
+            assert deleter.deleteFolder(FileFactory.getFile(root.getAbsolutePath()));
+            parallelTime = System.currentTimeMillis() - parallelTime;
+            assert !root.exists();
+        }
+        finally {
+            deleter.shutdown();
+        }
+
+        Reporter.log("Deleted " + getTreeSize() + " files: serial " + serialTime + "ms, "
+                     + NB_WORKERS + " workers " + parallelTime + "ms");
+    }
+}
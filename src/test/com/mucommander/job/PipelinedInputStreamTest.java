@@ -0,0 +1,156 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs tests on the {@link PipelinedInputStream} class.
+ */
+public class PipelinedInputStreamTest {
+    // - Test constants ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Size of the pipeline's buffers. */
+    private static final int    BUFFER_SIZE = 1000;
+    /** Number of buffers in the pipeline. */
+    private static final int    DEPTH       = 3;
+    /** Test data, spanning many buffers and not a multiple of the buffer size. */
+    private static final byte[] DATA        = new byte[BUFFER_SIZE*50 + 123];
+
+    static {
+        new Random(0).nextBytes(DATA);
+    }
+
+
+
+    // - Helper methods ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Reads the given stream until its end, using reads of varying sizes.
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out    = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[BUFFER_SIZE*2];
+        int                   length = 1;
+        int                   nbRead;
+
+        while((nbRead = in.read(buffer, 0, length)) != -1) {
+            out.write(buffer, 0, nbRead);
+            length = (length*7 + 13) % buffer.length + 1;
+        }
+
+        return out.toByteArray();
+    }
+
+
+
+    // - Tests ---------------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure that the data read from the pipeline matches the data of the underlying stream.
+     */
+    @Test
+    public void testRead() throws IOException {
+        PipelinedInputStream in;
+
+        in = new PipelinedInputStream(new ByteArrayInputStream(DATA), BUFFER_SIZE, DEPTH);
+        try {
+            assert Arrays.equals(readAll(in), DATA);
+            assert in.read() == -1;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Makes sure that a closed stream cannot be read.
+     */
+    @Test(expectedExceptions = IOException.class)
+    public void testClosed() throws IOException {
+        PipelinedInputStream in;
+
+        in = new PipelinedInputStream(new ByteArrayInputStream(DATA), BUFFER_SIZE, DEPTH);
+        in.close();
+        in.read();
+    }
+
+    /**
+     * Makes sure that an error of the underlying stream is reported once the bytes that precede it have been read.
+     */
+    @Test
+    public void testError() throws IOException {
+        PipelinedInputStream in;
+        int                  nbRead;
+
+        in = new PipelinedInputStream(new InputStream() {
+                private int pos;
+
+                @Override
+                public int read() throws IOException {
+                    if(pos == BUFFER_SIZE*2 + 10)
+                        throw new IOException("test");
+                    return DATA[pos++] & 0xFF;
+                }
+            }, BUFFER_SIZE, DEPTH);
+
+        nbRead = 0;
+        try {
+            while(in.read() != -1)
+                nbRead++;
+            assert false;
+        }
+        catch(IOException e) {
+            assert nbRead == BUFFER_SIZE*2 + 10;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Makes sure that an unchecked exception thrown by the underlying stream is thrown again to the consumer, rather
+     * than leaving it waiting for data that will never come.
+     */
+    @Test(expectedExceptions = IllegalStateException.class, timeOut = 10000)
+    public void testUncheckedError() throws IOException {
+        PipelinedInputStream in;
+
+        in = new PipelinedInputStream(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IllegalStateException("test");
+                }
+            }, BUFFER_SIZE, DEPTH);
+
+        try {
+            in.read();
+        }
+        finally {
+            in.close();
+        }
+    }
+}
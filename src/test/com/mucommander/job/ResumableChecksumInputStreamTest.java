@@ -0,0 +1,104 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs tests on the {@link ResumableChecksumInputStream} class.
+ */
+public class ResumableChecksumInputStreamTest {
+    // - Test constants ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Digest algorithm used by the tests, must be cloneable. */
+    private static final String ALGORITHM = "MD5";
+    /** Test data, spanning a few checkpoints. */
+    private static final byte[] DATA      = new byte[(int)(ResumableChecksumInputStream.CHECKPOINT_INTERVAL*2 + 12345)];
+
+    static {
+        new Random(0).nextBytes(DATA);
+    }
+
+
+
+    // - Helper methods ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Reads the given stream until the given number of bytes have been read or the end of the stream is reached.
+     */
+    private static void read(InputStream in, long nbBytes) throws IOException {
+        byte[] buffer = new byte[10000];
+        int    nbRead;
+
+        while(nbBytes>0 && (nbRead = in.read(buffer, 0, (int)Math.min(buffer.length, nbBytes)))!=-1)
+            nbBytes -= nbRead;
+    }
+
+
+
+    // - Tests ---------------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure that a digest resumed from a checkpoint matches the digest of the whole data.
+     */
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        ResumableChecksumInputStream in;
+        ResumableChecksumInputStream.Checkpoint checkpoint;
+        long interruptedAt;
+
+        // Interrupts the first 'transfer' after the second checkpoint.
+        interruptedAt = ResumableChecksumInputStream.CHECKPOINT_INTERVAL*2 + 100;
+        in = new ResumableChecksumInputStream(new ByteArrayInputStream(DATA), null, MessageDigest.getInstance(ALGORITHM), 0);
+        read(in, interruptedAt);
+
+        checkpoint = in.getCheckpoint(interruptedAt);
+        assert checkpoint != null;
+        assert checkpoint.offset == ResumableChecksumInputStream.CHECKPOINT_INTERVAL*2;
+        assert in.getCheckpoint(ResumableChecksumInputStream.CHECKPOINT_INTERVAL - 1) == null;
+
+        // Resumes the digest from the checkpoint.
+        in = new ResumableChecksumInputStream(new ByteArrayInputStream(DATA, (int)checkpoint.offset, DATA.length - (int)checkpoint.offset), null, checkpoint);
+        read(in, Long.MAX_VALUE);
+
+        assert Arrays.equals(in.getDigest(), MessageDigest.getInstance(ALGORITHM).digest(DATA));
+    }
+
+    /**
+     * Makes sure that skipped bytes are digested.
+     */
+    @Test
+    public void testSkip() throws Exception {
+        ResumableChecksumInputStream in;
+
+        in = new ResumableChecksumInputStream(new ByteArrayInputStream(DATA), null, MessageDigest.getInstance(ALGORITHM), 0);
+        assert in.skip(1000) == 1000;
+        read(in, Long.MAX_VALUE);
+
+        assert in.getPosition() == DATA.length;
+        assert Arrays.equals(in.getDigest(), MessageDigest.getInstance(ALGORITHM).digest(DATA));
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.util.FileComparator;
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs tests on the {@link FileSorter} class, and compares its speed with a sort using {@link FileComparator}.
+ */
+public class FileSorterTest {
+    // - Test constants ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Number of files of the folder sorted by several threads, larger than the threshold of the parallel sort. */
+    private static final int   LARGE_FOLDER_SIZE   = 50000;
+    /** Number of files of the folder sorted with every criterion, larger than the threshold of the parallel sort. */
+    private static final int   EQUIVALENCE_FOLDER_SIZE = 20000;
+    /** Sort criteria of {@link FileComparator}. */
+    private static final int[] CRITERIA            = {FileComparator.NAME_CRITERION, FileComparator.SIZE_CRITERION,
+                                                      FileComparator.DATE_CRITERION, FileComparator.EXTENSION_CRITERION,
+                                                      FileComparator.PERMISSIONS_CRITERION, FileComparator.OWNER_CRITERION,
+                                                      FileComparator.GROUP_CRITERION};
+    /** Permissions of the random files. */
+    private static final int[] PERMISSIONS         = {TestFile.DEFAULT_PERMISSIONS, 420, 493, 511};
+    /** Owners and groups of the random files, which differ in case only for some of them. */
+    private static final String[] USERS            = {"user", "User", "root", "staff", "admin"};
+    /** Number of files of the folders the sort speed is measured on. */
+    private static final int[] BENCHMARK_SIZES     = {10000, 100000};
+
+
+
+    // - Helper methods ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the names of the given files, in the given order.
+     */
+    private static String[] getNames(AbstractFile[] files, int[] order) {
+        String[] names = new String[order.length];
+        for(int i = 0; i < order.length; i++)
+            names[i] = files[order[i]].getName();
+
+        return names;
+    }
+
+    /**
+     * Creates a folder of files with random names, sizes, dates, permissions, owners and groups. Some names differ
+     * in case only, some sizes are unknown and many files share the same attribute, so that ties are compared.
+     */
+    private static AbstractFile[] createRandomFiles(int nbFiles) throws MalformedURLException {
+        Random         random = new Random(nbFiles);
+        AbstractFile[] files  = new AbstractFile[nbFiles];
+
+        for(int i = 0; i < nbFiles; i++) {
+            String name = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            if(i % 3 == 0)
+                name = name.toUpperCase();
+            files[i] = new TestFile(name + (i % 7 == 0 ? "" : ".ext" + i % 5 + (i % 11 == 0 ? "X" : "")),
+                                    i % 10 == 0, i % 13 == 0 ? -1 : random.nextInt(1000), random.nextInt(1000),
+                                    PERMISSIONS[random.nextInt(PERMISSIONS.length)],
+                                    USERS[random.nextInt(USERS.length)], USERS[random.nextInt(USERS.length)]);
+        }
+
+        return files;
+    }
+
+
+
+    // - Tests ---------------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure that files are sorted by name, ignoring case, with folders first.
+     */
+    @Test
+    public void testSortByName() throws MalformedURLException {
+        AbstractFile[] files = {
+            new TestFile("b", false, 0, 0),
+            new TestFile("A", false, 0, 0),
+            new TestFile("z", true, 0, 0),
+            new TestFile("C", true, 0, 0)
+        };
+
+        FileSorter sorter = new FileSorter(files, FileComparator.NAME_CRITERION, true, true, null);
+        assert Arrays.equals(new String[] {"C", "z", "A", "b"}, getNames(files, sorter.sort()));
+
+        sorter = new FileSorter(files, FileComparator.NAME_CRITERION, false, true, sorter);
+        assert Arrays.equals(new String[] {"z", "C", "b", "A"}, getNames(files, sorter.sort()));
+
+        sorter = new FileSorter(files, FileComparator.NAME_CRITERION, true, false, sorter);
+        assert Arrays.equals(new String[] {"A", "b", "C", "z"}, getNames(files, sorter.sort()));
+    }
+
+    /**
+     * Makes sure that files are sorted by size, directories having a size of 0 and unknown sizes coming last, and
+     * that files with the same size are sorted by name.
+     */
+    @Test
+    public void testSortBySize() throws MalformedURLException {
+        AbstractFile[] files = {
+            new TestFile("unknown", false, -1, 0),
+            new TestFile("large", false, 100, 0),
+            new TestFile("folder", true, 50, 0),
+            new TestFile("small2", false, 10, 0),
+            new TestFile("small1", false, 10, 0)
+        };
+
+        FileSorter sorter = new FileSorter(files, FileComparator.SIZE_CRITERION, true, false, null);
+        assert Arrays.equals(new String[] {"folder", "small1", "small2", "large", "unknown"}, getNames(files, sorter.sort()));
+    }
+
+    /**
+     * Makes sure that files that compare equal keep their order.
+     */
+    @Test
+    public void testStable() throws MalformedURLException {
+        AbstractFile[] files = new AbstractFile[100];
+        for(int i = 0; i < files.length; i++)
+            files[i] = new TestFile(i % 2 == 0 ? "even" : "odd", false, 0, 0);
+
+        int[] order = new FileSorter(files, FileComparator.NAME_CRITERION, false, true, null).sort();
+        for(int i = 1; i < order.length; i++)
+            assert files[order[i - 1]].getName().equals(files[order[i]].getName()) ? order[i - 1] < order[i] : i == files.length / 2;
+    }
+
+    /**
+     * Makes sure that a large folder, which is sorted by several threads, is entirely sorted.
+     */
+    @Test
+    public void testLargeFolder() throws MalformedURLException {
+        AbstractFile[] files  = createRandomFiles(LARGE_FOLDER_SIZE);
+        FileSorter     sorter = new FileSorter(files, FileComparator.EXTENSION_CRITERION, true, true, null);
+        int[]          order  = sorter.sort();
+
+        for(int i = 1; i < order.length; i++)
+            assert sorter.compare(order[i - 1], order[i]) <= 0;
+    }
+
+    /**
+     * Makes sure that a folder is sorted in the same order by a {@link FileSorter} and by a {@link FileComparator},
+     * for every criterion, in both directions, with and without folders first.
+     */
+    @Test
+    public void testSameOrderAsComparator() throws MalformedURLException {
+        AbstractFile[] files = createRandomFiles(EQUIVALENCE_FOLDER_SIZE);
+
+        for(int criterion : CRITERIA) {
+            for(boolean ascending : new boolean[] {true, false}) {
+                for(boolean foldersFirst : new boolean[] {true, false}) {
+                    AbstractFile[] sortedFiles = files.clone();
+                    Arrays.sort(sortedFiles, new FileComparator(criterion, ascending, foldersFirst));
+
+                    int[] order = new FileSorter(files, criterion, ascending, foldersFirst, null).sort();
+                    for(int i = 0; i < order.length; i++)
+                        assert files[order[i]] == sortedFiles[i] : "criterion " + criterion + ", ascending " + ascending
+                                + ", folders first " + foldersFirst + ": " + files[order[i]].getName()
+                                + " sorted at " + i + " instead of " + sortedFiles[i].getName();
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the time taken to sort folders of increasing sizes with a {@link FileSorter} and with a
+     * {@link FileComparator}. The result depends on the computer and is only reported, not asserted.
+     */
+    @Test(groups = "benchmark")
+    public void benchmark() throws MalformedURLException {
+        for(int size : BENCHMARK_SIZES) {
+            AbstractFile[] files = createRandomFiles(size);
+
+            long comparatorTime = System.currentTimeMillis();
+            AbstractFile[] sortedFiles = files.clone();
+            Arrays.sort(sortedFiles, new FileComparator(FileComparator.NAME_CRITERION, true, true));
+            comparatorTime = System.currentTimeMillis() - comparatorTime;
+
+            long sorterTime = System.currentTimeMillis();
+            new FileSorter(files, FileComparator.NAME_CRITERION, true, true, null).sort();
+            sorterTime = System.currentTimeMillis() - sorterTime;
+
+            Reporter.log("Sorted " + size + " files: FileComparator " + comparatorTime + "ms, FileSorter " + sorterTime + "ms");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import com.mucommander.commons.file.AbstractFile;
+import org.testng.annotations.Test;
+
+import java.net.MalformedURLException;
+import java.util.Arrays;
+
+/**
+ * Runs tests on the way {@link FileTableModel} updates its rows, marked files and cached files when files are added to
+ * the current folder or when the current folder is refreshed.
+ */
+public class FileTableModelTest {
+    // - Test constants ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Permissions of the test files: rw------- */
+    private static final int PRIVATE_PERMISSIONS = 384;
+    /** Permissions of the test files: rw-r--r-- */
+    private static final int PUBLIC_PERMISSIONS  = 420;
+
+
+
+    // - Helper methods ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Returns a regular file with the given name and size, and default date, permissions and owner.
+     */
+    private static TestFile createFile(String name, long size) throws MalformedURLException {
+        return new TestFile(name, false, size, 1000, PRIVATE_PERMISSIONS, "user", "staff");
+    }
+
+    /**
+     * Returns a model whose current folder contains the given files, and whose rows are sorted by name.
+     */
+    private static FileTableModel createModel(AbstractFile... files) throws MalformedURLException {
+        FileTableModel model = new FileTableModel();
+        model.setSortInfo(new SortInfo());
+        model.setCurrentFolder(new TestFile("folder", true, 0, 0, PRIVATE_PERMISSIONS, "user", "staff"), files.clone());
+        model.sortRows();
+
+        return model;
+    }
+
+    /**
+     * Returns the names of the files displayed by the rows of the given model, in the order of the rows.
+     */
+    private static String[] getRowNames(FileTableModel model) {
+        String[] names = new String[model.getRowCount()];
+        for(int row = 0; row < names.length; row++)
+            names[row] = model.getFileAtRow(row).getName();
+
+        return names;
+    }
+
+
+
+    // - Tests ---------------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure that refreshing the current folder adds, removes and replaces rows, keeps unchanged files and their
+     * cached attributes, and keeps marked files marked.
+     */
+    @Test
+    public void testRefresh() throws MalformedURLException {
+        FileTableModel model = createModel(createFile("d", 1), createFile("b", 2), createFile("a", 4), createFile("c", 8));
+        assert Arrays.equals(new String[] {"a", "b", "c", "d"}, getRowNames(model));
+
+        AbstractFile cachedA = model.getCachedFileAtRow(0);
+        AbstractFile cachedB = model.getCachedFileAtRow(1);
+        model.setFileMarked(createFile("b", 2), true);
+        model.setFileMarked(createFile("c", 8), true);
+        model.setFileMarked(createFile("d", 1), true);
+        assert model.getNbMarkedFiles() == 3;
+        assert model.getTotalMarkedSize() == 11;
+
+        // 'a' and 'd' are unchanged, 'b' is modified, 'c' is removed and 'e' is added
+        boolean changed = model.refreshCurrentFolder(new TestFile("folder", true, 0, 0, PRIVATE_PERMISSIONS, "user", "staff"),
+                                                     new AbstractFile[] {createFile("e", 16), createFile("a", 4), createFile("b", 32), createFile("d", 1)});
+        assert changed;
+        assert Arrays.equals(new String[] {"a", "b", "d", "e"}, getRowNames(model));
+
+        assert model.getCachedFileAtRow(0) == cachedA;
+        assert model.getCachedFileAtRow(1) != cachedB;
+        assert model.getCachedFileAtRow(1).getSize() == 32;
+
+        assert !model.isRowMarked(0) && model.isRowMarked(1) && model.isRowMarked(2) && !model.isRowMarked(3);
+        assert model.getNbMarkedFiles() == 2;
+        assert model.getTotalMarkedSize() == 33;
+
+        assert model.getFileRow(createFile("e", 16)) == 3;
+        assert model.getFileRow(createFile("c", 8)) == -1;
+    }
+
+    /**
+     * Makes sure that refreshing the current folder with the same files leaves the model unchanged.
+     */
+    @Test
+    public void testRefreshUnchanged() throws MalformedURLException {
+        FileTableModel model = createModel(createFile("b", 2), createFile("a", 4));
+        AbstractFile cachedA = model.getCachedFileAtRow(0);
+        model.setRowMarked(1, true);
+
+        assert !model.refreshCurrentFolder(new TestFile("folder", true, 0, 0, PRIVATE_PERMISSIONS, "user", "staff"),
+                                           new AbstractFile[] {createFile("a", 4), createFile("b", 2)});
+        assert Arrays.equals(new String[] {"a", "b"}, getRowNames(model));
+        assert model.getCachedFileAtRow(0) == cachedA;
+        assert model.isRowMarked(1);
+        assert model.getNbMarkedFiles() == 1;
+    }
+
+    /**
+     * Makes sure that a displayed file whose permissions or owner have changed is replaced, so that its cached
+     * attributes are not displayed.
+     */
+    @Test
+    public void testRefreshAttributes() throws MalformedURLException {
+        FileTableModel model = createModel(createFile("a", 4), createFile("b", 2));
+        // Formats the cells of the files, as when they are displayed
+        assert model.getValueAt(0, Column.PERMISSIONS.ordinal()) != null;
+        assert model.getValueAt(1, Column.OWNER.ordinal()) != null;
+        AbstractFile cachedA = model.getCachedFileAtRow(0);
+        AbstractFile cachedB = model.getCachedFileAtRow(1);
+        assert cachedA.getPermissions().getIntValue() == PRIVATE_PERMISSIONS;
+
+        assert model.refreshCurrentFolder(new TestFile("folder", true, 0, 0, PRIVATE_PERMISSIONS, "user", "staff"),
+                                          new AbstractFile[] {new TestFile("a", false, 4, 1000, PUBLIC_PERMISSIONS, "user", "staff"),
+                                                              new TestFile("b", false, 2, 1000, PRIVATE_PERMISSIONS, "root", "staff")});
+
+        assert model.getCachedFileAtRow(0) != cachedA;
+        assert model.getCachedFileAtRow(0).getPermissions().getIntValue() == PUBLIC_PERMISSIONS;
+        assert model.getCachedFileAtRow(1) != cachedB;
+        assert "root".equals(model.getCachedFileAtRow(1).getOwner());
+    }
+
+    /**
+     * Makes sure that files whose attributes have not been fetched are considered unchanged without fetching the
+     * attributes of the new files, and that their attributes are then fetched from the new files.
+     */
+    @Test
+    public void testRefreshUnfetched() throws MalformedURLException {
+        FileTableModel model = createModel(createFile("a", 4), createFile("b", 2));
+
+        assert !model.refreshCurrentFolder(new TestFile("folder", true, 0, 0, PRIVATE_PERMISSIONS, "user", "staff"),
+                                           new AbstractFile[] {createFile("a", 8), createFile("b", 2)});
+        assert Arrays.equals(new String[] {"a", "b"}, getRowNames(model));
+        assert model.getCachedFileAtRow(0).getSize() == 8;
+        assert model.getValueAt(0, Column.SIZE.ordinal()) != null;
+    }
+
+    /**
+     * Makes sure that files added to the current folder are merged with the current rows in sorted order, and that
+     * marked files and file lookups are preserved.
+     */
+    @Test
+    public void testAddFiles() throws MalformedURLException {
+        FileTableModel model = createModel(createFile("f", 1), createFile("b", 2), createFile("d", 4));
+        model.setFileMarked(createFile("d", 4), true);
+        // Builds the index of the files by name, which is then updated by addFiles
+        assert model.getFileRow(createFile("d", 4)) == 2;
+
+        model.addFiles(new AbstractFile[] {createFile("e", 8), createFile("a", 16), createFile("g", 32)});
+        assert Arrays.equals(new String[] {"a", "b", "d", "e", "f", "g"}, getRowNames(model));
+
+        assert model.isRowMarked(2);
+        assert model.getNbMarkedFiles() == 1;
+        assert model.getTotalMarkedSize() == 4;
+
+        assert model.getFileRow(createFile("a", 16)) == 0;
+        assert model.getFileRow(createFile("d", 4)) == 2;
+        assert model.getFileRow(createFile("g", 32)) == 5;
+        assert model.getFileRow(createFile("h", 0)) == -1;
+
+        model.addFiles(new AbstractFile[] {createFile("c", 64)});
+        assert Arrays.equals(new String[] {"a", "b", "c", "d", "e", "f", "g"}, getRowNames(model));
+        assert model.getFileRow(createFile("f", 1)) == 5;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.DummyFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FilePermissions;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.SimpleFilePermissions;
+
+import java.net.MalformedURLException;
+
+/**
+ * A file of the temporary folder whose attributes are set by the test, used by the tests of the file table classes.
+ */
+class TestFile extends DummyFile {
+    /** Permissions of the files whose permissions are not specified: rw------- */
+    static final int DEFAULT_PERMISSIONS = 384;
+
+    private final boolean directory;
+    private final long    size;
+    private final long    date;
+    private final int     permissions;
+    private final String  owner;
+    private final String  group;
+
+    /**
+     * Creates a file with the given name, type, size and date, and default permissions, owner and group.
+     */
+    TestFile(String name, boolean directory, long size, long date) throws MalformedURLException {
+        this(name, directory, size, date, DEFAULT_PERMISSIONS, "user", "staff");
+    }
+
+    /**
+     * Creates a file with the given attributes.
+     */
+    TestFile(String name, boolean directory, long size, long date, int permissions, String owner, String group) throws MalformedURLException {
+        super(FileURL.getFileURL(FileFactory.getTemporaryFolder() + name));
+        this.directory   = directory;
+        this.size        = size;
+        this.date        = date;
+        this.permissions = permissions;
+        this.owner       = owner;
+        this.group       = group;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public long getDate() {
+        return date;
+    }
+
+    @Override
+    public FilePermissions getPermissions() {
+        return new SimpleFilePermissions(permissions, 511);
+    }
+
+    @Override
+    public String getOwner() {
+        return owner;
+    }
+
+    @Override
+    public String getGroup() {
+        return group;
+    }
+
+    @Override
+    public AbstractFile getParent() {
+        return null;
+    }
+}
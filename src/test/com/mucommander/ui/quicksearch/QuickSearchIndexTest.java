@@ -0,0 +1,192 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.quicksearch;
+
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+/**
+ * Runs tests on the {@link QuickSearchIndex} class, and measures the time it takes to search large folders.
+ */
+public class QuickSearchIndexTest {
+    // - Test constants ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Number of items of the indexes the search speed is measured on. */
+    private static final int[]  BENCHMARK_SIZES  = {10000, 100000};
+    /** Characters typed one after the other in the benchmark. */
+    private static final String BENCHMARK_SEARCH = "a1b2";
+
+
+
+    // - Helper methods ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the index of the given item in the given items.
+     */
+    private static int indexOf(String[] items, String item) {
+        for(int i = 0; i < items.length; i++)
+            if(items[i].equals(item))
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * Creates random file names.
+     */
+    private static String[] createRandomItems(int nbItems) {
+        Random   random = new Random(nbItems);
+        String[] items  = new String[nbItems];
+
+        for(int i = 0; i < nbItems; i++)
+            items[i] = Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + (i % 7 == 0 ? "" : ".ext" + i % 5);
+
+        return items;
+    }
+
+
+
+    // - Tests ---------------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure that items match when they contain the characters of the search string in order, ignoring case.
+     */
+    @Test
+    public void testMatches() {
+        String[]         items = {"README.txt", "readme", "Makefile", "rd.exe", "dear"};
+        QuickSearchIndex index = new QuickSearchIndex(items);
+
+        assert index.getNbMatches() == items.length;
+
+        index.setSearchString("rd");
+        assert index.matches(0) && index.matches(1) && !index.matches(2) && index.matches(3) && !index.matches(4);
+        assert index.getNbMatches() == 3;
+
+        index.setSearchString("RDT");
+        assert index.matches(0) && !index.matches(1) && !index.matches(3);
+
+        index.setSearchString("xyz");
+        assert index.getNbMatches() == 0;
+        assert index.getMatch(0, true, true) == -1;
+
+        index.setSearchString("");
+        assert index.getNbMatches() == items.length;
+    }
+
+    /**
+     * Makes sure that the matches are the same whether the search string is typed, corrected or set at once.
+     */
+    @Test
+    public void testNarrowing() {
+        String[]         items   = createRandomItems(1000);
+        QuickSearchIndex typed   = new QuickSearchIndex(items);
+
+        typed.setSearchString("a");
+        typed.setSearchString("a1");
+        typed.setSearchString("a1x");
+        typed.setSearchString("a1");
+        typed.setSearchString("a1e");
+
+        QuickSearchIndex direct = new QuickSearchIndex(items);
+        direct.setSearchString("A1E");
+
+        assert typed.getNbMatches() == direct.getNbMatches();
+        for(int i = 0; i < items.length; i++)
+            assert typed.matches(i) == direct.matches(i);
+    }
+
+    /**
+     * Makes sure that prefixes rank before substrings, substrings before scattered characters, and that scattered
+     * characters rank better at the beginning of words.
+     */
+    @Test
+    public void testRanking() {
+        String[]         items = {"xfolder", "my_file_list.txt", "mfl", "Mfl.txt", "mfl.TXT", "amflb"};
+        QuickSearchIndex index = new QuickSearchIndex(items);
+
+        index.setSearchString("mfl");
+        assert index.getMatch(0, true, true) == indexOf(items, "mfl");
+        assert index.getMatch(indexOf(items, "mfl") + 1, true, true) == indexOf(items, "mfl.TXT");
+
+        index.setSearchString("Mfl");
+        assert index.getMatch(0, true, true) == indexOf(items, "Mfl.txt");
+
+        index.setSearchString("fl");
+        assert index.getMatch(0, true, true) == indexOf(items, "mfl");
+
+        assert QuickSearchIndex.getScore("foo_bar", "foo_bar", "fb", "fb") > QuickSearchIndex.getScore("foobar", "foobar", "fb", "fb");
+        assert QuickSearchIndex.getScore("fooBar", "foobar", "fb", "fb") > QuickSearchIndex.getScore("foobar", "foobar", "fb", "fb");
+        assert QuickSearchIndex.getScore("foobar", "foobar", "fb", "fb") > QuickSearchIndex.getScore("fooxxbar", "fooxxbar", "fb", "fb");
+        assert QuickSearchIndex.getScore("foobar", "foobar", "xyz", "xyz") == -1;
+
+        String[] fuzzyItems = {"foobar", "fooxxbar", "foo_bar"};
+        index = new QuickSearchIndex(fuzzyItems);
+        index.setSearchString("fb");
+        assert index.getMatch(0, true, true) == indexOf(fuzzyItems, "foo_bar");
+        assert index.getScore(indexOf(fuzzyItems, "foo_bar")) > index.getScore(indexOf(fuzzyItems, "foobar"));
+
+        index.setSearchString("fxb");
+        assert index.getScore(indexOf(fuzzyItems, "foobar")) == -1;
+    }
+
+    /**
+     * Makes sure that the next and previous matches are found from the given index.
+     */
+    @Test
+    public void testNextMatch() {
+        String[]         items = {"a1", "b", "a2", "c", "a3"};
+        QuickSearchIndex index = new QuickSearchIndex(items);
+
+        index.setSearchString("a");
+        assert index.getMatch(1, true, false) == 2;
+        assert index.getMatch(2, true, false) == 2;
+        assert index.getMatch(3, false, false) == 2;
+        assert index.getMatch(-1, true, false) == 0;
+        assert index.getMatch(-1, false, false) == -1;
+        assert index.getMatch(5, true, false) == -1;
+        assert index.getMatch(5, false, false) == 4;
+        assert index.getMatch(1, true, true) == 2;
+    }
+
+    /**
+     * Measures the time taken to type a search string character by character in indexes of increasing sizes.
+     * The result depends on the computer and is only reported, not asserted.
+     */
+    @Test(groups = "benchmark")
+    public void benchmark() {
+        for(int size : BENCHMARK_SIZES) {
+            String[] items = createRandomItems(size);
+
+            long indexTime = System.currentTimeMillis();
+            QuickSearchIndex index = new QuickSearchIndex(items);
+            indexTime = System.currentTimeMillis() - indexTime;
+
+            long searchTime = System.currentTimeMillis();
+            for(int i = 1; i <= BENCHMARK_SEARCH.length(); i++) {
+                index.setSearchString(BENCHMARK_SEARCH.substring(0, i));
+                index.getMatch(0, true, true);
+            }
+            searchTime = System.currentTimeMillis() - searchTime;
+
+            Reporter.log("Searched " + size + " items: indexing " + indexTime + "ms, typing " + searchTime + "ms");
+        }
+    }
+}